@@ -6,4 +6,5 @@ public class HttpHeaders {
     public static final String GLOBAL_LATEST_OFFSET = "Global-Latest-Offset";
     public static final String PIPE_STATE = "Pipe-State";
     public static final String X_CONTENT_ENCODING = "X-Content-Encoding";
+    public static final String X_CHECKSUM = "X-Checksum";
 }
@@ -2,6 +2,7 @@ package com.tesco.aqueduct.pipe.api;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -12,7 +13,10 @@ import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Helper to use one way of parsing Message across the pipe projects
@@ -56,6 +60,43 @@ public class JsonHelper {
         }
     }
 
+    /**
+     * Parses a json array of messages while it is read from the stream, handing them to the consumer in chunks of at
+     * most chunkSize messages.
+     *
+     * @return the number of messages parsed
+     */
+    public static long messagesFromJsonArray(
+        final InputStream json,
+        final int chunkSize,
+        final Consumer<List<Message>> consumer
+    ) {
+        try (JsonParser parser = MAPPER.getFactory().createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected a json array of messages");
+            }
+
+            long count = 0;
+            List<Message> chunk = new ArrayList<>(chunkSize);
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                chunk.add(MAPPER.readValue(parser, Message.class));
+                count++;
+
+                if (chunk.size() >= chunkSize) {
+                    consumer.accept(chunk);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+
+            if (!chunk.isEmpty()) {
+                consumer.accept(chunk);
+            }
+            return count;
+        } catch (final IOException ioException) {
+            throw new RuntimeException("IO Error while mapping stream to Messages", ioException);
+        }
+    }
+
     public static String toJson(final Object msg) throws IOException {
         return MAPPER.writeValueAsString(msg);
     }
@@ -2,9 +2,33 @@ package com.tesco.aqueduct.pipe.api;
 
 import java.util.List;
 import java.util.OptionalLong;
+import java.util.stream.Collectors;
 
 public interface Reader {
     MessageResults read(List<String> types, long offset, String locationUuid);
+
+    /**
+     * Reads like {@link #read(List, long, String)} but never returns messages at or above toOffset.
+     */
+    default MessageResults readRange(List<String> types, long offset, long toOffset, String locationUuid) {
+        final MessageResults results = read(types, offset, locationUuid);
+        return new MessageResults(
+            results.getMessages().stream().filter(message -> message.getOffset() < toOffset).collect(Collectors.toList()),
+            results.getRetryAfterMs(),
+            results.getGlobalLatestOffset(),
+            results.getPipeState()
+        );
+    }
+
+    /**
+     * Reads the latest non deleted message per key and type up to upToOffset, or up to the global latest offset
+     * when that is lower, in offset order from the given offset. Replaying all pages of a snapshot gives the same
+     * state as replaying the pipe up to that offset. Readers that cannot compact the pipe do not support snapshots.
+     */
+    default MessageResults readSnapshot(List<String> types, long offset, long upToOffset, String locationUuid) {
+        throw new UnsupportedOperationException("Snapshots are not supported by " + getClass().getName());
+    }
+
     OptionalLong getOffset(OffsetName offsetName);
     PipeState getPipeState();
     default long getOffsetConsistencySum(long offset, List<String> targetUuids) {
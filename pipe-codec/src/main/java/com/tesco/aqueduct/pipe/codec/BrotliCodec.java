@@ -12,6 +12,7 @@ import javax.inject.Singleton;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 @Singleton
 public class BrotliCodec implements Codec {
@@ -83,6 +84,16 @@ public class BrotliCodec implements Codec {
         }
     }
 
+    @Override
+    public InputStream decode(InputStream input) {
+        try {
+            return new BrotliInputStream(input);
+        } catch (IOException ioException) {
+            LOG.error("Codec", "Error decoding stream.", ioException);
+            throw new PipeCodecException("Error decoding stream.", ioException);
+        }
+    }
+
     @Override
     public String getHeaderType() {
         return "br";
@@ -1,9 +1,16 @@
 package com.tesco.aqueduct.pipe.codec;
 
+import java.io.InputStream;
+
 public interface Codec {
     String getHeaderType();
 
     byte[] encode(byte[] input);
 
     byte[] decode(byte[] input);
+
+    /**
+     * Decodes lazily while the returned stream is read, so the decoded content is never held in memory as a whole.
+     */
+    InputStream decode(InputStream input);
 }
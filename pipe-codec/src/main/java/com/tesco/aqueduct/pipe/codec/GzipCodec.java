@@ -8,6 +8,7 @@ import javax.inject.Singleton;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -83,4 +84,14 @@ public class GzipCodec implements Codec {
             throw new PipeCodecException("Error encoding content", ioException);
         }
     }
+
+    @Override
+    public InputStream decode(InputStream input) {
+        try {
+            return new GZIPInputStream(input);
+        } catch (IOException ioException) {
+            LOG.error("Codec", "Error decoding stream", ioException);
+            throw new PipeCodecException("Error decoding stream", ioException);
+        }
+    }
 }
@@ -0,0 +1,218 @@
+package com.tesco.aqueduct.pipe.codec;
+
+import com.tesco.aqueduct.pipe.api.Message;
+import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Requires;
+import lombok.Value;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps brotli encoded pages as received from upstream, one file per page, so that a downstream read of the same
+ * types for the same location from the same offset can be sent from disk instead of being re-read and re-encoded.
+ *
+ * A page read from offset {@code from} holds the events from {@code firstOffset} to {@code lastOffset}, so it answers
+ * any read of the same types and location from an offset between {@code from} and {@code firstOffset}.
+ *
+ * Pages only hold events the node has written, so they have to be deleted whenever the node storage is reset. Pages
+ * left by a previous run are deleted on start up, the storage may have been recovered or replaced since.
+ */
+@Singleton
+@Requires(property = "pipe.page-store.directory")
+public class PageStore {
+
+    private static final PipeLogger LOG = new PipeLogger(LoggerFactory.getLogger(PageStore.class));
+    private static final String PAGE_SUFFIX = ".br";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final long maxSizeInBytes;
+    private final Map<String, NavigableMap<Long, Page>> pagesByKey = new HashMap<>();
+    private long sizeInBytes;
+
+    @Inject
+    public PageStore(
+        @Property(name = "pipe.page-store.directory") String directory,
+        @Property(name = "pipe.page-store.max-size-in-bytes", defaultValue = "536870912") long maxSizeInBytes
+    ) {
+        this.directory = Paths.get(directory);
+        this.maxSizeInBytes = maxSizeInBytes;
+
+        try {
+            Files.createDirectories(this.directory);
+            deleteFiles();
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    public void store(List<String> types, String location, long from, PageSummary summary, byte[] encodedPage) {
+        final String key = key(types, location);
+        final Path pagePath = directory.resolve(fileName(key, from, summary.getFirstOffset(), summary.getLastOffset()));
+        Path tempPath = null;
+
+        try {
+            tempPath = Files.createTempFile(directory, key, TEMP_SUFFIX);
+            Files.write(tempPath, encodedPage);
+
+            synchronized (this) {
+                Files.move(tempPath, pagePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+                final Page previous = pagesFor(key).put(from, new Page(pagePath, summary, encodedPage.length));
+                if (previous != null) {
+                    sizeInBytes -= previous.getSizeInBytes();
+                    if (!previous.getFile().equals(pagePath)) {
+                        deleteQuietly(previous.getFile());
+                    }
+                }
+                sizeInBytes += encodedPage.length;
+
+                evictOldestPages();
+            }
+        } catch (IOException exception) {
+            LOG.error("page store", "Failed to store page from offset " + from, exception);
+            if (tempPath != null) {
+                deleteQuietly(tempPath);
+            }
+        }
+    }
+
+    /**
+     * The page is opened while no page can be evicted, so it can be sent in full even if it is evicted meanwhile.
+     */
+    public synchronized Optional<OpenedPage> find(List<String> types, String location, long offset) {
+        final NavigableMap<Long, Page> pages = pagesByKey.get(key(types, location));
+        if (pages == null) {
+            return Optional.empty();
+        }
+
+        final Map.Entry<Long, Page> entry = pages.floorEntry(offset);
+        if (entry == null || offset > entry.getValue().getSummary().getFirstOffset()) {
+            return Optional.empty();
+        }
+
+        final Page page = entry.getValue();
+        try {
+            return Optional.of(new OpenedPage(page.getSummary(), Files.newInputStream(page.getFile()), page.getSizeInBytes()));
+        } catch (IOException exception) {
+            LOG.error("page store", "Failed to open " + page.getFile(), exception);
+            pages.remove(entry.getKey());
+            sizeInBytes -= page.getSizeInBytes();
+            return Optional.empty();
+        }
+    }
+
+    public synchronized void deleteAll() {
+        pagesByKey.values().forEach(pages -> pages.values().forEach(page -> deleteQuietly(page.getFile())));
+        pagesByKey.clear();
+        sizeInBytes = 0;
+        LOG.info("page store", "deleted all pages");
+    }
+
+    private void evictOldestPages() {
+        while (sizeInBytes > maxSizeInBytes) {
+            final Optional<NavigableMap<Long, Page>> oldest = pagesByKey.values().stream()
+                .filter(pages -> !pages.isEmpty())
+                .min(Comparator.comparingLong(pages -> pages.firstEntry().getValue().getSummary().getLastOffset()));
+
+            if (!oldest.isPresent()) {
+                return;
+            }
+
+            final Page page = oldest.get().pollFirstEntry().getValue();
+            sizeInBytes -= page.getSizeInBytes();
+            deleteQuietly(page.getFile());
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException exception) {
+            LOG.error("page store", "Failed to delete " + path, exception);
+        }
+    }
+
+    private NavigableMap<Long, Page> pagesFor(String key) {
+        return pagesByKey.computeIfAbsent(key, k -> new TreeMap<>());
+    }
+
+    private void deleteFiles() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            paths.collect(Collectors.toList()).forEach(this::deleteQuietly);
+        }
+    }
+
+    private static String fileName(String key, long from, long firstOffset, long lastOffset) {
+        return key + "_" + from + "_" + firstOffset + "_" + lastOffset + PAGE_SUFFIX;
+    }
+
+    // location and types are hashed so that any number of types fits in a file name
+    private static String key(List<String> types, String location) {
+        final String joinedTypes = types == null ? "" : types.stream().sorted().distinct().collect(Collectors.joining(","));
+
+        try {
+            final byte[] hash = MessageDigest.getInstance("SHA-256")
+                .digest((location + "|" + joinedTypes).getBytes(StandardCharsets.UTF_8));
+            final StringBuilder hex = new StringBuilder();
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    /**
+     * What a read answered from a page needs to know about its events, without decoding them.
+     */
+    @Value
+    public static class PageSummary {
+        long firstOffset;
+        long lastOffset;
+        ZonedDateTime firstCreated;
+        boolean locationGrouped;
+
+        public static PageSummary of(List<Message> messages) {
+            return new PageSummary(
+                messages.get(0).getOffset(),
+                messages.get(messages.size() - 1).getOffset(),
+                messages.get(0).getCreated(),
+                messages.stream().anyMatch(message -> message.getLocationGroup() != null)
+            );
+        }
+
+        public PageSummary followedBy(PageSummary next) {
+            return new PageSummary(firstOffset, next.lastOffset, firstCreated, locationGrouped || next.locationGrouped);
+        }
+    }
+
+    @Value
+    public static class OpenedPage {
+        PageSummary summary;
+        InputStream content;
+        long sizeInBytes;
+    }
+
+    @Value
+    private static class Page {
+        Path file;
+        PageSummary summary;
+        long sizeInBytes;
+    }
+}
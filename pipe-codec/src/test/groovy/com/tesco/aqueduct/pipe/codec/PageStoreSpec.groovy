@@ -0,0 +1,137 @@
+package com.tesco.aqueduct.pipe.codec
+
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.ZonedDateTime
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class PageStoreSpec extends Specification {
+
+    Path directory = Files.createTempDirectory("page-store")
+
+    def cleanup() {
+        directory.toFile().deleteDir()
+    }
+
+    def "a stored page answers reads of the same types and location from its offset up to its first event"() {
+        given:
+        def pageStore = new PageStore(directory.toString(), 1000)
+
+        when:
+        pageStore.store(["type-b", "type-a"], "location", 10, summary(12, 20), "page".bytes)
+
+        then:
+        pageStore.find(["type-a", "type-b"], "location", offset).map { it.content.text } == expected
+
+        where:
+        offset | expected
+        9      | Optional.empty()
+        10     | Optional.of("page")
+        12     | Optional.of("page")
+        13     | Optional.empty()
+    }
+
+    def "pages are kept per set of types and location"() {
+        given:
+        def pageStore = new PageStore(directory.toString(), 1000)
+        pageStore.store(["type-a"], "location", 10, summary(10, 20), "page".bytes)
+
+        expect:
+        !pageStore.find(["type-b"], "location", 10).isPresent()
+        !pageStore.find(null, "location", 10).isPresent()
+        !pageStore.find(["type-a"], "other-location", 10).isPresent()
+    }
+
+    def "a found page carries the summary of its events"() {
+        given:
+        def pageStore = new PageStore(directory.toString(), 1000)
+        def summary = new PageStore.PageSummary(10, 20, ZonedDateTime.parse("2000-12-01T10:00:00Z"), true)
+        pageStore.store(["type-a"], "location", 10, summary, "page".bytes)
+
+        when:
+        def page = pageStore.find(["type-a"], "location", 10).get()
+
+        then:
+        page.summary == summary
+        page.sizeInBytes == 4
+    }
+
+    def "pages left by a previous run are deleted on start up"() {
+        given:
+        new PageStore(directory.toString(), 1000).store(null, "location", 10, summary(10, 20), "page".bytes)
+
+        when:
+        def pageStore = new PageStore(directory.toString(), 1000)
+
+        then:
+        !pageStore.find([], "location", 10).isPresent()
+        directory.toFile().list().length == 0
+    }
+
+    def "oldest pages are evicted once the store is over its size"() {
+        given:
+        def pageStore = new PageStore(directory.toString(), 10)
+
+        when:
+        pageStore.store(["type-a"], "location", 1, summary(1, 5), "page1".bytes)
+        pageStore.store(["type-b"], "location", 6, summary(6, 10), "page2".bytes)
+        pageStore.store(["type-a"], "location", 11, summary(11, 15), "page3".bytes)
+
+        then:
+        !pageStore.find(["type-a"], "location", 1).isPresent()
+        pageStore.find(["type-b"], "location", 6).isPresent()
+        pageStore.find(["type-a"], "location", 11).isPresent()
+        directory.toFile().list().length == 2
+    }
+
+    def "a page found before it is evicted can still be read in full"() {
+        given:
+        def pageStore = new PageStore(directory.toString(), 10)
+        pageStore.store(["type-a"], "location", 1, summary(1, 5), "page1".bytes)
+
+        when:
+        def page = pageStore.find(["type-a"], "location", 1).get()
+        pageStore.store(["type-a"], "location", 6, summary(6, 10), "page2".bytes)
+        pageStore.store(["type-a"], "location", 11, summary(11, 15), "page3".bytes)
+
+        then:
+        !pageStore.find(["type-a"], "location", 1).isPresent()
+        page.content.text == "page1"
+    }
+
+    def "concurrent stores keep the store within its size"() {
+        given:
+        def pageStore = new PageStore(directory.toString(), 50)
+        def executor = Executors.newFixedThreadPool(8)
+
+        when:
+        (1..200).each { offset ->
+            executor.submit { pageStore.store(["type-a"], "location-" + (offset % 4), offset, summary(offset, offset), "page-data".bytes) }
+        }
+        executor.shutdown()
+        executor.awaitTermination(10, TimeUnit.SECONDS)
+
+        then:
+        directory.toFile().listFiles().sum { it.length() } <= 50
+    }
+
+    def "delete all removes every page"() {
+        given:
+        def pageStore = new PageStore(directory.toString(), 1000)
+        pageStore.store(["type-a"], "location", 1, summary(1, 5), "page".bytes)
+
+        when:
+        pageStore.deleteAll()
+
+        then:
+        !pageStore.find(["type-a"], "location", 1).isPresent()
+        directory.toFile().list().length == 0
+    }
+
+    def summary(long firstOffset, long lastOffset) {
+        new PageStore.PageSummary(firstOffset, lastOffset, ZonedDateTime.now(), false)
+    }
+}
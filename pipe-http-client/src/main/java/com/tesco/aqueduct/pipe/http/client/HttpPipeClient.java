@@ -2,15 +2,25 @@ package com.tesco.aqueduct.pipe.http.client;
 
 import com.tesco.aqueduct.pipe.api.*;
 import com.tesco.aqueduct.pipe.codec.Codec;
+import com.tesco.aqueduct.pipe.codec.PageStore;
 import io.micronaut.context.annotation.Property;
 import io.micronaut.http.HttpResponse;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.OptionalLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
 
 import static com.tesco.aqueduct.pipe.api.HttpHeaders.X_CONTENT_ENCODING;
 
@@ -20,32 +30,168 @@ public class HttpPipeClient implements Reader {
     private final InternalHttpPipeClient client;
     private final Codec codec;
     private final long defaultRetryAfter;
+    private final PageStore pageStore;
+    private final PagePrefetcher prefetcher;
+    private final AtomicReference<PendingPage> pendingPage = new AtomicReference<>();
 
+    public HttpPipeClient(
+        final InternalHttpPipeClient client,
+        final Codec codec,
+        final long defaultRetryAfter
+    ) {
+        this(client, codec, defaultRetryAfter, null);
+    }
+
+    public HttpPipeClient(
+        final InternalHttpPipeClient client,
+        final Codec codec,
+        final long defaultRetryAfter,
+        final PageStore pageStore
+    ) {
+        this(client, codec, defaultRetryAfter, pageStore, 0);
+    }
+
+    /**
+     * @param prefetchPages number of pages requested ahead of the caller while it writes the last one, none when 0
+     */
     @Inject
     public HttpPipeClient(
         final InternalHttpPipeClient client,
         final Codec codec,
-        @Property(name = "persistence.read.default-retry-after") long defaultRetryAfter
+        @Property(name = "persistence.read.default-retry-after") long defaultRetryAfter,
+        @Nullable final PageStore pageStore,
+        @Property(name = "pipe.http.client.prefetch-pages", defaultValue = "0") int prefetchPages
     ) {
         this.client = client;
         this.codec = codec;
         this.defaultRetryAfter = defaultRetryAfter;
+        this.pageStore = pageStore;
+        this.prefetcher = prefetchPages > 0 ? new PagePrefetcher(this::fetch, prefetchPages) : null;
     }
 
     @Override
     public MessageResults read(@Nullable final List<String> types, final long offset, final String locationUuid) {
+        storeWrittenPage(types, offset, locationUuid);
+
+        final FetchedPage page = prefetcher == null
+            ? fetch(types, offset, locationUuid)
+            : prefetcher.read(types, offset, locationUuid);
+
+        if (pageStore != null && isBrotliEncoded(page.response) && !page.messages.isEmpty()) {
+            pendingPage.set(new PendingPage(types, locationUuid, offset, PageStore.PageSummary.of(page.messages), page.response.body()));
+        }
+
+        return toMessageResults(page.response, page.messages);
+    }
+
+    // prefetched pages are fetched here too, so they are only kept as pending once handed to the caller
+    private FetchedPage fetch(final List<String> types, final long offset, final String locationUuid) {
+        final HttpResponse<byte[]> response = client.httpRead(types, offset, locationUuid);
+        return new FetchedPage(response, decodeMessages(response));
+    }
+
+    /**
+     * Reads like {@link #read(List, long, String)}, but decodes and parses the page while handing its messages to the
+     * consumer in chunks of at most chunkSize, so only the encoded page and a single chunk are held in memory. The
+     * messages of the returned results are always empty.
+     */
+    public MessageResults read(
+        @Nullable final List<String> types,
+        final long offset,
+        final String locationUuid,
+        final int chunkSize,
+        final Consumer<List<Message>> consumer
+    ) {
+        storeWrittenPage(types, offset, locationUuid);
 
         final HttpResponse<byte[]> response = client.httpRead(types, offset, locationUuid);
+        final PageStore.PageSummary[] summary = {null};
+
+        try (InputStream body = decodeBodyStream(response)) {
+            JsonHelper.messagesFromJsonArray(body, chunkSize, messages -> {
+                summary[0] = summary[0] == null
+                    ? PageStore.PageSummary.of(messages)
+                    : summary[0].followedBy(PageStore.PageSummary.of(messages));
+                consumer.accept(messages);
+            });
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+
+        if (pageStore != null && isBrotliEncoded(response) && summary[0] != null) {
+            pendingPage.set(new PendingPage(types, locationUuid, offset, summary[0], response.body()));
+        }
+
+        return toMessageResults(response, Collections.emptyList());
+    }
+
+    @Override
+    public MessageResults readRange(
+        @Nullable final List<String> types,
+        final long offset,
+        final long toOffset,
+        final String locationUuid
+    ) {
+        final HttpResponse<byte[]> response = client.httpReadRange(types, offset, toOffset, locationUuid);
+        return toMessageResults(response, decodeMessages(response));
+    }
+
+    @Override
+    public MessageResults readSnapshot(
+        @Nullable final List<String> types,
+        final long offset,
+        final long upToOffset,
+        final String locationUuid
+    ) {
+        final HttpResponse<byte[]> response = client.httpReadSnapshot(types, offset, upToOffset, locationUuid);
+        final byte[] responseBody = decodeBody(response);
+
+        final String expectedChecksum = response.header(HttpHeaders.X_CHECKSUM);
+        if (expectedChecksum != null) {
+            final CRC32 checksum = new CRC32();
+            checksum.update(responseBody);
+            if (!expectedChecksum.equals(Long.toString(checksum.getValue()))) {
+                throw new SnapshotChecksumException("Checksum mismatch for snapshot page from offset " + offset);
+            }
+        }
+
+        return toMessageResults(response, JsonHelper.messageFromJsonArray(responseBody));
+    }
 
-        final byte[] responseBody;
+    // a page is stored once the next read starts past it, the node has written its events by then
+    private void storeWrittenPage(final List<String> types, final long offset, final String locationUuid) {
+        if (pageStore == null) {
+            return;
+        }
 
-        if (response.getHeaders().contains(X_CONTENT_ENCODING) &&
-                response.getHeaders().get(X_CONTENT_ENCODING).contains("br")) {
-            responseBody = codec.decode(response.body());
-        } else {
-            responseBody = response.body();
+        final PendingPage page = pendingPage.getAndSet(null);
+        if (page != null && page.isWrittenBefore(types, offset, locationUuid)) {
+            pageStore.store(page.types, page.locationUuid, page.from, page.summary, page.encodedPage);
         }
+    }
+
+    private boolean isBrotliEncoded(HttpResponse<byte[]> response) {
+        return response.getHeaders().contains(X_CONTENT_ENCODING) &&
+            response.getHeaders().get(X_CONTENT_ENCODING).contains("br");
+    }
+
+    private List<Message> decodeMessages(HttpResponse<byte[]> response) {
+        return JsonHelper.messageFromJsonArray(decodeBody(response));
+    }
+
+    private InputStream decodeBodyStream(HttpResponse<byte[]> response) {
+        final InputStream body = new ByteArrayInputStream(response.body());
+        return isBrotliEncoded(response) ? codec.decode(body) : body;
+    }
 
+    private byte[] decodeBody(HttpResponse<byte[]> response) {
+        if (isBrotliEncoded(response)) {
+            return codec.decode(response.body());
+        }
+        return response.body();
+    }
+
+    private MessageResults toMessageResults(HttpResponse<byte[]> response, List<Message> messages) {
         final long retryAfter = Optional
             .ofNullable(response.header(HttpHeaders.RETRY_AFTER_MS))
             .map(value -> checkForValidNumber(value, 1))
@@ -55,7 +201,7 @@ public class HttpPipeClient implements Reader {
                 .orElse(defaultRetryAfter));
 
         return new MessageResults(
-            JsonHelper.messageFromJsonArray(responseBody),
+            messages,
             retryAfter,
             getGlobalOffsetHeader(response),
             getPipeState(response)
@@ -88,4 +234,46 @@ public class HttpPipeClient implements Reader {
     private PipeState getPipeState(HttpResponse<?> response) {
         return PipeState.valueOf(response.header(HttpHeaders.PIPE_STATE));
     }
+
+    static class FetchedPage {
+        private final HttpResponse<byte[]> response;
+        private final List<Message> messages;
+
+        private FetchedPage(HttpResponse<byte[]> response, List<Message> messages) {
+            this.response = response;
+            this.messages = messages;
+        }
+
+        List<Message> getMessages() {
+            return messages;
+        }
+    }
+
+    private static class PendingPage {
+        private final List<String> types;
+        private final String locationUuid;
+        private final long from;
+        private final PageStore.PageSummary summary;
+        private final byte[] encodedPage;
+
+        private PendingPage(
+            List<String> types,
+            String locationUuid,
+            long from,
+            PageStore.PageSummary summary,
+            byte[] encodedPage
+        ) {
+            this.types = types;
+            this.locationUuid = locationUuid;
+            this.from = from;
+            this.summary = summary;
+            this.encodedPage = encodedPage;
+        }
+
+        private boolean isWrittenBefore(List<String> types, long offset, String locationUuid) {
+            return offset > summary.getLastOffset()
+                && Objects.equals(this.types, types)
+                && Objects.equals(this.locationUuid, locationUuid);
+        }
+    }
 }
@@ -22,4 +22,26 @@ public interface InternalGzipHttpPipeClient extends InternalHttpPipeClient {
             long offset,
             String location
     );
+
+    @Get("/pipe/range/{from}/{to}{?type,location}")
+    @Consumes
+    @Header(name="Accept-Encoding", value="gzip")
+    @CircuitBreaker(delay = "${pipe.http.client.delay}", attempts = "${pipe.http.client.attempts}", reset = "${pipe.http.client.reset}")
+    HttpResponse<byte[]> httpReadRange(
+            @Nullable List<String> type,
+            long from,
+            long to,
+            String location
+    );
+
+    @Get("/pipe/snapshot/{offset}{?type,location,upTo}")
+    @Consumes
+    @Header(name="Accept-Encoding", value="gzip")
+    @CircuitBreaker(delay = "${pipe.http.client.delay}", attempts = "${pipe.http.client.attempts}", reset = "${pipe.http.client.reset}")
+    HttpResponse<byte[]> httpReadSnapshot(
+            @Nullable List<String> type,
+            long offset,
+            long upTo,
+            String location
+    );
 }
@@ -11,4 +11,18 @@ public interface InternalHttpPipeClient {
         long offset,
         String location
     );
+
+    HttpResponse<byte[]> httpReadRange(
+        @Nullable List<String> type,
+        long from,
+        long to,
+        String location
+    );
+
+    HttpResponse<byte[]> httpReadSnapshot(
+        @Nullable List<String> type,
+        long offset,
+        long upTo,
+        String location
+    );
 }
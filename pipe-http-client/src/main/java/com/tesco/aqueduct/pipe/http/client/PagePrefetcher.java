@@ -0,0 +1,138 @@
+package com.tesco.aqueduct.pipe.http.client;
+
+import com.tesco.aqueduct.pipe.api.Message;
+import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Requests the page following the last one returned while the caller is still writing it, so that during catch-up
+ * the network and the local storage are busy at the same time. Fetching and decoding happen on a background thread,
+ * up to the configured number of pages ahead of the caller.
+ *
+ * A prefetched page is only used when the caller reads exactly the offset following the previous page with the same
+ * types and location, any other read drops the prefetched pages and is fetched straight away.
+ */
+class PagePrefetcher {
+
+    private static final PipeLogger LOG = new PipeLogger(LoggerFactory.getLogger(PagePrefetcher.class));
+
+    private final PageFetcher fetcher;
+    private final int prefetchPages;
+    private final ExecutorService executor;
+    private final Deque<Prefetch> prefetches = new ArrayDeque<>();
+
+    PagePrefetcher(final PageFetcher fetcher, final int prefetchPages) {
+        this.fetcher = fetcher;
+        this.prefetchPages = prefetchPages;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "pipe-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    synchronized HttpPipeClient.FetchedPage read(final List<String> types, final long offset, final String locationUuid) {
+        final HttpPipeClient.FetchedPage page = takePrefetched(types, offset, locationUuid);
+        continuePrefetching(types, locationUuid, page);
+        return page;
+    }
+
+    // the chain of prefetches continues from the last page known, which is the one just read once the queue is empty
+    private void continuePrefetching(final List<String> types, final String locationUuid, final HttpPipeClient.FetchedPage page) {
+        final Prefetch last = prefetches.peekLast();
+
+        if (last == null) {
+            prefetchAfter(types, locationUuid, page);
+        } else if (last.future.isDone() && !last.future.isCompletedExceptionally()) {
+            prefetchAfter(last.types, last.locationUuid, last.future.join());
+        }
+    }
+
+    private HttpPipeClient.FetchedPage takePrefetched(final List<String> types, final long offset, final String locationUuid) {
+        final Prefetch prefetch = prefetches.pollFirst();
+
+        if (prefetch != null && prefetch.isFor(types, offset, locationUuid)) {
+            final HttpPipeClient.FetchedPage page = prefetch.future.exceptionally(exception -> null).join();
+
+            // an empty page is stale by now and a failed one is retried so that the caller sees the error
+            if (page != null && !page.getMessages().isEmpty()) {
+                return page;
+            }
+        } else if (prefetch != null) {
+            LOG.debug("prefetch", "dropping prefetched pages from offset " + prefetch.offset);
+        }
+
+        dropPrefetches(prefetch);
+        return fetcher.fetch(types, offset, locationUuid);
+    }
+
+    private void dropPrefetches(final Prefetch first) {
+        if (first != null) {
+            first.future.cancel(false);
+        }
+        prefetches.forEach(prefetch -> prefetch.future.cancel(false));
+        prefetches.clear();
+    }
+
+    private void prefetchAfter(final List<String> types, final String locationUuid, final HttpPipeClient.FetchedPage page) {
+        if (prefetches.size() >= prefetchPages || page.getMessages().isEmpty()) {
+            return;
+        }
+
+        final List<Message> messages = page.getMessages();
+        final long nextOffset = messages.get(messages.size() - 1).getOffset() + 1;
+
+        final Prefetch prefetch = new Prefetch(
+            types,
+            nextOffset,
+            locationUuid,
+            CompletableFuture.supplyAsync(() -> fetcher.fetch(types, nextOffset, locationUuid), executor)
+        );
+        prefetches.addLast(prefetch);
+
+        prefetch.future.thenAccept(prefetchedPage -> onPrefetched(prefetch, prefetchedPage));
+    }
+
+    private synchronized void onPrefetched(final Prefetch prefetch, final HttpPipeClient.FetchedPage page) {
+        if (prefetches.peekLast() == prefetch) {
+            prefetchAfter(prefetch.types, prefetch.locationUuid, page);
+        }
+    }
+
+    interface PageFetcher {
+        HttpPipeClient.FetchedPage fetch(List<String> types, long offset, String locationUuid);
+    }
+
+    private static class Prefetch {
+        private final List<String> types;
+        private final long offset;
+        private final String locationUuid;
+        private final CompletableFuture<HttpPipeClient.FetchedPage> future;
+
+        private Prefetch(
+            List<String> types,
+            long offset,
+            String locationUuid,
+            CompletableFuture<HttpPipeClient.FetchedPage> future
+        ) {
+            this.types = types;
+            this.offset = offset;
+            this.locationUuid = locationUuid;
+            this.future = future;
+        }
+
+        private boolean isFor(List<String> types, long offset, String locationUuid) {
+            return this.offset == offset
+                && Objects.equals(this.types, types)
+                && Objects.equals(this.locationUuid, locationUuid);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.tesco.aqueduct.pipe.http.client;
+
+import com.tesco.aqueduct.pipe.codec.PageStore;
+import com.tesco.aqueduct.registry.model.Resetable;
+import io.micronaut.context.annotation.Requires;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Deletes the stored pages whenever the registry resets the pipe or recovers it from corruption.
+ */
+@Singleton
+@Named("pageStore")
+@Requires(beans = PageStore.class)
+public class PageStoreReset implements Resetable {
+
+    private final PageStore pageStore;
+
+    public PageStoreReset(final PageStore pageStore) {
+        this.pageStore = pageStore;
+    }
+
+    @Override
+    public void reset() {
+        pageStore.deleteAll();
+    }
+}
@@ -0,0 +1,112 @@
+package com.tesco.aqueduct.pipe.http.client;
+
+import com.tesco.aqueduct.pipe.api.Message;
+import com.tesco.aqueduct.pipe.api.MessageResults;
+import com.tesco.aqueduct.pipe.api.Reader;
+import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Requires;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Bulk bootstrap of a node: splits an offset range into fixed size ranges that are read from upstream concurrently,
+ * and hands their messages to the consumer in offset order, one range at a time.
+ */
+@Singleton
+@Requires(property = "pipe.http.client.bootstrap.range-size")
+public class ParallelRangeReader {
+
+    private static final PipeLogger LOG = new PipeLogger(LoggerFactory.getLogger(ParallelRangeReader.class));
+
+    private final Reader reader;
+    private final long rangeSize;
+    private final int parallelism;
+    private final ExecutorService executor;
+
+    @Inject
+    public ParallelRangeReader(
+        @Named("remote") final Reader reader,
+        @Property(name = "pipe.http.client.bootstrap.range-size") final long rangeSize,
+        @Property(name = "pipe.http.client.bootstrap.parallelism", defaultValue = "4") final int parallelism
+    ) {
+        this.reader = reader;
+        this.rangeSize = rangeSize;
+        this.parallelism = parallelism;
+        this.executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            final Thread thread = new Thread(runnable, "pipe-range-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Reads offsets from the given offset up to, but excluding, toOffset. At most parallelism ranges are held in
+     * memory, the consumer is called from the calling thread.
+     */
+    public void read(
+        final List<String> types,
+        final long offset,
+        final long toOffset,
+        final String locationUuid,
+        final Consumer<List<Message>> consumer
+    ) {
+        final Deque<CompletableFuture<List<Message>>> ranges = new ArrayDeque<>();
+        long nextRangeStart = offset;
+
+        try {
+            while (nextRangeStart < toOffset || !ranges.isEmpty()) {
+                while (ranges.size() < parallelism && nextRangeStart < toOffset) {
+                    final long rangeStart = nextRangeStart;
+                    final long rangeEnd = Math.min(toOffset, rangeStart + rangeSize);
+                    ranges.addLast(CompletableFuture.supplyAsync(
+                        () -> readRange(types, rangeStart, rangeEnd, locationUuid),
+                        executor
+                    ));
+                    nextRangeStart = rangeEnd;
+                }
+
+                final List<Message> messages = ranges.removeFirst().join();
+                if (!messages.isEmpty()) {
+                    consumer.accept(messages);
+                }
+            }
+        } catch (final CompletionException exception) {
+            ranges.forEach(range -> range.cancel(false));
+            LOG.error("range reader", "failed to read range", exception.getCause());
+            if (exception.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) exception.getCause();
+            }
+            throw exception;
+        }
+    }
+
+    private List<Message> readRange(final List<String> types, final long from, final long to, final String locationUuid) {
+        final List<Message> messages = new ArrayList<>();
+        long offset = from;
+
+        while (offset < to) {
+            final MessageResults results = reader.readRange(types, offset, to, locationUuid);
+            if (results.getMessages().isEmpty()) {
+                break;
+            }
+            messages.addAll(results.getMessages());
+            offset = messages.get(messages.size() - 1).getOffset() + 1;
+        }
+
+        LOG.debug("range reader", String.format("read %d messages from range [%d, %d)", messages.size(), from, to));
+        return messages;
+    }
+}
@@ -0,0 +1,48 @@
+package com.tesco.aqueduct.pipe.http.client;
+
+import com.tesco.aqueduct.registry.client.PipeLoadBalancer;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.MutableHttpRequest;
+import io.micronaut.http.annotation.Filter;
+import io.micronaut.http.filter.ClientFilterChain;
+import io.micronaut.http.filter.HttpClientFilter;
+import io.reactivex.Flowable;
+import org.reactivestreams.Publisher;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tells the load balancer which offset each read starts from and when it finishes, so that the next instance is chosen
+ * among the peers that already hold it. Parallel reads are tracked apart, so they do not overwrite each other's offset.
+ */
+@Filter(serviceId = "pipe")
+@Requires(property = "pipe.http.client.load-balancer.offset-aware", value = "true")
+public class PipeClientOffsetFilter implements HttpClientFilter {
+
+    private static final Pattern READ_PATH = Pattern.compile("/pipe/(?:range/|snapshot/)?(\\d+)(?:/\\d+)?$");
+
+    private final PipeLoadBalancer loadBalancer;
+
+    public PipeClientOffsetFilter(final PipeLoadBalancer loadBalancer) {
+        this.loadBalancer = loadBalancer;
+    }
+
+    @Override
+    public Publisher<? extends HttpResponse<?>> doFilter(
+        final MutableHttpRequest<?> request, final ClientFilterChain chain
+    ) {
+        final Matcher matcher = READ_PATH.matcher(request.getPath());
+        if (!matcher.find()) {
+            return chain.proceed(request);
+        }
+
+        final long offset = Long.parseLong(matcher.group(1));
+        return Flowable.defer(() -> {
+            loadBalancer.recordReadStarted(offset);
+            return Flowable.fromPublisher(chain.proceed(request))
+                .doFinally(() -> loadBalancer.recordReadFinished(offset));
+        });
+    }
+}
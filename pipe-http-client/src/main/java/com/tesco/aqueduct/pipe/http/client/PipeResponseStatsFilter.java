@@ -0,0 +1,69 @@
+package com.tesco.aqueduct.pipe.http.client;
+
+import com.tesco.aqueduct.pipe.api.HttpHeaders;
+import com.tesco.aqueduct.registry.client.PipeLoadBalancer;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.MutableHttpRequest;
+import io.micronaut.http.annotation.Filter;
+import io.micronaut.http.client.exceptions.HttpClientResponseException;
+import io.micronaut.http.filter.ClientFilterChain;
+import io.micronaut.http.filter.HttpClientFilter;
+import io.reactivex.Flowable;
+import org.reactivestreams.Publisher;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds the response time, outcome and advertised global latest offset of every pipe request back to the load
+ * balancer, for load aware selection of the instance to follow.
+ */
+@Filter(serviceId = "pipe")
+@Requires(property = "pipe.http.client.load-balancer.load-aware", value = "true")
+public class PipeResponseStatsFilter implements HttpClientFilter {
+
+    private final PipeLoadBalancer loadBalancer;
+
+    public PipeResponseStatsFilter(final PipeLoadBalancer loadBalancer) {
+        this.loadBalancer = loadBalancer;
+    }
+
+    @Override
+    public Publisher<? extends HttpResponse<?>> doFilter(
+        final MutableHttpRequest<?> request, final ClientFilterChain chain
+    ) {
+        return Flowable.defer(() -> {
+            final URI requestUri = request.getUri();
+            final long start = System.nanoTime();
+
+            return Flowable.fromPublisher(chain.proceed(request))
+                .doOnNext(response -> loadBalancer.recordResponse(
+                    requestUri,
+                    elapsedMs(start),
+                    response.code() < 500,
+                    globalLatestOffset(response)
+                ))
+                .doOnError(error -> loadBalancer.recordResponse(
+                    requestUri,
+                    elapsedMs(start),
+                    error instanceof HttpClientResponseException
+                        && ((HttpClientResponseException) error).getStatus().getCode() < 500,
+                    -1
+                ));
+        });
+    }
+
+    private static long elapsedMs(final long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private static long globalLatestOffset(final HttpResponse<?> response) {
+        final String header = response.header(HttpHeaders.GLOBAL_LATEST_OFFSET);
+        try {
+            return header == null ? -1 : Long.parseLong(header);
+        } catch (NumberFormatException exception) {
+            return -1;
+        }
+    }
+}
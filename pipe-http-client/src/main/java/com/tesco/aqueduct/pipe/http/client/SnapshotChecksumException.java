@@ -0,0 +1,7 @@
+package com.tesco.aqueduct.pipe.http.client;
+
+public class SnapshotChecksumException extends RuntimeException {
+    public SnapshotChecksumException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,60 @@
+package com.tesco.aqueduct.pipe.http.client;
+
+import com.tesco.aqueduct.pipe.api.Message;
+import com.tesco.aqueduct.pipe.api.MessageResults;
+import com.tesco.aqueduct.pipe.api.Reader;
+import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import io.micronaut.context.annotation.Requires;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Bootstraps a node from a compacted snapshot of upstream instead of replaying the whole pipe. The snapshot is fixed
+ * at the global latest offset of its first page and read page by page, the node then follows the pipe from the offset
+ * after it.
+ */
+@Singleton
+@Requires(property = "pipe.http.client.bootstrap.snapshot", value = "true")
+public class SnapshotReader {
+
+    private static final PipeLogger LOG = new PipeLogger(LoggerFactory.getLogger(SnapshotReader.class));
+
+    private final Reader reader;
+
+    @Inject
+    public SnapshotReader(@Named("remote") final Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Hands the pages of the snapshot to the consumer in offset order and returns the offset the snapshot was taken
+     * at. A page that fails its checksum fails the whole read.
+     */
+    public long read(final List<String> types, final String locationUuid, final Consumer<List<Message>> consumer) {
+        MessageResults results = reader.readSnapshot(types, 0, Long.MAX_VALUE, locationUuid);
+
+        final long snapshotOffset = results.getGlobalLatestOffset()
+            .orElseThrow(() -> new IllegalStateException("Snapshot page without a global latest offset"));
+        long messageCount = 0;
+
+        while (!results.getMessages().isEmpty()) {
+            final List<Message> messages = results.getMessages();
+            consumer.accept(messages);
+            messageCount += messages.size();
+
+            final long nextOffset = messages.get(messages.size() - 1).getOffset() + 1;
+            if (nextOffset > snapshotOffset) {
+                break;
+            }
+            results = reader.readSnapshot(types, nextOffset, snapshotOffset, locationUuid);
+        }
+
+        LOG.info("snapshot reader", String.format("read %d messages up to offset %d", messageCount, snapshotOffset));
+        return snapshotOffset;
+    }
+}
@@ -2,12 +2,18 @@ package com.tesco.aqueduct.pipe.http.client
 
 import com.tesco.aqueduct.pipe.api.*
 import com.tesco.aqueduct.pipe.codec.BrotliCodec
+import com.tesco.aqueduct.pipe.codec.PageStore
 import io.micronaut.http.HttpResponse
 import io.micronaut.http.simple.SimpleHttpResponse
 import spock.lang.Specification
 import spock.lang.Unroll
+import spock.util.concurrent.PollingConditions
 
+import java.nio.file.Files
 import java.time.ZonedDateTime
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.zip.CRC32
 
 class HttpPipeClientSpec extends Specification {
 
@@ -161,6 +167,41 @@ class HttpPipeClientSpec extends Specification {
         responseBody.bytes                           | "gzip"
     }
 
+    def "brotli encoded pages are kept in the page store as received once the next read starts past them"() {
+        given:
+        def pageStore = new PageStore(Files.createTempDirectory("page-store").toString(), 1000)
+        def client = new HttpPipeClient(internalClient, new BrotliCodec(4, false), 240, pageStore)
+        def encodedBody = new BrotliCodec(4, false).encode(responseBody.bytes)
+
+        and:
+        HttpResponse<byte[]> httpResponse = new SimpleHttpResponse()
+        httpResponse.body(encodedBody)
+        httpResponse.headers.set(HttpHeaders.PIPE_STATE, PipeState.UP_TO_DATE.name())
+        httpResponse.headers.set(HttpHeaders.X_CONTENT_ENCODING, "br")
+
+        internalClient.httpRead(_ as List, _ as Long, _ as String) >> httpResponse
+
+        when: "a page is read"
+        client.read(["type"], 90, "locationUuid")
+
+        then: "it is not stored before the node has written it"
+        !pageStore.find(["type"], "locationUuid", 95).isPresent()
+
+        when: "the node reads the same offset again as its write failed"
+        client.read(["type"], 90, "locationUuid")
+
+        then:
+        !pageStore.find(["type"], "locationUuid", 95).isPresent()
+
+        when: "the node reads past the page"
+        client.read(["type"], 101, "locationUuid")
+
+        then:
+        pageStore.find(["type"], "locationUuid", 95).get().content.bytes == encodedBody
+        !pageStore.find(["type"], "locationUuid", 101).isPresent()
+        !pageStore.find(["type"], "otherLocation", 95).isPresent()
+    }
+
     def "throws unsupported operation error when getOffset invoked"() {
         when:
         client.getOffset(OffsetName.GLOBAL_LATEST_OFFSET)
@@ -168,4 +209,197 @@ class HttpPipeClientSpec extends Specification {
         then:
         thrown(UnsupportedOperationException)
     }
+
+    def "snapshot pages are checked against the checksum of the decoded body"() {
+        given:
+        def checksum = new CRC32()
+        checksum.update(responseBody.bytes)
+
+        and:
+        HttpResponse<byte[]> httpResponse = new SimpleHttpResponse()
+        httpResponse.body(new BrotliCodec(4, false).encode(responseBody.bytes))
+        httpResponse.headers.set(HttpHeaders.X_CONTENT_ENCODING, "br")
+        httpResponse.headers.set(HttpHeaders.X_CHECKSUM, checksum.value.toString())
+        httpResponse.headers.set(HttpHeaders.PIPE_STATE, PipeState.UP_TO_DATE.name())
+
+        internalClient.httpReadSnapshot(["type"], 0, 100, "locationUuid") >> httpResponse
+
+        when:
+        def results = client.readSnapshot(["type"], 0, 100, "locationUuid")
+
+        then:
+        results.messages*.offset == [100]
+    }
+
+    def "a snapshot page that does not match its checksum is rejected"() {
+        given:
+        HttpResponse<byte[]> httpResponse = new SimpleHttpResponse()
+        httpResponse.body(responseBody.bytes)
+        httpResponse.headers.set(HttpHeaders.X_CHECKSUM, "12345")
+        httpResponse.headers.set(HttpHeaders.PIPE_STATE, PipeState.UP_TO_DATE.name())
+
+        internalClient.httpReadSnapshot(["type"], 0, 100, "locationUuid") >> httpResponse
+
+        when:
+        client.readSnapshot(["type"], 0, 100, "locationUuid")
+
+        then:
+        thrown(SnapshotChecksumException)
+    }
+
+    def "a streamed read hands the decoded messages over in chunks"() {
+        given:
+        def messages = (1..5).collect { new Message("type", "key-$it", "ct", it, ZonedDateTime.parse("2018-10-01T13:45:00Z"), "data") }
+        def brotliCodec = new BrotliCodec(4, false)
+
+        and:
+        HttpResponse<byte[]> httpResponse = new SimpleHttpResponse()
+        httpResponse.body(brotliCodec.encode(JsonHelper.toJson(messages).bytes))
+        httpResponse.headers.set(HttpHeaders.X_CONTENT_ENCODING, "br")
+        httpResponse.headers.set(HttpHeaders.RETRY_AFTER_MS, "0")
+        httpResponse.headers.set(HttpHeaders.GLOBAL_LATEST_OFFSET, "10")
+        httpResponse.headers.set(HttpHeaders.PIPE_STATE, PipeState.UP_TO_DATE.name())
+
+        internalClient.httpRead(["type"], 1, "locationUuid") >> httpResponse
+
+        and:
+        def chunks = []
+
+        when:
+        def results = client.read(["type"], 1, "locationUuid", 2, { chunks << it })
+
+        then:
+        chunks*.collect { it.offset } == [[1, 2], [3, 4], [5]]
+        results.messages.isEmpty()
+        results.globalLatestOffset == OptionalLong.of(10)
+        results.pipeState == PipeState.UP_TO_DATE
+    }
+
+    def "with prefetching the page after the one returned is requested in the background and handed to the next read"() {
+        given:
+        def client = new HttpPipeClient(internalClient, new BrotliCodec(4, false), 240, null, 1)
+        def remoteReads = new CopyOnWriteArrayList()
+        internalClient.httpRead(["type"], _ as Long, "locationUuid") >> { types, offset, location ->
+            remoteReads << offset
+            offset == 0 ? pageResponse(1, 2) : offset == 3 ? pageResponse(3, 4) : pageResponse()
+        }
+
+        when:
+        def first = client.read(["type"], 0, "locationUuid")
+        new PollingConditions(timeout: 2).eventually {
+            assert remoteReads.contains(3L)
+        }
+        def second = client.read(["type"], 3, "locationUuid")
+
+        then:
+        first.messages*.offset == [1, 2]
+        second.messages*.offset == [3, 4]
+        remoteReads.count { it == 3 } == 1
+    }
+
+    def "with prefetching pages are requested up to the configured number of pages ahead"() {
+        given:
+        def client = new HttpPipeClient(internalClient, new BrotliCodec(4, false), 240, null, 2)
+        def remoteReads = new CopyOnWriteArrayList()
+        internalClient.httpRead(["type"], _ as Long, "locationUuid") >> { types, offset, location ->
+            remoteReads << offset
+            pageResponse(Math.max(offset, 1))
+        }
+
+        when:
+        client.read(["type"], 0, "locationUuid")
+
+        then:
+        new PollingConditions(timeout: 2).eventually {
+            assert remoteReads == [0L, 2L, 3L]
+        }
+    }
+
+    def "with prefetching a read of another offset is requested straight away"() {
+        given:
+        def client = new HttpPipeClient(internalClient, new BrotliCodec(4, false), 240, null, 1)
+        def remoteReads = new CopyOnWriteArrayList()
+        internalClient.httpRead(["type"], _ as Long, "locationUuid") >> { types, offset, location ->
+            remoteReads << offset
+            pageResponse(Math.max(offset, 1))
+        }
+        client.read(["type"], 0, "locationUuid")
+        new PollingConditions(timeout: 2).eventually {
+            assert remoteReads.contains(2L)
+        }
+
+        when:
+        def results = client.read(["type"], 0, "locationUuid")
+
+        then:
+        results.messages*.offset == [1]
+        remoteReads.count { it == 0 } == 2
+    }
+
+    def "with prefetching an empty prefetched page is requested again"() {
+        given:
+        def client = new HttpPipeClient(internalClient, new BrotliCodec(4, false), 240, null, 1)
+        def remoteReads = new AtomicInteger()
+        internalClient.httpRead(["type"], 0, "locationUuid") >> pageResponse(1)
+        internalClient.httpRead(["type"], 2, "locationUuid") >> {
+            remoteReads.incrementAndGet() == 1 ? pageResponse() : pageResponse(2)
+        }
+        client.read(["type"], 0, "locationUuid")
+        new PollingConditions(timeout: 2).eventually {
+            assert remoteReads.get() == 1
+        }
+
+        when:
+        def results = client.read(["type"], 2, "locationUuid")
+
+        then:
+        results.messages*.offset == [2]
+        remoteReads.get() == 2
+    }
+
+    def "with prefetching a page is not kept in the page store before the caller reads past it"() {
+        given:
+        def pageStore = new PageStore(Files.createTempDirectory("page-store").toString(), 1000)
+        def client = new HttpPipeClient(internalClient, new BrotliCodec(4, false), 240, pageStore, 1)
+        def remoteReads = new CopyOnWriteArrayList()
+        internalClient.httpRead(["type"], _ as Long, "locationUuid") >> { types, offset, location ->
+            remoteReads << offset
+            brotliPageResponse(Math.max(offset, 1))
+        }
+
+        when:
+        client.read(["type"], 0, "locationUuid")
+        new PollingConditions(timeout: 2).eventually {
+            assert remoteReads.contains(2L)
+        }
+
+        then:
+        !pageStore.find(["type"], "locationUuid", 0).isPresent()
+
+        when:
+        client.read(["type"], 2, "locationUuid")
+
+        then:
+        pageStore.find(["type"], "locationUuid", 0).isPresent()
+        !pageStore.find(["type"], "locationUuid", 2).isPresent()
+    }
+
+    private static HttpResponse<byte[]> pageResponse(long... offsets) {
+        HttpResponse<byte[]> httpResponse = new SimpleHttpResponse()
+        httpResponse.body(JsonHelper.toJson(messages(offsets)).bytes)
+        httpResponse.headers.set(HttpHeaders.PIPE_STATE, PipeState.UP_TO_DATE.name())
+        httpResponse
+    }
+
+    private static HttpResponse<byte[]> brotliPageResponse(long... offsets) {
+        HttpResponse<byte[]> httpResponse = new SimpleHttpResponse()
+        httpResponse.body(new BrotliCodec(4, false).encode(JsonHelper.toJson(messages(offsets)).bytes))
+        httpResponse.headers.set(HttpHeaders.X_CONTENT_ENCODING, "br")
+        httpResponse.headers.set(HttpHeaders.PIPE_STATE, PipeState.UP_TO_DATE.name())
+        httpResponse
+    }
+
+    private static List<Message> messages(long... offsets) {
+        offsets.collect { new Message("type", "key-$it", "ct", it, ZonedDateTime.parse("2018-10-01T13:45:00Z"), "data") }
+    }
 }
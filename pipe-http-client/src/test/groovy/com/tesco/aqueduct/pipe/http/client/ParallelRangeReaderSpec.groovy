@@ -0,0 +1,70 @@
+package com.tesco.aqueduct.pipe.http.client
+
+import com.tesco.aqueduct.pipe.api.Message
+import com.tesco.aqueduct.pipe.api.MessageResults
+import com.tesco.aqueduct.pipe.api.PipeState
+import com.tesco.aqueduct.pipe.api.Reader
+import spock.lang.Specification
+
+import java.time.ZonedDateTime
+
+class ParallelRangeReaderSpec extends Specification {
+
+    Reader remote = Mock()
+
+    static Message message(long offset) {
+        new Message("type", "key", "ct", offset, ZonedDateTime.now(), "data")
+    }
+
+    // serves at most two messages per read, like a size limited page
+    def setup() {
+        def log = (0..<50).findAll { it % 3 != 0 }.collect { message(it) }
+        remote.readRange(_, _, _, _) >> { types, long offset, long toOffset, location ->
+            Thread.sleep(new Random().nextInt(5))
+            new MessageResults(
+                log.findAll { it.offset >= offset && it.offset < toOffset }.take(2),
+                0,
+                OptionalLong.of(49),
+                PipeState.UP_TO_DATE
+            )
+        }
+    }
+
+    def "ranges read concurrently are handed over in offset order"() {
+        given:
+        def rangeReader = new ParallelRangeReader(remote, 10, 3)
+        def received = []
+
+        when:
+        rangeReader.read(["type"], 0, 50, "location", { received.addAll(it) })
+
+        then:
+        received*.offset == (0..<50).findAll { it % 3 != 0 }
+    }
+
+    def "messages at or above the end offset are not read"() {
+        given:
+        def rangeReader = new ParallelRangeReader(remote, 7, 2)
+        def received = []
+
+        when:
+        rangeReader.read(["type"], 5, 20, "location", { received.addAll(it) })
+
+        then:
+        received*.offset == (5..<20).findAll { it % 3 != 0 }
+    }
+
+    def "a failed range fails the read"() {
+        given:
+        Reader failingRemote = Mock()
+        failingRemote.readRange(_, _, _, _) >> { throw new RuntimeException("failed") }
+        def rangeReader = new ParallelRangeReader(failingRemote, 10, 2)
+
+        when:
+        rangeReader.read(["type"], 0, 50, "location", {})
+
+        then:
+        def exception = thrown(RuntimeException)
+        exception.message == "failed"
+    }
+}
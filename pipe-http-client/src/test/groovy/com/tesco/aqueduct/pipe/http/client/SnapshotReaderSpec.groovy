@@ -0,0 +1,64 @@
+package com.tesco.aqueduct.pipe.http.client
+
+import com.tesco.aqueduct.pipe.api.Message
+import com.tesco.aqueduct.pipe.api.MessageResults
+import com.tesco.aqueduct.pipe.api.PipeState
+import com.tesco.aqueduct.pipe.api.Reader
+import spock.lang.Specification
+
+import java.time.ZonedDateTime
+
+class SnapshotReaderSpec extends Specification {
+
+    Reader remote = Mock()
+    SnapshotReader snapshotReader = new SnapshotReader(remote)
+
+    static Message message(long offset) {
+        new Message("type", "key-$offset", "ct", offset, ZonedDateTime.now(), "data")
+    }
+
+    static MessageResults results(List<Long> offsets, long globalLatestOffset) {
+        new MessageResults(offsets.collect { message(it) }, 0, OptionalLong.of(globalLatestOffset), PipeState.UP_TO_DATE)
+    }
+
+    def "snapshot is read page by page up to the global latest offset of the first page"() {
+        given:
+        def received = []
+
+        when:
+        def snapshotOffset = snapshotReader.read(["type"], "location", { received.addAll(it) })
+
+        then:
+        1 * remote.readSnapshot(["type"], 0, Long.MAX_VALUE, "location") >> results([2, 5], 10)
+        1 * remote.readSnapshot(["type"], 6, 10, "location") >> results([8], 12)
+        1 * remote.readSnapshot(["type"], 9, 10, "location") >> results([], 12)
+        0 * remote._
+
+        and:
+        snapshotOffset == 10
+        received*.offset == [2, 5, 8]
+    }
+
+    def "no further page is read once the snapshot offset is reached"() {
+        when:
+        def snapshotOffset = snapshotReader.read(["type"], "location", {})
+
+        then:
+        1 * remote.readSnapshot(["type"], 0, Long.MAX_VALUE, "location") >> results([2, 4], 4)
+        0 * remote._
+
+        and:
+        snapshotOffset == 4
+    }
+
+    def "failed page fails the snapshot read"() {
+        given:
+        remote.readSnapshot(*_) >> { throw new SnapshotChecksumException("checksum mismatch") }
+
+        when:
+        snapshotReader.read(["type"], "location", {})
+
+        then:
+        thrown(SnapshotChecksumException)
+    }
+}
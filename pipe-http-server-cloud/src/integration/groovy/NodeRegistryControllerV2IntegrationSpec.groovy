@@ -7,6 +7,7 @@ import com.tesco.aqueduct.pipe.TestAppender
 import com.tesco.aqueduct.pipe.api.OffsetName
 import com.tesco.aqueduct.pipe.api.Reader
 import com.tesco.aqueduct.registry.model.BootstrapType
+import com.tesco.aqueduct.registry.model.NodeDelta
 import com.tesco.aqueduct.registry.model.NodeRegistry
 import com.tesco.aqueduct.registry.model.NodeRequestStorage
 import com.tesco.aqueduct.registry.postgres.PostgreSQLNodeRegistry
@@ -97,6 +98,7 @@ class NodeRegistryControllerV2IntegrationSpec extends Specification {
                 micronaut.security.token.jwt.enabled: true
                 micronaut.security.token.jwt.bearer.enabled: true
                 compression.threshold-in-bytes: 1024
+                registry.remove-offline-after: 1s
                 location.clusters.get.path.filter.pattern: "/some/filter/path"
                 authentication:
                   users:
@@ -295,6 +297,134 @@ class NodeRegistryControllerV2IntegrationSpec extends Specification {
         //"?groups=a,c"               | ["a", "c"]      | "some stores, comma separated"
     }
 
+    def "Summary since the last versions only returns the groups that changed"() {
+        given: "We register nodes from different groups"
+        registerNode("a", "http://a")
+        registerNode("b", "http://b")
+
+        and: "we get the versions of the groups"
+        denySingleIdentityTokenValidationRequest()
+        def versions = given()
+            .header("Authorization", "Basic $USERNAME_ENCODED_CREDENTIALS")
+            .contentType("application/json")
+            .body("""{"groups": []}""")
+            .when().post("/v2/registry/summary")
+            .then().statusCode(200)
+            .extract().jsonPath().getMap("versions")
+
+        when: "a node of one group registers again"
+        registerNode("b", "http://b", 10)
+
+        and: "we get the summary since those versions"
+        denySingleIdentityTokenValidationRequest()
+        def request = given()
+            .header("Authorization", "Basic $USERNAME_ENCODED_CREDENTIALS")
+            .contentType("application/json")
+            .body(JsonOutput.toJson([versions: versions]))
+            .when().post("/v2/registry/summary")
+
+        then:
+        versions.keySet() == ["a", "b"] as Set
+        request.then()
+            .statusCode(200)
+            .body(
+                "root.status", equalTo(OK.toString()),
+                "followers*.localUrl", contains("http://b"),
+                "followers[0].offset", equalTo("10"),
+                "versions.a", nullValue(),
+                "versions.b", not(equalTo(versions.b)),
+                "removedGroups", empty()
+            )
+    }
+
+    def "Delta registrations are applied to the last full registration of the node"() {
+        given: "a node registered fully"
+        denySingleIdentityTokenValidationRequest()
+        def full = registerDelta("""{
+                "group": "6735",
+                "localUrl": "http://1.1.1.1:1234",
+                "version": "v1",
+                "full": true,
+                "offset": "100",
+                "status": "$FOLLOWING",
+                "following": ["$CLOUD_PIPE_URL"],
+                "pipe": {"pipeState" : "$UP_TO_DATE", "v":"1.0"}
+            }""")
+
+        when: "only its offset is sent with the version of the nodes to follow"
+        denySingleIdentityTokenValidationRequest()
+        def delta = registerDelta("""{
+                "group": "6735",
+                "localUrl": "http://1.1.1.1:1234",
+                "version": "v1",
+                "offset": "123",
+                "followVersion": "${NodeDelta.versionOf([new URL(CLOUD_PIPE_URL)])}"
+            }""")
+
+        then: "the nodes to follow were returned on the full registration only"
+        full.statusCode(200)
+            .body(
+                "requestedToFollow", contains(CLOUD_PIPE_URL),
+                "unchanged", equalTo(false),
+                "fullRegistrationRequired", equalTo(false)
+            )
+        delta.statusCode(200)
+            .body(
+                "requestedToFollow", nullValue(),
+                "unchanged", equalTo(true),
+                "bootstrapType", equalTo("NONE")
+            )
+
+        and: "the registry has the node with the new offset and the fields of the full registration"
+        def summary = registry.getSummary(0, OK, ["6735"])
+        summary.followers*.offset == [123]
+        summary.followers*.status == [FOLLOWING]
+        summary.followers*.pipe == [["pipeState": UP_TO_DATE.toString(), "v": "1.0"]]
+    }
+
+    def "Delta registrations of an unknown full registration are asked to register fully"() {
+        when:
+        denySingleIdentityTokenValidationRequest()
+        def delta = registerDelta("""{
+                "group": "6735",
+                "localUrl": "http://1.1.1.1:1234",
+                "version": "unknown",
+                "offset": "123"
+            }""")
+
+        then:
+        delta.statusCode(200).body("fullRegistrationRequired", equalTo(true))
+        registry.getSummary(0, OK, ["6735"]).followers.isEmpty()
+    }
+
+    def "Delta registrations are asked to register fully once their full registration was unused as long as offline nodes are kept"() {
+        given: "a node registered fully"
+        denySingleIdentityTokenValidationRequest()
+        registerDelta("""{
+                "group": "6735",
+                "localUrl": "http://1.1.1.1:1234",
+                "version": "v1",
+                "full": true,
+                "offset": "100",
+                "status": "$FOLLOWING",
+                "following": ["$CLOUD_PIPE_URL"],
+                "pipe": {"pipeState" : "$UP_TO_DATE", "v":"1.0"}
+            }""").statusCode(200)
+
+        when: "its next delta comes after offline nodes are removed"
+        sleep(2500)
+        denySingleIdentityTokenValidationRequest()
+        def delta = registerDelta("""{
+                "group": "6735",
+                "localUrl": "http://1.1.1.1:1234",
+                "version": "v1",
+                "offset": "123"
+            }""")
+
+        then:
+        delta.statusCode(200).body("fullRegistrationRequired", equalTo(true))
+    }
+
     def "deleting a single node from the registry"() {
         given: "We register two nodes"
         registerNode(1234, "http://1.1.1.1:1234", 123, FOLLOWING, ["http://x"])
@@ -767,6 +897,16 @@ class NodeRegistryControllerV2IntegrationSpec extends Specification {
             .statusCode(200)
     }
 
+    private registerDelta(String body) {
+        given()
+            .header("Authorization", "Basic $USERNAME_ENCODED_CREDENTIALS")
+            .contentType("application/json")
+            .body(body)
+        .when()
+            .post("/v2/registry/delta")
+        .then()
+    }
+
     private static Map<String, Object> parseYamlConfig(String str) {
         def loader = new YamlPropertySourceLoader()
         loader.read("config", str.bytes)
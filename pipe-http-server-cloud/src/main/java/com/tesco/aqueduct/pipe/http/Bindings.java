@@ -12,9 +12,13 @@ import com.tesco.aqueduct.pipe.storage.GlobalLatestOffsetCache;
 import com.tesco.aqueduct.pipe.storage.PostgresqlStorage;
 import com.tesco.aqueduct.registry.model.NodeRegistry;
 import com.tesco.aqueduct.registry.model.NodeRequestStorage;
+import com.tesco.aqueduct.registry.model.Topologies;
+import com.tesco.aqueduct.registry.postgres.NormalisedPostgreSQLNodeRegistry;
 import com.tesco.aqueduct.registry.postgres.PostgreSQLNodeRegistry;
+import com.tesco.aqueduct.registry.postgres.WriteBehindPostgreSQLNodeRegistry;
 import com.tesco.aqueduct.registry.postgres.PostgreSQLNodeRequestStorage;
 import io.jaegertracing.Configuration;
+import io.micronaut.context.annotation.Bean;
 import io.micronaut.context.annotation.Factory;
 import io.micronaut.context.annotation.Property;
 import io.micronaut.context.annotation.Value;
@@ -40,13 +44,16 @@ public class Bindings {
         @Value("${persistence.read.expected-node-count}") final int expectedNodeCount,
         @Value("${persistence.read.cluster-db-pool-size}") final long clusterDBPoolSize,
         @Value("${persistence.read.work-mem-mb:4}") final int workMemMb,
+        @Value("${persistence.read.coalesce:false}") final boolean coalesceReads,
+        @Value("${pipe.admission.enabled:false}") final boolean admissionEnabled,
         @Named("pipe") final DataSource pipeDataSource,
         final GlobalLatestOffsetCache globalLatestOffsetCache,
         ClusterStorage clusterStorage,
         @Named("compaction") final DataSource compactionDataSource
     ) {
         return new PostgresqlStorage(
-            pipeDataSource, compactionDataSource, limit, retryAfter, maxBatchSize, globalLatestOffsetCache, expectedNodeCount, clusterDBPoolSize, workMemMb, clusterStorage
+            pipeDataSource, compactionDataSource, limit, retryAfter, maxBatchSize, globalLatestOffsetCache, expectedNodeCount, clusterDBPoolSize, workMemMb, clusterStorage,
+            coalesceReads, !admissionEnabled
         );
     }
 
@@ -61,19 +68,40 @@ public class Bindings {
 
     @Singleton
     @Measure
+    @Bean(preDestroy = "close")
     NodeRegistry bindNodeRegistry(
         @Named("registry") final DataSource dataSource,
         @Property(name = "pipe.server.url") final URL selfUrl,
         @Value("${registry.mark-offline-after:1m}") final Duration markAsOffline,
-        @Value("${registry.remove-offline-after:1m}") final Duration removeOffline
+        @Value("${registry.remove-offline-after:1m}") final Duration removeOffline,
+        @Value("${registry.normalised-storage:false}") final boolean normalisedStorage,
+        @Value("${registry.heartbeat-fast-path:false}") final boolean heartbeatFastPath,
+        @Value("${registry.write-behind.enabled:false}") final boolean writeBehind,
+        @Value("${registry.write-behind.flush-interval:1s}") final Duration flushInterval,
+        @Value("${registry.write-behind.refresh-interval:5s}") final Duration refreshInterval,
+        @Value("${registry.topology.root-fan-out:1}") final int rootFanOut,
+        @Value("${registry.topology.fan-out:2}") final int fanOut,
+        @Value("${registry.topology.capacity-weighted:false}") final boolean capacityWeighted,
+        @Value("${registry.topology.group-fan-outs:}") final String groupFanOuts
     ) {
-        return new PostgreSQLNodeRegistry(dataSource, selfUrl, markAsOffline, removeOffline);
+        final Topologies topologies = new Topologies(rootFanOut, fanOut, capacityWeighted, groupFanOuts);
+
+        if (writeBehind) {
+            return new WriteBehindPostgreSQLNodeRegistry(dataSource, selfUrl, markAsOffline, removeOffline, flushInterval, refreshInterval, topologies);
+        }
+        if (normalisedStorage) {
+            return new NormalisedPostgreSQLNodeRegistry(dataSource, selfUrl, markAsOffline, removeOffline, topologies);
+        }
+        return new PostgreSQLNodeRegistry(dataSource, selfUrl, markAsOffline, removeOffline, heartbeatFastPath, topologies);
     }
 
     @Singleton
     @Measure
-    NodeRequestStorage bindNodeRequestStorage(@Named("registry") final DataSource dataSource) {
-        return new PostgreSQLNodeRequestStorage(dataSource);
+    NodeRequestStorage bindNodeRequestStorage(
+        @Named("registry") final DataSource dataSource,
+        @Value("${registry.node-requests.pending-cache-ttl:0s}") final Duration pendingRequestsTtl
+    ) {
+        return new PostgreSQLNodeRequestStorage(dataSource, pendingRequestsTtl);
     }
 
     @Singleton
@@ -0,0 +1,77 @@
+package com.tesco.aqueduct.pipe.http
+
+import com.tesco.aqueduct.pipe.api.*
+import io.micronaut.context.annotation.Property
+import io.micronaut.runtime.server.EmbeddedServer
+import io.micronaut.test.annotation.MockBean
+import io.micronaut.test.extensions.spock.annotation.MicronautTest
+import io.restassured.RestAssured
+import spock.lang.Specification
+
+import javax.inject.Inject
+import javax.inject.Named
+import java.time.ZonedDateTime
+
+import static java.util.OptionalLong.of
+
+// separate from PipeReadControllerIntegrationSpec as the rate limiter config differs, see the cluster change spec
+@Newify(Message)
+@MicronautTest
+@Property(name="micronaut.security.enabled", value="false")
+@Property(name="compression.threshold-in-bytes", value = "1024")
+@Property(name="rate-limiter.capacity", value = "4")
+@Property(name="rate-limiter.fair-share", value = "true")
+@Property(name="rate-limiter.burst-seconds", value = "0.25")
+class PipeReadControllerFairShareRateLimiterIntegrationSpec extends Specification {
+
+    @Inject @Named("local")
+    Reader reader
+
+    @Inject
+    LocationService locationResolver
+
+    @Inject
+    EmbeddedServer server
+
+    static String type = "type1"
+
+    void setup() {
+        RestAssured.port = server.port
+        locationResolver.getClusterUuids(_) >> ["cluster1"]
+
+        reader.read(*_) >> new MessageResults([
+            Message(type, "a", "ct", 100, ZonedDateTime.now().minusHours(7), null)
+        ], 100L, of(5), PipeState.UP_TO_DATE)
+
+        // the first read creates the rate limiter, its total capacity is full once a second has passed
+        retryAfterMs("warm-up")
+        sleep(1000)
+    }
+
+    void "a location that used its share is rate limited while another location still gets 0ms retry after"() {
+        when:
+        def first = retryAfterMs("location-a")
+        def second = retryAfterMs("location-a")
+        def other = retryAfterMs("location-b")
+
+        then:
+        first == "0"
+        second == "100"
+        other == "0"
+    }
+
+    String retryAfterMs(String location) {
+        RestAssured.given().get("/pipe/0?location=" + location).header(HttpHeaders.RETRY_AFTER_MS)
+    }
+
+    @MockBean(Reader)
+    @Named("local")
+    Reader reader() {
+        Mock(Reader)
+    }
+
+    @MockBean(LocationService)
+    LocationService locationResolver() {
+        Mock(LocationService)
+    }
+}
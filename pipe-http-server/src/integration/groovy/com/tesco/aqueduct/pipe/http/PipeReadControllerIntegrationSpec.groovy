@@ -16,6 +16,7 @@ import javax.inject.Named
 import java.time.Clock
 import java.time.ZoneId
 import java.time.ZonedDateTime
+import java.util.zip.CRC32
 
 import static java.util.Arrays.asList
 import static java.util.OptionalLong.of
@@ -172,6 +173,78 @@ class PipeReadControllerIntegrationSpec extends Specification {
         "/pipe/101?location=someLocation" | 200        | '[]'
     }
 
+    void "range reads return the messages of the range from the reader"() {
+        given:
+        reader.readRange([type], 100, 200, "someLocation") >> new MessageResults(
+            [Message(type, "a", "ct", 100, zonedDateTime, null)], 0, of(300), PipeState.UP_TO_DATE)
+
+        when:
+        def response = RestAssured.given().get("/pipe/range/100/200?type=$type&location=someLocation")
+
+        then:
+        response
+            .then()
+            .statusCode(200)
+            .body(equalTo("""[{"type":"$type","key":"a","contentType":"ct","offset":"100","created":"$zonedDateTimeString"}]""".toString()))
+            .header(HttpHeaders.GLOBAL_LATEST_OFFSET, "300")
+    }
+
+    @Unroll
+    void "invalid range reads are bad requests - #requestPath"() {
+        when:
+        def response = RestAssured.given().get(requestPath)
+
+        then:
+        response.then().statusCode(400)
+        0 * reader.readRange(*_)
+
+        where:
+        requestPath << [
+            "/pipe/range/-1/10?location=someLocation",
+            "/pipe/range/10/10?location=someLocation",
+            "/pipe/range/0/10"
+        ]
+    }
+
+    void "snapshot reads return the messages from the reader with a checksum of the json"() {
+        given:
+        reader.readSnapshot([type], 0, 300, "someLocation") >> new MessageResults(
+            [Message(type, "a", "ct", 100, zonedDateTime, "data")], 0, of(400), PipeState.UP_TO_DATE)
+
+        and:
+        def expectedBody = """[{"type":"$type","key":"a","contentType":"ct","offset":"100","created":"$zonedDateTimeString","data":"data"}]""".toString()
+        def checksum = new CRC32()
+        checksum.update(expectedBody.bytes)
+
+        when:
+        def response = RestAssured.given().get("/pipe/snapshot/0?type=$type&location=someLocation&upTo=300")
+
+        then:
+        response
+            .then()
+            .statusCode(200)
+            .body(equalTo(expectedBody))
+            .header(HttpHeaders.X_CHECKSUM, checksum.value.toString())
+            .header(HttpHeaders.GLOBAL_LATEST_OFFSET, "400")
+    }
+
+    @Unroll
+    void "invalid snapshot reads are bad requests - #requestPath"() {
+        when:
+        def response = RestAssured.given().get(requestPath)
+
+        then:
+        response.then().statusCode(400)
+        0 * reader.readSnapshot(*_)
+
+        where:
+        requestPath << [
+            "/pipe/snapshot/-1?location=someLocation",
+            "/pipe/snapshot/10?location=someLocation&upTo=9",
+            "/pipe/snapshot/0"
+        ]
+    }
+
     @Unroll
     void "filtering by type: #types"() {
         given:
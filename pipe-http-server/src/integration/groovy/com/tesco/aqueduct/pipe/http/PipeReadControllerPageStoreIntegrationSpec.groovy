@@ -0,0 +1,142 @@
+package com.tesco.aqueduct.pipe.http
+
+import com.tesco.aqueduct.pipe.api.*
+import com.tesco.aqueduct.pipe.codec.BrotliCodec
+import com.tesco.aqueduct.pipe.codec.PageStore
+import io.micronaut.context.annotation.Property
+import io.micronaut.runtime.server.EmbeddedServer
+import io.micronaut.test.annotation.MockBean
+import io.micronaut.test.extensions.spock.annotation.MicronautTest
+import io.restassured.RestAssured
+import spock.lang.Specification
+
+import javax.inject.Inject
+import javax.inject.Named
+import java.time.ZonedDateTime
+
+import static java.util.OptionalLong.of
+
+@Newify(Message)
+@MicronautTest
+@Property(name="micronaut.security.enabled", value="false")
+@Property(name="compression.threshold-in-bytes", value = "1024")
+@Property(name="rate-limiter.capacity", value = "1")
+@Property(name="pipe.page-store.directory", value = "build/tmp/page-store")
+class PipeReadControllerPageStoreIntegrationSpec extends Specification {
+
+    @Inject @Named("local")
+    Reader reader
+
+    @Inject
+    LocationService locationResolver
+
+    @Inject
+    PageStore pageStore
+
+    @Inject
+    BrotliCodec brotliCodec
+
+    @Inject
+    PipeRateLimiter rateLimiter
+
+    @Inject
+    EmbeddedServer server
+
+    static String type = "type1"
+
+    void setup() {
+        RestAssured.port = server.port
+        locationResolver.getClusterUuids(_) >> ["cluster1"]
+        pageStore.deleteAll()
+    }
+
+    void "a stored page is served without reading from storage"() {
+        given:
+        def message = Message(type, "a", "ct", 100, ZonedDateTime.now(), null)
+        def page = brotliCodec.encode(JsonHelper.toJson([message]).bytes)
+        pageStore.store([type], "someLocation", 90, PageStore.PageSummary.of([message]), page)
+
+        and:
+        reader.getPipeState() >> PipeState.UP_TO_DATE
+        reader.getOffset(OffsetName.GLOBAL_LATEST_OFFSET) >> of(120)
+
+        when:
+        def response = RestAssured.given().header("Accept-Encoding", "br").get("/pipe/95?location=someLocation&type=$type")
+
+        then:
+        0 * reader.read(*_)
+        response.statusCode() == 200
+        response.asByteArray() == page
+        response.header(HttpHeaders.X_CONTENT_ENCODING) == "br"
+        response.header(HttpHeaders.RETRY_AFTER_MS) == "0"
+        response.header(HttpHeaders.PIPE_STATE) == "UP_TO_DATE"
+        response.header(HttpHeaders.GLOBAL_LATEST_OFFSET) == "120"
+    }
+
+    void "reads are served from storage when no stored page covers the offset"() {
+        given:
+        pageStore.store([type], "someLocation", 90, summary(ZonedDateTime.now()), "page".bytes)
+
+        when:
+        def response = RestAssured.given().header("Accept-Encoding", "br").get("/pipe/101?location=someLocation&type=$type")
+
+        then:
+        1 * reader.read([type], 101, "someLocation") >> new MessageResults([], 0, of(120), PipeState.UP_TO_DATE)
+        response.statusCode() == 200
+        response.body().asString() == "[]"
+    }
+
+    void "pages stored for another location are not served"() {
+        given:
+        pageStore.store([type], "otherLocation", 90, summary(ZonedDateTime.now()), "page".bytes)
+
+        when:
+        def response = RestAssured.given().header("Accept-Encoding", "br").get("/pipe/95?location=someLocation&type=$type")
+
+        then:
+        1 * reader.read([type], 95, "someLocation") >> new MessageResults([], 0, of(120), PipeState.UP_TO_DATE)
+        response.statusCode() == 200
+        response.body().asString() == "[]"
+    }
+
+    void "stored pages of bootstrapping nodes take capacity from the rate limiter like storage reads"() {
+        given: "a page older than the bootstrap threshold"
+        pageStore.store([type], "someLocation", 90, summary(ZonedDateTime.now().minusDays(1)), "page".bytes)
+
+        and:
+        reader.getPipeState() >> PipeState.UP_TO_DATE
+        reader.getOffset(OffsetName.GLOBAL_LATEST_OFFSET) >> of(120)
+
+        when: "it is read twice while there is capacity for one read"
+        def first = RestAssured.given().header("Accept-Encoding", "br").get("/pipe/95?location=someLocation&type=$type")
+        def second = RestAssured.given().header("Accept-Encoding", "br").get("/pipe/95?location=someLocation&type=$type")
+
+        then:
+        1 * rateLimiter.tryAcquire("someLocation") >> true
+        1 * rateLimiter.tryAcquire("someLocation") >> false
+        first.statusCode() == 200
+        second.statusCode() == 200
+        first.asByteArray() == "page".bytes
+        first.header(HttpHeaders.RETRY_AFTER_MS) == "0"
+    }
+
+    static PageStore.PageSummary summary(ZonedDateTime firstCreated) {
+        new PageStore.PageSummary(100, 100, firstCreated, false)
+    }
+
+    @MockBean(PipeRateLimiter)
+    PipeRateLimiter rateLimiter() {
+        Mock(PipeRateLimiter)
+    }
+
+    @MockBean(Reader)
+    @Named("local")
+    Reader reader() {
+        Mock(Reader)
+    }
+
+    @MockBean(LocationService)
+    LocationService locationResolver() {
+        Mock(LocationService)
+    }
+}
@@ -0,0 +1,62 @@
+package com.tesco.aqueduct.pipe.http
+
+import com.tesco.aqueduct.pipe.api.*
+import io.micronaut.context.annotation.Property
+import io.micronaut.runtime.server.EmbeddedServer
+import io.micronaut.test.annotation.MockBean
+import io.micronaut.test.extensions.spock.annotation.MicronautTest
+import io.restassured.RestAssured
+import spock.lang.Specification
+
+import javax.inject.Inject
+import javax.inject.Named
+
+import static java.util.OptionalLong.of
+
+// separate from PipeReadControllerIntegrationSpec as the read admission controller is only there when enabled
+@MicronautTest
+@Property(name="micronaut.security.enabled", value="false")
+@Property(name="compression.threshold-in-bytes", value = "1024")
+@Property(name="pipe.admission.enabled", value = "true")
+@Property(name="pipe.admission.max-retry-after", value = "10s")
+class PipeReadControllerReadAdmissionIntegrationSpec extends Specification {
+
+    static final long CONFIGURED_RETRY_AFTER_MS = 600000
+
+    @Inject @Named("local")
+    Reader reader
+
+    @Inject
+    LocationService locationResolver
+
+    @Inject
+    EmbeddedServer server
+
+    void setup() {
+        RestAssured.port = server.port
+        locationResolver.getClusterUuids(_) >> ["cluster1"]
+    }
+
+    void "empty pages on an idle server keep the retry after configured for the storage"() {
+        given: "the storage has nothing to read"
+        reader.read(*_) >> new MessageResults([], CONFIGURED_RETRY_AFTER_MS, of(5), PipeState.UP_TO_DATE)
+
+        when:
+        def response = RestAssured.given().get("/pipe/0?location=someLocation")
+
+        then:
+        response.header(HttpHeaders.RETRY_AFTER_MS) == Long.toString(CONFIGURED_RETRY_AFTER_MS)
+        response.header(HttpHeaders.RETRY_AFTER) == Long.toString((long) (CONFIGURED_RETRY_AFTER_MS / 1000))
+    }
+
+    @MockBean(Reader)
+    @Named("local")
+    Reader reader() {
+        Mock(Reader)
+    }
+
+    @MockBean(LocationService)
+    LocationService locationResolver() {
+        Mock(LocationService)
+    }
+}
@@ -1,12 +1,17 @@
 package com.tesco.aqueduct.pipe.http
 
+import com.tesco.aqueduct.pipe.api.OffsetName
+import com.tesco.aqueduct.pipe.api.PipeState
+import com.tesco.aqueduct.pipe.api.Reader
 import io.micronaut.context.ApplicationContext
 import io.micronaut.http.HttpStatus
+import io.micronaut.inject.qualifiers.Qualifiers
 import io.micronaut.runtime.server.EmbeddedServer
 import io.restassured.RestAssured
 import spock.lang.AutoCleanup
 import spock.lang.Shared
 import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
 
 import static io.restassured.RestAssured.when
 import static org.hamcrest.Matchers.equalTo
@@ -42,4 +47,43 @@ class PipeStatusControllerIntegrationSpec extends Specification {
             .statusCode(HttpStatus.OK.code)
             .body("version", equalTo(Version.getImplementationVersion()))
     }
+
+    def "pipe status contains the local latest offset and pipe state of the node, read in the background"() {
+        given:
+        def reader = Mock(Reader)
+
+        and:
+        def nodeContext = ApplicationContext.build().mainClass(PipeStatusController).build()
+        nodeContext.registerSingleton(Reader, reader, Qualifiers.byName("local"))
+        nodeContext.start()
+        def nodeServer = nodeContext.getBean(EmbeddedServer).start()
+
+        when:
+        new PollingConditions(timeout: 5).eventually {
+            RestAssured.given()
+                .port(nodeServer.port)
+                .get("/pipe/_status")
+                .then()
+                .statusCode(HttpStatus.OK.code)
+                .body("localLatestOffset", equalTo(123))
+                .body("pipeState", equalTo("UP_TO_DATE"))
+        }
+
+        then:
+        (1.._) * reader.getOffset(OffsetName.LOCAL_LATEST_OFFSET) >> OptionalLong.of(123)
+        (1.._) * reader.getPipeState() >> PipeState.UP_TO_DATE
+
+        when: "status is requested many times"
+        10.times {
+            RestAssured.given().port(nodeServer.port).get("/pipe/_status").then().statusCode(HttpStatus.OK.code)
+        }
+
+        then: "the storage is not read for every request"
+        (0..2) * reader.getOffset(OffsetName.LOCAL_LATEST_OFFSET) >> OptionalLong.of(123)
+        (0..2) * reader.getPipeState() >> PipeState.UP_TO_DATE
+
+        cleanup:
+        nodeServer?.stop()
+        nodeContext?.stop()
+    }
 }
@@ -0,0 +1,57 @@
+package com.tesco.aqueduct.pipe.http;
+
+import com.tesco.aqueduct.pipe.api.OffsetName;
+import com.tesco.aqueduct.pipe.api.PipeState;
+import com.tesco.aqueduct.pipe.api.Reader;
+import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import io.micronaut.scheduling.annotation.Scheduled;
+import lombok.Data;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.OptionalLong;
+
+/**
+ * Local latest offset and pipe state of the node as last read from its storage. They are read in the background so
+ * that status requests never wait for the storage however often they are sent.
+ */
+@Singleton
+public class LocalPipeStatus {
+
+    private static final PipeLogger LOG = new PipeLogger(LoggerFactory.getLogger(LocalPipeStatus.class));
+
+    private final Reader reader;
+    private volatile State state = new State(null, null);
+
+    @Inject
+    public LocalPipeStatus(@Nullable @Named("local") Reader reader) {
+        this.reader = reader;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    @Scheduled(fixedDelay = "${pipe.status.refresh-interval:1s}")
+    public void refresh() {
+        if (reader == null) {
+            return;
+        }
+
+        try {
+            final OptionalLong offset = reader.getOffset(OffsetName.LOCAL_LATEST_OFFSET);
+            state = new State(offset.isPresent() ? offset.getAsLong() : null, reader.getPipeState());
+        } catch (RuntimeException exception) {
+            LOG.error("local pipe status", "Could not read local offset and pipe state", exception);
+        }
+    }
+
+    @Data
+    public static class State {
+        private final Long localLatestOffset;
+        private final PipeState pipeState;
+    }
+}
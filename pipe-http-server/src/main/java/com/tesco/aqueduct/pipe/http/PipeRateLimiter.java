@@ -1,19 +1,198 @@
 package com.tesco.aqueduct.pipe.http;
 
 import com.google.common.util.concurrent.RateLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.micronaut.context.annotation.Property;
 
+import javax.annotation.Nullable;
+import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
 
+/**
+ * Hands out the capacity for reads without retry after. With fair share enabled, every location that asked for
+ * capacity within the active window gets its weighted share of it, as a token bucket that holds up to the given
+ * seconds of its share as burst credit, so that a few fast locations cannot take the capacity of all others.
+ */
 @Singleton
 public class PipeRateLimiter {
+    private static final long RECALCULATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
     private RateLimiter rateLimiter;
+    private final double capacity;
+    private final boolean fairShare;
+    private final double burstSeconds;
+    private final long activeWindowNanos;
+    private final Map<String, Double> weights;
+    private final LongSupplier nanoTime;
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final Bucket total;
+    private final Counter granted;
+    private final Counter denied;
+
+    private volatile double activeWeight;
+    private volatile long lastRecalculation;
 
     public PipeRateLimiter(@Property(name="rate-limiter.capacity", defaultValue = "80") double capacity) {
+        this(capacity, false, 5, Duration.ofSeconds(30), "", null, System::nanoTime);
+    }
+
+    @Inject
+    public PipeRateLimiter(
+        @Property(name = "rate-limiter.capacity", defaultValue = "80") double capacity,
+        @Property(name = "rate-limiter.fair-share", defaultValue = "false") boolean fairShare,
+        @Property(name = "rate-limiter.burst-seconds", defaultValue = "5") double burstSeconds,
+        @Property(name = "rate-limiter.active-window", defaultValue = "30s") Duration activeWindow,
+        @Nullable @Property(name = "rate-limiter.location-weights") String locationWeights,
+        @Nullable MeterRegistry meterRegistry
+    ) {
+        this(capacity, fairShare, burstSeconds, activeWindow, locationWeights, meterRegistry, System::nanoTime);
+    }
+
+    PipeRateLimiter(
+        double capacity,
+        boolean fairShare,
+        double burstSeconds,
+        Duration activeWindow,
+        String locationWeights,
+        MeterRegistry meterRegistry,
+        LongSupplier nanoTime
+    ) {
         this.rateLimiter = RateLimiter.create(capacity);
+        this.capacity = capacity;
+        this.fairShare = fairShare;
+        this.burstSeconds = burstSeconds;
+        this.activeWindowNanos = activeWindow.toNanos();
+        this.weights = parseWeights(locationWeights);
+        this.nanoTime = nanoTime;
+        this.lastRecalculation = nanoTime.getAsLong();
+        this.total = new Bucket(1, lastRecalculation);
+
+        if (meterRegistry != null) {
+            meterRegistry.gauge("pipe.rate-limiter.active-locations", buckets, Map::size);
+            meterRegistry.gauge("pipe.rate-limiter.active-weight", this, limiter -> limiter.activeWeight);
+            this.granted = meterRegistry.counter("pipe.rate-limiter.granted");
+            this.denied = meterRegistry.counter("pipe.rate-limiter.denied");
+        } else {
+            this.granted = null;
+            this.denied = null;
+        }
+    }
+
+    // "location-a:2,location-b:0.5", locations that are not listed weigh 1
+    private static Map<String, Double> parseWeights(String locationWeights) {
+        if (locationWeights == null || locationWeights.trim().isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return Arrays.stream(locationWeights.split(","))
+            .map(entry -> entry.trim().split(":"))
+            .collect(Collectors.toMap(entry -> entry[0].trim(), entry -> Double.parseDouble(entry[1].trim())));
     }
 
     public boolean tryAcquire() {
         return this.rateLimiter.tryAcquire();
     }
+
+    public boolean tryAcquire(String location) {
+        if (!fairShare || location == null) {
+            return record(tryAcquire());
+        }
+
+        final long now = nanoTime.getAsLong();
+        recalculateActiveWeight(now, false);
+
+        while (true) {
+            Bucket bucket = buckets.get(location);
+            if (bucket == null) {
+                bucket = buckets.computeIfAbsent(location, key -> new Bucket(weights.getOrDefault(key, 1.0), now));
+                recalculateActiveWeight(now, true);
+            }
+
+            synchronized (bucket) {
+                // the bucket was removed as inactive since it was looked up, the location gets a new one
+                if (bucket.removed) {
+                    continue;
+                }
+
+                final double share = capacity * bucket.weight / Math.max(activeWeight, bucket.weight);
+                bucket.refill(now, share, Math.max(1, share * burstSeconds));
+
+                if (bucket.tokens >= 1 && tryAcquireTotal(now)) {
+                    bucket.tokens -= 1;
+                    return record(true);
+                }
+                return record(false);
+            }
+        }
+    }
+
+    // the burst credit of the locations together never exceeds the capacity, which is held for a second like the global limiter
+    private boolean tryAcquireTotal(long now) {
+        synchronized (total) {
+            total.refill(now, capacity, Math.max(1, capacity));
+            if (total.tokens >= 1) {
+                total.tokens -= 1;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private boolean record(boolean acquired) {
+        if (granted != null) {
+            (acquired ? granted : denied).increment();
+        }
+        return acquired;
+    }
+
+    // locations that have not asked within the active window give their share back, a new location takes its share at once
+    private void recalculateActiveWeight(long now, boolean newLocation) {
+        if (!newLocation && now - lastRecalculation < RECALCULATE_INTERVAL_NANOS) {
+            return;
+        }
+
+        synchronized (buckets) {
+            if (!newLocation && now - lastRecalculation < RECALCULATE_INTERVAL_NANOS) {
+                return;
+            }
+            lastRecalculation = Math.max(lastRecalculation, now);
+
+            buckets.values().removeIf(bucket -> bucket.removeIfInactive(now, activeWindowNanos));
+            activeWeight = buckets.values().stream().mapToDouble(bucket -> bucket.weight).sum();
+        }
+    }
+
+    private static class Bucket {
+        private final double weight;
+        private double tokens = 1;
+        private long lastRefill;
+        private long lastRequest;
+        private boolean removed;
+
+        private Bucket(double weight, long now) {
+            this.weight = weight;
+            this.lastRefill = now;
+            this.lastRequest = now;
+        }
+
+        private void refill(long now, double tokensPerSecond, double maxTokens) {
+            tokens = Math.min(maxTokens, tokens + tokensPerSecond * (now - lastRefill) / TimeUnit.SECONDS.toNanos(1));
+            lastRefill = now;
+            lastRequest = now;
+        }
+
+        // checked under the bucket lock, so that a bucket a request is using is never removed
+        private synchronized boolean removeIfInactive(long now, long activeWindowNanos) {
+            removed = now - lastRequest > activeWindowNanos;
+            return removed;
+        }
+    }
 }
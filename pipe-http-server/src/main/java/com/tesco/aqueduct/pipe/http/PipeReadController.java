@@ -2,29 +2,35 @@ package com.tesco.aqueduct.pipe.http;
 
 import com.tesco.aqueduct.pipe.api.*;
 import com.tesco.aqueduct.pipe.codec.ContentEncoder;
+import com.tesco.aqueduct.pipe.codec.PageStore;
 import com.tesco.aqueduct.pipe.logger.PipeLogger;
 import com.tesco.aqueduct.pipe.metrics.Measure;
 import io.micronaut.context.annotation.Property;
 import io.micronaut.core.util.StringUtils;
 import io.micronaut.http.HttpRequest;
 import io.micronaut.http.HttpResponse;
+import io.micronaut.http.MediaType;
 import io.micronaut.http.MutableHttpResponse;
 import io.micronaut.http.annotation.Controller;
 import io.micronaut.http.annotation.Get;
+import io.micronaut.http.server.types.files.StreamedFile;
 import io.micronaut.security.annotation.Secured;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.Duration;
 import java.time.ZonedDateTime;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static io.micronaut.http.HttpHeaders.ACCEPT_ENCODING;
 
 @Secured("PIPE_READ")
 @Measure
@@ -39,6 +45,8 @@ public class PipeReadController {
     private final ContentEncoder contentEncoder;
     private final PipeRateLimiter rateLimiter;
     private final boolean logging;
+    private final PageStore pageStore;
+    private final ReadAdmissionController admissionController;
 
     @Inject
     public PipeReadController(
@@ -47,7 +55,9 @@ public class PipeReadController {
             @Property(name = "pipe.clusterChange.threshold", defaultValue = "24h") Duration clusterChangeThreshold,
             @Property(name = "bootstrap.retry.logging", defaultValue = "false") boolean logging,
             ContentEncoder contentEncoder,
-            PipeRateLimiter rateLimiter
+            PipeRateLimiter rateLimiter,
+            @Nullable PageStore pageStore,
+            @Nullable ReadAdmissionController admissionController
     ) {
         this.reader = reader;
         this.bootstrapThreshold = bootstrapThreshold;
@@ -55,10 +65,12 @@ public class PipeReadController {
         this.logging = logging;
         this.contentEncoder = contentEncoder;
         this.rateLimiter = rateLimiter;
+        this.pageStore = pageStore;
+        this.admissionController = admissionController;
     }
 
     @Get("/pipe/{offset}{?type,location}")
-    public HttpResponse<byte[]> readMessages(
+    public HttpResponse<?> readMessages(
         final long offset,
         final HttpRequest<?> request,
         @Nullable final List<String> type,
@@ -74,10 +86,87 @@ public class PipeReadController {
         LOG.withTypes(types).debug("pipe read controller", "reading with types");
         LOG.withLocation(location).withOffset(offset).info("pipe read controller", "reading for data");
 
-        final MessageResults messageResults = reader.read(types, offset, location);
+        final Optional<PageStore.OpenedPage> storedPage = admitted(() -> findStoredPage(request, types, location, offset));
+        if (storedPage.isPresent()) {
+            return storedPageResponse(storedPage.get(), location);
+        }
+
+        return messagesResponse(request, location, admitted(() -> reader.read(types, offset, location)));
+    }
+
+    @Get("/pipe/range/{from}/{to}{?type,location}")
+    public HttpResponse<?> readMessageRange(
+        final long from,
+        final long to,
+        final HttpRequest<?> request,
+        @Nullable final List<String> type,
+        @Nullable final String location
+    ) {
+        if (from < 0 || to <= from || StringUtils.isEmpty(location)) {
+            return HttpResponse.badRequest();
+        }
+
+        logOffsetRequestFromRemoteHost(from, request);
+        final List<String> types = flattenRequestParams(type);
+
+        LOG.withLocation(location).withOffset(from).info("pipe read controller", "reading range up to " + to);
+
+        return messagesResponse(request, location, admitted(() -> reader.readRange(types, from, to, location)));
+    }
+
+    @Get("/pipe/snapshot/{offset}{?type,location,upTo}")
+    public HttpResponse<?> readSnapshot(
+        final long offset,
+        final HttpRequest<?> request,
+        @Nullable final List<String> type,
+        @Nullable final String location,
+        @Nullable final Long upTo
+    ) {
+        if (offset < 0 || StringUtils.isEmpty(location) || (upTo != null && upTo < offset)) {
+            return HttpResponse.badRequest();
+        }
+
+        logOffsetRequestFromRemoteHost(offset, request);
+        final List<String> types = flattenRequestParams(type);
+
+        LOG.withLocation(location).withOffset(offset).info("pipe read controller", "reading snapshot up to " + upTo);
+
+        final MessageResults messageResults =
+            admitted(() -> reader.readSnapshot(types, offset, upTo == null ? Long.MAX_VALUE : upTo, location));
+
+        return messagesResponse(request, location, messageResults, true);
+    }
+
+    private <T> T admitted(final Supplier<T> read) {
+        if (admissionController == null) {
+            return read.get();
+        }
+
+        final long start = admissionController.readStarted();
+        try {
+            return read.get();
+        } finally {
+            admissionController.readFinished(start);
+        }
+    }
+
+    private HttpResponse<byte[]> messagesResponse(
+        final HttpRequest<?> request,
+        final String location,
+        final MessageResults messageResults
+    ) {
+        return messagesResponse(request, location, messageResults, false);
+    }
+
+    private HttpResponse<byte[]> messagesResponse(
+        final HttpRequest<?> request,
+        final String location,
+        final MessageResults messageResults,
+        final boolean withChecksum
+    ) {
         final List<Message> messages = messageResults.getMessages();
 
-        final long retryAfterMs = calculateRetryAfter(messageResults);
+        final long retryAfterMs = calculateRetryAfter(messageResults, location);
         LOG.debug("pipe read controller", String.format("set retry time to %d", retryAfterMs));
 
         byte[] responseBytes = JsonHelper.toJson(messages).getBytes();
@@ -92,6 +181,12 @@ public class PipeReadController {
         responseHeaders.put(HttpHeaders.RETRY_AFTER_MS, String.valueOf(retryAfterMs));
         responseHeaders.put(HttpHeaders.PIPE_STATE, messageResults.getPipeState().toString());
 
+        if (withChecksum) {
+            final CRC32 checksum = new CRC32();
+            checksum.update(responseBytes);
+            responseHeaders.put(HttpHeaders.X_CHECKSUM, Long.toString(checksum.getValue()));
+        }
+
         MutableHttpResponse<byte[]> response = HttpResponse.ok(encodedResponse.getEncodedBody()).headers(responseHeaders);
 
         messageResults.getGlobalLatestOffset()
@@ -102,14 +197,75 @@ public class PipeReadController {
         return response;
     }
 
-    private long calculateRetryAfter(MessageResults messageResults) {
-        if (messageResults.getMessages().isEmpty()) {
-            return messageResults.getRetryAfterMs();
+    private Optional<PageStore.OpenedPage> findStoredPage(HttpRequest<?> request, List<String> types, String location, long offset) {
+        if (pageStore == null || !request.getHeaders().contains(ACCEPT_ENCODING)
+            || !request.getHeaders().get(ACCEPT_ENCODING).contains("br")) {
+            return Optional.empty();
+        }
+        return pageStore.find(types, location, offset);
+    }
+
+    // stored pages are never empty, a storage read of them would not ask to wait either
+    private HttpResponse<StreamedFile> storedPageResponse(PageStore.OpenedPage page, String location) {
+        final PageStore.PageSummary summary = page.getSummary();
+        LOG.debug("pipe read controller", "serving stored page from offset " + summary.getFirstOffset());
+
+        final PipeState pipeState;
+        final OptionalLong globalLatestOffset;
+        try {
+            pipeState = reader.getPipeState();
+            globalLatestOffset = reader.getOffset(OffsetName.GLOBAL_LATEST_OFFSET);
+        } catch (RuntimeException exception) {
+            closeQuietly(page.getContent());
+            throw exception;
+        }
+
+        final long retryAfterMs = calculateRetryAfter(summary.getFirstCreated(), summary.isLocationGrouped(), location, 0);
+        final long retryAfterSeconds = (long) Math.ceil(retryAfterMs / (double) 1000);
+
+        MutableHttpResponse<StreamedFile> response = HttpResponse
+            .ok(new StreamedFile(page.getContent(), MediaType.APPLICATION_JSON_TYPE, 0, page.getSizeInBytes()))
+            .header(HttpHeaders.X_CONTENT_ENCODING, "br")
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+            .header(HttpHeaders.RETRY_AFTER_MS, String.valueOf(retryAfterMs))
+            .header(HttpHeaders.PIPE_STATE, pipeState.toString());
+
+        globalLatestOffset.ifPresent(
+            offset -> response.header(HttpHeaders.GLOBAL_LATEST_OFFSET, Long.toString(offset))
+        );
+
+        return response;
+    }
+
+    private void closeQuietly(InputStream content) {
+        try {
+            content.close();
+        } catch (IOException exception) {
+            LOG.error("pipe read controller", "failed to close stored page", exception);
+        }
+    }
+
+    private long calculateRetryAfter(MessageResults messageResults, String location) {
+        final List<Message> messages = messageResults.getMessages();
+        if (messages.isEmpty()) {
+            return admissionController == null
+                ? messageResults.getRetryAfterMs()
+                : Math.max(messageResults.getRetryAfterMs(), admissionController.retryAfterMs());
         }
-        else if (
-            isBootstrappingAndCapacityAvailable(messageResults.getMessages())
+
+        return calculateRetryAfter(
+            messages.get(0).getCreated(),
+            messages.stream().anyMatch(message -> message.getLocationGroup() != null),
+            location,
+            messageResults.getRetryAfterMs()
+        );
+    }
+
+    private long calculateRetryAfter(ZonedDateTime firstCreated, boolean locationGrouped, String location, long readRetryAfterMs) {
+        if (
+            isBootstrappingAndCapacityAvailable(firstCreated, location)
             ||
-            isClusterChangeAndCapacityAvailable(messageResults.getMessages())
+            isClusterChangeAndCapacityAvailable(firstCreated, locationGrouped, location)
         ) {
             if (logging) {
                 LOG.info("pipe read controller", "retry time is 0ms");
@@ -117,26 +273,23 @@ public class PipeReadController {
             return 0;
         }
 
-        return messageResults.getRetryAfterMs();
+        return admissionController == null ? readRetryAfterMs : admissionController.retryAfterMs();
     }
 
-    private boolean isClusterChangeAndCapacityAvailable(List<Message> messages) {
-        return isWithinClusterChangeThreshold(messages) && rateLimiter.tryAcquire();
+    private boolean isClusterChangeAndCapacityAvailable(ZonedDateTime firstCreated, boolean locationGrouped, String location) {
+        return isWithinClusterChangeThreshold(firstCreated, locationGrouped) && rateLimiter.tryAcquire(location);
     }
 
-    private boolean isWithinClusterChangeThreshold(List<Message> messages) {
-        return
-            messages.get(0).getCreated().isAfter(ZonedDateTime.now().minus(clusterChangeThreshold))
-            &&
-            messages.stream().anyMatch(message -> message.getLocationGroup() != null);
+    private boolean isWithinClusterChangeThreshold(ZonedDateTime firstCreated, boolean locationGrouped) {
+        return firstCreated.isAfter(ZonedDateTime.now().minus(clusterChangeThreshold)) && locationGrouped;
     }
 
-    private boolean isBootstrappingAndCapacityAvailable(List<Message> messages) {
-        return isBeforeBootstrapThreshold(messages) && rateLimiter.tryAcquire();
+    private boolean isBootstrappingAndCapacityAvailable(ZonedDateTime firstCreated, String location) {
+        return isBeforeBootstrapThreshold(firstCreated) && rateLimiter.tryAcquire(location);
     }
 
-    private boolean isBeforeBootstrapThreshold(List<Message> messages) {
-        return messages.get(0).getCreated().isBefore(ZonedDateTime.now().minus(bootstrapThreshold));
+    private boolean isBeforeBootstrapThreshold(ZonedDateTime firstCreated) {
+        return firstCreated.isBefore(ZonedDateTime.now().minus(bootstrapThreshold));
     }
 
     private void logOffsetRequestFromRemoteHost(final long offset, final HttpRequest<?> request) {
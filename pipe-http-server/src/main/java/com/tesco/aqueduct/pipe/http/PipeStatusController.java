@@ -1,5 +1,6 @@
 package com.tesco.aqueduct.pipe.http;
 
+import com.tesco.aqueduct.pipe.api.PipeState;
 import com.tesco.aqueduct.pipe.metrics.Measure;
 import io.micronaut.http.annotation.Controller;
 import io.micronaut.http.annotation.Get;
@@ -8,19 +9,37 @@ import io.micronaut.security.rules.SecurityRule;
 import io.reactivex.Single;
 import lombok.Data;
 
+import javax.inject.Inject;
+
 @Secured(SecurityRule.IS_ANONYMOUS)
 @Controller
 @Measure
 public class PipeStatusController {
 
+    private final LocalPipeStatus localPipeStatus;
+
+    @Inject
+    public PipeStatusController(LocalPipeStatus localPipeStatus) {
+        this.localPipeStatus = localPipeStatus;
+    }
+
+    // offset and state let followers choose a peer that is caught up, they are left out until they have been read
     @Get("/pipe/_status")
     Single<Status> status() {
-        return Single.just(new Status("ok", Version.getImplementationVersion()));
+        final LocalPipeStatus.State state = localPipeStatus.getState();
+        return Single.just(new Status(
+            "ok",
+            Version.getImplementationVersion(),
+            state.getLocalLatestOffset(),
+            state.getPipeState()
+        ));
     }
 
     @Data
     private static class Status {
         private final String status;
         private final String version;
+        private final Long localLatestOffset;
+        private final PipeState pipeState;
     }
 }
@@ -0,0 +1,189 @@
+package com.tesco.aqueduct.pipe.http;
+
+import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Requires;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Computes the retry after of pages from the load the server observes, instead of from configured node counts, so the
+ * storage leaves it to this controller when it is enabled. The load is the highest of the database pool utilisation
+ * (from the Hikari metrics when they are published), the concurrent reads relative to the configured maximum, and the
+ * p95 read latency relative to its target.
+ *
+ * The retry after follows the load with additive decrease and multiplicative increase: while the load is below the
+ * target utilisation it shrinks by a fixed step every interval, so stores catch up as fast as there is capacity, and
+ * once the load goes over it doubles, so the database gets relief quickly.
+ *
+ * An empty page means the reader is caught up, it keeps the retry after configured for the storage unless the load
+ * asks for a longer one.
+ */
+@Singleton
+@Requires(property = "pipe.admission.enabled", value = "true")
+public class ReadAdmissionController {
+
+    private static final PipeLogger LOG = new PipeLogger(LoggerFactory.getLogger(ReadAdmissionController.class));
+    private static final int LATENCY_SAMPLES = 200;
+
+    private final double targetUtilisation;
+    private final long targetLatencyMs;
+    private final int maxConcurrentReads;
+    private final long minRetryAfterMs;
+    private final long maxRetryAfterMs;
+    private final long decreaseStepMs;
+    private final long adjustIntervalNanos;
+    private final MeterRegistry meterRegistry;
+    private final LongSupplier nanoTime;
+
+    private final AtomicInteger concurrentReads = new AtomicInteger();
+    private final long[] latenciesMs = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    private int nextLatency;
+
+    private long retryAfterMs;
+    private long lastAdjustment;
+
+    @Inject
+    public ReadAdmissionController(
+        @Property(name = "pipe.admission.target-utilisation", defaultValue = "0.75") double targetUtilisation,
+        @Property(name = "pipe.admission.target-p95-latency", defaultValue = "500ms") Duration targetLatency,
+        @Property(name = "pipe.admission.max-concurrent-reads", defaultValue = "0") int maxConcurrentReads,
+        @Property(name = "pipe.admission.min-retry-after", defaultValue = "0ms") Duration minRetryAfter,
+        @Property(name = "pipe.admission.max-retry-after", defaultValue = "10s") Duration maxRetryAfter,
+        @Property(name = "pipe.admission.decrease-step", defaultValue = "100ms") Duration decreaseStep,
+        @Property(name = "pipe.admission.adjust-interval", defaultValue = "1s") Duration adjustInterval,
+        @Nullable MeterRegistry meterRegistry
+    ) {
+        this(
+            targetUtilisation,
+            targetLatency.toMillis(),
+            maxConcurrentReads,
+            minRetryAfter.toMillis(),
+            maxRetryAfter.toMillis(),
+            decreaseStep.toMillis(),
+            adjustInterval,
+            meterRegistry,
+            System::nanoTime
+        );
+    }
+
+    ReadAdmissionController(
+        double targetUtilisation,
+        long targetLatencyMs,
+        int maxConcurrentReads,
+        long minRetryAfterMs,
+        long maxRetryAfterMs,
+        long decreaseStepMs,
+        Duration adjustInterval,
+        MeterRegistry meterRegistry,
+        LongSupplier nanoTime
+    ) {
+        this.targetUtilisation = targetUtilisation;
+        this.targetLatencyMs = targetLatencyMs;
+        this.maxConcurrentReads = maxConcurrentReads;
+        this.minRetryAfterMs = minRetryAfterMs;
+        this.maxRetryAfterMs = maxRetryAfterMs;
+        this.decreaseStepMs = decreaseStepMs;
+        this.adjustIntervalNanos = adjustInterval.toNanos();
+        this.meterRegistry = meterRegistry;
+        this.nanoTime = nanoTime;
+        this.retryAfterMs = minRetryAfterMs;
+        this.lastAdjustment = nanoTime.getAsLong();
+    }
+
+    /**
+     * @return the time the read started, to be passed to {@link #readFinished(long)}
+     */
+    public long readStarted() {
+        concurrentReads.incrementAndGet();
+        return nanoTime.getAsLong();
+    }
+
+    public void readFinished(long startTime) {
+        concurrentReads.decrementAndGet();
+        final long latencyMs = TimeUnit.NANOSECONDS.toMillis(nanoTime.getAsLong() - startTime);
+
+        synchronized (this) {
+            latenciesMs[nextLatency] = latencyMs;
+            nextLatency = (nextLatency + 1) % LATENCY_SAMPLES;
+            latencyCount = Math.min(latencyCount + 1, LATENCY_SAMPLES);
+        }
+    }
+
+    public synchronized long retryAfterMs() {
+        final long now = nanoTime.getAsLong();
+        if (now - lastAdjustment >= adjustIntervalNanos) {
+            lastAdjustment = now;
+            adjust(load());
+        }
+        return retryAfterMs;
+    }
+
+    private void adjust(double load) {
+        final long previous = retryAfterMs;
+
+        if (load > targetUtilisation) {
+            retryAfterMs = Math.min(maxRetryAfterMs, Math.max(2 * retryAfterMs, Math.max(minRetryAfterMs, 1)));
+        } else {
+            retryAfterMs = Math.max(minRetryAfterMs, retryAfterMs - decreaseStepMs);
+        }
+
+        if (previous != retryAfterMs) {
+            LOG.info("read admission", String.format("load %.2f, retry after %d ms", load, retryAfterMs));
+        }
+    }
+
+    // the latency counts as fully utilised at its target, so it is scaled to the target utilisation
+    double load() {
+        double load = poolUtilisation();
+
+        if (maxConcurrentReads > 0) {
+            load = Math.max(load, concurrentReads.get() / (double) maxConcurrentReads);
+        }
+
+        if (targetLatencyMs > 0 && latencyCount > 0) {
+            load = Math.max(load, targetUtilisation * p95LatencyMs() / targetLatencyMs);
+        }
+
+        return load;
+    }
+
+    private long p95LatencyMs() {
+        final long[] samples = Arrays.copyOf(latenciesMs, latencyCount);
+        Arrays.sort(samples);
+        return samples[(int) Math.ceil(0.95 * samples.length) - 1];
+    }
+
+    // waiting threads mean the pool is saturated, whatever the share of active connections
+    private double poolUtilisation() {
+        if (meterRegistry == null) {
+            return 0;
+        }
+
+        final double pending = sumOfGauges("hikaricp.connections.pending");
+        final double max = sumOfGauges("hikaricp.connections.max");
+        if (max <= 0) {
+            return 0;
+        }
+
+        return pending > 0 ? 1 + pending / max : sumOfGauges("hikaricp.connections.active") / max;
+    }
+
+    private double sumOfGauges(String name) {
+        return meterRegistry.find(name).gauges().stream()
+            .mapToDouble(Gauge::value)
+            .filter(value -> !Double.isNaN(value))
+            .sum();
+    }
+}
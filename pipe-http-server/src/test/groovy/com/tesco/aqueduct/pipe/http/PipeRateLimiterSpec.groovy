@@ -0,0 +1,118 @@
+package com.tesco.aqueduct.pipe.http
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+class PipeRateLimiterSpec extends Specification {
+
+    def now = new AtomicLong()
+    def meterRegistry = new SimpleMeterRegistry()
+
+    def fairLimiter(double capacity, String weights = "") {
+        new PipeRateLimiter(capacity, true, 1, Duration.ofSeconds(30), weights, meterRegistry, { now.get() })
+    }
+
+    void advance(long millis) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis))
+    }
+
+    def "a location cannot take more than its share while other locations are active"() {
+        given:
+        def limiter = fairLimiter(1000)
+        limiter.tryAcquire("slow")
+        advance(1000)
+
+        when: "a fast location asks as often as it can for a second"
+        def grantedToFast = (1..1000).count { advance(1); limiter.tryAcquire("fast") }
+
+        then: "it gets about half of the capacity"
+        grantedToFast <= 510
+    }
+
+    def "locations are given capacity in proportion to their weight"() {
+        given:
+        def limiter = fairLimiter(1000, "heavy:3,light:1")
+        limiter.tryAcquire("heavy")
+        limiter.tryAcquire("light")
+        advance(1000)
+
+        and: "both locations ask for more than the capacity until their burst credit is used"
+        2000.times {
+            advance(1)
+            limiter.tryAcquire("heavy")
+            limiter.tryAcquire("light")
+        }
+
+        when:
+        def granted = [heavy: 0, light: 0]
+        1000.times {
+            advance(1)
+            ["heavy", "light"].each { location -> if (limiter.tryAcquire(location)) granted[location]++ }
+        }
+
+        then:
+        granted.heavy >= 740
+        granted.light <= 260
+    }
+
+    def "locations that are no longer active give their share back"() {
+        given:
+        def limiter = fairLimiter(100)
+        limiter.tryAcquire("finished")
+        advance(20_000)
+        limiter.tryAcquire("still-bootstrapping")
+
+        when:
+        advance(15_000)
+        limiter.tryAcquire("still-bootstrapping")
+
+        then:
+        meterRegistry.get("pipe.rate-limiter.active-locations").gauge().value() == 1
+        meterRegistry.get("pipe.rate-limiter.active-weight").gauge().value() == 1
+    }
+
+    def "granted and denied acquisitions are counted"() {
+        given:
+        def limiter = fairLimiter(1)
+
+        when:
+        3.times { limiter.tryAcquire("location") }
+
+        then:
+        meterRegistry.get("pipe.rate-limiter.granted").counter().count() == 1
+        meterRegistry.get("pipe.rate-limiter.denied").counter().count() == 2
+    }
+
+    def "the active weight stays the sum of the weights of the active locations when locations come and go concurrently"() {
+        given:
+        def limiter = new PipeRateLimiter(1000, true, 1, Duration.ofMillis(50), "", meterRegistry, { System.nanoTime() })
+        def executor = Executors.newFixedThreadPool(8)
+
+        when:
+        def futures = (1..8).collect { thread ->
+            executor.submit {
+                2000.times { limiter.tryAcquire("location-" + (it % 20)) }
+            }
+        }
+        futures*.get(10, TimeUnit.SECONDS)
+        executor.shutdown()
+
+        then:
+        meterRegistry.get("pipe.rate-limiter.active-weight").gauge().value() ==
+            meterRegistry.get("pipe.rate-limiter.active-locations").gauge().value()
+    }
+
+    def "without fair share all locations share a single limit"() {
+        given:
+        def limiter = new PipeRateLimiter(1)
+
+        expect:
+        limiter.tryAcquire("a")
+        !limiter.tryAcquire("b")
+    }
+}
@@ -0,0 +1,104 @@
+package com.tesco.aqueduct.pipe.http
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+class ReadAdmissionControllerSpec extends Specification {
+
+    def now = new AtomicLong()
+    def meterRegistry = new SimpleMeterRegistry()
+    def active = new AtomicLong()
+    def pending = new AtomicLong()
+
+    def setup() {
+        meterRegistry.gauge("hikaricp.connections.max", new AtomicLong(10))
+        meterRegistry.gauge("hikaricp.connections.active", active)
+        meterRegistry.gauge("hikaricp.connections.pending", pending)
+    }
+
+    def controller(int maxConcurrentReads = 0) {
+        new ReadAdmissionController(0.75, 500, maxConcurrentReads, 0, 8000, 100, Duration.ofSeconds(1), meterRegistry, { now.get() })
+    }
+
+    void tick() {
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1))
+    }
+
+    def "retry after doubles every interval while the pool is over the target utilisation"() {
+        given:
+        def controller = controller()
+        active.set(9)
+
+        when:
+        def retryAfters = (1..5).collect { tick(); controller.retryAfterMs() }
+
+        then:
+        retryAfters == [1, 2, 4, 8, 16]
+    }
+
+    def "retry after decreases by a step every interval once the load is below the target"() {
+        given:
+        def controller = controller()
+        active.set(10)
+        12.times { tick(); controller.retryAfterMs() }
+
+        when:
+        active.set(5)
+        def retryAfters = (1..3).collect { tick(); controller.retryAfterMs() }
+
+        then:
+        retryAfters == [1948, 1848, 1748]
+    }
+
+    def "retry after is not adjusted more than once per interval"() {
+        given:
+        def controller = controller()
+        pending.set(1)
+        tick()
+
+        expect:
+        (1..5).collect { controller.retryAfterMs() } == [1, 1, 1, 1, 1]
+    }
+
+    def "retry after does not go over the maximum"() {
+        given:
+        def controller = controller()
+        pending.set(3)
+
+        when:
+        20.times { tick(); controller.retryAfterMs() }
+
+        then:
+        controller.retryAfterMs() == 8000
+    }
+
+    def "slow reads count as load"() {
+        given:
+        def controller = controller()
+
+        when:
+        100.times {
+            def start = controller.readStarted()
+            now.addAndGet(TimeUnit.MILLISECONDS.toNanos(it < 90 ? 100 : 1000))
+            controller.readFinished(start)
+        }
+
+        then: "the p95 latency is twice the target"
+        controller.load() == 1.5
+    }
+
+    def "concurrent reads count as load relative to the configured maximum"() {
+        given:
+        def controller = controller(4)
+
+        when:
+        3.times { controller.readStarted() }
+
+        then:
+        controller.load() == 0.75
+    }
+}
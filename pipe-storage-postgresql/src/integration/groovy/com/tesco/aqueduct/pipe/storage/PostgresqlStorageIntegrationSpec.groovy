@@ -222,6 +222,40 @@ class PostgresqlStorageIntegrationSpec extends StorageSpec {
         result.messages.size() == 2
     }
 
+    def "range reads do not return messages at or above the end of the range"() {
+        given: "I have some records in the integrated database"
+        insert(message(key: "z"))
+        insert(message(key: "y"))
+        insert(message(key: "x"))
+
+        when:
+        MessageResults result = storage.readRange([], 1, 3, "locationUuid")
+
+        then:
+        result.messages*.key == ["z", "y"]
+        result.globalLatestOffset == OptionalLong.of(3)
+    }
+
+    def "snapshot reads return the latest non deleted message per key up to the snapshot offset"() {
+        given:
+        insertWithCluster(1, "A", 1)
+        insertWithCluster(2, "B", 1)
+        insertWithCluster(3, "A", 1)
+        insertWithCluster(4, "C", 1)
+        insertWithCluster(5, "B", 1, LocalDateTime.now(), null)
+        insertWithCluster(6, "C", 1)
+
+        when:
+        MessageResults result = storage.readSnapshot([], 0, 5, "locationUuid")
+
+        then:
+        result.messages*.offset == [3, 4]
+        result.globalLatestOffset == OptionalLong.of(6)
+
+        and: "the snapshot can be read in pages"
+        storage.readSnapshot([], 4, 5, "locationUuid").messages*.offset == [4]
+    }
+
     def "retry-after is non-zero if the pipe has no more data at specified offset"() {
         given: "I have some records in the integrated database"
         insert(message(key: "z"))
@@ -247,6 +281,20 @@ class PostgresqlStorageIntegrationSpec extends StorageSpec {
         result.messages.isEmpty()
     }
 
+    def "retry-after of pages with messages is left to the caller when the storage does not compute it"() {
+        given:
+        storage = new PostgresqlStorage(dataSource, dataSource, limit, retryAfter, batchSize, new GlobalLatestOffsetCache(), 1, 1, 4, clusterStorage, false, false)
+        insert(message(key: "z"))
+
+        expect: "pages with messages carry no retry after"
+        storage.read([], 0, "locationUuid").retryAfterMs == 0
+
+        and: "empty pages keep the configured retry after"
+        def emptyPageRetryAfter = storage.read([], 4, "locationUuid").retryAfterMs
+        emptyPageRetryAfter >= retryAfter
+        emptyPageRetryAfter <= retryAfter * 2
+    }
+
     def "Messages with TTL set to future are not compacted"() {
         given: "messages stored with cluster id and TTL set to today"
         def createdTime = LocalDateTime.now().plusMinutes(60)
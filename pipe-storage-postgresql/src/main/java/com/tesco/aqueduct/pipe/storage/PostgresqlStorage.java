@@ -2,6 +2,7 @@ package com.tesco.aqueduct.pipe.storage;
 
 import com.tesco.aqueduct.pipe.api.*;
 import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import lombok.Value;
 import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
@@ -10,6 +11,9 @@ import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class PostgresqlStorage implements CentralStorage {
 
@@ -25,6 +29,8 @@ public class PostgresqlStorage implements CentralStorage {
     private final long clusterDBPoolSize;
     private final int workMemMb;
     private ClusterStorage clusterStorage;
+    private final Map<CoalescedRead, CompletableFuture<MessageResults>> readsInFlight;
+    private final boolean computeRetryAfter;
 
     public PostgresqlStorage(
         final DataSource pipeDataSource,
@@ -37,6 +43,49 @@ public class PostgresqlStorage implements CentralStorage {
         long clusterDBPoolSize,
         int workMemMb,
         ClusterStorage clusterStorage
+    ) {
+        this(
+            pipeDataSource, compactionDataSource, limit, retryAfter, maxBatchSize, globalLatestOffsetCache, nodeCount,
+            clusterDBPoolSize, workMemMb, clusterStorage, false
+        );
+    }
+
+    public PostgresqlStorage(
+        final DataSource pipeDataSource,
+        final DataSource compactionDataSource,
+        final int limit,
+        final long retryAfter,
+        final long maxBatchSize,
+        final GlobalLatestOffsetCache globalLatestOffsetCache,
+        int nodeCount,
+        long clusterDBPoolSize,
+        int workMemMb,
+        ClusterStorage clusterStorage,
+        boolean coalesceReads
+    ) {
+        this(
+            pipeDataSource, compactionDataSource, limit, retryAfter, maxBatchSize, globalLatestOffsetCache, nodeCount,
+            clusterDBPoolSize, workMemMb, clusterStorage, coalesceReads, true
+        );
+    }
+
+    /**
+     * @param computeRetryAfter false when the caller decides the retry after of pages with messages itself, those
+     *                          results then carry 0 while empty pages keep the configured retry after
+     */
+    public PostgresqlStorage(
+        final DataSource pipeDataSource,
+        final DataSource compactionDataSource,
+        final int limit,
+        final long retryAfter,
+        final long maxBatchSize,
+        final GlobalLatestOffsetCache globalLatestOffsetCache,
+        int nodeCount,
+        long clusterDBPoolSize,
+        int workMemMb,
+        ClusterStorage clusterStorage,
+        boolean coalesceReads,
+        boolean computeRetryAfter
     ) {
         this.retryAfter = retryAfter;
         this.limit = limit;
@@ -48,6 +97,8 @@ public class PostgresqlStorage implements CentralStorage {
         this.maxBatchSize = maxBatchSize + (((long)Message.MAX_OVERHEAD_SIZE) * limit);
         this.workMemMb = workMemMb;
         this.clusterStorage = clusterStorage;
+        this.readsInFlight = coalesceReads ? new ConcurrentHashMap<>() : null;
+        this.computeRetryAfter = computeRetryAfter;
 
         //initialise connection pool eagerly
         try (Connection connection = this.pipeDataSource.getConnection()) {
@@ -62,6 +113,36 @@ public class PostgresqlStorage implements CentralStorage {
         final List<String> types,
         final long startOffset,
         final String locationUuid
+    ) {
+        return readRange(types, startOffset, Long.MAX_VALUE, locationUuid);
+    }
+
+    @Override
+    public MessageResults readRange(
+        final List<String> types,
+        final long startOffset,
+        final long toOffset,
+        final String locationUuid
+    ) {
+        return read(types, startOffset, toOffset, locationUuid, false);
+    }
+
+    @Override
+    public MessageResults readSnapshot(
+        final List<String> types,
+        final long startOffset,
+        final long upToOffset,
+        final String locationUuid
+    ) {
+        return read(types, startOffset, upToOffset == Long.MAX_VALUE ? upToOffset : upToOffset + 1, locationUuid, true);
+    }
+
+    private MessageResults read(
+        final List<String> types,
+        final long startOffset,
+        final long toOffset,
+        final String locationUuid,
+        final boolean snapshot
     ) {
         long start = System.currentTimeMillis();
         Connection connection = null;
@@ -73,7 +154,7 @@ public class PostgresqlStorage implements CentralStorage {
             List<Long> locationGroups = getLocationGroupsFor(locationUuid, connection);
 
             if (isValidAndUnexpired(entry)) {
-                return readMessages(types, start, startOffset, entry.get().getClusterIds(), locationGroups, connection);
+                return coalescedReadMessages(types, start, startOffset, toOffset, entry.get().getClusterIds(), locationGroups, snapshot, connection);
             } else {
                 commit(connection);
                 close(connection);
@@ -86,10 +167,10 @@ public class PostgresqlStorage implements CentralStorage {
                 locationGroups = getLocationGroupsFor(locationUuid, connection);
 
                 if (newClusterIds.isPresent()) {
-                    return readMessages(types, start, startOffset, newClusterIds.get(), locationGroups, connection);
+                    return coalescedReadMessages(types, start, startOffset, toOffset, newClusterIds.get(), locationGroups, snapshot, connection);
                 } else {
                     LOG.info("postgresql storage", "Recursive read due to Cluster Cache invalidation race condition");
-                    return read(types, startOffset, locationUuid);
+                    return read(types, startOffset, toOffset, locationUuid, snapshot);
                 }
             }
         } catch (SQLException exception) {
@@ -144,12 +225,79 @@ public class PostgresqlStorage implements CentralStorage {
         return entry.map(ClusterCacheEntry::isValidAndUnexpired).orElse(false);
     }
 
+    // identical reads of locations resolving to the same clusters and location groups share a single events query,
+    // the reads waiting for it give their connection back in the meantime
+    private MessageResults coalescedReadMessages(
+        List<String> types,
+        long start,
+        long startOffset,
+        long toOffset,
+        List<Long> clusterIds,
+        List<Long> locationGroups,
+        boolean snapshot,
+        Connection connection
+    ) throws SQLException {
+        if (readsInFlight == null) {
+            return readMessages(types, start, startOffset, toOffset, clusterIds, locationGroups, snapshot, connection);
+        }
+
+        final CoalescedRead read = new CoalescedRead(
+            sorted(types), startOffset, toOffset, sorted(clusterIds), sorted(locationGroups), snapshot
+        );
+        final CompletableFuture<MessageResults> ownResults = new CompletableFuture<>();
+        final CompletableFuture<MessageResults> resultsInFlight = readsInFlight.putIfAbsent(read, ownResults);
+
+        if (resultsInFlight != null) {
+            commit(connection);
+            close(connection);
+            LOG.debug("postgresql storage", "coalesced read from offset " + startOffset);
+            return awaitCoalescedRead(resultsInFlight);
+        }
+
+        try {
+            final MessageResults results =
+                readMessages(types, start, startOffset, toOffset, clusterIds, locationGroups, snapshot, connection);
+            ownResults.complete(results);
+            return results;
+        } catch (SQLException | RuntimeException exception) {
+            ownResults.completeExceptionally(exception);
+            throw exception;
+        } finally {
+            readsInFlight.remove(read, ownResults);
+        }
+    }
+
+    private MessageResults awaitCoalescedRead(CompletableFuture<MessageResults> resultsInFlight) throws SQLException {
+        try {
+            return resultsInFlight.join();
+        } catch (CompletionException exception) {
+            if (exception.getCause() instanceof SQLException) {
+                throw (SQLException) exception.getCause();
+            }
+            if (exception.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) exception.getCause();
+            }
+            throw exception;
+        }
+    }
+
+    private static <T extends Comparable<T>> List<T> sorted(List<T> values) {
+        if (values == null) {
+            return Collections.emptyList();
+        }
+        final List<T> sortedValues = new ArrayList<>(values);
+        Collections.sort(sortedValues);
+        return sortedValues;
+    }
+
     private MessageResults readMessages(
         List<String> types,
         long start,
         long startOffset,
+        long toOffset,
         List<Long> clusterIds,
         List<Long> locationGroups,
+        boolean snapshot,
         Connection connection
     ) throws SQLException {
 
@@ -157,14 +305,20 @@ public class PostgresqlStorage implements CentralStorage {
 
         final long globalLatestOffset = globalLatestOffsetCache.get(connection);
 
-        try (PreparedStatement messagesQuery = getMessagesStatement(connection, types, startOffset, globalLatestOffset, clusterIds, locationGroups)) {
+        final long endOffset = Math.min(globalLatestOffset, toOffset - 1);
+
+        try (PreparedStatement messagesQuery = snapshot
+            ? getSnapshotStatement(connection, types, startOffset, endOffset, clusterIds, locationGroups)
+            : getMessagesStatement(connection, types, startOffset, endOffset, clusterIds, locationGroups)) {
 
             final List<Message> messages = runMessagesQuery(messagesQuery);
             long end = System.currentTimeMillis();
 
-            final long retry = calculateRetryAfter(end - start, messages.size());
+            final long retry = computeRetryAfter || messages.isEmpty() ? calculateRetryAfter(end - start, messages.size()) : 0;
 
-            LOG.info("PostgresSqlStorage:retry", String.valueOf(retry));
+            if (computeRetryAfter) {
+                LOG.info("PostgresSqlStorage:retry", String.valueOf(retry));
+            }
             return new MessageResults(messages, retry, OptionalLong.of(globalLatestOffset), PipeState.UP_TO_DATE);
         }
     }
@@ -356,6 +510,39 @@ public class PostgresqlStorage implements CentralStorage {
         }
     }
 
+    private PreparedStatement getSnapshotStatement(
+        final Connection connection,
+        final List<String> types,
+        final long startOffset,
+        final long endOffset,
+        final List<Long> clusterIds,
+        final List<Long> locationGroups) {
+        try {
+            final boolean filterByTypes = types != null && !types.isEmpty();
+            final PreparedStatement query = connection.prepareStatement(getSelectSnapshotEventsQuery(maxBatchSize, filterByTypes));
+            final Array clusterIdArray = connection.createArrayOf("BIGINT", clusterIds.toArray());
+            final Array locationGroupsArray = connection.createArrayOf("BIGINT", locationGroups.toArray());
+
+            int parameterIndex = 1;
+            query.setArray(parameterIndex++, clusterIdArray);
+            query.setArray(parameterIndex++, locationGroupsArray);
+            query.setLong(parameterIndex++, startOffset);
+            query.setLong(parameterIndex++, endOffset);
+            if (filterByTypes) {
+                query.setString(parameterIndex++, String.join(",", types));
+            }
+            query.setLong(parameterIndex++, endOffset);
+            query.setArray(parameterIndex++, clusterIdArray);
+            query.setArray(parameterIndex++, locationGroupsArray);
+            query.setLong(parameterIndex, limit);
+
+            return query;
+        } catch (SQLException exception) {
+            LOG.error("postgresql storage", "get snapshot statement", exception);
+            throw new RuntimeException(exception);
+        }
+    }
+
     public boolean compactAndMaintain(LocalDateTime compactDeletionsThreshold, final boolean compactDeletions) {
         boolean compacted = false;
         try (Connection connection = compactionDataSource.getConnection()) {
@@ -466,6 +653,33 @@ public class PostgresqlStorage implements CentralStorage {
             " WHERE running_size <= " + maxBatchSize;
     }
 
+    // an event is part of the snapshot unless it is a deletion or a later event visible to the location supersedes it
+    private String getSelectSnapshotEventsQuery(long maxBatchSize, boolean filterByTypes) {
+        return
+            " SELECT type, msg_key, content_type, msg_offset, created_utc, data, location_group " +
+            " FROM " +
+            " ( " +
+            "   SELECT " +
+            "     type, msg_key, content_type, msg_offset, created_utc, data, location_group, " +
+            "     SUM(event_size) OVER (ORDER BY msg_offset ASC) AS running_size " +
+            "   FROM events " +
+                  addClusterAndLocationGroupFilter() +
+            "   AND events.msg_offset >= ? " +
+            "   AND events.msg_offset <= ?" +
+                  (filterByTypes ? " AND type = ANY (string_to_array(?, ','))" : "") +
+            "   AND events.data IS NOT NULL " +
+            "   AND NOT EXISTS ( " +
+            "     SELECT 1 FROM events later " +
+            "     WHERE later.msg_key = events.msg_key AND later.type = events.type " +
+            "     AND later.msg_offset > events.msg_offset AND later.msg_offset <= ? " +
+            "     AND later.cluster_id = ANY (?) AND (later.location_group IS NULL OR later.location_group = ANY (?)) " +
+            "   ) " +
+            " ORDER BY msg_offset " +
+            " LIMIT ?" +
+            " ) unused " +
+            " WHERE running_size <= " + maxBatchSize;
+    }
+
     private String addClusterAndLocationGroupFilter() {
         return
             " WHERE " +
@@ -512,4 +726,14 @@ public class PostgresqlStorage implements CentralStorage {
     private static String getMessageCountByTypeQuery() {
         return "SELECT type, COUNT(type) FROM events GROUP BY type;";
     }
+
+    @Value
+    private static class CoalescedRead {
+        List<String> types;
+        long startOffset;
+        long toOffset;
+        List<Long> clusterIds;
+        List<Long> locationGroups;
+        boolean snapshot;
+    }
 }
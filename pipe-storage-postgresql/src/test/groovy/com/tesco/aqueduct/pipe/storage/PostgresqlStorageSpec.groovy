@@ -6,7 +6,15 @@ import spock.lang.Unroll
 
 import javax.sql.DataSource
 import java.sql.Connection
+import java.sql.PreparedStatement
+import java.sql.ResultSet
 import java.sql.SQLException
+import java.time.LocalDateTime
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 
 class PostgresqlStorageSpec extends Specification {
 
@@ -78,4 +86,69 @@ class PostgresqlStorageSpec extends Specification {
         def exception = thrown(RuntimeException)
         exception.getCause() instanceof SQLException
     }
+
+    def "identical concurrent reads of locations in the same clusters share one events query"() {
+        given:
+        def eventsQueries = new AtomicInteger()
+        def leaderReading = new CountDownLatch(1)
+        def followerGaveConnectionBack = new CountDownLatch(1)
+        def releaseLeader = new CountDownLatch(1)
+
+        and:
+        def dataSource = Mock(DataSource)
+        dataSource.getConnection() >>> [
+            Mock(Connection),
+            connection(eventsQueries, new CountDownLatch(1)),
+            connection(eventsQueries, followerGaveConnectionBack)
+        ]
+
+        and:
+        def entry = { location -> Optional.of(new ClusterCacheEntry(location, [2L, 1L], LocalDateTime.now().plusHours(1), true)) }
+        clusterStorage.getClusterCacheEntry("location-a", _) >> entry("location-a")
+        clusterStorage.getClusterCacheEntry("location-b", _) >> entry("location-b")
+
+        and: "the leader is held once it owns the read, outside of any mock as mocks answer one thread at a time"
+        def globalLatestOffsetCache = new GlobalLatestOffsetCache() {
+            @Override
+            long get(Connection connection) {
+                leaderReading.countDown()
+                releaseLeader.await(5, TimeUnit.SECONDS)
+                return 10
+            }
+        }
+
+        and:
+        def storage = new PostgresqlStorage(dataSource, Mock(DataSource), 20, retryAfter, 2, globalLatestOffsetCache, 1000, 4, 4, clusterStorage, true)
+        def executor = Executors.newFixedThreadPool(2)
+
+        when:
+        def leader = executor.submit({ storage.read(["type"], 0, "location-a") } as Callable)
+        leaderReading.await(5, TimeUnit.SECONDS)
+        def follower = executor.submit({ storage.read(["type"], 0, "location-b") } as Callable)
+        followerGaveConnectionBack.await(5, TimeUnit.SECONDS)
+        releaseLeader.countDown()
+
+        then:
+        follower.get(5, TimeUnit.SECONDS).is(leader.get(5, TimeUnit.SECONDS))
+        eventsQueries.get() == 1
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
+    private Connection connection(AtomicInteger eventsQueries, CountDownLatch closed) {
+        def emptyResultSet = Stub(ResultSet) {
+            next() >> false
+        }
+        def statement = Stub(PreparedStatement) {
+            executeQuery() >> emptyResultSet
+        }
+        def eventsStatement = Stub(PreparedStatement) {
+            executeQuery() >> { eventsQueries.incrementAndGet(); emptyResultSet }
+        }
+        return Mock(Connection) {
+            prepareStatement(_ as String) >> { String sql -> sql.contains("FROM events") ? eventsStatement : statement }
+            close() >> { closed.countDown() }
+        }
+    }
 }
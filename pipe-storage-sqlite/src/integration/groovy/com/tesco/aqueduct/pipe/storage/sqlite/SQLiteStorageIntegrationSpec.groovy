@@ -89,6 +89,9 @@ class SQLiteStorageIntegrationSpec extends Specification {
         sql.execute("DROP TABLE IF EXISTS EVENT;")
         sql.execute("DROP TABLE IF EXISTS OFFSET;")
         sql.execute("DROP TABLE IF EXISTS PIPE_STATE;")
+        sql.execute("DROP TABLE IF EXISTS LATEST_EVENT;")
+        sql.execute("DROP TABLE IF EXISTS SUPERSEDED_EVENT;")
+        sql.execute("DROP TABLE IF EXISTS LATEST_EVENT_DIGEST;")
 
         sqliteStorage = new SQLiteStorage(successfulDataSource(), limit, 10, batchSize)
 
@@ -184,6 +187,25 @@ class SQLiteStorageIntegrationSpec extends Specification {
         notThrown(Exception)
     }
 
+    def 'snapshot messages are loaded in bulk and the types index and synchronous mode are restored'() {
+        given:
+        def sql = Sql.newInstance(connectionUrl)
+        def synchronous = sql.firstRow("PRAGMA synchronous;")[0]
+        def storage = new SQLiteStorage(successfulDataSource(), 2, 10, batchSize, 0, 0, 10)
+
+        when:
+        storage.loadSnapshot([message(1, "a", "type-1", createdTime()), message(4, "b", "type-2", createdTime()), message(7, "c", "type-1", createdTime())])
+
+        then:
+        storage.read(null, 0, "locationUuid").messages*.offset == [1, 4]
+        storage.read(["type-1"], 0, "locationUuid").messages*.offset == [1, 7]
+        sql.rows("SELECT name FROM sqlite_master WHERE type = 'index' AND name = 'types_idx';").size() == 1
+        sql.firstRow("PRAGMA synchronous;")[0] == synchronous
+
+        and: 'latest events are rebuilt so that compaction keeps the loaded messages'
+        sql.firstRow("SELECT count(*) FROM LATEST_EVENT;")[0] == 3
+    }
+
     def 'multiple messages are written to the database'() {
         given: 'multiple messages to be stored'
         def messages = [message(1), message(2)]
@@ -644,6 +666,34 @@ class SQLiteStorageIntegrationSpec extends Specification {
         receivedMessages.messages[1] == messages.get(2)
     }
 
+    def 'a snapshot holds the latest non deleted message per key and type up to the given offset'() {
+        given:
+        sqliteStorage.write([
+            message(1, "key-a", "type-1", createdTime()),
+            message(2, "key-b", "type-1", createdTime()),
+            message(3, "key-a", "type-2", createdTime()),
+            message(4, "key-a", "type-1", createdTime()),
+            delete(5, "key-b", "type-1", createdTime()),
+            message(6, "key-c", "type-1", createdTime()),
+            message(7, "key-c", "type-1", createdTime())
+        ])
+
+        when:
+        def snapshot = sqliteStorage.readSnapshot(types, offset, upTo, "locationUuid")
+
+        then:
+        snapshot.messages*.offset == expectedOffsets
+        snapshot.globalLatestOffset == OptionalLong.of(3)
+
+        where:
+        types      | offset | upTo           | expectedOffsets
+        null       | 0      | Long.MAX_VALUE | [3, 4, 7]
+        ["type-1"] | 0      | Long.MAX_VALUE | [4, 7]
+        null       | 0      | 4              | [2, 3, 4]
+        null       | 0      | 6              | [3, 4, 6]
+        null       | 4      | Long.MAX_VALUE | [4, 7]
+    }
+
     def 'retrieves the global latest offset'() {
         given: 'offset table exists with globalLatestOffset'
         // setup creates the table and populates globalLatestOffset
@@ -818,8 +868,12 @@ class SQLiteStorageIntegrationSpec extends Specification {
         messageResults.messages*.key == ["A", "B", "D"]
     }
 
-    def 'messages are compacted as per the given compaction and deletion compaction threshold, complex case'() {
-        given: "Compaction threshold and deletion compaction threshold"
+    @Unroll
+    def 'messages are compacted as per the given compaction and deletion compaction threshold, complex case, compaction batch size #compactionBatchSize'() {
+        given: "a storage using the given compaction batch size"
+        def storage = new SQLiteStorage(successfulDataSource(), limit, 10, batchSize, 0, 0, compactionBatchSize)
+
+        and: "Compaction threshold and deletion compaction threshold"
         def compactThreshold = ZonedDateTime.parse("2000-12-05T10:00:00Z")
         def deletionCompactThreshold = ZonedDateTime.parse("2000-12-03T10:00:00Z")
 
@@ -866,18 +920,99 @@ class SQLiteStorageIntegrationSpec extends Specification {
             message(25, "G", "some-type", ZonedDateTime.parse("2000-12-08T10:00:00Z"), null),
             // Nothing is removed
         ]
-        sqliteStorage.write(messages)
+        storage.write(messages)
 
         when: 'compaction is run'
-        sqliteStorage.compactUpTo(compactThreshold, deletionCompactThreshold, true)
+        storage.compactUpTo(compactThreshold, deletionCompactThreshold, true)
 
         and: 'all messages are requested'
-        MessageResults messageResults = sqliteStorage.read(null, 1, "locationUuid")
+        MessageResults messageResults = storage.read(null, 1, "locationUuid")
 
         then: 'duplicate and delete messages that are outside of given thresholds are removed'
         messageResults.messages.size() == 12
         messageResults.messages*.offset*.intValue() == [4, 7, 10, 11, 14, 15, 16, 17, 22, 23, 24, 25]
         messageResults.messages*.key == ["B", "C", "D", "D", "E", "F", "F", "F", "G", "G", "G", "G"]
+
+        where:
+        compactionBatchSize << [0, 1, 1000]
+    }
+
+    def 'latest event compaction keeps the latest message within the threshold when a newer one is beyond it'() {
+        given: 'a storage using latest event compaction'
+        def storage = new SQLiteStorage(successfulDataSource(), limit, 10, batchSize, 0, 0, 2)
+
+        and: 'an existing data store with duplicate messages for the same key either side of the threshold'
+        storage.write([
+            message(1, "A", ZonedDateTime.parse("2000-12-01T10:00:00Z")),
+            message(2, "A", ZonedDateTime.parse("2000-12-01T11:00:00Z")),
+            message(3, "B", ZonedDateTime.parse("2000-12-01T12:00:00Z")),
+            message(4, "A", ZonedDateTime.parse("2000-12-03T10:00:00Z")),
+            message(5, "B", ZonedDateTime.parse("2000-12-03T10:00:00Z"))
+        ])
+
+        when: 'compaction is run'
+        storage.compactUpTo(ZonedDateTime.parse("2000-12-02T10:00:00Z"), DELETION_COMPACT_THRESHOLD, true)
+
+        and: 'all messages are requested'
+        MessageResults messageResults = storage.read(null, 1, "locationUuid")
+
+        then: 'only messages superseded within the threshold are deleted'
+        messageResults.messages*.offset*.intValue() == [2, 3, 4, 5]
+
+        when: 'compaction is run with a later threshold'
+        storage.compactUpTo(ZonedDateTime.parse("2000-12-04T10:00:00Z"), DELETION_COMPACT_THRESHOLD, true)
+
+        then: 'all superseded messages are deleted'
+        storage.read(null, 1, "locationUuid").messages*.offset*.intValue() == [4, 5]
+    }
+
+    def 'latest events stay in sync with events when the newest event is a compacted deletion'() {
+        given: 'a storage using latest event compaction'
+        def storage = new SQLiteStorage(successfulDataSource(), limit, 10, batchSize, 0, 0, 10)
+
+        and: 'the newest event is a deletion older than the deletion threshold'
+        storage.write([
+            message(1, "A", "some-type", ZonedDateTime.parse("2000-11-30T10:00:00Z")),
+            message(2, "B", "some-type", ZonedDateTime.parse("2000-11-30T10:00:00Z"), null)
+        ])
+
+        when: 'deletions are compacted'
+        storage.compactUpTo(ZonedDateTime.parse("2000-12-02T10:00:00Z"), DELETION_COMPACT_THRESHOLD, true)
+
+        then: 'the deletion is gone'
+        storage.read(null, 1, "locationUuid").messages*.offset*.intValue() == [1]
+
+        and: 'latest events do not need a rebuild on the next start'
+        def sql = Sql.newInstance(connectionUrl)
+        sql.firstRow(SQLiteQueries.LATEST_EVENT_IN_SYNC)[0] == 1
+        sql.rows("SELECT msg_key FROM LATEST_EVENT")*.msg_key == ["A"]
+    }
+
+    def 'latest events are rebuilt for messages written before latest event compaction was enabled'() {
+        given: 'messages written without latest event compaction'
+        sqliteStorage.write([
+            message(1, "A", ZonedDateTime.parse("2000-12-01T10:00:00Z")),
+            message(2, "B", ZonedDateTime.parse("2000-12-01T10:00:00Z")),
+            message(3, "A", ZonedDateTime.parse("2000-12-01T10:00:00Z"))
+        ])
+
+        and: 'a storage using latest event compaction on the same database'
+        def storage = new SQLiteStorage(successfulDataSource(), limit, 10, batchSize, 0, 0, 10)
+
+        and: 'more messages written with it'
+        storage.write([
+            message(4, "B", ZonedDateTime.parse("2000-12-01T10:00:00Z")),
+            message(5, "A", ZonedDateTime.parse("2000-12-01T10:00:00Z"))
+        ])
+
+        when: 'compaction is run on the whole data store'
+        storage.compactUpTo(ZonedDateTime.parse("2000-12-02T10:00:00Z"), DELETION_COMPACT_THRESHOLD, true)
+
+        then: 'all duplicate messages are deleted'
+        storage.read(null, 1, "locationUuid").messages*.offset*.intValue() == [4, 5]
+
+        and: 'superseded events have been cleaned up'
+        Sql.newInstance(connectionUrl).firstRow("SELECT count(*) FROM SUPERSEDED_EVENT")[0] == 0
     }
 
     def 'All duplicate messages are compacted to a given offset, complex case'() {
@@ -906,6 +1041,34 @@ class SQLiteStorageIntegrationSpec extends Specification {
         messageResults.messages*.key == ["A", "B", "C", "A", "B", "B", "D"]
     }
 
+    def 'incremental maintenance switches the database to incremental auto vacuum and reclaims free pages'() {
+        given: 'a storage with incremental vacuum enabled'
+        def sql = Sql.newInstance(connectionUrl)
+        def storage = new SQLiteStorage(successfulDataSource(), limit, 10, batchSize, 10, 0)
+
+        when: 'maintenance is run for the first time'
+        storage.runMaintenanceTasks()
+
+        then: 'the database uses incremental auto vacuum'
+        sql.firstRow("PRAGMA auto_vacuum;")[0] == 2
+
+        when: 'superseded messages are compacted away'
+        storage.write((1..200).collect { message(it, "A", "some-type", ZonedDateTime.parse("2000-12-01T10:00:00Z"), "x" * 1000) })
+        storage.compactUpTo(ZonedDateTime.parse("2000-12-02T10:00:00Z"), DELETION_COMPACT_THRESHOLD, true)
+
+        then: 'there are free pages left in the database'
+        sql.firstRow("PRAGMA freelist_count;")[0] > 0
+
+        when: 'maintenance is run again'
+        storage.runMaintenanceTasks()
+
+        then: 'free pages are reclaimed'
+        sql.firstRow("PRAGMA freelist_count;")[0] == 0
+
+        and: 'the latest message is still readable'
+        storage.read(null, 0, "locationUuid").messages*.offset == [200L]
+    }
+
     def 'messages, offset and pipe state are deleted when deleteAllMessages is called'() {
         given: 'multiple messages to be stored'
         def messages = [message(1), message(2)]
@@ -1068,6 +1231,38 @@ class SQLiteStorageIntegrationSpec extends Specification {
         0L == sqliteStorage.getOffsetConsistencySum(offset.get(), [])
     }
 
+    def 'offset consistency sum from the latest event digest matches the full calculation for any threshold'() {
+        given: 'a storage using latest event compaction'
+        def storage = new SQLiteStorage(successfulDataSource(), limit, 10, batchSize, 0, 0, 3)
+
+        and: 'messages and deletions for a small set of keys and types'
+        def random = new Random(42)
+        def startTime = ZonedDateTime.parse("2000-12-01T00:00:00Z")
+        def messages = (1..200).collect { offset ->
+            def key = "key-" + random.nextInt(15)
+            def type = "type-" + random.nextInt(2)
+            def created = startTime.plusMinutes(offset)
+            random.nextInt(5) == 0 ? delete(offset, key, type, created) : message(offset, key, type, created)
+        }
+        storage.write(messages.subList(0, 100))
+        storage.write(new PipeEntity(messages.subList(100, 200), null, null))
+
+        expect: 'the same sum as the full calculation'
+        (0..201).findAll { storage.getOffsetConsistencySum(it, []) != sqliteStorage.getOffsetConsistencySum(it, []) } == []
+
+        when: 'compaction is run'
+        storage.compactUpTo(startTime.plusMinutes(120), startTime.plusMinutes(60), true)
+
+        then: 'the sum still matches the full calculation on the compacted data'
+        (0..201).findAll { storage.getOffsetConsistencySum(it, []) != sqliteStorage.getOffsetConsistencySum(it, []) } == []
+
+        when: 'everything is deleted'
+        storage.deleteAll()
+
+        then: 'the sum is reset'
+        storage.getOffsetConsistencySum(201, []) == 0L
+    }
+
     def 'calculateOffsetConsistencySum returns the latest offset for given max offset of messages with same keys prior to the current hour'() {
         given: "messages in a database of the same key"
         if(ZonedDateTime.now().minute == 59 && ZonedDateTime.now().second == 59) {
@@ -0,0 +1,233 @@
+package com.tesco.aqueduct.pipe.storage.sqlite
+
+import com.tesco.aqueduct.pipe.api.*
+import groovy.sql.Sql
+import org.sqlite.SQLiteDataSource
+import spock.lang.Specification
+
+import java.time.ZoneId
+import java.time.ZonedDateTime
+
+import static com.tesco.aqueduct.pipe.api.OffsetName.GLOBAL_LATEST_OFFSET
+
+class ShardedSQLiteStorageIntegrationSpec extends Specification {
+
+    static final def mainConnectionUrl = "jdbc:sqlite:aqueduct-pipe-main.db"
+    static final def shardConnectionUrl = "jdbc:sqlite:aqueduct-pipe-shard.db"
+    static final def limit = 1000
+
+    long batchSize = 1000
+
+    ZonedDateTime createdTime() {
+        ZonedDateTime.of(2020, 01, 01, 00, 00, 00, 0, ZoneId.of("UTC"))
+    }
+
+    def message(long offset, String type, String key = "key-$offset") {
+        def messageForSizing = new Message(type, key, "text/plain", offset, createdTime(), "some-data")
+
+        return new Message(
+            type,
+            key,
+            "text/plain",
+            offset,
+            createdTime(),
+            "some-data",
+            JsonHelper.toJson(messageForSizing).length()
+        )
+    }
+
+    def setup() {
+        [mainConnectionUrl, shardConnectionUrl].each {
+            def sql = Sql.newInstance(it)
+            sql.execute("DROP TABLE IF EXISTS EVENT;")
+            sql.execute("DROP TABLE IF EXISTS OFFSET;")
+            sql.execute("DROP TABLE IF EXISTS PIPE_STATE;")
+            sql.execute("DROP TABLE IF EXISTS LATEST_EVENT;")
+            sql.execute("DROP TABLE IF EXISTS SUPERSEDED_EVENT;")
+            sql.execute("DROP TABLE IF EXISTS LATEST_EVENT_DIGEST;")
+            sql.close()
+        }
+    }
+
+    def dataSource(String url) {
+        def dataSource = new SQLiteDataSource()
+        dataSource.setUrl(url)
+
+        return dataSource
+    }
+
+    def shardedStorage(int limit = limit) {
+        def shardDataSource = dataSource(shardConnectionUrl)
+
+        return new ShardedSQLiteStorage(
+            dataSource(mainConnectionUrl),
+            ["type-b": shardDataSource, "type-c": shardDataSource],
+            limit,
+            10,
+            batchSize
+        )
+    }
+
+    def 'maintenance options are passed to the main database and every shard'() {
+        given: 'a sharded storage with incremental vacuum and compaction batches enabled'
+        def shardDataSource = dataSource(shardConnectionUrl)
+        def storage = new ShardedSQLiteStorage(
+            dataSource(mainConnectionUrl),
+            ["type-b": shardDataSource],
+            limit,
+            10,
+            batchSize,
+            10,
+            0,
+            100
+        )
+
+        when: 'maintenance is run'
+        storage.runMaintenanceTasks()
+
+        then: 'every database uses incremental auto vacuum and tracks the latest events'
+        [mainConnectionUrl, shardConnectionUrl].each {
+            def sql = Sql.newInstance(it)
+            assert sql.firstRow("PRAGMA auto_vacuum;")[0] == 2
+            assert sql.firstRow("SELECT count(*) FROM sqlite_master WHERE name = 'LATEST_EVENT';")[0] == 1
+            sql.close()
+        }
+    }
+
+    def 'events are stored in the shard of their type and read back in offset order'() {
+        given:
+        def storage = shardedStorage()
+
+        when:
+        storage.write(new PipeEntity(
+            [message(1, "type-a"), message(2, "type-b"), message(3, "type-c"), message(4, "type-a"), message(5, "type-b")],
+            [new OffsetEntity(GLOBAL_LATEST_OFFSET, OptionalLong.of(5))],
+            PipeState.UP_TO_DATE
+        ))
+
+        then: 'each database only holds the events of its types'
+        Sql.newInstance(mainConnectionUrl).rows("SELECT msg_offset FROM EVENT ORDER BY msg_offset;")*.msg_offset == [1, 4]
+        Sql.newInstance(shardConnectionUrl).rows("SELECT msg_offset FROM EVENT ORDER BY msg_offset;")*.msg_offset == [2, 3, 5]
+
+        and: 'reading all types merges them by offset'
+        def result = storage.read(null, 0, "locationUuid")
+        result.messages*.offset == [1, 2, 3, 4, 5]
+        result.globalLatestOffset == OptionalLong.of(5)
+        result.pipeState == PipeState.UP_TO_DATE
+        result.retryAfterMs == 0
+
+        and: 'reading by type only returns those types'
+        storage.read(["type-a", "type-c"], 2, "locationUuid").messages*.offset == [3, 4]
+    }
+
+    def 'a full page from one shard does not let events of another shard skip ahead'() {
+        given:
+        def storage = shardedStorage(2)
+        storage.write(new PipeEntity(
+            [message(1, "type-b"), message(2, "type-b"), message(3, "type-b"), message(4, "type-a")],
+            null,
+            null
+        ))
+
+        expect:
+        storage.read(null, 0, "locationUuid").messages*.offset == [1, 2]
+        storage.read(null, 3, "locationUuid").messages*.offset == [3, 4]
+    }
+
+    def 'events above the committed offset are removed on start up'() {
+        given:
+        def storage = shardedStorage()
+        storage.write(new PipeEntity([message(1, "type-a"), message(2, "type-b")], null, null))
+
+        and: 'an event that reached a shard but was never committed'
+        new SQLiteStorage(dataSource(shardConnectionUrl), limit, 10, batchSize).write(message(3, "type-b"))
+
+        when:
+        def restartedStorage = shardedStorage()
+
+        then:
+        restartedStorage.read(null, 0, "locationUuid").messages*.offset == [1, 2]
+        Sql.newInstance(shardConnectionUrl).rows("SELECT msg_offset FROM EVENT;")*.msg_offset == [2]
+    }
+
+    def 'offset consistency sum and max offset for consumers span all shards'() {
+        given:
+        def storage = shardedStorage()
+        storage.write(new PipeEntity(
+            [message(1, "type-a", "a"), message(2, "type-b", "b"), message(3, "type-a", "a"), message(4, "type-c", "c")],
+            null,
+            null
+        ))
+
+        expect:
+        storage.getOffsetConsistencySum(4, []) == 3 + 2 + 4
+        storage.getMaxOffsetForConsumers(["type-a", "type-b"]) == 3
+        storage.getMaxOffsetForConsumers(["type-c"]) == 4
+    }
+
+    def 'max offset for consumers does not report events above the committed offset'() {
+        given:
+        def storage = shardedStorage()
+        storage.write(new PipeEntity([message(1, "type-a"), message(2, "type-b")], null, null))
+
+        when: 'an event reaches a shard before its write is committed'
+        new SQLiteStorage(dataSource(shardConnectionUrl), limit, 10, batchSize).write(message(3, "type-b"))
+
+        then:
+        storage.getMaxOffsetForConsumers(["type-b"]) == 2
+    }
+
+    def 'reads report the global latest offset and pipe state written with the committed events'() {
+        given:
+        def storage = shardedStorage()
+
+        when:
+        storage.write(new PipeEntity(
+            [message(1, "type-a"), message(2, "type-b")],
+            [new OffsetEntity(GLOBAL_LATEST_OFFSET, OptionalLong.of(5))],
+            PipeState.UP_TO_DATE
+        ))
+        def result = storage.read(null, 0, "locationUuid")
+
+        then:
+        result.messages*.offset == [1, 2]
+        result.globalLatestOffset == OptionalLong.of(5)
+        result.pipeState == PipeState.UP_TO_DATE
+
+        cleanup:
+        storage.close()
+    }
+
+    def 'delete all clears every shard'() {
+        given:
+        def storage = shardedStorage()
+        storage.write(new PipeEntity([message(1, "type-a"), message(2, "type-b")], null, PipeState.UP_TO_DATE))
+
+        when:
+        storage.deleteAll()
+
+        then:
+        storage.read(null, 0, "locationUuid").messages.isEmpty()
+        storage.getPipeState() == PipeState.UNKNOWN
+    }
+
+    def 'a snapshot merges the latest message per key and type of every shard up to the committed offset'() {
+        given:
+        def storage = shardedStorage()
+        storage.write(new PipeEntity(
+            [
+                message(1, "type-a", "key-1"),
+                message(2, "type-b", "key-1"),
+                message(3, "type-a", "key-1"),
+                message(4, "type-c", "key-2"),
+                message(5, "type-b", "key-1")
+            ],
+            [new OffsetEntity(GLOBAL_LATEST_OFFSET, OptionalLong.of(5))],
+            PipeState.UP_TO_DATE
+        ))
+
+        expect:
+        storage.readSnapshot(null, 0, Long.MAX_VALUE, "locationUuid").messages*.offset == [3, 4, 5]
+        storage.readSnapshot(["type-b"], 0, 4, "locationUuid").messages*.offset == [2]
+    }
+}
@@ -17,6 +17,14 @@ final class SQLiteQueries {
 
     public static final String ADD_TYPES_INDEX = "CREATE INDEX IF NOT EXISTS types_idx ON event (type);";
 
+    static final String DROP_TYPES_INDEX = "DROP INDEX IF EXISTS types_idx;";
+
+    static final String SYNCHRONOUS = "PRAGMA synchronous;";
+
+    static String setSynchronous(long level) {
+        return "PRAGMA synchronous = " + level + ";";
+    }
+
     static final String CREATE_EVENT_TABLE =
         "CREATE TABLE IF NOT EXISTS EVENT( " +
         " msg_offset bigint PRIMARY KEY NOT NULL," +
@@ -41,6 +49,33 @@ final class SQLiteQueries {
         " value varchar NOT NULL" +
         ");";
 
+    static final String LATEST_EVENT_TABLE =
+        "CREATE TABLE IF NOT EXISTS LATEST_EVENT( " +
+        " msg_key varchar NOT NULL," +
+        " type varchar NOT NULL," +
+        " msg_offset bigint NOT NULL," +
+        " PRIMARY KEY (msg_key, type)" +
+        ");";
+
+    static final String ADD_LATEST_EVENT_OFFSET_INDEX =
+        "CREATE INDEX IF NOT EXISTS latest_event_offset_idx ON LATEST_EVENT (msg_offset);";
+
+    static final String SUPERSEDED_EVENT_TABLE =
+        "CREATE TABLE IF NOT EXISTS SUPERSEDED_EVENT( " +
+        " msg_offset bigint PRIMARY KEY NOT NULL," +
+        " superseded_by bigint NOT NULL" +
+        ");";
+
+    static final String ADD_SUPERSEDED_BY_INDEX =
+        "CREATE INDEX IF NOT EXISTS superseded_by_idx ON SUPERSEDED_EVENT (superseded_by);";
+
+    // single row holding the sum of latest offsets per key and type, deletions excluded
+    static final String LATEST_EVENT_DIGEST_TABLE =
+        "CREATE TABLE IF NOT EXISTS LATEST_EVENT_DIGEST( " +
+        " id INTEGER PRIMARY KEY CHECK (id = 0)," +
+        " offset_sum bigint NOT NULL" +
+        ");";
+
     static final String INSERT_EVENT =
         "INSERT INTO EVENT (msg_offset, msg_key, content_type, type, created_utc, data, event_size) VALUES (?,?,?,?,?,?,?);";
 
@@ -51,9 +86,61 @@ final class SQLiteQueries {
     static final String COMPACT =
         "DELETE FROM EVENT WHERE created_utc <= ? AND msg_offset NOT IN (SELECT max(msg_offset) FROM EVENT WHERE created_utc <= ? GROUP BY msg_key, type);";
 
+    static final String INSERT_SUPERSEDED_EVENT =
+        "INSERT OR IGNORE INTO SUPERSEDED_EVENT (msg_offset, superseded_by) " +
+        "SELECT msg_offset, ? FROM LATEST_EVENT WHERE msg_key = ? AND type = ? AND msg_offset < ?;";
+
+    // has to run before the latest event is replaced, a message older than the latest one does not change the digest
+    static final String UPDATE_LATEST_EVENT_DIGEST =
+        "UPDATE LATEST_EVENT_DIGEST SET offset_sum = offset_sum + ? - COALESCE(( " +
+            "SELECT latest.msg_offset FROM LATEST_EVENT latest JOIN EVENT event ON event.msg_offset = latest.msg_offset " +
+            "WHERE latest.msg_key = ? AND latest.type = ? AND event.data IS NOT NULL " +
+        "), 0) " +
+        "WHERE NOT EXISTS (SELECT 1 FROM LATEST_EVENT WHERE msg_key = ? AND type = ? AND msg_offset >= ?);";
+
+    static final String UPSERT_LATEST_EVENT =
+        "INSERT INTO LATEST_EVENT (msg_key, type, msg_offset) VALUES (?,?,?) " +
+        "ON CONFLICT(msg_key, type) DO UPDATE SET msg_offset = excluded.msg_offset WHERE excluded.msg_offset > LATEST_EVENT.msg_offset;";
+
+    static final String LATEST_EVENT_IN_SYNC =
+        "SELECT (SELECT max(msg_offset) FROM EVENT) IS (SELECT max(msg_offset) FROM LATEST_EVENT) " +
+        "AND EXISTS (SELECT 1 FROM LATEST_EVENT_DIGEST);";
+
+    static final String REBUILD_LATEST_EVENT =
+        "INSERT INTO LATEST_EVENT (msg_key, type, msg_offset) SELECT msg_key, type, max(msg_offset) FROM EVENT GROUP BY msg_key, type;";
+
+    static final String REBUILD_SUPERSEDED_EVENT =
+        "INSERT INTO SUPERSEDED_EVENT (msg_offset, superseded_by) " +
+        "SELECT msg_offset, next_offset FROM ( " +
+            "SELECT msg_offset, LEAD(msg_offset) OVER (PARTITION BY msg_key, type ORDER BY msg_offset) AS next_offset FROM EVENT " +
+        ") WHERE next_offset IS NOT NULL;";
+
+    static final String REBUILD_LATEST_EVENT_DIGEST =
+        "INSERT INTO LATEST_EVENT_DIGEST (id, offset_sum) " +
+        "SELECT 0, COALESCE(SUM(latest.msg_offset), 0) FROM LATEST_EVENT latest " +
+        "JOIN EVENT event ON event.msg_offset = latest.msg_offset WHERE event.data IS NOT NULL;";
+
+    // superseded rows can go once the row superseding them is within the threshold too, same as COMPACT
+    static final String SELECT_SUPERSEDED_EVENTS_BATCH =
+        "SELECT superseded.msg_offset FROM SUPERSEDED_EVENT superseded " +
+        "LEFT JOIN EVENT event ON event.msg_offset = superseded.msg_offset " +
+        "LEFT JOIN EVENT next_event ON next_event.msg_offset = superseded.superseded_by " +
+        "WHERE (event.msg_offset IS NULL OR event.created_utc <= ?) " +
+        "AND (next_event.msg_offset IS NULL OR next_event.created_utc <= ?) " +
+        "ORDER BY superseded.msg_offset LIMIT ?;";
+
+    static final String DELETE_EVENT = "DELETE FROM EVENT WHERE msg_offset = ?;";
+    static final String DELETE_SUPERSEDED_EVENT = "DELETE FROM SUPERSEDED_EVENT WHERE msg_offset = ?;";
+
     static final String COMPACT_DELETIONS =
         "DELETE FROM EVENT WHERE created_utc <= ? AND data IS NULL;";
 
+    static final String DELETE_LATEST_EVENTS_OF_DELETIONS =
+        "DELETE FROM LATEST_EVENT WHERE msg_offset IN (SELECT msg_offset FROM EVENT WHERE created_utc <= ? AND data IS NULL);";
+
+    static final String DELETE_SUPERSEDED_EVENTS_OF_DELETIONS =
+        "DELETE FROM SUPERSEDED_EVENT WHERE msg_offset IN (SELECT msg_offset FROM EVENT WHERE created_utc <= ? AND data IS NULL);";
+
     static final String OFFSET_CONSISTENCY_SUM =
         "SELECT SUM(max_offset_by_key_type) FROM ( " +
             "SELECT MAX(msg_offset) AS max_offset_by_key_type FROM EVENT WHERE msg_key || type NOT IN ( " +
@@ -63,14 +150,42 @@ final class SQLiteQueries {
             ") AND msg_offset <= ? GROUP BY msg_key, type " +
         ");";
 
+    // same result as OFFSET_CONSISTENCY_SUM: the digest, minus latest offsets past the threshold, plus the offsets
+    // they superseded that were the latest ones at the threshold. Only rows written after the threshold are read.
+    static final String OFFSET_CONSISTENCY_SUM_FROM_DIGEST =
+        "SELECT (SELECT offset_sum FROM LATEST_EVENT_DIGEST) " +
+        "- COALESCE(( " +
+            "SELECT SUM(latest.msg_offset) FROM LATEST_EVENT latest JOIN EVENT event ON event.msg_offset = latest.msg_offset " +
+            "WHERE latest.msg_offset > ? AND event.data IS NOT NULL " +
+        "), 0) " +
+        "+ COALESCE(( " +
+            "SELECT SUM(superseded.msg_offset) FROM SUPERSEDED_EVENT superseded JOIN EVENT event ON event.msg_offset = superseded.msg_offset " +
+            "WHERE superseded.superseded_by > ? AND superseded.msg_offset <= ? AND event.data IS NOT NULL " +
+        "), 0);";
+
+    static final String MAX_OFFSET = "SELECT max(msg_offset) FROM EVENT;";
+
+    static final String DELETE_EVENTS_AFTER = "DELETE FROM EVENT WHERE msg_offset > ?;";
+
     static final String CHOOSE_MAX_OFFSET =
         "SELECT max(msg_offset) FROM EVENT WHERE created_utc <= ?;";
 
     static final String DELETE_EVENTS = "DELETE FROM EVENT;";
     static final String DELETE_OFFSETS = "DELETE FROM OFFSET";
     static final String DELETE_PIPE_STATE = "DELETE FROM PIPE_STATE";
+    static final String DELETE_LATEST_EVENTS = "DELETE FROM LATEST_EVENT";
+    static final String DELETE_SUPERSEDED_EVENTS = "DELETE FROM SUPERSEDED_EVENT";
+    static final String DELETE_LATEST_EVENT_DIGEST = "DELETE FROM LATEST_EVENT_DIGEST";
     static final String VACUUM_DB = "VACUUM;";
     static final String CHECKPOINT_DB = "PRAGMA wal_checkpoint(TRUNCATE);";
+    static final String PASSIVE_CHECKPOINT_DB = "PRAGMA wal_checkpoint(PASSIVE);";
+    static final String AUTO_VACUUM_INCREMENTAL = "PRAGMA auto_vacuum = INCREMENTAL;";
+    static final String GET_AUTO_VACUUM = "PRAGMA auto_vacuum;";
+    static final String FREELIST_COUNT = "PRAGMA freelist_count;";
+    // the driver steps a pragma only once per execute, which reclaims a single page whatever the argument
+    static final String INCREMENTAL_VACUUM_PAGE = "PRAGMA incremental_vacuum(1);";
+    static final String QUERY_ONLY = "PRAGMA query_only = true;";
+    static final String QUERY_WRITABLE = "PRAGMA query_only = false;";
     static final String QUICK_INTEGRITY_CHECK = "PRAGMA quick_check(1);";
     static final String FULL_INTEGRITY_CHECK = "PRAGMA integrity_check;";
 
@@ -98,8 +213,44 @@ final class SQLiteQueries {
         return queryBuilder.toString();
     }
 
+    // the latest event per key and type up to the snapshot offset, left out when it is a deletion
+    static String getReadSnapshotEvent(final int typesCount, final long maxBatchSize) {
+        final StringBuilder queryBuilder = new StringBuilder()
+            .append(" SELECT type, msg_key, content_type, msg_offset, created_utc, data, event_size ")
+            .append(" FROM ")
+            .append("    ( ")
+            .append("       SELECT ")
+            .append("         \"type\", msg_key, content_type, msg_offset, created_utc, \"data\", event_size, ")
+            .append("         SUM(event_size) OVER (ORDER BY msg_offset ASC) AS running_size ")
+            .append("       FROM ")
+            .append("          ( ")
+            .append("             SELECT ")
+            .append("               \"type\", msg_key, content_type, msg_offset, created_utc, \"data\", event_size, ")
+            .append("               ROW_NUMBER() OVER (PARTITION BY \"type\", msg_key ORDER BY msg_offset DESC) AS latest ")
+            .append("             FROM event ")
+            .append("             WHERE msg_offset <= ? ");
+
+        appendFilterByTypes(queryBuilder, typesCount);
+
+        queryBuilder
+            .append("          ) latest_events ")
+            .append("       WHERE latest = 1 AND \"data\" IS NOT NULL AND msg_offset >= ? ")
+            .append("       ORDER BY msg_offset ASC ")
+            .append("       LIMIT ?")
+            .append("    ) unused ")
+            .append(" WHERE running_size <  ").append(maxBatchSize)
+            .append(" ORDER BY msg_offset ASC;")
+        ;
+
+        return queryBuilder.toString();
+    }
+
     static String getOffset(final OffsetName name) {
-        return "SELECT name, value FROM OFFSET WHERE name = '" + name.toString() + "';";
+        return getOffset(name.toString());
+    }
+
+    static String getOffset(final String name) {
+        return "SELECT name, value FROM OFFSET WHERE name = '" + name + "';";
     }
 
     static void appendFilterByTypes(final StringBuilder queryBuilder, int typesCount) {
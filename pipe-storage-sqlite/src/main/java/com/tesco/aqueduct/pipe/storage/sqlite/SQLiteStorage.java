@@ -12,6 +12,8 @@ import java.sql.*;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.OptionalLong;
 
@@ -24,20 +26,133 @@ public class SQLiteStorage implements DistributedStorage {
     private final int limit;
     private final int retryAfterMs;
     private final long maxBatchSize;
+    private final int incrementalVacuumPages;
+    private final long incrementalVacuumPauseMs;
+    private final int compactionBatchSize;
+
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+    static final String COMMITTED_OFFSET = "SHARDED_COMMITTED_OFFSET";
 
     private static final PipeLogger LOG = new PipeLogger(LoggerFactory.getLogger(SQLiteStorage.class));
     private static final Logger DEBUG_LOGGER = LoggerFactory.getLogger("pipe-debug-logger");
 
     public SQLiteStorage(final DataSource dataSource, final int limit, final int retryAfterMs, final long maxBatchSize) {
+        this(dataSource, limit, retryAfterMs, maxBatchSize, 0, 0);
+    }
+
+    public SQLiteStorage(
+        final DataSource dataSource,
+        final int limit,
+        final int retryAfterMs,
+        final long maxBatchSize,
+        final int incrementalVacuumPages,
+        final long incrementalVacuumPauseMs
+    ) {
+        this(dataSource, limit, retryAfterMs, maxBatchSize, incrementalVacuumPages, incrementalVacuumPauseMs, 0);
+    }
+
+    /**
+     * @param incrementalVacuumPages when positive, the database uses auto_vacuum=INCREMENTAL and maintenance
+     *                               reclaims at most this many free pages per write transaction instead of
+     *                               rewriting the whole file with VACUUM
+     * @param incrementalVacuumPauseMs pause between incremental vacuum steps, so ingest and reads are not held up
+     * @param compactionBatchSize when positive, the latest offset per key and type is tracked on write,
+     *                            compaction deletes superseded rows in batches of this size and the offset
+     *                            consistency sum is answered from a maintained digest, instead of aggregating
+     *                            the whole event table
+     */
+    public SQLiteStorage(
+        final DataSource dataSource,
+        final int limit,
+        final int retryAfterMs,
+        final long maxBatchSize,
+        final int incrementalVacuumPages,
+        final long incrementalVacuumPauseMs,
+        final int compactionBatchSize
+    ) {
         this.dataSource = dataSource;
         this.limit = limit;
         this.retryAfterMs = retryAfterMs;
         this.maxBatchSize = maxBatchSize + (((long)Message.MAX_OVERHEAD_SIZE) * limit);
+        this.incrementalVacuumPages = incrementalVacuumPages;
+        this.incrementalVacuumPauseMs = incrementalVacuumPauseMs;
+        this.compactionBatchSize = compactionBatchSize;
+
+        if (isIncrementalVacuumEnabled()) {
+            requestIncrementalAutoVacuum();
+        }
 
         createEventTableIfNotExists();
         createOffsetTableIfNotExists();
         createPipeStateTableIfNotExists();
         addIndexOnTypes();
+
+        if (isLatestEventCompactionEnabled()) {
+            createLatestEventTablesIfNotExists();
+            rebuildLatestEventsIfOutOfSync();
+        }
+    }
+
+    private boolean isIncrementalVacuumEnabled() {
+        return incrementalVacuumPages > 0;
+    }
+
+    // takes effect straight away on a new database, existing ones are switched over by the first maintenance run
+    private void requestIncrementalAutoVacuum() {
+        execute(
+            SQLiteQueries.AUTO_VACUUM_INCREMENTAL,
+            (connection, statement) -> statement.execute()
+        );
+    }
+
+    private boolean isLatestEventCompactionEnabled() {
+        return compactionBatchSize > 0;
+    }
+
+    private void createLatestEventTablesIfNotExists() {
+        execute(
+            SQLiteQueries.LATEST_EVENT_TABLE,
+            (connection, statement) -> {
+                statement.execute();
+                executeStatement(connection, SQLiteQueries.ADD_LATEST_EVENT_OFFSET_INDEX);
+                executeStatement(connection, SQLiteQueries.SUPERSEDED_EVENT_TABLE);
+                executeStatement(connection, SQLiteQueries.ADD_SUPERSEDED_BY_INDEX);
+                executeStatement(connection, SQLiteQueries.LATEST_EVENT_DIGEST_TABLE);
+            }
+        );
+    }
+
+    // tables are only maintained while latest event compaction is enabled, so rebuild them when events were written without it
+    private void rebuildLatestEventsIfOutOfSync() {
+        execute(
+            SQLiteQueries.LATEST_EVENT_IN_SYNC,
+            (connection, statement) -> {
+                if (queryResult(statement) == 1) {
+                    return;
+                }
+
+                connection.setAutoCommit(false);
+                try {
+                    executeStatement(connection, SQLiteQueries.DELETE_LATEST_EVENTS);
+                    executeStatement(connection, SQLiteQueries.DELETE_SUPERSEDED_EVENTS);
+                    executeStatement(connection, SQLiteQueries.DELETE_LATEST_EVENT_DIGEST);
+                    executeStatement(connection, SQLiteQueries.REBUILD_LATEST_EVENT);
+                    executeStatement(connection, SQLiteQueries.REBUILD_SUPERSEDED_EVENT);
+                    executeStatement(connection, SQLiteQueries.REBUILD_LATEST_EVENT_DIGEST);
+                    connection.commit();
+                    LOG.info("rebuildLatestEvents", "rebuilt latest and superseded events");
+                } catch (SQLException exception) {
+                    connection.rollback();
+                    throw exception;
+                }
+            }
+        );
+    }
+
+    private void executeStatement(Connection connection, String query) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.execute();
+        }
     }
 
     private void addIndexOnTypes() {
@@ -87,6 +202,56 @@ public class SQLiteStorage implements DistributedStorage {
         }
     }
 
+    @Override
+    public MessageResults readSnapshot(
+        final List<String> types,
+        final long offset,
+        final long upToOffset,
+        final String locationUuid
+    ) {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+
+            final OptionalLong globalLatestOffset = getOffset(connection, GLOBAL_LATEST_OFFSET);
+            final PipeState pipeState = getPipeState(connection);
+            final List<Message> retrievedMessages = getSnapshotMessages(connection, types, offset, upToOffset);
+
+            return new MessageResults(retrievedMessages, calculateRetryAfter(retrievedMessages.size()), globalLatestOffset, pipeState);
+        } catch (SQLException exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    private List<Message> getSnapshotMessages(
+        Connection connection,
+        List<String> types,
+        long offset,
+        long upToOffset
+    ) throws SQLException {
+        final List<Message> retrievedMessages = new ArrayList<>();
+        final int typesCount = types == null ? 0 : types.size();
+
+        try (PreparedStatement statement = connection.prepareStatement(SQLiteQueries.getReadSnapshotEvent(typesCount, maxBatchSize))) {
+            int parameterIndex = 1;
+            statement.setLong(parameterIndex++, upToOffset);
+
+            for (int i = 0; i < typesCount; i++, parameterIndex++) {
+                statement.setString(parameterIndex, types.get(i));
+            }
+
+            statement.setLong(parameterIndex++, offset);
+            statement.setLong(parameterIndex, limit);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    retrievedMessages.add(mapRetrievedMessageFromResultSet(resultSet));
+                }
+            }
+        }
+
+        return retrievedMessages;
+    }
+
     private List<Message> getMessages(Connection connection, List<String> types, long offset) throws SQLException {
         final List<Message> retrievedMessages = new ArrayList<>();
         final int typesCount = types == null ? 0 : types.size();
@@ -164,6 +329,10 @@ public class SQLiteStorage implements DistributedStorage {
     }
 
     private OptionalLong getOffset(Connection connection, OffsetName offsetName) throws SQLException {
+        return getOffset(connection, offsetName.toString());
+    }
+
+    private OptionalLong getOffset(Connection connection, String offsetName) throws SQLException {
         try (PreparedStatement statement = connection.prepareStatement(SQLiteQueries.getOffset(offsetName))) {
             ResultSet resultSet = statement.executeQuery();
 
@@ -185,22 +354,126 @@ public class SQLiteStorage implements DistributedStorage {
         }
     }
 
+    OptionalLong getCommittedOffset() {
+        try (Connection connection = dataSource.getConnection()) {
+            return getOffset(connection, COMMITTED_OFFSET);
+        } catch (SQLException exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    long getMaxOffset() {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SQLiteQueries.MAX_OFFSET)) {
+            return queryResult(statement);
+        } catch (SQLException exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    void deleteEventsAfter(final long offset) {
+        execute(
+            SQLiteQueries.DELETE_EVENTS_AFTER,
+            (connection, statement) -> {
+                statement.setLong(1, offset);
+                statement.execute();
+                LOG.info("deleteEventsAfter", String.format("Deleted %d events after offset %d", statement.getUpdateCount(), offset));
+            }
+        );
+    }
+
     @Override
     public void write(final Iterable<Message> messages) {
         execute(SQLiteQueries.INSERT_EVENT,
             (connection, statement) -> {
                 connection.setAutoCommit(false);
-                insertMessagesAsBatch(statement, messages);
+                insertMessagesAsBatch(connection, statement, messages);
                 connection.commit();
             });
     }
 
+    /**
+     * Bulk loads the messages of a snapshot in a single transaction. The types index is rebuilt once all messages are
+     * in and the transaction is not synced to disk until it commits, so this is only meant for bootstrapping a node
+     * whose storage would be discarded if loading fails.
+     */
+    public void loadSnapshot(final Iterable<Message> messages) {
+        Connection connection = null;
+        long synchronous = -1;
+
+        try {
+            connection = dataSource.getConnection();
+            try (PreparedStatement statement = connection.prepareStatement(SQLiteQueries.SYNCHRONOUS)) {
+                synchronous = queryResult(statement);
+            }
+            executeStatement(connection, SQLiteQueries.setSynchronous(0));
+            executeStatement(connection, SQLiteQueries.DROP_TYPES_INDEX);
+
+            try (PreparedStatement insertMessageStmt = connection.prepareStatement(SQLiteQueries.INSERT_EVENT)) {
+                connection.setAutoCommit(false);
+                long count = 0;
+
+                for (final Message message : messages) {
+                    setStatementParametersForInsertMessageQuery(insertMessageStmt, message);
+                    insertMessageStmt.addBatch();
+
+                    if (++count % limit == 0) {
+                        insertMessageStmt.executeBatch();
+                    }
+                }
+                insertMessageStmt.executeBatch();
+                connection.commit();
+
+                LOG.info("loadSnapshot", "loaded " + count + " messages");
+            }
+        } catch (final Exception exception) {
+            rollback(connection);
+            throw new RuntimeException(exception);
+        } finally {
+            restoreAfterSnapshotLoad(connection, synchronous);
+            close(connection);
+        }
+
+        if (isLatestEventCompactionEnabled()) {
+            rebuildLatestEventsIfOutOfSync();
+        }
+    }
+
+    private void restoreAfterSnapshotLoad(Connection connection, long synchronous) {
+        if (connection == null) {
+            return;
+        }
+
+        try {
+            connection.setAutoCommit(true);
+            executeStatement(connection, SQLiteQueries.ADD_TYPES_INDEX);
+            if (synchronous >= 0) {
+                executeStatement(connection, SQLiteQueries.setSynchronous(synchronous));
+            }
+        } catch (SQLException exception) {
+            LOG.error("loadSnapshot", "Could not restore types index", exception);
+            throw new RuntimeException(exception);
+        }
+    }
+
     @Override
     public void write(final PipeEntity pipeEntity) {
         if (pipeEntity == null || nothingToWriteIn(pipeEntity)) {
             throw new IllegalArgumentException("Pipe entity data cannot be null.");
         }
 
+        write(pipeEntity, OptionalLong.empty());
+    }
+
+    /**
+     * Writes the pipe entity and the offset up to which all shards of a {@link ShardedSQLiteStorage} hold their
+     * messages, in the same transaction.
+     */
+    void write(final PipeEntity pipeEntity, final long committedOffset) {
+        write(pipeEntity, OptionalLong.of(committedOffset));
+    }
+
+    private void write(final PipeEntity pipeEntity, final OptionalLong committedOffset) {
         Connection connection = null;
 
         try {
@@ -215,7 +488,7 @@ public class SQLiteStorage implements DistributedStorage {
 
                 // Insert messages
                 if (pipeEntity.getMessages() != null && !pipeEntity.getMessages().isEmpty()) {
-                    insertMessagesAsBatch(insertMessageStmt, pipeEntity.getMessages());
+                    insertMessagesAsBatch(connection, insertMessageStmt, pipeEntity.getMessages());
                 }
 
                 // Insert offsets
@@ -228,6 +501,11 @@ public class SQLiteStorage implements DistributedStorage {
                     upsertPipeState(upsertPipeStateStmt, pipeEntity.getPipeState());
                 }
 
+                // Insert offset committed across shards
+                if (committedOffset.isPresent()) {
+                    upsertCommittedOffset(upsertOffsetStmt, committedOffset.getAsLong());
+                }
+
                 // commit transaction
                 connection.commit();
             }
@@ -285,12 +563,51 @@ public class SQLiteStorage implements DistributedStorage {
         insertOffsetStmt.executeBatch();
     }
 
-    private void insertMessagesAsBatch(PreparedStatement insertMessageStmt, Iterable<Message> messages) throws SQLException {
+    private void insertMessagesAsBatch(Connection connection, PreparedStatement insertMessageStmt, Iterable<Message> messages) throws SQLException {
         for (final Message message : messages) {
             setStatementParametersForInsertMessageQuery(insertMessageStmt, message);
             insertMessageStmt.addBatch();
         }
         insertMessageStmt.executeBatch();
+
+        if (isLatestEventCompactionEnabled()) {
+            updateLatestEvents(connection, messages);
+        }
+    }
+
+    // statements run per message rather than as batches, so a key repeated within the batch supersedes in order
+    private void updateLatestEvents(Connection connection, Iterable<Message> messages) throws SQLException {
+        try (PreparedStatement supersededStmt = connection.prepareStatement(SQLiteQueries.INSERT_SUPERSEDED_EVENT);
+             PreparedStatement digestStmt = connection.prepareStatement(SQLiteQueries.UPDATE_LATEST_EVENT_DIGEST);
+             PreparedStatement latestStmt = connection.prepareStatement(SQLiteQueries.UPSERT_LATEST_EVENT)) {
+            for (final Message message : messages) {
+                supersededStmt.setLong(1, message.getOffset());
+                supersededStmt.setString(2, message.getKey());
+                supersededStmt.setString(3, message.getType());
+                supersededStmt.setLong(4, message.getOffset());
+                supersededStmt.executeUpdate();
+
+                digestStmt.setLong(1, message.getData() == null ? 0 : message.getOffset());
+                digestStmt.setString(2, message.getKey());
+                digestStmt.setString(3, message.getType());
+                digestStmt.setString(4, message.getKey());
+                digestStmt.setString(5, message.getType());
+                digestStmt.setLong(6, message.getOffset());
+                digestStmt.executeUpdate();
+
+                latestStmt.setString(1, message.getKey());
+                latestStmt.setString(2, message.getType());
+                latestStmt.setLong(3, message.getOffset());
+                latestStmt.executeUpdate();
+            }
+        }
+    }
+
+    private void upsertCommittedOffset(PreparedStatement upsertOffsetStmt, long committedOffset) throws SQLException {
+        upsertOffsetStmt.setString(1, COMMITTED_OFFSET);
+        upsertOffsetStmt.setLong(2, committedOffset);
+        upsertOffsetStmt.setLong(3, committedOffset);
+        upsertOffsetStmt.execute();
     }
 
     private void setStatementParametersForOffsetQuery(PreparedStatement insertOffsetStmt, OffsetEntity offset) throws SQLException {
@@ -301,6 +618,11 @@ public class SQLiteStorage implements DistributedStorage {
 
     @Override
     public void write(final Message message) {
+        if (isLatestEventCompactionEnabled()) {
+            write(Collections.singletonList(message));
+            return;
+        }
+
         execute(
             SQLiteQueries.INSERT_EVENT,
             (connection, statement) -> {
@@ -361,6 +683,10 @@ public class SQLiteStorage implements DistributedStorage {
     }
 
     private long getOffsetConsistencySumBasedOn(long offsetThreshold, Connection connection) throws SQLException {
+        if (isLatestEventCompactionEnabled()) {
+            return getOffsetConsistencySumFromDigest(offsetThreshold, connection);
+        }
+
         try (PreparedStatement statement = connection.prepareStatement(SQLiteQueries.OFFSET_CONSISTENCY_SUM)) {
             statement.setLong(1, offsetThreshold);
             statement.setLong(2, offsetThreshold);
@@ -368,6 +694,16 @@ public class SQLiteStorage implements DistributedStorage {
         }
     }
 
+    // compaction leaves the digest as it is: superseded rows never count towards it and deletions count as zero
+    private long getOffsetConsistencySumFromDigest(long offsetThreshold, Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(SQLiteQueries.OFFSET_CONSISTENCY_SUM_FROM_DIGEST)) {
+            statement.setLong(1, offsetThreshold);
+            statement.setLong(2, offsetThreshold);
+            statement.setLong(3, offsetThreshold);
+            return queryResult(statement);
+        }
+    }
+
     private OptionalLong getMaxOffsetInPreviousHour(ZonedDateTime currentTime) {
         try (Connection connection = dataSource.getConnection();
              PreparedStatement statement = connection.prepareStatement(SQLiteQueries.CHOOSE_MAX_OFFSET)) {
@@ -431,6 +767,12 @@ public class SQLiteStorage implements DistributedStorage {
             deleteEvents(connection);
             deleteOffsets(connection);
             deletePipeState(connection);
+            if (isLatestEventCompactionEnabled()) {
+                executeStatement(connection, SQLiteQueries.DELETE_LATEST_EVENTS);
+                executeStatement(connection, SQLiteQueries.DELETE_SUPERSEDED_EVENTS);
+                executeStatement(connection, SQLiteQueries.DELETE_LATEST_EVENT_DIGEST);
+                executeStatement(connection, SQLiteQueries.REBUILD_LATEST_EVENT_DIGEST);
+            }
             vacuumDatabase(connection);
             checkpointWalFile(connection);
         } catch (SQLException exception) {
@@ -439,6 +781,11 @@ public class SQLiteStorage implements DistributedStorage {
     }
 
     public void runMaintenanceTasks() {
+        if (isIncrementalVacuumEnabled()) {
+            runIncrementalMaintenanceTasks();
+            return;
+        }
+
         try (Connection connection = dataSource.getConnection()) {
             vacuumDatabase(connection);
             checkpointWalFile(connection);
@@ -448,6 +795,116 @@ public class SQLiteStorage implements DistributedStorage {
         }
     }
 
+    private void runIncrementalMaintenanceTasks() {
+        try (Connection connection = dataSource.getConnection()) {
+            if (autoVacuumMode(connection) == AUTO_VACUUM_INCREMENTAL) {
+                incrementalVacuum(connection);
+            } else {
+                switchToIncrementalAutoVacuum(connection);
+            }
+            passiveCheckpointWalFile(connection);
+        } catch (SQLException exception) {
+            throw new RuntimeException(exception);
+        }
+
+        readOnlyIntegrityCheck();
+    }
+
+    private int autoVacuumMode(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(SQLiteQueries.GET_AUTO_VACUUM)) {
+            return (int) queryResult(statement);
+        }
+    }
+
+    private void switchToIncrementalAutoVacuum(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(SQLiteQueries.AUTO_VACUUM_INCREMENTAL)) {
+            statement.execute();
+        }
+        // one-off full vacuum, an existing database only changes its auto_vacuum mode when it is rebuilt
+        vacuumDatabase(connection);
+        LOG.info("switchToIncrementalAutoVacuum", "switched database to incremental auto vacuum");
+    }
+
+    private void incrementalVacuum(Connection connection) throws SQLException {
+        long pagesToReclaim = freelistCount(connection);
+        long reclaimedPages = 0;
+
+        while (reclaimedPages < pagesToReclaim && !Thread.currentThread().isInterrupted()) {
+            if (reclaimedPages > 0) {
+                pauseBetweenVacuumSteps();
+            }
+            reclaimedPages += incrementalVacuumStep(connection, (int) Math.min(incrementalVacuumPages, pagesToReclaim - reclaimedPages));
+        }
+
+        LOG.info("incrementalVacuum", String.format("Incremental vacuum reclaimed %d of %d free pages", reclaimedPages, pagesToReclaim));
+    }
+
+    private int incrementalVacuumStep(Connection connection, int pages) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            // statement has to be closed before commit, otherwise its last step is still in progress
+            try (PreparedStatement statement = connection.prepareStatement(SQLiteQueries.INCREMENTAL_VACUUM_PAGE)) {
+                for (int i = 0; i < pages; i++) {
+                    statement.execute();
+                }
+            }
+            connection.commit();
+            return pages;
+        } catch (SQLException exception) {
+            connection.rollback();
+            throw exception;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private long freelistCount(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(SQLiteQueries.FREELIST_COUNT)) {
+            return queryResult(statement);
+        }
+    }
+
+    private void pauseBetweenVacuumSteps() {
+        try {
+            Thread.sleep(incrementalVacuumPauseMs);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void passiveCheckpointWalFile(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(SQLiteQueries.PASSIVE_CHECKPOINT_DB)) {
+            statement.execute();
+            LOG.info("passiveCheckpointWalFile", "checkpointed database");
+        }
+    }
+
+    // in WAL mode a read only connection sees a snapshot and does not block the writer while the check runs
+    private void readOnlyIntegrityCheck() {
+        try (Connection connection = dataSource.getConnection()) {
+            setQueryOnly(connection, SQLiteQueries.QUERY_ONLY);
+            try (PreparedStatement statement = connection.prepareStatement(SQLiteQueries.FULL_INTEGRITY_CHECK);
+                 ResultSet resultSet = statement.executeQuery()) {
+                String result = resultSet.next() ? resultSet.getString(1) : null;
+                if ("ok".equals(result)) {
+                    LOG.info("fullIntegrityCheck", "full integrity check");
+                } else {
+                    LOG.error("fullIntegrityCheck", "integrity check failed", result);
+                }
+            } finally {
+                setQueryOnly(connection, SQLiteQueries.QUERY_WRITABLE);
+            }
+        } catch (SQLException exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    private void setQueryOnly(Connection connection, String query) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.execute();
+        }
+    }
+
     private void deleteOffsets(Connection connection) throws SQLException {
         try (PreparedStatement statement = connection.prepareStatement(SQLiteQueries.DELETE_OFFSETS)) {
             statement.execute();
@@ -496,7 +953,11 @@ public class SQLiteStorage implements DistributedStorage {
         final boolean compactDeletions
     ) {
         try (Connection connection = dataSource.getConnection()) {
-            runCompactionInTransaction(compactionThreshold, deletionCompactionThreshold, connection, compactDeletions);
+            if (isLatestEventCompactionEnabled()) {
+                runCompactionInBatches(compactionThreshold, deletionCompactionThreshold, connection, compactDeletions);
+            } else {
+                runCompactionInTransaction(compactionThreshold, deletionCompactionThreshold, connection, compactDeletions);
+            }
         } catch (SQLException exception) {
             throw new RuntimeException(exception);
         }
@@ -525,6 +986,97 @@ public class SQLiteStorage implements DistributedStorage {
         }
     }
 
+    private void runCompactionInBatches(
+        ZonedDateTime compactionThreshold,
+        ZonedDateTime deletionCompactionThreshold,
+        Connection connection,
+        boolean compactionDeletions
+    ) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            int compactedCount = compactSupersededMessagesOlderThan(compactionThreshold, connection);
+            int deletionCompactedCount = 0;
+
+            if (compactionDeletions) {
+                removeLatestEventsOfDeletionsOlderThan(deletionCompactionThreshold, connection);
+                deletionCompactedCount = compactDeletionsOlderThan(deletionCompactionThreshold, connection);
+                connection.commit();
+            }
+
+            LOG.info("compaction", "compacted " + (compactedCount + deletionCompactedCount) + " rows");
+        } catch (SQLException exception) {
+            connection.rollback();
+            throw exception;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    // deletions are not part of the digest, but latest events have to follow them so they stay in sync with events
+    private void removeLatestEventsOfDeletionsOlderThan(ZonedDateTime deletionCompactionThreshold, Connection connection) throws SQLException {
+        final Timestamp deletionCompactThreshold = Timestamp.valueOf(deletionCompactionThreshold.withZoneSameInstant(ZoneId.of("UTC")).toLocalDateTime());
+
+        for (final String query : Arrays.asList(SQLiteQueries.DELETE_LATEST_EVENTS_OF_DELETIONS, SQLiteQueries.DELETE_SUPERSEDED_EVENTS_OF_DELETIONS)) {
+            try (PreparedStatement statement = connection.prepareStatement(query)) {
+                statement.setTimestamp(1, deletionCompactThreshold);
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    // each batch is committed on its own, so the write lock is never held for the whole compaction
+    private int compactSupersededMessagesOlderThan(ZonedDateTime compactionThreshold, Connection connection) throws SQLException {
+        final Timestamp compactThreshold = Timestamp.valueOf(compactionThreshold.withZoneSameInstant(ZoneId.of("UTC")).toLocalDateTime());
+        int compactedCount = 0;
+        List<Long> supersededOffsets;
+
+        do {
+            supersededOffsets = selectSupersededOffsets(compactThreshold, connection);
+            compactedCount += deleteEvents(supersededOffsets, connection);
+            connection.commit();
+        } while (supersededOffsets.size() == compactionBatchSize);
+
+        return compactedCount;
+    }
+
+    private List<Long> selectSupersededOffsets(Timestamp compactThreshold, Connection connection) throws SQLException {
+        final List<Long> offsets = new ArrayList<>();
+
+        try (PreparedStatement statement = connection.prepareStatement(SQLiteQueries.SELECT_SUPERSEDED_EVENTS_BATCH)) {
+            statement.setTimestamp(1, compactThreshold);
+            statement.setTimestamp(2, compactThreshold);
+            statement.setInt(3, compactionBatchSize);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    offsets.add(resultSet.getLong(1));
+                }
+            }
+        }
+
+        return offsets;
+    }
+
+    private int deleteEvents(List<Long> offsets, Connection connection) throws SQLException {
+        try (PreparedStatement deleteEventStmt = connection.prepareStatement(SQLiteQueries.DELETE_EVENT);
+             PreparedStatement deleteSupersededStmt = connection.prepareStatement(SQLiteQueries.DELETE_SUPERSEDED_EVENT)) {
+            for (final Long offset : offsets) {
+                deleteEventStmt.setLong(1, offset);
+                deleteEventStmt.addBatch();
+                deleteSupersededStmt.setLong(1, offset);
+                deleteSupersededStmt.addBatch();
+            }
+
+            int deletedCount = 0;
+            for (final int count : deleteEventStmt.executeBatch()) {
+                deletedCount += count;
+            }
+            deleteSupersededStmt.executeBatch();
+
+            return deletedCount;
+        }
+    }
+
     private int compactDeletionsOlderThan(ZonedDateTime deletionCompactionThreshold, Connection connection) throws SQLException {
         try (PreparedStatement statement = connection.prepareStatement(SQLiteQueries.COMPACT_DELETIONS)) {
             Timestamp deletionCompactThreshold = Timestamp.valueOf(deletionCompactionThreshold.withZoneSameInstant(ZoneId.of("UTC")).toLocalDateTime());
@@ -0,0 +1,362 @@
+package com.tesco.aqueduct.pipe.storage.sqlite;
+
+import com.tesco.aqueduct.pipe.api.*;
+import com.tesco.aqueduct.pipe.logger.PipeLogger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Distributes events over several SQLite databases by message type, so that writes to different type groups do not
+ * contend on a single database lock and each database file stays small enough to vacuum and compact quickly.
+ *
+ * The main database holds offsets, pipe state, events of unmapped types and the committed offset, i.e. the offset up
+ * to which every shard holds its events. Events above it are not visible to readers and are removed on startup, so
+ * the pipe keeps its global offset order even if a write fails between shards. The global latest offset and pipe
+ * state written with the committed offset are kept alongside it, so a read reports them for the events it can see.
+ */
+public class ShardedSQLiteStorage implements DistributedStorage, AutoCloseable {
+
+    private static final PipeLogger LOG = new PipeLogger(LoggerFactory.getLogger(ShardedSQLiteStorage.class));
+
+    // shards only truncate by count, the batch size is applied once their events are merged
+    private static final long UNBOUNDED_BATCH_SIZE = Long.MAX_VALUE / 2;
+
+    private final SQLiteStorage mainStorage;
+    private final Map<String, SQLiteStorage> storageByType;
+    private final List<SQLiteStorage> shards;
+    private final int limit;
+    private final int retryAfterMs;
+    private final long maxBatchSize;
+    private final ExecutorService executor;
+    private final Object writeLock = new Object();
+
+    private volatile CommittedState committed;
+
+    /**
+     * @param dataSourceByType types mapped to the same data source instance share a shard, types that are not mapped
+     *                         are stored in the main data source
+     */
+    public ShardedSQLiteStorage(
+        final DataSource mainDataSource,
+        final Map<String, DataSource> dataSourceByType,
+        final int limit,
+        final int retryAfterMs,
+        final long maxBatchSize
+    ) {
+        this(mainDataSource, dataSourceByType, limit, retryAfterMs, maxBatchSize, 0, 0, 0);
+    }
+
+    /**
+     * @param dataSourceByType types mapped to the same data source instance share a shard, types that are not mapped
+     *                         are stored in the main data source
+     * @param incrementalVacuumPages passed to the main database and every shard, see {@link SQLiteStorage}
+     * @param incrementalVacuumPauseMs passed to the main database and every shard, see {@link SQLiteStorage}
+     * @param compactionBatchSize passed to the main database and every shard, see {@link SQLiteStorage}
+     */
+    public ShardedSQLiteStorage(
+        final DataSource mainDataSource,
+        final Map<String, DataSource> dataSourceByType,
+        final int limit,
+        final int retryAfterMs,
+        final long maxBatchSize,
+        final int incrementalVacuumPages,
+        final long incrementalVacuumPauseMs,
+        final int compactionBatchSize
+    ) {
+        this.limit = limit;
+        this.retryAfterMs = retryAfterMs;
+        this.maxBatchSize = maxBatchSize + (((long)Message.MAX_OVERHEAD_SIZE) * limit);
+        this.mainStorage = new SQLiteStorage(
+            mainDataSource, limit, retryAfterMs, UNBOUNDED_BATCH_SIZE,
+            incrementalVacuumPages, incrementalVacuumPauseMs, compactionBatchSize
+        );
+
+        final Map<DataSource, SQLiteStorage> storageByDataSource = new LinkedHashMap<>();
+        storageByDataSource.put(mainDataSource, mainStorage);
+
+        this.storageByType = new HashMap<>();
+        dataSourceByType.forEach((type, dataSource) ->
+            storageByType.put(type, storageByDataSource.computeIfAbsent(
+                dataSource,
+                ds -> new SQLiteStorage(
+                    ds, limit, retryAfterMs, UNBOUNDED_BATCH_SIZE,
+                    incrementalVacuumPages, incrementalVacuumPauseMs, compactionBatchSize
+                )
+            ))
+        );
+        this.shards = new ArrayList<>(storageByDataSource.values());
+
+        this.executor = Executors.newFixedThreadPool(shards.size(), runnable -> {
+            final Thread thread = new Thread(runnable, "sqlite-shard");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.committed = committedState(recoverCommittedOffset());
+    }
+
+    private CommittedState committedState(final long offset) {
+        return new CommittedState(offset, mainStorage.getOffset(OffsetName.GLOBAL_LATEST_OFFSET), mainStorage.getPipeState());
+    }
+
+    // drops events of a write that did not reach every shard
+    private long recoverCommittedOffset() {
+        final OptionalLong storedOffset = mainStorage.getCommittedOffset();
+        final long offset = storedOffset.isPresent()
+            ? storedOffset.getAsLong()
+            : shards.stream().mapToLong(SQLiteStorage::getMaxOffset).max().orElse(0);
+
+        shards.forEach(shard -> shard.deleteEventsAfter(offset));
+        return offset;
+    }
+
+    @Override
+    public MessageResults read(final List<String> types, final long offset, final String locationUuid) {
+        final CommittedState readState = committed;
+        return merged(readState, inParallel(
+            shardsFor(types),
+            shard -> shard.read(types, offset, locationUuid)
+        ));
+    }
+
+    // events of a key and type are all in the same shard, so the snapshot of each shard is the snapshot of its types
+    @Override
+    public MessageResults readSnapshot(
+        final List<String> types,
+        final long offset,
+        final long upToOffset,
+        final String locationUuid
+    ) {
+        final CommittedState readState = committed;
+        final long snapshotOffset = Math.min(upToOffset, readState.offset);
+        return merged(readState, inParallel(
+            shardsFor(types),
+            shard -> shard.readSnapshot(types, offset, snapshotOffset, locationUuid)
+        ));
+    }
+
+    private MessageResults merged(final CommittedState readState, final List<MessageResults> shardResults) {
+        // a shard that returned a full page may hold more events before the other shards' last events
+        long cutoff = readState.offset;
+        for (final MessageResults shardResult : shardResults) {
+            final List<Message> messages = shardResult.getMessages();
+            if (messages.size() >= limit) {
+                cutoff = Math.min(cutoff, messages.get(messages.size() - 1).getOffset());
+            }
+        }
+
+        final long lastOffset = cutoff;
+        final List<Message> merged = shardResults.stream()
+            .flatMap(shardResult -> shardResult.getMessages().stream())
+            .filter(message -> message.getOffset() <= lastOffset)
+            .sorted(Comparator.comparingLong(Message::getOffset))
+            .collect(Collectors.toList());
+
+        final List<Message> messages = new ArrayList<>();
+        long runningSize = 0;
+        for (final Message message : merged) {
+            runningSize += message.getSize();
+            if (messages.size() >= limit || runningSize >= maxBatchSize) {
+                break;
+            }
+            messages.add(message);
+        }
+
+        return new MessageResults(
+            messages,
+            messages.isEmpty() ? retryAfterMs : 0,
+            readState.globalLatestOffset,
+            readState.pipeState
+        );
+    }
+
+    private Collection<SQLiteStorage> shardsFor(final List<String> types) {
+        if (types == null || types.isEmpty()) {
+            return shards;
+        }
+
+        return types.stream()
+            .map(type -> storageByType.getOrDefault(type, mainStorage))
+            .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    @Override
+    public OptionalLong getOffset(final OffsetName offsetName) {
+        if (offsetName == OffsetName.MAX_OFFSET_PREVIOUS_HOUR) {
+            return OptionalLong.of(
+                inParallel(shards, shard -> shard.getOffset(offsetName).orElse(0)).stream()
+                    .mapToLong(Long::longValue)
+                    .max()
+                    .orElse(0)
+            );
+        }
+
+        return mainStorage.getOffset(offsetName);
+    }
+
+    @Override
+    public PipeState getPipeState() {
+        return mainStorage.getPipeState();
+    }
+
+    @Override
+    public long getOffsetConsistencySum(final long offset, final List<String> targetUuids) {
+        return inParallel(shards, shard -> shard.getOffsetConsistencySum(offset, targetUuids)).stream()
+            .mapToLong(Long::longValue)
+            .sum();
+    }
+
+    @Override
+    public Long getMaxOffsetForConsumers(final List<String> types) {
+        final long committedOffset = committed.offset;
+        final long maxOffset = inParallel(shardsFor(types), shard -> shard.getMaxOffsetForConsumers(types)).stream()
+            .filter(Objects::nonNull)
+            .max(Long::compare)
+            .orElse(0L);
+
+        // shards may already hold events of a write that is not committed yet
+        return Math.min(maxOffset, committedOffset);
+    }
+
+    @Override
+    public void runVisibilityCheck() {
+        shards.forEach(SQLiteStorage::runVisibilityCheck);
+    }
+
+    @Override
+    public void write(final PipeEntity pipeEntity) {
+        if (pipeEntity == null || nothingToWriteIn(pipeEntity)) {
+            throw new IllegalArgumentException("Pipe entity data cannot be null.");
+        }
+
+        synchronized (writeLock) {
+            final Map<SQLiteStorage, List<Message>> messagesByShard = new LinkedHashMap<>();
+            final long committedOffset = committed.offset;
+            long newCommittedOffset = committedOffset;
+
+            if (pipeEntity.getMessages() != null) {
+                for (final Message message : pipeEntity.getMessages()) {
+                    messagesByShard
+                        .computeIfAbsent(storageByType.getOrDefault(message.getType(), mainStorage), shard -> new ArrayList<>())
+                        .add(message);
+                    newCommittedOffset = Math.max(newCommittedOffset, message.getOffset());
+                }
+            }
+
+            final List<Message> mainMessages = messagesByShard.remove(mainStorage);
+
+            try {
+                inParallel(messagesByShard.keySet(), shard -> {
+                    shard.write(new PipeEntity(messagesByShard.get(shard), null, null));
+                    return null;
+                });
+
+                mainStorage.write(
+                    new PipeEntity(mainMessages, pipeEntity.getOffsets(), pipeEntity.getPipeState()),
+                    newCommittedOffset
+                );
+            } catch (final RuntimeException exception) {
+                LOG.error("write", "Failed to write to all shards, removing partially written events", exception);
+                messagesByShard.keySet().forEach(shard -> shard.deleteEventsAfter(committedOffset));
+                throw exception;
+            }
+
+            committed = committedState(newCommittedOffset);
+        }
+    }
+
+    private boolean nothingToWriteIn(final PipeEntity pipeEntity) {
+        return pipeEntity.getPipeState() == null
+            && (pipeEntity.getOffsets() == null || pipeEntity.getOffsets().isEmpty())
+            && (pipeEntity.getMessages() == null || pipeEntity.getMessages().isEmpty());
+    }
+
+    @Override
+    public void write(final Iterable<Message> messages) {
+        final List<Message> messageList = new ArrayList<>();
+        messages.forEach(messageList::add);
+        write(new PipeEntity(messageList, null, null));
+    }
+
+    @Override
+    public void write(final Message message) {
+        write(new PipeEntity(Collections.singletonList(message), null, null));
+    }
+
+    @Override
+    public void write(final OffsetEntity offset) {
+        write(new PipeEntity(null, Collections.singletonList(offset), null));
+    }
+
+    @Override
+    public void write(final PipeState pipeState) {
+        write(new PipeEntity(null, null, pipeState));
+    }
+
+    @Override
+    public void deleteAll() {
+        synchronized (writeLock) {
+            shards.forEach(SQLiteStorage::deleteAll);
+            committed = committedState(0);
+        }
+    }
+
+    public void runMaintenanceTasks() {
+        shards.forEach(SQLiteStorage::runMaintenanceTasks);
+    }
+
+    public void compactUpTo(
+        final ZonedDateTime compactionThreshold,
+        final ZonedDateTime deletionCompactionThreshold,
+        final boolean compactDeletions
+    ) {
+        shards.forEach(shard -> shard.compactUpTo(compactionThreshold, deletionCompactionThreshold, compactDeletions));
+    }
+
+    private <T> List<T> inParallel(final Collection<SQLiteStorage> storages, final Function<SQLiteStorage, T> task) {
+        if (storages.size() == 1) {
+            return Collections.singletonList(task.apply(storages.iterator().next()));
+        }
+
+        final List<CompletableFuture<T>> futures = storages.stream()
+            .map(storage -> CompletableFuture.supplyAsync(() -> task.apply(storage), executor))
+            .collect(Collectors.toList());
+
+        try {
+            // waits for every shard, so a failed write is not cleaned up while another shard is still writing
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+            return futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+        } catch (final CompletionException exception) {
+            if (exception.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) exception.getCause();
+            }
+            throw exception;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private static final class CommittedState {
+        private final long offset;
+        private final OptionalLong globalLatestOffset;
+        private final PipeState pipeState;
+
+        private CommittedState(final long offset, final OptionalLong globalLatestOffset, final PipeState pipeState) {
+            this.offset = offset;
+            this.globalLatestOffset = globalLatestOffset;
+            this.pipeState = pipeState;
+        }
+    }
+}
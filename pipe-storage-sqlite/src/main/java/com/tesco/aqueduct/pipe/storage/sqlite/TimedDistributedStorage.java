@@ -35,6 +35,11 @@ public class TimedDistributedStorage implements DistributedStorage {
         return readTimer.record(() -> storage.read(types, offset, locationUuid));
     }
 
+    @Override
+    public MessageResults readSnapshot(final List<String> types, final long offset, final long upToOffset, final String locationUuid) {
+        return readTimer.record(() -> storage.readSnapshot(types, offset, upToOffset, locationUuid));
+    }
+
     @Override
     public OptionalLong getOffset(OffsetName offsetName) {
         return readOffsetTimer.record(() -> storage.getOffset(offsetName));
@@ -1,6 +1,8 @@
 package com.tesco.aqueduct.pipe.storage.sqlite
 
 import com.tesco.aqueduct.pipe.api.*
+import groovy.sql.Sql
+import org.sqlite.SQLiteDataSource
 import spock.lang.Shared
 import spock.lang.Specification
 
@@ -263,6 +265,45 @@ class SQLiteStorageSpec extends Specification {
         1 * statement.execute()
     }
 
+    def "running management tasks in incremental vacuum mode reclaims free pages and leaves the database writable"() {
+        given: "a temporary database file"
+        def file = File.createTempFile("aqueduct-pipe-incremental", ".db")
+        file.deleteOnExit()
+        def dataSource = new SQLiteDataSource()
+        dataSource.setUrl("jdbc:sqlite:" + file.absolutePath)
+        def sql = Sql.newInstance(dataSource.url)
+
+        and: "a storage reclaiming at most 10 pages per step"
+        sqliteStorage = new SQLiteStorage(dataSource, limit, 10, batchSize, 10, 0)
+
+        when: "tuning is invoked for the first time"
+        sqliteStorage.runMaintenanceTasks()
+
+        then: "the database uses incremental auto vacuum"
+        sql.firstRow("PRAGMA auto_vacuum;")[0] == 2
+
+        when: "messages are written and then removed outside of the storage"
+        sqliteStorage.write((1..100).collect { new Message("some-type", "key-" + it, "text/plain", it, ZonedDateTime.now(), "x" * 1000) })
+        sql.execute("DELETE FROM EVENT WHERE msg_offset < 100;")
+
+        then: "the database has more free pages than a single step reclaims"
+        sql.firstRow("PRAGMA freelist_count;")[0] > 10
+
+        when: "tuning is invoked again"
+        sqliteStorage.runMaintenanceTasks()
+
+        then: "every free page is reclaimed"
+        sql.firstRow("PRAGMA freelist_count;")[0] == 0
+
+        and: "the database is writable again after the integrity check"
+        sqliteStorage.write(message(101))
+        sqliteStorage.read(null, 0, "locationUuid").messages*.offset == [100L, 101L]
+
+        cleanup:
+        sql?.close()
+        file.delete()
+    }
+
     def 'calculate max offset throws Runtime exception if error during processing'() {
         given: "mocked datasource"
         dataSource = Mock(DataSource)
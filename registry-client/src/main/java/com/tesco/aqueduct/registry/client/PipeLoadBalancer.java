@@ -1,5 +1,7 @@
 package com.tesco.aqueduct.registry.client;
 
+import com.tesco.aqueduct.pipe.api.PipeState;
+import io.micronaut.context.annotation.Property;
 import io.micronaut.core.async.publisher.Publishers;
 import io.micronaut.discovery.ServiceInstance;
 import io.micronaut.http.client.LoadBalancer;
@@ -7,27 +9,155 @@ import io.reactivex.Flowable;
 import org.reactivestreams.Publisher;
 
 import javax.annotation.Nullable;
+import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.net.URI;
 import java.net.URL;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 
+/**
+ * Selects the first instance that is up, in the order given by the registry.
+ *
+ * When load aware, the first instance that is up is compared with another one picked at random, and the one with the
+ * lower cost is selected. The cost grows with an instance's average response time, or its average health check time
+ * until requests were sent to it, its error rate, how far its advertised global latest offset is behind the highest
+ * one seen, and its position in the registry order, so that a busy or lagging parent hands some of its load over to
+ * an idle sibling without the order being ignored.
+ *
+ * When offset aware, instances whose last status shows them out of date, or behind the offset the client reads from,
+ * are passed over as long as another instance is up that is not, so that after a topology change the client does not
+ * follow a peer that has nothing to serve yet. Reads are tracked per request, while reads are in flight the lowest of
+ * their offsets is used so that no peer one of them could be served by is passed over, otherwise the offset of the
+ * last finished read.
+ */
 @Singleton
 public class PipeLoadBalancer implements LoadBalancer {
+
+    // cost multipliers per unit of error rate, per offset behind the highest seen and per position in registry order
+    private static final double ERROR_WEIGHT = 10;
+    private static final double LAG_WEIGHT = 0.001;
+    private static final double ORDER_WEIGHT = 0.5;
+    private static final double MIN_LATENCY_MS = 1;
+
     private final ServiceList services;
+    private final boolean loadAware;
+    private final boolean offsetAware;
+    private final ConcurrentSkipListMap<Long, Integer> readsInFlight = new ConcurrentSkipListMap<>();
+    private volatile long lastReadOffset = -1;
 
     PipeLoadBalancer(final ServiceList services) {
+        this(services, false);
+    }
+
+    PipeLoadBalancer(final ServiceList services, final boolean loadAware) {
+        this(services, loadAware, false);
+    }
+
+    @Inject
+    PipeLoadBalancer(
+        final ServiceList services,
+        @Property(name = "pipe.http.client.load-balancer.load-aware", defaultValue = "false") final boolean loadAware,
+        @Property(name = "pipe.http.client.load-balancer.offset-aware", defaultValue = "false") final boolean offsetAware
+    ) {
         this.services = services;
+        this.loadAware = loadAware;
+        this.offsetAware = offsetAware;
     }
 
     @Override
     public Publisher<ServiceInstance> select(@Nullable final Object discriminator) {
-        return services.stream()
+        List<PipeServiceInstance> upInstances = services.stream()
             .filter(PipeServiceInstance::isUp)
-            .findFirst()
-            .map(ServiceInstance.class::cast)
-            .map(Publishers::just)
-            .orElse(Flowable.error(new RuntimeException("No accessible service to call.")));
+            .collect(Collectors.toList());
+
+        if (upInstances.isEmpty()) {
+            return Flowable.error(new RuntimeException("No accessible service to call."));
+        }
+
+        if (offsetAware) {
+            upInstances = preferCaughtUp(upInstances);
+        }
+
+        return Publishers.just(loadAware ? selectLeastLoaded(upInstances) : upInstances.get(0));
+    }
+
+    private List<PipeServiceInstance> preferCaughtUp(final List<PipeServiceInstance> upInstances) {
+        final long offset = clientOffset();
+        final List<PipeServiceInstance> caughtUp = upInstances.stream()
+            .filter(instance -> instance.getPipeState() != PipeState.OUT_OF_DATE)
+            .filter(instance -> offset < 0 || instance.getLocalLatestOffset() < 0 || instance.getLocalLatestOffset() >= offset)
+            .collect(Collectors.toList());
+
+        return caughtUp.isEmpty() ? upInstances : caughtUp;
+    }
+
+    private PipeServiceInstance selectLeastLoaded(final List<PipeServiceInstance> upInstances) {
+        if (upInstances.size() == 1) {
+            return upInstances.get(0);
+        }
+
+        final int otherIndex = 1 + ThreadLocalRandom.current().nextInt(upInstances.size() - 1);
+        final long highestGlobalLatestOffset = upInstances.stream()
+            .mapToLong(PipeServiceInstance::getGlobalLatestOffset)
+            .max()
+            .orElse(-1);
+
+        final PipeServiceInstance preferred = upInstances.get(0);
+        final PipeServiceInstance other = upInstances.get(otherIndex);
+
+        return cost(other, otherIndex, highestGlobalLatestOffset) < cost(preferred, 0, highestGlobalLatestOffset)
+            ? other
+            : preferred;
+    }
+
+    private double cost(final PipeServiceInstance instance, final int position, final long highestGlobalLatestOffset) {
+        final long lag = instance.getGlobalLatestOffset() < 0
+            ? 0
+            : highestGlobalLatestOffset - instance.getGlobalLatestOffset();
+
+        return Math.max(MIN_LATENCY_MS, latencyMs(instance))
+            * (1 + ERROR_WEIGHT * instance.getErrorRate())
+            * (1 + LAG_WEIGHT * lag)
+            * (1 + ORDER_WEIGHT * position);
+    }
+
+    // an instance no request was sent to yet is judged by its health checks
+    private static double latencyMs(final PipeServiceInstance instance) {
+        return instance.isResponseRecorded()
+            ? instance.getAverageLatencyMs()
+            : instance.getAverageHealthCheckLatencyMs();
+    }
+
+    /**
+     * Records the outcome of a request to the instance the request URI belongs to, requests to other URIs are ignored.
+     */
+    public void recordResponse(final URI requestUri, final long latencyMs, final boolean success, final long globalLatestOffset) {
+        services.findByRequestUri(requestUri)
+            .ifPresent(instance -> instance.recordResponse(latencyMs, success, globalLatestOffset));
+    }
+
+    /**
+     * Records that the client started a read from the offset, for offset aware selection.
+     */
+    public void recordReadStarted(final long offset) {
+        readsInFlight.merge(offset, 1, Integer::sum);
+    }
+
+    /**
+     * Records that a read started with {@link #recordReadStarted(long)} finished, whatever its outcome.
+     */
+    public void recordReadFinished(final long offset) {
+        readsInFlight.computeIfPresent(offset, (key, count) -> count == 1 ? null : count - 1);
+        lastReadOffset = offset;
+    }
+
+    private long clientOffset() {
+        final Map.Entry<Long, Integer> lowestInFlight = readsInFlight.firstEntry();
+        return lowestInFlight == null ? lastReadOffset : lowestInFlight.getKey();
     }
 
     public List<URL> getFollowing() {
@@ -6,7 +6,9 @@ import io.micronaut.context.annotation.Requires;
 import io.micronaut.scheduling.annotation.Scheduled;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Context
 @Requires(property = "pipe.http.client.healthcheck.interval")
@@ -14,18 +16,34 @@ public class PipeLoadBalancerHealthCheckTask {
 
     private static final RegistryLogger LOG = new RegistryLogger(LoggerFactory.getLogger(PipeLoadBalancerHealthCheckTask.class));
     private final ServiceList services;
+    private final AtomicBoolean checking = new AtomicBoolean();
 
     @Inject
     public PipeLoadBalancerHealthCheckTask(ServiceList services) {
         this.services = services;
     }
 
+    // checks run in the background, a check that is still running when the next one is due is not overlapped
     @Scheduled(fixedDelay = "${pipe.http.client.healthcheck.interval}")
     public void checkState() {
+        if (!checking.compareAndSet(false, true)) {
+            LOG.debug("healthcheck", "previous check still running");
+            return;
+        }
+
         try {
-            services.checkState();
+            services.checkStateAsync()
+                .doFinally(() -> checking.set(false))
+                .subscribe(() -> {}, t -> LOG.error("healthcheck", "unexpected error", t));
         } catch (Throwable t) {
+            checking.set(false);
             LOG.error("healthcheck","unexpected error", t);
         }
     }
+
+    // the pooled client of the checks is only used by this task
+    @PreDestroy
+    public void close() {
+        services.close();
+    }
 }
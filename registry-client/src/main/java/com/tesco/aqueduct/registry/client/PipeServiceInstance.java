@@ -1,5 +1,8 @@
 package com.tesco.aqueduct.registry.client;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.tesco.aqueduct.pipe.api.JsonHelper;
+import com.tesco.aqueduct.pipe.api.PipeState;
 import com.tesco.aqueduct.registry.utils.RegistryLogger;
 import io.micronaut.discovery.ServiceInstance;
 import io.micronaut.http.client.HttpClientConfiguration;
@@ -10,17 +13,34 @@ import io.reactivex.Completable;
 import io.reactivex.Flowable;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
 
 public class PipeServiceInstance implements ServiceInstance {
 
     private final HttpClientConfiguration configuration;
     private final URL url;
     private boolean up = true;
+
+    // smoothing of the response statistics, higher values follow recent responses more closely
+    private static final double EWMA_WEIGHT = 0.3;
+
+    private double averageLatencyMs;
+    private double errorRate;
+    private boolean responseRecorded;
+    private double averageHealthCheckLatencyMs;
+    private boolean healthCheckRecorded;
+    private long globalLatestOffset = -1;
+    private long localLatestOffset = -1;
+    private PipeState pipeState;
+    static final Duration DEFAULT_HEALTH_CHECK_TIMEOUT = Duration.ofSeconds(10);
     private static final RegistryLogger LOG = new RegistryLogger(LoggerFactory.getLogger(PipeServiceInstance.class));
 
     @Inject
@@ -37,6 +57,82 @@ public class PipeServiceInstance implements ServiceInstance {
         up = isServiceUp;
     }
 
+    /**
+     * Records a response from this instance, for load aware selection. The global latest offset is the one
+     * advertised in the response, or a negative value when it did not advertise one. The first response sets the
+     * averages, so that a single response is not taken for a faster or more reliable instance than it is.
+     */
+    public synchronized void recordResponse(final long latencyMs, final boolean success, final long globalLatestOffset) {
+        averageLatencyMs = responseRecorded ? ewma(latencyMs, averageLatencyMs) : latencyMs;
+        errorRate = responseRecorded ? ewma(success ? 0 : 1, errorRate) : (success ? 0 : 1);
+        responseRecorded = true;
+        if (globalLatestOffset >= 0) {
+            this.globalLatestOffset = globalLatestOffset;
+        }
+    }
+
+    public synchronized double getAverageLatencyMs() {
+        return averageLatencyMs;
+    }
+
+    public synchronized double getErrorRate() {
+        return errorRate;
+    }
+
+    public synchronized boolean isResponseRecorded() {
+        return responseRecorded;
+    }
+
+    /**
+     * Records the latency of a status check of this instance. It is kept apart from the response statistics, as a
+     * status is much cheaper to serve than a page of the pipe. A successful check counts as a successful response
+     * for the error rate, so that an instance passed over after failing is picked again once it is back.
+     */
+    synchronized void recordHealthCheck(final long latencyMs, final boolean success) {
+        averageHealthCheckLatencyMs = healthCheckRecorded ? ewma(latencyMs, averageHealthCheckLatencyMs) : latencyMs;
+        healthCheckRecorded = true;
+        if (success) {
+            errorRate = ewma(0, errorRate);
+        }
+    }
+
+    private static double ewma(final double sample, final double average) {
+        return EWMA_WEIGHT * sample + (1 - EWMA_WEIGHT) * average;
+    }
+
+    public synchronized double getAverageHealthCheckLatencyMs() {
+        return averageHealthCheckLatencyMs;
+    }
+
+    public synchronized long getGlobalLatestOffset() {
+        return globalLatestOffset;
+    }
+
+    // nodes advertise their local latest offset and pipe state in the status, other servers may not
+    void recordStatus(final String statusBody) {
+        try {
+            final JsonNode status = JsonHelper.MAPPER.readTree(statusBody);
+            final JsonNode offset = status.path("localLatestOffset");
+            final JsonNode state = status.path("pipeState");
+
+            synchronized (this) {
+                localLatestOffset = offset.canConvertToLong() ? offset.asLong() : -1;
+                pipeState = state.isTextual() ? PipeState.valueOf(state.asText()) : null;
+            }
+        } catch (IOException | IllegalArgumentException exception) {
+            LOG.debug("healthcheck.status", url.toString() + " returned an unknown status: " + exception.getMessage());
+        }
+    }
+
+    public synchronized long getLocalLatestOffset() {
+        return localLatestOffset;
+    }
+
+    @Nullable
+    public synchronized PipeState getPipeState() {
+        return pipeState;
+    }
+
     public URL getUrl() {
         return url;
     }
@@ -69,12 +165,26 @@ public class PipeServiceInstance implements ServiceInstance {
 
     Completable checkState() {
         final RxHttpClient client = new DefaultHttpClient(url, configuration);
-        return checkState(client);
+        return checkState(client, configuration.getReadTimeout().orElse(DEFAULT_HEALTH_CHECK_TIMEOUT))
+            .doFinally(client::close);
     }
 
-    private Completable checkState(final RxHttpClient client) {
+    /**
+     * Checks the status of this instance with a client shared between instances, which is left open. Every attempt
+     * is limited to the given timeout and its latency recorded as a health check latency.
+     */
+    Completable checkState(final RxHttpClient client, final Duration timeout) {
         final String statusUrl = generateStatusUrlFromBaseURI(getURI());
-        return client.retrieve(statusUrl)
+        return Flowable.defer(() -> {
+                final long start = System.nanoTime();
+                return client.retrieve(statusUrl)
+                    .timeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                    .doOnNext(response -> {
+                        recordHealthCheck(elapsedMs(start), true);
+                        recordStatus(response);
+                    })
+                    .doOnError(error -> recordHealthCheck(elapsedMs(start), false));
+            })
             // if got response, then it's a true
             .map(response -> true )
             // log result
@@ -85,12 +195,15 @@ public class PipeServiceInstance implements ServiceInstance {
             .onErrorResumeNext(Flowable.just(false))
             // set the status of the instance
             .doOnNext(this::isUp)
-            // return as completable, close client and ignore any errors
+            // return as completable and ignore any errors
             .ignoreElements() // returns completable
-            .doOnComplete(client::close)
             .onErrorComplete();
     }
 
+    private static long elapsedMs(final long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
     private String generateStatusUrlFromBaseURI(final URI baseURI) {
         return UriBuilder.of(baseURI).path("/pipe/_status").build().toString();
     }
@@ -1,6 +1,8 @@
 package com.tesco.aqueduct.registry.client;
 
 import com.tesco.aqueduct.registry.model.Node;
+import com.tesco.aqueduct.registry.model.NodeDelta;
+import com.tesco.aqueduct.registry.model.RegistryDeltaResponse;
 import com.tesco.aqueduct.registry.model.RegistryResponse;
 import io.micronaut.context.annotation.Requires;
 import io.micronaut.http.annotation.Body;
@@ -16,4 +18,9 @@ public interface RegistryClient {
     @Post(uri = "/registry")
     @Header(name="Accept-Encoding", value="gzip, deflate")
     RegistryResponse register(@Body Node node);
+
+    @Retryable(delay = "${pipe.http.register.retry.interval}")
+    @Post(uri = "/registry/delta")
+    @Header(name="Accept-Encoding", value="gzip, deflate")
+    RegistryDeltaResponse registerDelta(@Body NodeDelta delta);
 }
@@ -10,9 +10,12 @@ import io.micronaut.http.client.exceptions.HttpClientResponseException;
 import io.micronaut.scheduling.annotation.Scheduled;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.net.URL;
 import java.time.Duration;
+import java.util.List;
 
 @Context
 @Requires(property = "pipe.http.registration.interval")
@@ -25,8 +28,44 @@ public class SelfRegistrationTask {
     private final Bootstrapable provider;
     private final Bootstrapable pipe;
     private final Resetable corruptionManager;
+    private final Resetable pageStore;
     private final long bootstrapDelayMs;
+    private final boolean deltaRegistration;
+    private NodeDelta registrationBase;
+    private List<URL> requestedToFollow;
 
+    public SelfRegistrationTask(
+        final RegistryClient client,
+        final SummarySupplier selfSummary,
+        final ServiceList services,
+        final Bootstrapable provider,
+        final Bootstrapable pipe,
+        Resetable corruptionManager,
+        String retryInterval,
+        final int additionalDelay
+    ) {
+        this(client, selfSummary, services, provider, pipe, corruptionManager, retryInterval, additionalDelay, false);
+    }
+
+    public SelfRegistrationTask(
+        final RegistryClient client,
+        final SummarySupplier selfSummary,
+        final ServiceList services,
+        final Bootstrapable provider,
+        final Bootstrapable pipe,
+        Resetable corruptionManager,
+        String retryInterval,
+        final int additionalDelay,
+        final boolean deltaRegistration
+    ) {
+        this(client, selfSummary, services, provider, pipe, corruptionManager, null, retryInterval, additionalDelay, deltaRegistration);
+    }
+
+    /**
+     * @param pageStore pages kept to serve followers, deleted with the pipe as they only hold events it had written
+     * @param deltaRegistration registrations only send the offsets when nothing else changed since the last full
+     *                          registration, the registry has to support them
+     */
     @Inject
     public SelfRegistrationTask(
         final RegistryClient client,
@@ -35,8 +74,10 @@ public class SelfRegistrationTask {
         @Named("provider") final Bootstrapable provider,
         @Named("pipe") final Bootstrapable pipe,
         @Named("corruptionManager") Resetable corruptionManager,
+        @Nullable @Named("pageStore") Resetable pageStore,
         @Property(name = "pipe.http.registration.interval") String retryInterval,
-        @Value("${pipe.bootstrap.delay:300000}") final int additionalDelay // 5 minutes extra to allow all nodes to reset
+        @Value("${pipe.bootstrap.delay:300000}") final int additionalDelay, // 5 minutes extra to allow all nodes to reset
+        @Value("${pipe.http.registration.delta:false}") final boolean deltaRegistration
     ) {
         this.client = client;
         this.selfSummary = selfSummary;
@@ -44,14 +85,16 @@ public class SelfRegistrationTask {
         this.provider = provider;
         this.pipe = pipe;
         this.corruptionManager = corruptionManager;
+        this.pageStore = pageStore;
         this.bootstrapDelayMs = Duration.parse("PT" + retryInterval).toMillis() + additionalDelay;
+        this.deltaRegistration = deltaRegistration;
     }
 
     @Scheduled(fixedRate = "${pipe.http.registration.interval}")
     void register() {
         try {
             final Node node = selfSummary.getSelfNode();
-            final RegistryResponse registryResponse = client.register(node);
+            final RegistryResponse registryResponse = deltaRegistration ? registerDelta(node) : client.register(node);
             if (registryResponse.getRequestedToFollow() == null) {
                 LOG.error("SelfRegistrationTask.register", "Register error", "Null response received");
                 return;
@@ -67,18 +110,18 @@ public class SelfRegistrationTask {
                     provider.stop();
                     provider.reset();
                     pipe.stop();
-                    pipe.reset();
+                    resetPipe();
                     pipe.start();
                     provider.start();
                     break;
                 case PIPE:
                     pipe.stop();
-                    pipe.reset();
+                    resetPipe();
                     pipe.start();
                     break;
                 case PIPE_WITH_DELAY:
                     pipe.stop();
-                    pipe.reset();
+                    resetPipe();
                     Thread.sleep(bootstrapDelayMs);
                     pipe.start();
                     break;
@@ -86,7 +129,7 @@ public class SelfRegistrationTask {
                     provider.stop();
                     provider.reset();
                     pipe.stop();
-                    pipe.reset();
+                    resetPipe();
                     Thread.sleep(bootstrapDelayMs);
                     pipe.start();
                     provider.start();
@@ -95,6 +138,7 @@ public class SelfRegistrationTask {
                     provider.stop();
                     provider.reset();
                     pipe.stop();
+                    resetPageStore();
                     corruptionManager.reset();
                     break;
             }
@@ -104,4 +148,36 @@ public class SelfRegistrationTask {
             LOG.error("SelfRegistrationTask.register", "Register error", e);
         }
     }
+
+    private void resetPipe() throws Exception {
+        resetPageStore();
+        pipe.reset();
+    }
+
+    private void resetPageStore() throws Exception {
+        if (pageStore != null) {
+            pageStore.reset();
+        }
+    }
+
+    private RegistryResponse registerDelta(final Node node) {
+        final String followVersion = NodeDelta.versionOf(requestedToFollow);
+        NodeDelta delta = registrationBase == null
+            ? NodeDelta.full(node, followVersion)
+            : NodeDelta.between(registrationBase, node, followVersion);
+
+        RegistryDeltaResponse response = client.registerDelta(delta);
+        if (response.isFullRegistrationRequired()) {
+            delta = NodeDelta.full(node, followVersion);
+            response = client.registerDelta(delta);
+        }
+
+        if (delta.isFull()) {
+            registrationBase = delta;
+        }
+        if (!response.isUnchanged()) {
+            requestedToFollow = response.getRequestedToFollow();
+        }
+        return new RegistryResponse(requestedToFollow, response.getBootstrapType());
+    }
 }
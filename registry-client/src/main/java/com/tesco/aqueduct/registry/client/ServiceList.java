@@ -1,7 +1,11 @@
 package com.tesco.aqueduct.registry.client;
 
 import com.tesco.aqueduct.registry.utils.RegistryLogger;
+import io.micronaut.http.client.DefaultHttpClientConfiguration;
 import io.micronaut.http.client.HttpClientConfiguration;
+import io.micronaut.http.client.RxHttpClient;
+import io.micronaut.http.client.netty.DefaultHttpClient;
+import io.reactivex.Completable;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
@@ -10,28 +14,49 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static io.reactivex.Flowable.fromIterable;
 
-public class ServiceList {
+/**
+ * Closing the list closes the pooled client its health checks share.
+ */
+public class ServiceList implements AutoCloseable {
     private static final RegistryLogger LOG = new RegistryLogger(LoggerFactory.getLogger(ServiceList.class));
     private final HttpClientConfiguration configuration;
     private List<PipeServiceInstance> services;
     private final PipeServiceInstance cloudInstance;
     private final File file;
+    private final Duration healthCheckTimeout;
+    private RxHttpClient healthCheckClient;
 
     public ServiceList(
         final HttpClientConfiguration configuration,
         final PipeServiceInstance pipeServiceInstance,
         File file
+    ) throws IOException {
+        this(
+            configuration,
+            pipeServiceInstance,
+            file,
+            configuration.getReadTimeout().orElse(PipeServiceInstance.DEFAULT_HEALTH_CHECK_TIMEOUT)
+        );
+    }
+
+    public ServiceList(
+        final HttpClientConfiguration configuration,
+        final PipeServiceInstance pipeServiceInstance,
+        File file,
+        final Duration healthCheckTimeout
     ) throws IOException {
         this.configuration = configuration;
         this.cloudInstance = pipeServiceInstance;
         services = new ArrayList<>();
         this.file = file;
+        this.healthCheckTimeout = healthCheckTimeout;
         readUrls(file);
     }
 
@@ -125,9 +150,68 @@ public class ServiceList {
     }
 
     public void checkState() {
-        fromIterable(services)
-            .flatMapCompletable(PipeServiceInstance::checkState)
-            .blockingAwait();
+        checkStateAsync().blockingAwait();
+    }
+
+    /**
+     * Checks all instances concurrently through one pooled client, so that connections and the event loop are reused
+     * between checks.
+     */
+    public Completable checkStateAsync() {
+        final RxHttpClient client = healthCheckClient();
+        return fromIterable(services)
+            .flatMapCompletable(instance -> instance.checkState(client, healthCheckTimeout));
+    }
+
+    private synchronized RxHttpClient healthCheckClient() {
+        if (healthCheckClient == null) {
+            healthCheckClient = new DefaultHttpClient((URL) null, pooled(configuration));
+        }
+        return healthCheckClient;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (healthCheckClient != null) {
+            healthCheckClient.close();
+            healthCheckClient = null;
+        }
+    }
+
+    private static HttpClientConfiguration pooled(final HttpClientConfiguration configuration) {
+        final DefaultHttpClientConfiguration.DefaultConnectionPoolConfiguration pool =
+            new DefaultHttpClientConfiguration.DefaultConnectionPoolConfiguration();
+        pool.setEnabled(true);
+
+        return new HttpClientConfiguration(configuration) {
+            @Override
+            public ConnectionPoolConfiguration getConnectionPoolConfiguration() {
+                return pool;
+            }
+        };
+    }
+
+    /**
+     * Finds the instance a request was sent to, i.e. the one with the same host and port whose path the request path
+     * starts with.
+     */
+    public Optional<PipeServiceInstance> findByRequestUri(final URI requestUri) {
+        return services.stream()
+            .filter(instance -> {
+                final URI uri = instance.getURI();
+                return Objects.equals(uri.getHost(), requestUri.getHost())
+                    && port(uri) == port(requestUri)
+                    && requestUri.getPath() != null
+                    && requestUri.getPath().startsWith(uri.getPath() == null ? "" : uri.getPath());
+            })
+            .findFirst();
+    }
+
+    private static int port(final URI uri) {
+        if (uri.getPort() != -1) {
+            return uri.getPort();
+        }
+        return "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
     }
 
     public Stream<PipeServiceInstance> stream() {
@@ -113,6 +113,199 @@ class PipeLoadBalancerSpec extends Specification {
         serviceInstance.URI.toString() == "http://a2"
     }
 
+    def "Load aware selection keeps to the first url while it is not busier than the others"() {
+        given:
+        def loadAwareBalancer = new PipeLoadBalancer(serviceList, true)
+        serviceList.update([URL_1, URL_2, URL_3])
+        recordResponses(URL_1, 10)
+        recordResponses(URL_2, 10)
+        recordResponses(URL_3, 10)
+
+        when:
+        def selected = (1..20).collect { fromPublisher(loadAwareBalancer.select()).blockingGet().URI }
+
+        then:
+        selected.every { it == URL_1.toURI() }
+    }
+
+    def "Load aware selection moves away from a slow or failing first url"() {
+        given:
+        def loadAwareBalancer = new PipeLoadBalancer(serviceList, true)
+        serviceList.update([URL_1, URL_2])
+        recordResponses(URL_1, latency, success)
+        recordResponses(URL_2, 10)
+
+        when:
+        def serviceInstance = fromPublisher(loadAwareBalancer.select()).blockingGet()
+
+        then:
+        serviceInstance.URI == URL_2.toURI()
+
+        where:
+        latency | success
+        500     | true
+        10      | false
+    }
+
+    def "Load aware selection moves away from a first url that lags behind the global latest offset"() {
+        given:
+        def loadAwareBalancer = new PipeLoadBalancer(serviceList, true)
+        serviceList.update([URL_1, URL_2])
+        recordResponses(URL_1, 10, true, 1000)
+        recordResponses(URL_2, 10, true, 5000)
+
+        when:
+        def serviceInstance = fromPublisher(loadAwareBalancer.select()).blockingGet()
+
+        then:
+        serviceInstance.URI == URL_2.toURI()
+    }
+
+    def "Load aware selection judges urls no request was sent to yet by their health checks"() {
+        given:
+        def loadAwareBalancer = new PipeLoadBalancer(serviceList, true)
+        serviceList.update([URL_1, URL_2])
+        def (first, second) = serviceList.stream().collect()
+        10.times {
+            first.recordHealthCheck(500, true)
+            second.recordHealthCheck(10, true)
+        }
+
+        when:
+        def serviceInstance = fromPublisher(loadAwareBalancer.select()).blockingGet()
+
+        then:
+        serviceInstance.URI == URL_2.toURI()
+
+        when: "requests were sent to both"
+        recordResponses(URL_1, 10)
+        recordResponses(URL_2, 10)
+
+        then: "their health checks are no longer taken into account"
+        fromPublisher(loadAwareBalancer.select()).blockingGet().URI == URL_1.toURI()
+    }
+
+    def "Load aware selection goes back to a first url that failed once its health checks succeed"() {
+        given: "a first url that failed during an outage"
+        def loadAwareBalancer = new PipeLoadBalancer(serviceList, true)
+        serviceList.update([URL_1, URL_2])
+        recordResponses(URL_1, 10, false)
+        recordResponses(URL_2, 10)
+
+        expect:
+        fromPublisher(loadAwareBalancer.select()).blockingGet().URI == URL_2.toURI()
+
+        when: "its health checks succeed again while no request is sent to it"
+        def first = serviceList.stream().findFirst().get()
+        10.times { first.recordHealthCheck(10, true) }
+
+        then:
+        fromPublisher(loadAwareBalancer.select()).blockingGet().URI == URL_1.toURI()
+    }
+
+    def "The first response and health check set the averages of an instance"() {
+        given:
+        serviceList.update([URL_1])
+        def instance = serviceList.stream().findFirst().get()
+
+        when:
+        instance.recordResponse(100, false, -1)
+        instance.recordHealthCheck(20, false)
+
+        then:
+        instance.averageLatencyMs == 100
+        instance.errorRate == 1
+        instance.averageHealthCheckLatencyMs == 20
+
+        when:
+        instance.recordResponse(200, true, -1)
+        instance.recordHealthCheck(40, true)
+
+        then: "later ones are averaged with them"
+        Math.abs(instance.averageLatencyMs - 130) < 0.001
+        Math.abs(instance.errorRate - 0.49) < 0.001
+        Math.abs(instance.averageHealthCheckLatencyMs - 26) < 0.001
+    }
+
+    def "Responses of requests to other urls are not recorded"() {
+        given:
+        def loadAwareBalancer = new PipeLoadBalancer(serviceList, true)
+        serviceList.update([URL_1, URL_2])
+
+        when:
+        loadAwareBalancer.recordResponse(URI.create("http://other/pipe/0"), 500, false, 10)
+
+        then:
+        serviceList.stream().allMatch { it.averageLatencyMs == 0 && it.errorRate == 0 && it.globalLatestOffset == -1 }
+    }
+
+    def "Offset aware selection passes over peers that are out of date or behind the client offset"() {
+        given:
+        def offsetAwareBalancer = new PipeLoadBalancer(serviceList, false, true)
+        serviceList.update([URL_1, URL_2, URL_3])
+        def (first, second, third) = serviceList.stream().collect()
+        first.recordStatus('{"status":"ok","localLatestOffset":500,"pipeState":"OUT_OF_DATE"}')
+        second.recordStatus('{"status":"ok","localLatestOffset":90,"pipeState":"UP_TO_DATE"}')
+        third.recordStatus('{"status":"ok","localLatestOffset":200,"pipeState":"UP_TO_DATE"}')
+
+        and:
+        offsetAwareBalancer.recordReadStarted(100)
+
+        when:
+        def serviceInstance = fromPublisher(offsetAwareBalancer.select()).blockingGet()
+
+        then:
+        serviceInstance.URI == URL_3.toURI()
+    }
+
+    def "Offset aware selection falls back to the first url when no peer is caught up"() {
+        given:
+        def offsetAwareBalancer = new PipeLoadBalancer(serviceList, false, true)
+        serviceList.update([URL_1, URL_2])
+        serviceList.stream().each { it.recordStatus('{"status":"ok","localLatestOffset":10,"pipeState":"UP_TO_DATE"}') }
+        offsetAwareBalancer.recordReadStarted(100)
+
+        when:
+        def serviceInstance = fromPublisher(offsetAwareBalancer.select()).blockingGet()
+
+        then:
+        serviceInstance.URI == URL_1.toURI()
+    }
+
+    def "Offset aware selection is not steered by a parallel read from a later offset"() {
+        given:
+        def offsetAwareBalancer = new PipeLoadBalancer(serviceList, false, true)
+        serviceList.update([URL_1, URL_2])
+        def (first, second) = serviceList.stream().collect()
+        first.recordStatus('{"status":"ok","localLatestOffset":150,"pipeState":"UP_TO_DATE"}')
+        second.recordStatus('{"status":"ok","localLatestOffset":300,"pipeState":"UP_TO_DATE"}')
+
+        when: "a read from a later offset starts while a read from an earlier one is in flight"
+        offsetAwareBalancer.recordReadStarted(100)
+        offsetAwareBalancer.recordReadStarted(200)
+
+        then: "peers holding the earlier offset are still chosen"
+        fromPublisher(offsetAwareBalancer.select()).blockingGet().URI == URL_1.toURI()
+
+        when: "the read from the earlier offset finishes"
+        offsetAwareBalancer.recordReadFinished(100)
+
+        then:
+        fromPublisher(offsetAwareBalancer.select()).blockingGet().URI == URL_2.toURI()
+
+        when: "all reads finished"
+        offsetAwareBalancer.recordReadFinished(200)
+
+        then: "the offset of the last read is kept"
+        fromPublisher(offsetAwareBalancer.select()).blockingGet().URI == URL_2.toURI()
+    }
+
+    void recordResponses(URL url, long latency, boolean success = true, long globalLatestOffset = -1) {
+        10.times {
+            loadBalancer.recordResponse(URI.create("${url}/pipe/0"), latency, success, globalLatestOffset)
+        }
+    }
+
     ErsatzServer serverWithPipeStatus(int status) {
         ErsatzServer server = new ErsatzServer()
         server.expectations {
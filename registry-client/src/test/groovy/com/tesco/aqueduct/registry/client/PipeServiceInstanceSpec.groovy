@@ -1,5 +1,6 @@
 package com.tesco.aqueduct.registry.client
 
+import com.tesco.aqueduct.pipe.api.PipeState
 import io.micronaut.http.client.DefaultHttpClientConfiguration
 import io.micronaut.http.client.HttpClientConfiguration
 import spock.lang.Specification
@@ -42,4 +43,23 @@ class PipeServiceInstanceSpec extends Specification {
         and:
         !serviceInstance.isUp()
     }
+
+    @Unroll
+    def "status #status is recorded as offset #offset and state #state"() {
+        given:
+        def serviceInstance = new PipeServiceInstance(Mock(HttpClientConfiguration), URL("http://foo.bar"))
+
+        when:
+        serviceInstance.recordStatus(status)
+
+        then:
+        serviceInstance.localLatestOffset == offset
+        serviceInstance.pipeState == state
+
+        where:
+        status                                                           | offset | state
+        '{"status":"ok","localLatestOffset":12,"pipeState":"UP_TO_DATE"}' | 12     | PipeState.UP_TO_DATE
+        '{"status":"ok","version":"1.0"}'                                 | -1     | null
+        '[]'                                                              | -1     | null
+    }
 }
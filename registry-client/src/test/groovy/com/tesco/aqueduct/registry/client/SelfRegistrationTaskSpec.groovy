@@ -3,6 +3,8 @@ package com.tesco.aqueduct.registry.client
 import com.tesco.aqueduct.registry.model.BootstrapType
 import com.tesco.aqueduct.registry.model.Bootstrapable
 import com.tesco.aqueduct.registry.model.Node
+import com.tesco.aqueduct.registry.model.NodeDelta
+import com.tesco.aqueduct.registry.model.RegistryDeltaResponse
 import com.tesco.aqueduct.registry.model.RegistryResponse
 import com.tesco.aqueduct.registry.model.Resetable
 import spock.lang.Specification
@@ -142,4 +144,91 @@ class SelfRegistrationTaskSpec extends Specification {
         BootstrapType.PIPE_AND_PROVIDER_WITH_DELAY | 1                         | 1                  | 1                      | 1             | 0
         BootstrapType.CORRUPTION_RECOVERY          | 1                         | 0                  | 0                      | 1             | 1
     }
+
+    @Unroll
+    def 'the page store is reset before the pipe on #bootstrapType'() {
+        given: "a registry client with a page store"
+        def pageStore = Mock(Resetable)
+        def registryClient = new SelfRegistrationTask(upstreamClient, { MY_NODE }, services, bootstrapableProvider, bootstrapablePipe, corruptionManager, pageStore, REGISTRATION_INTERVAL, 0, false)
+
+        when:
+        registryClient.register()
+
+        then:
+        1 * upstreamClient.register(_ as Node) >> new RegistryResponse([new URL("http://1.2.3.4")], bootstrapType)
+
+        then: "pipe is stopped"
+        1 * bootstrapablePipe.stop()
+
+        then: "page store is reset"
+        1 * pageStore.reset()
+
+        then: "pipe or corruption manager is reset"
+        pipeResetCalls * bootstrapablePipe.reset()
+        corruptionManagerCalls * corruptionManager.reset()
+
+        where:
+        bootstrapType                              | pipeResetCalls | corruptionManagerCalls
+        BootstrapType.PIPE                         | 1              | 0
+        BootstrapType.PIPE_AND_PROVIDER            | 1              | 0
+        BootstrapType.PIPE_WITH_DELAY              | 1              | 0
+        BootstrapType.PIPE_AND_PROVIDER_WITH_DELAY | 1              | 0
+        BootstrapType.CORRUPTION_RECOVERY          | 0              | 1
+    }
+
+    def 'the page store is kept when only the provider is reset'() {
+        given:
+        def pageStore = Mock(Resetable)
+        def registryClient = new SelfRegistrationTask(upstreamClient, { MY_NODE }, services, bootstrapableProvider, bootstrapablePipe, corruptionManager, pageStore, REGISTRATION_INTERVAL, 0, false)
+
+        when:
+        registryClient.register()
+
+        then:
+        1 * upstreamClient.register(_ as Node) >> new RegistryResponse([new URL("http://1.2.3.4")], BootstrapType.PROVIDER)
+        0 * pageStore.reset()
+    }
+
+    def "with delta registration, only the changes to the first registration are sent"() {
+        given: "a registry client registering deltas"
+        def node = MY_NODE
+        def registryClient = new SelfRegistrationTask(upstreamClient, { node }, services, bootstrapableProvider, bootstrapablePipe, corruptionManager, REGISTRATION_INTERVAL, BOOTSTRAP_DELAY, true)
+        def follow = [new URL("http://1.2.3.4"), new URL("http://5.6.7.8")]
+
+        when: "it registers for the first time"
+        registryClient.register()
+
+        then: "the whole node is sent"
+        1 * upstreamClient.registerDelta({ it.full && it.followVersion == null }) >> new RegistryDeltaResponse(follow, BootstrapType.NONE, false, false)
+        1 * services.update(follow)
+
+        when: "the offset moves and the nodes to follow stay the same"
+        node = MY_NODE.toBuilder().offset(10).build()
+        registryClient.register()
+
+        then: "only the offset is sent and the nodes to follow are kept"
+        1 * upstreamClient.registerDelta({ !it.full && it.offset == 10 && it.pipe == null && it.followVersion == NodeDelta.versionOf(follow) }) >>
+            new RegistryDeltaResponse(null, BootstrapType.NONE, true, false)
+        1 * services.update(follow)
+        0 * upstreamClient.register(_)
+    }
+
+    def "with delta registration, the whole node is sent again when the registry does not know the first registration"() {
+        given: "a registry client registering deltas that registered once"
+        def registryClient = new SelfRegistrationTask(upstreamClient, { MY_NODE }, services, bootstrapableProvider, bootstrapablePipe, corruptionManager, REGISTRATION_INTERVAL, BOOTSTRAP_DELAY, true)
+        def follow = [new URL("http://1.2.3.4")]
+        upstreamClient.registerDelta({ it.full }) >> new RegistryDeltaResponse(follow, BootstrapType.NONE, false, false)
+        registryClient.register()
+
+        when: "the registry asks for a full registration"
+        registryClient.register()
+
+        then:
+        1 * upstreamClient.registerDelta({ !it.full }) >> RegistryDeltaResponse.fullRegistrationRequired()
+
+        then: "the whole node is sent again"
+        1 * upstreamClient.registerDelta({ it.full }) >> new RegistryDeltaResponse(follow, BootstrapType.PIPE, false, false)
+        1 * services.update(follow)
+        1 * bootstrapablePipe.reset()
+    }
 }
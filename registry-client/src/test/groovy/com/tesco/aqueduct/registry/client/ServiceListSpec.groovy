@@ -5,6 +5,10 @@ import org.junit.Rule
 import org.junit.rules.TemporaryFolder
 import spock.lang.Specification
 
+import java.time.Duration
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
 @Newify(URL)
 class ServiceListSpec extends Specification {
 
@@ -178,4 +182,102 @@ class ServiceListSpec extends Specification {
         then: "the second service list can read the persisted values"
         serviceList2.stream().map({m -> m.getUrl()}).collect() == [URL_2, URL_3]
     }
+
+    def "instances that do not answer within the health check timeout are marked as down"() {
+        given: "servers that accept connections but never respond"
+        def servers = [new ServerSocket(0), new ServerSocket(0)]
+        def urls = servers.collect { URL("http://localhost:${it.localPort}") }
+
+        and:
+        ServiceList serviceList = new ServiceList(config, serviceInstance, existingPropertiesFile, Duration.ofMillis(200))
+        serviceList.update(urls)
+
+        when:
+        serviceList.checkState()
+
+        then:
+        serviceList.stream().noneMatch { it.up }
+
+        and: "the checks are recorded apart from the responses to pipe requests"
+        serviceList.stream().allMatch { it.averageHealthCheckLatencyMs > 0 }
+        serviceList.stream().noneMatch { it.responseRecorded }
+        serviceList.stream().allMatch { it.errorRate == 0 && it.averageLatencyMs == 0 }
+
+        cleanup:
+        serviceList.close()
+        servers.each { it.close() }
+    }
+
+    def "instances are checked concurrently"() {
+        given: "servers that only answer once every server has been asked for its status"
+        def asked = new CountDownLatch(2)
+        def servers = [statusServer(asked), statusServer(asked)]
+        def urls = servers.collect { URL("http://localhost:${it.localPort}") }
+
+        and:
+        ServiceList serviceList = new ServiceList(config, serviceInstance, existingPropertiesFile, Duration.ofSeconds(2))
+        serviceList.update(urls)
+
+        when:
+        serviceList.checkState()
+
+        then: "no check waited for another to finish"
+        asked.count == 0
+        serviceList.stream().allMatch { it.up }
+
+        cleanup:
+        serviceList.close()
+        servers.each { it.close() }
+    }
+
+    def "a closed service list opens a new client for the next check"() {
+        given:
+        def server = statusServer(new CountDownLatch(0))
+        ServiceList serviceList = new ServiceList(config, serviceInstance, existingPropertiesFile, Duration.ofSeconds(2))
+        serviceList.update([URL("http://localhost:${server.localPort}")])
+        serviceList.checkState()
+
+        when:
+        serviceList.close()
+        serviceList.stream().each { it.isUp(false) }
+        serviceList.checkState()
+
+        then:
+        serviceList.stream().allMatch { it.up }
+
+        cleanup:
+        serviceList.close()
+        server.close()
+    }
+
+    // answers every status request once the latch is released, counting it down first
+    private static ServerSocket statusServer(CountDownLatch asked) {
+        def server = new ServerSocket(0)
+        Thread.start {
+            while (!server.closed) {
+                def socket
+                try {
+                    socket = server.accept()
+                } catch (SocketException ignored) {
+                    return
+                }
+                Thread.start {
+                    socket.withCloseable {
+                        def reader = new BufferedReader(new InputStreamReader(it.inputStream))
+                        while (reader.readLine()) {
+                        }
+                        asked.countDown()
+                        asked.await(5, TimeUnit.SECONDS)
+                        def body = '{"status":"ok"}'
+                        it.outputStream.write((
+                            "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n" +
+                            "Content-Length: ${body.length()}\r\nConnection: close\r\n\r\n${body}"
+                        ).bytes)
+                        it.outputStream.flush()
+                    }
+                }
+            }
+        }
+        server
+    }
 }
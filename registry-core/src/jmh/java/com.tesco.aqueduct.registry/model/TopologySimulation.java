@@ -0,0 +1,126 @@
+package com.tesco.aqueduct.registry.model;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Simulates how long a page takes to reach every node of a group for each topology, assuming a fixed latency per
+ * hop and a parent serving its children one after the other, faster the more capacity it has. Running main prints
+ * the slowest and the average delay, the benchmarks measure the cost of building each tree.
+ */
+@Fork(value = 1, warmups = 1)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 5, time = 1)
+public class TopologySimulation {
+
+    private static final double HOP_MILLIS = 20;
+    private static final double SERVE_MILLIS = 50;
+    private static final double CLOUD_SERVE_MILLIS = 5;
+
+    private static final Map<String, Topology> TOPOLOGIES = new LinkedHashMap<>();
+
+    static {
+        TOPOLOGIES.put("binary", Topology.BINARY);
+        TOPOLOGIES.put("fan-out-4", new FanOutTopology(1, 4, false));
+        TOPOLOGIES.put("fan-out-8", new FanOutTopology(1, 8, false));
+        TOPOLOGIES.put("root-4-fan-out-4", new FanOutTopology(4, 4, false));
+        TOPOLOGIES.put("capacity-weighted", new FanOutTopology(1, 2, true));
+    }
+
+    @State(Scope.Thread)
+    public static class GroupState {
+        @Param({"10", "100", "1000"})
+        int groupSize;
+
+        @Param({"binary", "fan-out-4", "fan-out-8", "root-4-fan-out-4", "capacity-weighted"})
+        String topology;
+
+        URL cloud;
+        NodeGroup nodeGroup;
+        ZonedDateTime markOfflineThreshold;
+        ZonedDateTime removeOfflineThreshold;
+
+        @Setup(Level.Invocation)
+        public void doSetup() throws MalformedURLException {
+            cloud = new URL("http://some.cloud.url");
+            markOfflineThreshold = ZonedDateTime.now().minusMinutes(1);
+            removeOfflineThreshold = ZonedDateTime.now().minusMinutes(2);
+            nodeGroup = group(groupSize, TOPOLOGIES.get(topology), cloud);
+        }
+    }
+
+    @Benchmark
+    public NodeGroup buildTree(GroupState state) {
+        state.nodeGroup.processNodes(state.markOfflineThreshold, state.removeOfflineThreshold, state.cloud);
+        return state.nodeGroup;
+    }
+
+    public static void main(String[] args) throws MalformedURLException {
+        final URL cloud = new URL("http://some.cloud.url");
+        System.out.printf("%-20s %6s %12s %12s%n", "topology", "nodes", "max ms", "average ms");
+
+        for (Map.Entry<String, Topology> topology : TOPOLOGIES.entrySet()) {
+            for (int groupSize : new int[] {10, 100, 1000}) {
+                final NodeGroup nodeGroup = group(groupSize, topology.getValue(), cloud);
+                nodeGroup.processNodes(ZonedDateTime.now().minusMinutes(1), ZonedDateTime.now().minusMinutes(2), cloud);
+
+                final double[] delays = propagationDelays(nodeGroup.subGroups.get(0).nodes, topology.getValue());
+                double max = 0;
+                double total = 0;
+                for (double delay : delays) {
+                    max = Math.max(max, delay);
+                    total += delay;
+                }
+                System.out.printf("%-20s %6d %12.0f %12.0f%n", topology.getKey(), groupSize, max, total / delays.length);
+            }
+        }
+    }
+
+    private static double[] propagationDelays(List<Node> nodes, Topology topology) {
+        final int[] parents = topology.parents(nodes);
+        final double[] delays = new double[nodes.size()];
+        final int[] childrenServed = new int[nodes.size()];
+        int cloudChildrenServed = 0;
+
+        for (int i = 0; i < nodes.size(); i++) {
+            final int parent = parents[i];
+            if (parent == Topology.CLOUD) {
+                delays[i] = HOP_MILLIS + ++cloudChildrenServed * CLOUD_SERVE_MILLIS;
+            } else {
+                final double serveMillis = SERVE_MILLIS / Math.max(0.1, nodes.get(parent).getCapacity());
+                delays[i] = delays[parent] + HOP_MILLIS + ++childrenServed[parent] * serveMillis;
+            }
+        }
+        return delays;
+    }
+
+    // one node in five is a bigger machine advertising four times the capacity
+    private static NodeGroup group(int groupSize, Topology topology, URL cloud) throws MalformedURLException {
+        final NodeGroup nodeGroup = new NodeGroup();
+        nodeGroup.setTopology(topology);
+
+        for (int i = 0; i < groupSize; i++) {
+            final Map<String, String> pipe = new HashMap<>();
+            pipe.put("v", "1.0");
+            pipe.put("capacity", i % 5 == 4 ? "4" : "1");
+
+            nodeGroup.upsert(
+                Node.builder()
+                    .group("group1")
+                    .localUrl(new URL("http://node" + i))
+                    .status(Status.FOLLOWING)
+                    .pipe(pipe)
+                    .build(),
+                cloud
+            );
+        }
+        return nodeGroup;
+    }
+}
@@ -78,6 +78,50 @@ public class UpsertBenchmark {
         }
     }
 
+    @State(Scope.Thread)
+    public static class GroupState {
+        @Param({"10", "100", "1000"})
+        int groupSize;
+
+        URL cloud;
+        NodeGroup nodeGroup;
+        Node heartbeat;
+        Node statusChange;
+        ZonedDateTime markOfflineThreshold;
+        ZonedDateTime removeOfflineThreshold;
+
+        @Setup(Level.Iteration)
+        public void doSetup() throws MalformedURLException {
+            cloud = new URL("http://some.cloud.url");
+            markOfflineThreshold = ZonedDateTime.now().minusMinutes(1);
+            removeOfflineThreshold = ZonedDateTime.now().minusMinutes(2);
+
+            nodeGroup = new NodeGroup();
+            for (int i = 0; i < groupSize; i++) {
+                nodeGroup.upsert(node("http://node" + i, Status.FOLLOWING), cloud);
+            }
+            nodeGroup.processNodes(markOfflineThreshold, removeOfflineThreshold, cloud);
+
+            heartbeat = node("http://node" + groupSize / 2, Status.FOLLOWING);
+            statusChange = node("http://node" + groupSize / 2, Status.INITIALISING);
+        }
+
+        private static Node node(String url, Status status) throws MalformedURLException {
+            return new Node(
+                "group1",
+                new URL(url),
+                0,
+                status,
+                Lists.newArrayList(new URL("http://some.node.url")),
+                Lists.newArrayList(new URL("http://some.node.url")),
+                ZonedDateTime.now(),
+                Maps.of("v","1.0"),
+                Maps.of("GLOBAL_OFFSET","1"),
+                Maps.of("LAST_ACK","1")
+            );
+        }
+    }
+
     @Benchmark
     public void upsertMethod(MyState state) throws InterruptedException {
         state.nodeGroup.upsert(state.node1, state.cloud);
@@ -85,4 +129,22 @@ public class UpsertBenchmark {
         state.nodeGroup.upsert(state.node3, state.cloud);
     }
 
+    // a node registering again without any change to the hierarchy
+    @Benchmark
+    public NodeGroup upsertAndProcessHeartbeat(GroupState state) {
+        state.nodeGroup.upsert(state.heartbeat, state.cloud);
+        state.nodeGroup.processNodes(state.markOfflineThreshold, state.removeOfflineThreshold, state.cloud);
+        return state.nodeGroup;
+    }
+
+    // a node in the middle of the tree changing status back and forth, moving it and its subtree
+    @Benchmark
+    public NodeGroup upsertAndProcessStatusChange(GroupState state) {
+        state.nodeGroup.upsert(state.statusChange, state.cloud);
+        state.nodeGroup.processNodes(state.markOfflineThreshold, state.removeOfflineThreshold, state.cloud);
+        state.nodeGroup.upsert(state.heartbeat, state.cloud);
+        state.nodeGroup.processNodes(state.markOfflineThreshold, state.removeOfflineThreshold, state.cloud);
+        return state.nodeGroup;
+    }
+
 }
\ No newline at end of file
@@ -6,6 +6,7 @@ import lombok.Data;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Collectors;
 
 @Data
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -17,11 +18,16 @@ public class BootstrapRequest {
     public void save(NodeRequestStorage nodeRequestStorage, NodeRegistry nodeRegistry) throws SQLException {
         retrieveNodesForLocations(nodeRegistry);
 
-        for (String nodeRequest : nodeRequests) {
-            nodeRequestStorage.save(
-                new NodeRequest(nodeRequest, new Bootstrap(bootstrapType, LocalDateTime.now()))
-            );
+        if (nodeRequests.isEmpty()) {
+            return;
         }
+
+        final Bootstrap bootstrap = new Bootstrap(bootstrapType, LocalDateTime.now());
+        nodeRequestStorage.saveAll(
+            nodeRequests.stream()
+                .map(nodeRequest -> new NodeRequest(nodeRequest, bootstrap))
+                .collect(Collectors.toList())
+        );
     }
 
     private void retrieveNodesForLocations(NodeRegistry nodeRegistry) {
@@ -0,0 +1,59 @@
+package com.tesco.aqueduct.registry.model;
+
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * Fills the tree level by level: the first rootFanOut nodes follow the cloud and every other node follows the first
+ * node that still has room for a child. Each node takes fanOut children, or when weighted by capacity, fanOut times
+ * the capacity the node advertises, and nodes with more capacity are placed first.
+ */
+@EqualsAndHashCode
+@ToString
+public class FanOutTopology implements Topology {
+
+    private final int rootFanOut;
+    private final int fanOut;
+    private final boolean capacityWeighted;
+
+    public FanOutTopology(final int rootFanOut, final int fanOut, final boolean capacityWeighted) {
+        if (rootFanOut < 1 || fanOut < 1) {
+            throw new IllegalArgumentException("Fan-out must be at least 1, was " + rootFanOut + " for the cloud and " + fanOut);
+        }
+        this.rootFanOut = rootFanOut;
+        this.fanOut = fanOut;
+        this.capacityWeighted = capacityWeighted;
+    }
+
+    @Override
+    public int[] parents(final List<Node> nodes) {
+        final int[] parents = new int[nodes.size()];
+        int parent = 0;
+        int childrenLeft = nodes.size() > rootFanOut ? fanOutOf(nodes.get(0)) : 0;
+
+        for (int i = 0; i < nodes.size(); i++) {
+            if (i < rootFanOut) {
+                parents[i] = CLOUD;
+                continue;
+            }
+            if (childrenLeft == 0) {
+                parent++;
+                childrenLeft = fanOutOf(nodes.get(parent));
+            }
+            parents[i] = parent;
+            childrenLeft--;
+        }
+        return parents;
+    }
+
+    @Override
+    public int rank(final Node node) {
+        return capacityWeighted ? (int) Math.min(255, Math.round(node.getCapacity() * 16)) : 0;
+    }
+
+    private int fanOutOf(final Node node) {
+        return capacityWeighted ? (int) Math.max(1, Math.round(fanOut * node.getCapacity())) : fanOut;
+    }
+}
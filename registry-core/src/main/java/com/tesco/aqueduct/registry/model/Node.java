@@ -118,10 +118,28 @@ public class Node {
 
     @JsonIgnore
     public Generation getGeneration() {
-        if(legacyKeywords.stream().anyMatch(keyword -> getHost().contains(keyword))) {
-            return Generation.LEGACY;
-        } else {
-            return Generation.STRATEGIC;
+        final String host = getHost();
+        for (final String keyword : legacyKeywords) {
+            if (host.contains(keyword)) {
+                return Generation.LEGACY;
+            }
+        }
+        return Generation.STRATEGIC;
+    }
+
+    /**
+     * Relative capacity advertised by the node under "capacity" in its pipe fields, 1 when not advertised
+     */
+    @JsonIgnore
+    public double getCapacity() {
+        if (pipe == null || pipe.get("capacity") == null) {
+            return 1;
+        }
+
+        try {
+            return Math.max(0, Double.parseDouble(pipe.get("capacity")));
+        } catch (NumberFormatException exception) {
+            return 1;
         }
     }
 
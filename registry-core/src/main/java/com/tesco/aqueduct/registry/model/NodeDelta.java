@@ -0,0 +1,152 @@
+package com.tesco.aqueduct.registry.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import com.tesco.aqueduct.pipe.api.JsonHelper;
+import lombok.Builder;
+import lombok.Data;
+
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Registration of a node carrying its offsets and only the identity and version of its last full registration, the
+ * registry keeps the full registration as a base to apply the offsets to. The offsets move on every registration while
+ * the other fields rarely do, so any other change is sent as a new full registration to keep the changes small.
+ *
+ * The version leaves the offsets out and the offsets are always sent, so that every registry instance holding a full
+ * registration of the same version gives the same node back, whichever of them received the full registration last.
+ */
+@Builder(toBuilder = true)
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class NodeDelta {
+    private final String group;
+
+    private final URL localUrl;
+
+    /**
+     * Version of the full registration, the base of the changes when not full
+     */
+    private final String version;
+
+    /**
+     * True when every field is set and this registration becomes the new base
+     */
+    private final boolean full;
+
+    @JsonSerialize(using = ToStringSerializer.class)
+    private final Long offset;
+
+    private final Status status;
+
+    private final List<URL> following;
+
+    private final Map<String, String> pipe;
+
+    private final Map<String, String> offsets;
+
+    private final Map<String, String> provider;
+
+    /**
+     * Version of the list of nodes the node was last requested to follow, see {@link #versionOf(List)}
+     */
+    private final String followVersion;
+
+    public static NodeDelta full(final Node node, final String followVersion) {
+        return NodeDelta.builder()
+            .group(node.getGroup())
+            .localUrl(node.getLocalUrl())
+            .version(versionOf(node))
+            .full(true)
+            .offset(node.getOffset())
+            .status(node.getStatus())
+            .following(node.getFollowing())
+            .pipe(node.getPipe())
+            .offsets(node.getOffsets())
+            .provider(node.getProvider())
+            .followVersion(followVersion)
+            .build();
+    }
+
+    /**
+     * @return the changes from the base to the node, or a full registration of the node when they cannot be expressed
+     * as changes
+     */
+    public static NodeDelta between(final NodeDelta base, final Node node, final String followVersion) {
+        if (!Objects.equals(base.getGroup(), node.getGroup())
+            || !Objects.equals(base.getLocalUrl().toString(), node.getLocalUrl().toString())
+            || base.getStatus() != node.getStatus()
+            || !Objects.equals(toStrings(base.getFollowing()), toStrings(node.getFollowing()))
+            || !Objects.equals(base.getPipe(), node.getPipe())
+            || !Objects.equals(base.getProvider(), node.getProvider())) {
+            return full(node, followVersion);
+        }
+
+        return NodeDelta.builder()
+            .group(node.getGroup())
+            .localUrl(node.getLocalUrl())
+            .version(base.getVersion())
+            .full(false)
+            .offset(node.getOffset())
+            .offsets(node.getOffsets())
+            .followVersion(followVersion)
+            .build();
+    }
+
+    /**
+     * @return the base with the offsets of this registration, as a node to register
+     */
+    public Node applyTo(final NodeDelta base) {
+        return Node.builder()
+            .group(base.getGroup())
+            .localUrl(base.getLocalUrl())
+            .offset(offset == null ? base.getOffset() : offset)
+            .status(status == null ? base.getStatus() : status)
+            .following(following == null ? base.getFollowing() : following)
+            .pipe(pipe == null ? base.getPipe() : pipe)
+            .offsets(offsets)
+            .provider(provider == null ? base.getProvider() : provider)
+            .build();
+    }
+
+    public Node toNode() {
+        return applyTo(this);
+    }
+
+    @JsonIgnore
+    public String getId() {
+        return toNode().getId();
+    }
+
+    public static String versionOf(final List<URL> urls) {
+        return urls == null ? null : Integer.toHexString(toStrings(urls).hashCode());
+    }
+
+    // a digest rather than a hash code, an instance taking another registration for its base would register it wrongly
+    private static String versionOf(final Node node) {
+        final byte[] json = JsonHelper.toJsonBytes(
+            node.toBuilder().offset(0).offsets(null).requestedToFollow(null).lastSeen(null).build()
+        );
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(json);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 16));
+        } catch (NoSuchAlgorithmException exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    // urls are compared as strings, URL equality resolves host names
+    private static List<String> toStrings(final List<URL> urls) {
+        return urls == null ? null : urls.stream().map(URL::toString).collect(Collectors.toList());
+    }
+}
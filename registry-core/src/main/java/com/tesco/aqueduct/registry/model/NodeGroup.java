@@ -4,13 +4,19 @@ import com.tesco.aqueduct.pipe.api.JsonHelper;
 
 import java.io.IOException;
 import java.net.URL;
+import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 public class NodeGroup {
     public final List<SubNodeGroup> subGroups = new ArrayList<>();
+    private final Map<String, SubNodeGroup> subGroupsById = new HashMap<>();
+    private Topology topology = Topology.BINARY;
 
     public NodeGroup() {
         this(new ArrayList<>());
@@ -20,21 +26,13 @@ public class NodeGroup {
         nodes.forEach(this::updateExistingOrAddNewSubNodeGroupFor);
     }
 
-    private void updateExistingOrAddNewSubNodeGroupFor(Node node) {
-        subGroups.stream()
-            .filter(subNodeGroup -> subNodeGroup.isFor(node))
-            .findAny()
-            .map(subNodeGroup -> {
-                subNodeGroup.add(node);
-                return node;
-            })
-            .orElseGet(() -> newSubGroupNodeFor(node));
+    public void setTopology(final Topology topology) {
+        this.topology = topology;
+        subGroups.forEach(subGroup -> subGroup.setTopology(topology));
     }
 
-    private Node newSubGroupNodeFor(Node node) {
-        SubNodeGroup subNodeGroup = new SubNodeGroup(node.getSubGroupId());
-        subGroups.add(subNodeGroup);
-        return subNodeGroup.add(node);
+    private void updateExistingOrAddNewSubNodeGroupFor(Node node) {
+        findOrCreateSubGroupFor(node).add(node);
     }
 
     public boolean isEmpty() {
@@ -43,10 +41,16 @@ public class NodeGroup {
 
     public boolean removeByHost(final String host) {
         boolean result = subGroups.stream().anyMatch(subgroup -> subgroup.removeByHost(host));
-        subGroups.removeIf(SubNodeGroup::isEmpty);
+        removeEmptySubGroups();
         return result;
     }
 
+    private void removeEmptySubGroups() {
+        if (subGroups.removeIf(SubNodeGroup::isEmpty)) {
+            subGroupsById.values().removeIf(SubNodeGroup::isEmpty);
+        }
+    }
+
     public String nodesToJson() throws IOException {
         return JsonHelper.toJson(getNodes());
     }
@@ -62,7 +66,7 @@ public class NodeGroup {
 
     public void handleOfflineNodes(final ZonedDateTime markOfflineThreshold, final ZonedDateTime removeOfflineThreshold) {
         subGroups.forEach(subGroup -> subGroup.handleOfflineNodes(markOfflineThreshold, removeOfflineThreshold));
-        subGroups.removeIf(SubNodeGroup::isEmpty);
+        removeEmptySubGroups();
     }
 
     public Node upsert(final Node nodeToRegister, final URL cloudUrl) {
@@ -76,31 +80,72 @@ public class NodeGroup {
             });
     }
 
+    // sub groups are few, one per pipe version at most, and each looks its nodes up by host
     private void removeNodeIfSwitchingSubgroup(final Node nodeToRegister) {
-        subGroups.stream()
-            .filter(subNodeGroup -> subNodeGroup.getByHost(nodeToRegister.getHost())
-                .filter(node -> node.isSubGroupIdDifferent(nodeToRegister))
-                .map(node -> subNodeGroup.removeByHost(nodeToRegister.getHost()))
-                .orElse(false))
-            .findAny()
-            .ifPresent(this::removeSubGroupIfEmpty);
+        for (final SubNodeGroup subNodeGroup : subGroups) {
+            if (!subNodeGroup.isFor(nodeToRegister) && subNodeGroup.removeByHost(nodeToRegister.getHost())) {
+                removeSubGroupIfEmpty(subNodeGroup);
+                return;
+            }
+        }
     }
 
     private SubNodeGroup findOrCreateSubGroupFor(Node nodeToRegister) {
-        return subGroups.stream()
-            .filter(subGroup -> subGroup.isFor(nodeToRegister))
-            .findAny()
-            .orElseGet(() -> {
-                SubNodeGroup subNodeGroup = new SubNodeGroup(nodeToRegister.getSubGroupId());
-                subGroups.add(subNodeGroup);
-                return subNodeGroup;
-            });
+        return subGroupsById.computeIfAbsent(nodeToRegister.getSubGroupId(), subGroupId -> {
+            SubNodeGroup subNodeGroup = new SubNodeGroup(subGroupId);
+            subNodeGroup.setTopology(topology);
+            subGroups.add(subNodeGroup);
+            return subNodeGroup;
+        });
     }
 
     private void removeSubGroupIfEmpty(SubNodeGroup subNodeGroup) {
         if(subNodeGroup.isEmpty()) {
             subGroups.remove(subNodeGroup);
+            subGroupsById.remove(subNodeGroup.subGroupId);
+        }
+    }
+
+    public Optional<Node> getByHost(final String host) {
+        return subGroups.stream()
+            .map(subGroup -> subGroup.getByHost(host))
+            .filter(Optional::isPresent)
+            .map(Optional::get)
+            .findAny();
+    }
+
+    /**
+     * @return true if processing the nodes would mark a node as offline or remove it
+     */
+    public boolean hasNodesNotSeenSince(final ZonedDateTime markOfflineThreshold, final ZonedDateTime removeOfflineThreshold) {
+        return getNodes().stream().anyMatch(node ->
+            (!node.isOffline() && node.getLastSeen().compareTo(markOfflineThreshold) < 0)
+                || node.getLastSeen().compareTo(removeOfflineThreshold) < 0
+        );
+    }
+
+    /**
+     * @return the earliest time at which handling offline nodes would mark a node as offline or remove it, empty if
+     * the group has no nodes
+     */
+    public Optional<ZonedDateTime> nextOfflineChange(final Duration markOfflineDelta, final Duration removeOfflineDelta) {
+        final Duration onlineDelta = markOfflineDelta.compareTo(removeOfflineDelta) < 0 ? markOfflineDelta : removeOfflineDelta;
+        ZonedDateTime next = null;
+        for (final SubNodeGroup subGroup : subGroups) {
+            for (final Node node : subGroup.nodes) {
+                final ZonedDateTime change = node.isOffline()
+                    ? node.getLastSeen().plus(removeOfflineDelta)
+                    : node.getLastSeen().plus(onlineDelta);
+                if (next == null || change.isBefore(next)) {
+                    next = change;
+                }
+            }
         }
+        return Optional.ofNullable(next);
+    }
+
+    public void applyHeartbeat(final Node heartbeat) {
+        subGroups.forEach(subGroup -> subGroup.applyHeartbeat(heartbeat));
     }
 
     public void processNodes(ZonedDateTime markOfflineThreshold, ZonedDateTime removeOfflineThreshold, URL cloudUrl) {
@@ -1,6 +1,7 @@
 package com.tesco.aqueduct.registry.model;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public interface NodeRegistry {
@@ -18,7 +19,25 @@ public interface NodeRegistry {
      */
     StateSummary getSummary(long offset, Status status, List<String> groups);
 
+    /**
+     * Versions are opaque to callers, registries version groups with what they keep to tell a group changed, so that
+     * unchanged groups are neither sent back nor, where possible, read.
+     *
+     * @param offset Latest offset of root
+     * @param status Status of root
+     * @param groups List of groups to return, all if empty or null
+     * @param versions Versions of the groups as last returned to the caller, empty to get all of them
+     * @return Nodes of the groups that changed since the given versions
+     */
+    StateSummaryDelta getSummarySince(long offset, Status status, List<String> groups, Map<String, String> versions);
+
     boolean deleteNode(String group, String host);
 
     Set<String> getNodeHostsForGroups(List<String> groupIds);
+
+    /**
+     * Releases what the registry holds once it is no longer used, nothing by default.
+     */
+    default void close() {
+    }
 }
@@ -1,8 +1,10 @@
 package com.tesco.aqueduct.registry.model;
 
 import java.sql.SQLException;
+import java.util.List;
 
 public interface NodeRequestStorage {
     void save(NodeRequest nodeRequest) throws SQLException;
+    void saveAll(List<NodeRequest> nodeRequests) throws SQLException;
     BootstrapType requiresBootstrap(String hostId) throws SQLException;
 }
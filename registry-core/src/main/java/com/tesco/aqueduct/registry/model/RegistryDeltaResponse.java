@@ -0,0 +1,25 @@
+package com.tesco.aqueduct.registry.model;
+
+import lombok.Data;
+
+import java.net.URL;
+import java.util.List;
+
+@Data
+public class RegistryDeltaResponse {
+    /**
+     * Null when unchanged since the follow version given by the node
+     */
+    private final List<URL> requestedToFollow;
+    private final BootstrapType bootstrapType;
+    private final boolean unchanged;
+
+    /**
+     * True when the registry does not know the full registration the changes apply to, nothing was registered
+     */
+    private final boolean fullRegistrationRequired;
+
+    public static RegistryDeltaResponse fullRegistrationRequired() {
+        return new RegistryDeltaResponse(null, BootstrapType.NONE, false, true);
+    }
+}
@@ -0,0 +1,26 @@
+package com.tesco.aqueduct.registry.model;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+public class StateSummaryDelta {
+    private final Node root;
+
+    /**
+     * Nodes of the groups that changed since the versions given by the caller
+     */
+    private final List<Node> followers;
+
+    /**
+     * New version of each group that changed, to be given back on the next call
+     */
+    private final Map<String, String> versions;
+
+    /**
+     * Groups known by the caller that are no longer in the registry
+     */
+    private final List<String> removedGroups;
+}
@@ -0,0 +1,19 @@
+package com.tesco.aqueduct.registry.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class StateSummaryRequest {
+    private final List<String> groups;
+    private final Map<String, String> versions;
+
+    public Map<String, String> getVersions() {
+        return versions == null ? Collections.emptyMap() : versions;
+    }
+}
@@ -5,24 +5,29 @@ import lombok.EqualsAndHashCode;
 import java.net.URL;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static com.tesco.aqueduct.registry.model.Status.OFFLINE;
-import static java.util.Comparator.comparing;
 
-@EqualsAndHashCode
-public class SubNodeGroup {
 
-    private static final int NUMBER_OF_CHILDREN_PER_NODE = 2;
+@EqualsAndHashCode(exclude = {"indexByHost", "topology"})
+public class SubNodeGroup {
 
     public final List<Node> nodes;
 
     public final String subGroupId; //this is version for now
 
+    // position of the first node of each host, dropped whenever nodes are reordered or removed and built again on next lookup
+    private Map<String, Integer> indexByHost;
+
+    private Topology topology = Topology.BINARY;
+
     public SubNodeGroup(String subGroupId) {
         this.nodes = new ArrayList<>();
         this.subGroupId = subGroupId;
@@ -32,31 +37,53 @@ public class SubNodeGroup {
         return node.getSubGroupId().equals(subGroupId);
     }
 
+    public void setTopology(Topology topology) {
+        this.topology = topology;
+    }
+
     public Node add(Node node, URL cloudUrl) {
-        final List<URL> followUrls = calculateFollowerUrls(cloudUrl, getNodeUrls().size());
+        add(node);
+        final int index = nodes.size() - 1;
+        final List<URL> followUrls = calculateFollowerUrls(cloudUrl, topology.parents(nodes)[index]);
         final Node newNode = node.buildWith(followUrls);
-        nodes.add(newNode);
+        nodes.set(index, newNode);
         return newNode;
     }
 
     public Node add(Node newNode) {
         nodes.add(newNode);
+        if (indexByHost != null) {
+            indexByHost.putIfAbsent(newNode.getHost(), nodes.size() - 1);
+        }
         return newNode;
     }
 
-    private List<URL> getNodeUrls() {
-        return nodes.stream()
-            .map(Node::getLocalUrl)
-            .collect(Collectors.toList());
+    private int indexOf(String host) {
+        if (indexByHost == null) {
+            indexByHost = new HashMap<>();
+            for (int i = 0; i < nodes.size(); i++) {
+                indexByHost.putIfAbsent(nodes.get(i).getHost(), i);
+            }
+        }
+
+        final Integer index = indexByHost.get(host);
+        if (index == null) {
+            return -1;
+        }
+        if (index >= nodes.size() || !nodes.get(index).getHost().equals(host)) {
+            // the list was changed without going through this group
+            indexByHost = null;
+            return indexOf(host);
+        }
+        return index;
     }
 
-    private List<URL> calculateFollowerUrls(final URL cloudUrl, int nodeIndex) {
+    private List<URL> calculateFollowerUrls(final URL cloudUrl, int parentNodeIndex) {
         final List<URL> followUrls = new ArrayList<>();
 
-        if (nodeIndex == 0) {
+        if (parentNodeIndex == Topology.CLOUD) {
             followUrls.add(cloudUrl);
         } else {
-            int parentNodeIndex = ((nodeIndex + 1) / NUMBER_OF_CHILDREN_PER_NODE) - 1;
             followUrls.add(nodes.get(parentNodeIndex).getLocalUrl());
             followUrls.addAll(nodes.get(parentNodeIndex).getRequestedToFollow());
         }
@@ -64,17 +91,67 @@ public class SubNodeGroup {
         return followUrls;
     }
 
+    /**
+     * A node is only rebuilt when it is not told to follow its current parent, or when its parent was rebuilt, so
+     * only the subtrees under nodes that moved are recomputed.
+     */
     public void updateGetFollowing(URL cloudUrl) {
-        IntStream.range(0, nodes.size())
-            .forEach(i -> {
-                final Node updatedNode = nodes
-                    .get(i)
-                    .toBuilder()
-                    .requestedToFollow(calculateFollowerUrls(cloudUrl, i))
-                    .build();
+        final int[] parents = topology.parents(nodes);
+        final boolean[] changed = new boolean[nodes.size()];
+
+        for (int i = 0; i < nodes.size(); i++) {
+            final int parent = parents[i];
+            final boolean parentChanged = parent != Topology.CLOUD && changed[parent];
 
-                this.updateNodeByIndex(updatedNode, i);
-        });
+            if (parentChanged || !followsParent(cloudUrl, i, parent)) {
+                final Node node = nodes.get(i);
+                final List<URL> followUrls = calculateFollowerUrls(cloudUrl, parent);
+
+                if (!sameUrls(node.getRequestedToFollow(), followUrls)) {
+                    this.updateNodeByIndex(node.toBuilder().requestedToFollow(followUrls).build(), i);
+                    changed[i] = true;
+                }
+            }
+        }
+    }
+
+    private boolean followsParent(final URL cloudUrl, int nodeIndex, int parentNodeIndex) {
+        final List<URL> requestedToFollow = nodes.get(nodeIndex).getRequestedToFollow();
+        if (requestedToFollow == null || requestedToFollow.isEmpty()) {
+            return false;
+        }
+
+        if (parentNodeIndex == Topology.CLOUD) {
+            return requestedToFollow.size() == 1 && sameUrl(requestedToFollow.get(0), cloudUrl);
+        }
+
+        final Node parent = nodes.get(parentNodeIndex);
+        return requestedToFollow.size() == parent.getRequestedToFollow().size() + 1
+            && sameUrl(requestedToFollow.get(0), parent.getLocalUrl());
+    }
+
+    private static boolean sameUrls(List<URL> urls, List<URL> others) {
+        if (urls == null || urls.size() != others.size()) {
+            return false;
+        }
+        for (int i = 0; i < urls.size(); i++) {
+            if (!sameUrl(urls.get(i), others.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // URL.equals resolves host names, the parts are compared instead
+    private static boolean sameUrl(URL url, URL other) {
+        return url == other || (
+            url.getPort() == other.getPort()
+                && url.getHost().equals(other.getHost())
+                && url.getProtocol().equals(other.getProtocol())
+                && url.getFile().equals(other.getFile())
+                && Objects.equals(url.getRef(), other.getRef())
+                && Objects.equals(url.getUserInfo(), other.getUserInfo())
+        );
     }
 
     private void updateNodeByIndex(final Node updatedNode, int index) {
@@ -88,64 +165,93 @@ public class SubNodeGroup {
 
     private void markNodesOfflineIfNotSeenSince(ZonedDateTime threshold) {
         IntStream.range(0, nodes.size())
-            .filter(i -> nodes.get(i).getLastSeen().compareTo(threshold) < 0)
+            .filter(i -> !nodes.get(i).isOffline() && nodes.get(i).getLastSeen().compareTo(threshold) < 0)
             .forEach(i -> updateNodeByIndex(nodes.get(i).toBuilder().status(OFFLINE).build(), i));
     }
 
     private void removeOfflineNodesIfNotSeenSince(ZonedDateTime threshold) {
-        nodes.removeIf(node -> node.getLastSeen().compareTo(threshold) < 0);
+        if (nodes.removeIf(node -> node.getLastSeen().compareTo(threshold) < 0)) {
+            indexByHost = null;
+        }
     }
 
     public Optional<Node> getByHost(String host) {
-        return nodes
-            .stream()
-            .filter(n -> n.getHost().equals(host))
-            .findAny();
+        final int index = indexOf(host);
+        return index < 0 ? Optional.empty() : Optional.of(nodes.get(index));
     }
 
     public boolean isEmpty() {
         return nodes.isEmpty();
     }
 
+    // every node of the host is removed, nodes of the same host on other ports included
     public boolean removeByHost(String host) {
-        return nodes.removeIf(node -> node.getHost().equals(host));
+        if (indexOf(host) < 0) {
+            return false;
+        }
+        nodes.removeIf(node -> node.getHost().equals(host));
+        indexByHost = null;
+        return true;
     }
 
     public Node get(int index) {
         return nodes.get(index);
     }
 
+    /**
+     * Orders online nodes first, then by generation, then by status, then by the rank the topology gives them,
+     * keeping the current order otherwise. Sort keys are computed once per node and nothing is reordered when the
+     * nodes are already in order.
+     */
     public void sortNodes(URL cloudUrl) {
-        nodes.sort(comparing(Node::getStatus));
-        nodes.sort(comparing(Node::getGeneration));
-        nodes.sort(onlineNodesFirst());
+        final int size = nodes.size();
+        final long[] order = new long[size];
+        boolean inOrder = true;
+
+        for (int i = 0; i < size; i++) {
+            order[i] = ((long) treeOrderKey(nodes.get(i)) << 32) | i;
+            inOrder &= i == 0 || order[i] > order[i - 1];
+        }
+
+        if (!inOrder) {
+            Arrays.sort(order);
+            final Node[] previous = nodes.toArray(new Node[0]);
+            for (int i = 0; i < size; i++) {
+                nodes.set(i, previous[(int) order[i]]);
+            }
+            indexByHost = null;
+        }
+
         updateGetFollowing(cloudUrl);
     }
 
-    private Comparator<Node> onlineNodesFirst() {
-        return (n1,n2) -> {
-            if(n1.getStatus() == OFFLINE && n2.getStatus() == OFFLINE) {
-                return 0;
-            } else if (n1.getStatus() != OFFLINE && n2.getStatus() != OFFLINE) {
-                return 0;
-            // we only want to sort offline nodes here
-            } else if(n1.getStatus() == OFFLINE && n2.getStatus() != OFFLINE) {
-                return 1;
-            } else {
-                return -1;
-            }
-        };
+    private int treeOrderKey(Node node) {
+        return (node.isOffline() ? 1 << 24 : 0)
+            | node.getGeneration().ordinal() << 16
+            | node.getStatus().ordinal() << 8
+            | (255 - topology.rank(node));
+    }
+
+    // a heartbeat recorded apart from the group only brings what the node reported, its place in the hierarchy is kept
+    public void applyHeartbeat(Node heartbeat) {
+        final int index = indexOf(heartbeat.getHost());
+        if (index >= 0 && heartbeat.getLastSeen().isAfter(nodes.get(index).getLastSeen())) {
+            final Node node = nodes.get(index);
+            nodes.set(index, heartbeat.toBuilder()
+                .status(node.getStatus())
+                .requestedToFollow(node.getRequestedToFollow())
+                .build());
+        }
     }
 
     public Optional<Node> findAndUpdate(Node nodeToRegister) {
-        for (int i=0; i<nodes.size(); i++) {
-            if(nodes.get(i).getHost().equals(nodeToRegister.getHost())) {
-                Node updatedNode = nodeToRegister.buildWith(nodes.get(i).getRequestedToFollow());
-                nodes.set(i, updatedNode);
-                return Optional.ofNullable(updatedNode);
-            }
+        final int index = indexOf(nodeToRegister.getHost());
+        if (index < 0) {
+            return Optional.empty();
         }
 
-        return Optional.empty();
+        Node updatedNode = nodeToRegister.buildWith(nodes.get(index).getRequestedToFollow());
+        nodes.set(index, updatedNode);
+        return Optional.of(updatedNode);
     }
 }
@@ -0,0 +1,47 @@
+package com.tesco.aqueduct.registry.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The topology of each group: a default one, and groups with their own fan-out given as "group:fanOut,..."
+ */
+public class Topologies {
+
+    private final Topology defaultTopology;
+    private final Map<String, Topology> topologiesByGroup;
+
+    public static Topologies binary() {
+        return new Topologies(Topology.BINARY, Collections.emptyMap());
+    }
+
+    public Topologies(final int rootFanOut, final int fanOut, final boolean capacityWeighted, final String groupFanOuts) {
+        this(
+            new FanOutTopology(rootFanOut, fanOut, capacityWeighted),
+            parseGroupFanOuts(rootFanOut, capacityWeighted, groupFanOuts)
+        );
+    }
+
+    public Topologies(final Topology defaultTopology, final Map<String, Topology> topologiesByGroup) {
+        this.defaultTopology = defaultTopology;
+        this.topologiesByGroup = topologiesByGroup;
+    }
+
+    public Topology forGroup(final String groupId) {
+        return topologiesByGroup.getOrDefault(groupId, defaultTopology);
+    }
+
+    private static Map<String, Topology> parseGroupFanOuts(final int rootFanOut, final boolean capacityWeighted, final String groupFanOuts) {
+        if (groupFanOuts == null || groupFanOuts.trim().isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return Arrays.stream(groupFanOuts.split(","))
+            .map(entry -> entry.trim().split(":"))
+            .collect(Collectors.toMap(
+                entry -> entry[0].trim(),
+                entry -> new FanOutTopology(rootFanOut, Integer.parseInt(entry[1].trim()), capacityWeighted)
+            ));
+    }
+}
@@ -0,0 +1,26 @@
+package com.tesco.aqueduct.registry.model;
+
+import java.util.List;
+
+/**
+ * Decides which node each node of a sub group follows, given the nodes in their sorted order.
+ */
+public interface Topology {
+
+    Topology BINARY = new FanOutTopology(1, 2, false);
+
+    int CLOUD = -1;
+
+    /**
+     * @return for each node, the index of the node it follows or {@link #CLOUD}, parents always come before their
+     * children
+     */
+    int[] parents(List<Node> nodes);
+
+    /**
+     * @return from 0 to 255, nodes of the same status with a higher rank are placed closer to the cloud
+     */
+    default int rank(Node node) {
+        return 0;
+    }
+}
@@ -16,8 +16,9 @@ class BootstrapRequestSpec extends Specification {
         when: "Saving the bootstrap request"
         testRequest.save(nodeRequestStorage, nodeRegistry)
 
-        then: "node request storage has been called with all hosts"
-        2* nodeRequestStorage.save(_ as NodeRequest)
+        then: "node request storage has been called once with all hosts"
+        1* nodeRequestStorage.saveAll({ it*.hostId == ["host-1", "host-2"] })
+        0* nodeRequestStorage.save(_ as NodeRequest)
     }
 
     def "Saving request for Zero nodes"() {
@@ -33,8 +34,9 @@ class BootstrapRequestSpec extends Specification {
         when: "Saving the bootstrap request"
         testRequest.save(nodeRequestStorage, nodeRegistry)
 
-        then: "node request storage has been called with all hosts"
+        then: "node request storage has not been called"
         0* nodeRequestStorage.save(_ as NodeRequest)
+        0* nodeRequestStorage.saveAll(_)
     }
 
     def "Saving request for multiple nodes and locations"() {
@@ -51,7 +53,8 @@ class BootstrapRequestSpec extends Specification {
         when: "Saving the bootstrap request"
         testRequest.save(nodeRequestStorage, nodeRegistry)
 
-        then: "node request storage has been called with all hosts"
-        5* nodeRequestStorage.save(_ as NodeRequest)
+        then: "node request storage has been called once with all hosts"
+        1* nodeRequestStorage.saveAll({ it*.hostId == ["host-1", "host-2", "host-3", "host-4", "host-5"] })
+        0* nodeRequestStorage.save(_ as NodeRequest)
     }
 }
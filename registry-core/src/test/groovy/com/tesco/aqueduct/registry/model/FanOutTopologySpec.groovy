@@ -0,0 +1,106 @@
+package com.tesco.aqueduct.registry.model
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.time.ZonedDateTime
+
+class FanOutTopologySpec extends Specification {
+
+    def cloudUrl = new URL("http://some-cloud-url")
+
+    @Unroll
+    def "nodes follow the cloud or a node before them, #rootFanOut from the cloud and #fanOut from each node"() {
+        when:
+        def parents = new FanOutTopology(rootFanOut, fanOut, false).parents(nodes(8))
+
+        then:
+        parents as List == expectedParents
+
+        where:
+        rootFanOut | fanOut | expectedParents
+        1          | 2      | [-1, 0, 0, 1, 1, 2, 2, 3]
+        1          | 3      | [-1, 0, 0, 0, 1, 1, 1, 2]
+        2          | 2      | [-1, -1, 0, 0, 1, 1, 2, 2]
+        3          | 1      | [-1, -1, -1, 0, 1, 2, 3, 4]
+    }
+
+    def "the binary topology gives the same tree as before"() {
+        given:
+        def subNodeGroup = new SubNodeGroup("1.0")
+
+        when:
+        (1..7).each { subNodeGroup.add(node("http://node-$it"), cloudUrl) }
+        subNodeGroup.sortNodes(cloudUrl)
+
+        then:
+        subNodeGroup.nodes*.requestedToFollow*.toString() == [
+            "[$cloudUrl]",
+            "[http://node-1, $cloudUrl]",
+            "[http://node-1, $cloudUrl]",
+            "[http://node-2, http://node-1, $cloudUrl]",
+            "[http://node-2, http://node-1, $cloudUrl]",
+            "[http://node-3, http://node-1, $cloudUrl]",
+            "[http://node-3, http://node-1, $cloudUrl]",
+        ]*.toString()
+    }
+
+    def "nodes with more capacity are placed first and take more children"() {
+        given:
+        def subNodeGroup = new SubNodeGroup("1.0")
+        subNodeGroup.setTopology(new FanOutTopology(1, 2, true))
+
+        when:
+        subNodeGroup.add(node("http://small-1", "0.5"), cloudUrl)
+        subNodeGroup.add(node("http://small-2", "0.5"), cloudUrl)
+        subNodeGroup.add(node("http://big", "2"), cloudUrl)
+        (1..4).each { subNodeGroup.add(node("http://node-$it"), cloudUrl) }
+        subNodeGroup.sortNodes(cloudUrl)
+
+        then: "the node with most capacity follows the cloud and is followed by 4 nodes"
+        subNodeGroup.nodes*.localUrl*.toString() ==
+            ["http://big", "http://node-1", "http://node-2", "http://node-3", "http://node-4", "http://small-1", "http://small-2"]
+        subNodeGroup.nodes[0].requestedToFollow == [cloudUrl]
+        (1..4).every { subNodeGroup.nodes[it].requestedToFollow == [new URL("http://big"), cloudUrl] }
+        subNodeGroup.nodes[5].requestedToFollow == [new URL("http://node-1"), new URL("http://big"), cloudUrl]
+    }
+
+    def "capacity is read from the pipe fields of the node"() {
+        expect:
+        node("http://node", capacity).capacity == expectedCapacity
+
+        where:
+        capacity | expectedCapacity
+        null     | 1
+        "2.5"    | 2.5
+        "-1"     | 0
+        "lots"   | 1
+    }
+
+    def "groups can have their own fan-out"() {
+        when:
+        def topologies = new Topologies(1, 2, false, "big-store:8, other:3")
+
+        then:
+        topologies.forGroup("big-store") == new FanOutTopology(1, 8, false)
+        topologies.forGroup("other") == new FanOutTopology(1, 3, false)
+        topologies.forGroup("small-store") == new FanOutTopology(1, 2, false)
+    }
+
+    private static List<Node> nodes(int count) {
+        (1..count).collect { node("http://node-$it") }
+    }
+
+    private static Node node(String url, String capacity = null) {
+        def pipe = ["v": "1.0"]
+        if (capacity != null) {
+            pipe.capacity = capacity
+        }
+        Node.builder()
+            .localUrl(new URL(url))
+            .status(Status.FOLLOWING)
+            .lastSeen(ZonedDateTime.now())
+            .pipe(pipe)
+            .build()
+    }
+}
@@ -0,0 +1,131 @@
+package com.tesco.aqueduct.registry.model
+
+import com.tesco.aqueduct.pipe.api.JsonHelper
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static com.tesco.aqueduct.registry.model.Status.FOLLOWING
+import static com.tesco.aqueduct.registry.model.Status.INITIALISING
+
+class NodeDeltaSpec extends Specification {
+    private static final URL CLOUD_URL = new URL("http://cloud")
+
+    def "a full registration carries every field of the node"() {
+        given:
+        def node = node(10, ["global_latest_offset": "10"])
+
+        when:
+        def delta = NodeDelta.full(node, "follow")
+
+        then:
+        delta.full
+        delta.version != null
+        delta.followVersion == "follow"
+        delta.toNode() == node
+    }
+
+    def "a full registration of the same node has the same version whatever its offsets"() {
+        expect:
+        NodeDelta.full(node(10, [:]), null).version == NodeDelta.full(node(10, [:]), "follow").version
+        NodeDelta.full(node(10, [:]), null).version == NodeDelta.full(node(11, ["global_latest_offset": "11"]), null).version
+        NodeDelta.full(node(10, [:]), null).version != NodeDelta.full(node(10, [:]).toBuilder().status(FOLLOWING).build(), null).version
+    }
+
+    def "only the offsets are sent as changes to the base"() {
+        given:
+        def base = NodeDelta.full(node(10, ["global_latest_offset": "10"]), null)
+
+        when:
+        def delta = NodeDelta.between(base, node(20, ["global_latest_offset": "20"]), "follow")
+
+        then:
+        !delta.full
+        delta.version == base.version
+        delta.offset == 20
+        delta.offsets == ["global_latest_offset": "20"]
+        delta.status == null
+        delta.following == null
+        delta.pipe == null
+        delta.provider == null
+
+        and: "applied to the base they give the node back"
+        delta.applyTo(base) == node(20, ["global_latest_offset": "20"])
+    }
+
+    def "nothing but the identity, versions and offsets is sent when nothing else changed"() {
+        given:
+        def base = NodeDelta.full(node(10, ["global_latest_offset": "10"]), null)
+
+        when:
+        def json = JsonHelper.toJson(NodeDelta.between(base, node(10, ["global_latest_offset": "10"]), "follow"))
+
+        then:
+        JsonHelper.MAPPER.readTree(json).fieldNames().toList() == ["group", "localUrl", "version", "full", "offset", "offsets", "followVersion"]
+        JsonHelper.MAPPER.readValue(json, NodeDelta).applyTo(base) == node(10, ["global_latest_offset": "10"])
+    }
+
+    def "changes give the same node applied to any base of the same version, whatever offsets the base has"() {
+        given: "the base the node last registered and an older base of the same version"
+        def base = NodeDelta.full(node(20, ["global_latest_offset": "20"]), null)
+        def olderBase = NodeDelta.full(node(10, ["global_latest_offset": "10"]), null)
+
+        when:
+        def delta = NodeDelta.between(base, node(20, ["global_latest_offset": "20"]), "follow")
+
+        then:
+        delta.applyTo(olderBase) == node(20, ["global_latest_offset": "20"])
+    }
+
+    def "emptied offsets are sent as changes"() {
+        given:
+        def base = NodeDelta.full(node(10, ["global_latest_offset": "10"]), null)
+
+        when:
+        def json = JsonHelper.toJson(NodeDelta.between(base, node(10, [:]), "follow"))
+
+        then:
+        !JsonHelper.MAPPER.readValue(json, NodeDelta).full
+        JsonHelper.MAPPER.readValue(json, NodeDelta).applyTo(base).offsets == null
+    }
+
+    @Unroll
+    def "a change of #field is sent as a new full registration"() {
+        given:
+        def base = NodeDelta.full(node(10, ["global_latest_offset": "10"]), null)
+
+        when:
+        def delta = NodeDelta.between(base, changed, "follow")
+
+        then:
+        delta.full
+        delta.version != base.version
+        delta.toNode() == changed
+
+        where:
+        field       | changed
+        "status"    | node(10, ["global_latest_offset": "10"]).toBuilder().status(FOLLOWING).build()
+        "following" | node(10, ["global_latest_offset": "10"]).toBuilder().following([new URL("http://other")]).build()
+        "pipe"      | node(10, ["global_latest_offset": "10"]).toBuilder().pipe(["v": "1.1"]).build()
+        "provider"  | node(10, ["global_latest_offset": "10"]).toBuilder().provider(["lastAckOffset": "1"]).build()
+        "group"     | node(10, ["global_latest_offset": "10"]).toBuilder().group("other").build()
+    }
+
+    def "versions of the nodes to follow do not depend on resolving them"() {
+        expect:
+        NodeDelta.versionOf([new URL("http://a"), CLOUD_URL]) == NodeDelta.versionOf([new URL("http://a"), CLOUD_URL])
+        NodeDelta.versionOf([new URL("http://a"), CLOUD_URL]) != NodeDelta.versionOf([CLOUD_URL])
+        NodeDelta.versionOf(null) == null
+    }
+
+    Node node(long offset, Map<String, String> offsets) {
+        Node.builder()
+            .group("group")
+            .localUrl(new URL("http://node"))
+            .offset(offset)
+            .status(INITIALISING)
+            .following([CLOUD_URL])
+            .pipe(["v": "1.0"])
+            .offsets(offsets)
+            .build()
+    }
+}
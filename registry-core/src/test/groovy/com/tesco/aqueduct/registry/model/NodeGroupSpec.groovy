@@ -4,6 +4,7 @@ import com.tesco.aqueduct.pipe.api.PipeState
 import spock.lang.Ignore
 import spock.lang.Specification
 
+import java.time.Duration
 import java.time.ZonedDateTime
 
 import static com.tesco.aqueduct.registry.model.Status.*
@@ -513,6 +514,26 @@ class NodeGroupSpec extends Specification {
         group.subGroups.isEmpty()
     }
 
+    def "the next offline change is the earliest node to be marked offline or removed"() {
+        given: "A node group with an online and an offline node"
+        def now = ZonedDateTime.now()
+        Node online = createNode("group", new URL("http://node-1"), 0, FOLLOWING, [], now.minusMinutes(1))
+        Node offline = createNode("group", new URL("http://node-2"), 0, OFFLINE, [], now.minusMinutes(10))
+        NodeGroup group = new NodeGroup([online, offline])
+
+        expect:
+        group.nextOfflineChange(Duration.ofMinutes(mark), Duration.ofMinutes(remove)) == Optional.of(now.plusMinutes(change))
+
+        and: "an empty group never changes"
+        new NodeGroup().nextOfflineChange(Duration.ofMinutes(mark), Duration.ofMinutes(remove)) == Optional.empty()
+
+        where:
+        mark | remove | change
+        5    | 20     | 4
+        5    | 12     | 2
+        5    | 3      | -7
+    }
+
     @Ignore
     def "A new subgroup is created if it does not exist"(){
         given: "a node"
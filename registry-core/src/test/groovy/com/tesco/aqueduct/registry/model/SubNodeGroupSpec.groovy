@@ -2,6 +2,8 @@ package com.tesco.aqueduct.registry.model
 
 import spock.lang.Specification
 
+import java.time.ZonedDateTime
+
 class SubNodeGroupSpec extends Specification {
 
     SubNodeGroup subNodeGroup;
@@ -80,4 +82,114 @@ class SubNodeGroupSpec extends Specification {
         then: "null is returned"
         result == Optional.empty()
     }
+
+    def "sorting nodes already in order leaves them untouched"() {
+        given: "a tree of nodes"
+        def cloudUrl = new URL("http://some-cloud-url")
+        (1..7).each { subNodeGroup.add(node("http://node-$it", Status.FOLLOWING), cloudUrl) }
+        def nodes = new ArrayList(subNodeGroup.nodes)
+
+        when: "nodes are sorted"
+        subNodeGroup.sortNodes(cloudUrl)
+
+        then: "no node is rebuilt"
+        (0..6).every { subNodeGroup.nodes[it].is(nodes[it]) }
+    }
+
+    def "only the subtree of a node that moved gets a new follow list"() {
+        given: "a tree of nodes"
+        def cloudUrl = new URL("http://some-cloud-url")
+        (1..7).each { subNodeGroup.add(node("http://node-$it", Status.FOLLOWING), cloudUrl) }
+        def nodes = new ArrayList(subNodeGroup.nodes)
+
+        and: "the second node goes offline"
+        subNodeGroup.nodes.set(1, subNodeGroup.nodes[1].toBuilder().status(Status.OFFLINE).build())
+
+        when: "nodes are sorted"
+        subNodeGroup.sortNodes(cloudUrl)
+
+        then: "the offline node moves last and the tree is rebuilt around it"
+        subNodeGroup.nodes*.localUrl*.toString() ==
+            ["http://node-1", "http://node-3", "http://node-4", "http://node-5", "http://node-6", "http://node-7", "http://node-2"]
+        subNodeGroup.nodes[1].requestedToFollow == [new URL("http://node-1"), cloudUrl]
+        subNodeGroup.nodes[2].requestedToFollow == [new URL("http://node-1"), cloudUrl]
+        subNodeGroup.nodes[6].requestedToFollow == [new URL("http://node-4"), new URL("http://node-1"), cloudUrl]
+
+        and: "the root and the nodes whose parent did not change are not rebuilt"
+        subNodeGroup.nodes[0].is(nodes[0])
+        subNodeGroup.nodes[1].is(nodes[2])
+    }
+
+    def "nodes already offline are not rebuilt when marking offline nodes"() {
+        given:
+        def offlineNode = node("http://node-1", Status.OFFLINE, ZonedDateTime.now().minusMinutes(5))
+        subNodeGroup.add(offlineNode)
+
+        when:
+        subNodeGroup.handleOfflineNodes(ZonedDateTime.now().minusMinutes(1), ZonedDateTime.now().minusMinutes(10))
+
+        then:
+        subNodeGroup.nodes[0].is(offlineNode)
+    }
+
+    def "nodes are found by host after the group is reordered and nodes are removed"() {
+        given: "a tree of nodes"
+        def cloudUrl = new URL("http://some-cloud-url")
+        (1..5).each { subNodeGroup.add(node("http://node-$it", Status.FOLLOWING), cloudUrl) }
+        subNodeGroup.getByHost("node-1")
+
+        when: "a node goes offline, the nodes are sorted and another node is removed"
+        subNodeGroup.findAndUpdate(node("http://node-2", Status.OFFLINE))
+        subNodeGroup.sortNodes(cloudUrl)
+        subNodeGroup.removeByHost("node-3")
+
+        then: "the remaining nodes are found where they are"
+        subNodeGroup.getByHost("node-2").get().is(subNodeGroup.nodes[3])
+        subNodeGroup.getByHost("node-4").get().is(subNodeGroup.nodes[1])
+        !subNodeGroup.getByHost("node-3").isPresent()
+        !subNodeGroup.removeByHost("node-3")
+
+        when: "a node is added"
+        subNodeGroup.add(node("http://node-6", Status.FOLLOWING), cloudUrl)
+
+        then:
+        subNodeGroup.getByHost("node-6").get().is(subNodeGroup.nodes[4])
+    }
+
+    def "nodes sharing a host on different ports are matched by the first one and removed together"() {
+        given: "two nodes on the same host and another node"
+        def first = node("http://node-1:8080", Status.FOLLOWING)
+        def second = node("http://node-1:8081", Status.FOLLOWING)
+        def other = node("http://node-2", Status.FOLLOWING)
+        subNodeGroup.add(first)
+        subNodeGroup.add(second)
+        subNodeGroup.add(other)
+
+        expect: "the first node of the host is found"
+        subNodeGroup.getByHost("node-1").get().is(first)
+
+        when: "a node of the host registers again"
+        def updated = subNodeGroup.findAndUpdate(node("http://node-1:8081", Status.OFFLINE)).get()
+
+        then: "the first node of the host is updated"
+        subNodeGroup.nodes[0].is(updated)
+        subNodeGroup.nodes[1].is(second)
+
+        when: "the host is removed"
+        def removed = subNodeGroup.removeByHost("node-1")
+
+        then: "every node of the host is removed"
+        removed
+        subNodeGroup.nodes == [other]
+        !subNodeGroup.getByHost("node-1").isPresent()
+    }
+
+    private static Node node(String url, Status status, ZonedDateTime lastSeen = ZonedDateTime.now()) {
+        Node.builder()
+            .localUrl(new URL(url))
+            .status(status)
+            .lastSeen(lastSeen)
+            .pipe(["v":"1.0"])
+            .build()
+    }
 }
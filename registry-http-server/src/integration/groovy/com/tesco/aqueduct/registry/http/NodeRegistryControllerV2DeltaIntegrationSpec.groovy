@@ -0,0 +1,110 @@
+package com.tesco.aqueduct.registry.http
+
+import com.opentable.db.postgres.junit.EmbeddedPostgresRules
+import com.opentable.db.postgres.junit.SingleInstancePostgresRule
+import com.tesco.aqueduct.pipe.api.Reader
+import com.tesco.aqueduct.pipe.codec.GzipCodec
+import com.tesco.aqueduct.registry.model.*
+import com.tesco.aqueduct.registry.postgres.PostgreSQLNodeRegistry
+import groovy.sql.Sql
+import org.junit.ClassRule
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+
+import javax.sql.DataSource
+import java.sql.DriverManager
+import java.time.Duration
+
+import static com.tesco.aqueduct.registry.model.Status.FOLLOWING
+
+class NodeRegistryControllerV2DeltaIntegrationSpec extends Specification {
+
+    @ClassRule @Shared
+    SingleInstancePostgresRule pg = EmbeddedPostgresRules.singleInstance()
+
+    @AutoCleanup
+    Sql sql
+    URL cloudURL = new URL("http://cloud.pipe:8080")
+    NodeRegistry registry
+    List<NodeRegistryControllerV2> instances
+
+    NodeDelta registrationBase
+    String followVersion
+    int fullRegistrations
+
+    def setup() {
+        sql = new Sql(pg.embeddedPostgres.postgresDatabase.connection)
+        sql.execute("""
+            DROP TABLE IF EXISTS registry;
+
+            CREATE TABLE registry(
+            group_id VARCHAR PRIMARY KEY NOT NULL,
+            entry JSON NOT NULL,
+            version integer NOT NULL
+            );
+        """)
+
+        DataSource dataSource = Mock()
+        dataSource.connection >> {
+            DriverManager.getConnection(pg.embeddedPostgres.getJdbcUrl("postgres", "postgres"))
+        }
+        registry = new PostgreSQLNodeRegistry(dataSource, cloudURL, Duration.ofDays(1), Duration.ofDays(2))
+
+        def nodeRequestStorage = Stub(NodeRequestStorage) {
+            requiresBootstrap(_) >> BootstrapType.NONE
+        }
+        instances = (1..2).collect {
+            new NodeRegistryControllerV2(registry, nodeRequestStorage, Mock(Reader), 1024, new GzipCodec(-1, false), Duration.ofDays(2))
+        }
+    }
+
+    def "deltas sent to registry instances in turn only need a full registration once per instance"() {
+        when: "a node registers every interval with new offsets, with instances taking turns"
+        (1..6).each { interval ->
+            register(instances[interval % 2], node(interval * 100))
+        }
+
+        then: "each instance asked for a full registration once"
+        fullRegistrations == 2
+
+        and: "the registry has the latest offsets"
+        def followers = registry.getSummary(0, FOLLOWING, ["group"]).followers
+        followers*.offset == [600]
+        followers*.offsets == [["global_latest_offset": "600"]]
+        followers*.status == [FOLLOWING]
+    }
+
+    // registers the way the client does, see SelfRegistrationTask
+    private void register(NodeRegistryControllerV2 instance, Node node) {
+        def delta = registrationBase == null
+            ? NodeDelta.full(node, followVersion)
+            : NodeDelta.between(registrationBase, node, followVersion)
+
+        def response = instance.registerNodeDelta(delta)
+        if (response.fullRegistrationRequired) {
+            delta = NodeDelta.full(node, followVersion)
+            response = instance.registerNodeDelta(delta)
+        }
+
+        if (delta.full) {
+            fullRegistrations++
+            registrationBase = delta
+        }
+        if (!response.unchanged) {
+            followVersion = NodeDelta.versionOf(response.requestedToFollow)
+        }
+    }
+
+    private static Node node(long offset) {
+        Node.builder()
+            .group("group")
+            .localUrl(new URL("http://node"))
+            .offset(offset)
+            .status(FOLLOWING)
+            .following([new URL("http://cloud.pipe:8080")])
+            .pipe(["v": "1.0"])
+            .offsets(["global_latest_offset": Long.toString(offset)])
+            .build()
+    }
+}
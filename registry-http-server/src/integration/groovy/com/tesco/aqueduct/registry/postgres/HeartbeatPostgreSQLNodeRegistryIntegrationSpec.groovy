@@ -0,0 +1,82 @@
+package com.tesco.aqueduct.registry.postgres
+
+import com.tesco.aqueduct.registry.model.NodeRegistry
+
+import java.time.Duration
+
+import static com.tesco.aqueduct.registry.model.Status.FOLLOWING
+import static com.tesco.aqueduct.registry.model.Status.INITIALISING
+
+class HeartbeatPostgreSQLNodeRegistryIntegrationSpec extends PostgreSQLNodeRegistryIntegrationSpec {
+
+    @Override
+    void createTables() {
+        super.createTables()
+        sql.execute("""
+            DROP TABLE IF EXISTS registry_heartbeat;
+
+            CREATE TABLE registry_heartbeat(
+            group_id VARCHAR NOT NULL,
+            host VARCHAR NOT NULL,
+            entry JSON NOT NULL,
+            version BIGINT NOT NULL DEFAULT 0,
+            PRIMARY KEY (group_id, host)
+            );
+        """)
+    }
+
+    @Override
+    NodeRegistry registry(Duration markOfflineDelta, Duration removeOfflineDelta) {
+        new PostgreSQLNodeRegistry(dataSource, cloudURL, markOfflineDelta, removeOfflineDelta, true)
+    }
+
+    def "a heartbeat that keeps the hierarchy does not rewrite the group"() {
+        given:
+        registerNode("x", "http://first")
+        registerNode("x", "http://second")
+        def version = sql.firstRow("SELECT version FROM registry WHERE group_id = 'x'").version
+
+        when:
+        def node = registerNode("x", "http://second", 10)
+
+        then:
+        sql.firstRow("SELECT version FROM registry WHERE group_id = 'x'").version == version
+        sql.rows("SELECT host FROM registry_heartbeat WHERE group_id = 'x'")*.host == ["second"]
+        node.requestedToFollow == [new URL("http://first"), cloudURL]
+
+        and: "what the node reported is seen in the summary"
+        def followers = registry.getSummary(0, INITIALISING, ["x"]).followers
+        followers*.localUrl*.toString() == ["http://first", "http://second"]
+        followers[1].offset == 10
+        followers[1].requestedToFollow == [new URL("http://first"), cloudURL]
+    }
+
+    def "a change of status recomputes the hierarchy of the group"() {
+        given:
+        registerNode("x", "http://first")
+        registerNode("x", "http://second")
+        registerNode("x", "http://second", 5)
+        def version = sql.firstRow("SELECT version FROM registry WHERE group_id = 'x'").version
+
+        when:
+        registerNode("x", "http://second", 10, FOLLOWING)
+
+        then:
+        sql.firstRow("SELECT version FROM registry WHERE group_id = 'x'").version == version + 1
+        registry.getSummary(0, INITIALISING, ["x"]).followers*.localUrl*.toString() == ["http://second", "http://first"]
+    }
+
+    def "heartbeats of a deleted node are removed with it"() {
+        given:
+        registerNode("x", "http://first")
+        registerNode("x", "http://second")
+        registerNode("x", "http://second", 10)
+
+        when:
+        registry.deleteNode("x", "second")
+
+        then:
+        sql.rows("SELECT * FROM registry_heartbeat").isEmpty()
+        registry.getSummary(0, INITIALISING, ["x"]).followers*.localUrl*.toString() == ["http://first"]
+    }
+}
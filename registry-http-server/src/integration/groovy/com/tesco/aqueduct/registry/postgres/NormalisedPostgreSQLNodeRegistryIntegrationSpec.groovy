@@ -0,0 +1,79 @@
+package com.tesco.aqueduct.registry.postgres
+
+import com.tesco.aqueduct.registry.model.NodeRegistry
+
+import java.time.Duration
+
+import static com.tesco.aqueduct.registry.model.Status.FOLLOWING
+import static com.tesco.aqueduct.registry.model.Status.INITIALISING
+
+class NormalisedPostgreSQLNodeRegistryIntegrationSpec extends PostgreSQLNodeRegistryIntegrationSpec {
+
+    @Override
+    void createTables() {
+        sql.execute("""
+            DROP TABLE IF EXISTS registry_node;
+            DROP TABLE IF EXISTS registry_group;
+
+            CREATE TABLE registry_group(
+            group_id VARCHAR PRIMARY KEY NOT NULL,
+            version BIGINT NOT NULL,
+            offline_check_after BIGINT NOT NULL
+            );
+
+            CREATE TABLE registry_node(
+            group_id VARCHAR NOT NULL,
+            host VARCHAR NOT NULL,
+            position INTEGER NOT NULL,
+            entry JSON NOT NULL,
+            heartbeats BIGINT NOT NULL DEFAULT 0,
+            PRIMARY KEY (group_id, host)
+            );
+        """)
+    }
+
+    @Override
+    NodeRegistry registry(Duration markOfflineDelta, Duration removeOfflineDelta) {
+        new NormalisedPostgreSQLNodeRegistry(dataSource, cloudURL, markOfflineDelta, removeOfflineDelta)
+    }
+
+    def "a heartbeat that keeps the hierarchy only updates the row of the node"() {
+        given:
+        registerNode("x", "http://first")
+        registerNode("x", "http://second")
+        def version = sql.firstRow("SELECT version FROM registry_group WHERE group_id = 'x'").version
+
+        when:
+        def node = registerNode("x", "http://second", 10)
+
+        then:
+        sql.firstRow("SELECT version FROM registry_group WHERE group_id = 'x'").version == version
+        node.requestedToFollow == [new URL("http://first"), cloudURL]
+        registry.getSummary(0, INITIALISING, ["x"]).followers.find { it.localUrl.toString() == "http://second" }.offset == 10
+    }
+
+    def "a change of status recomputes the hierarchy of the group"() {
+        given:
+        registerNode("x", "http://first")
+        registerNode("x", "http://second")
+        def version = sql.firstRow("SELECT version FROM registry_group WHERE group_id = 'x'").version
+
+        when:
+        registerNode("x", "http://second", 10, FOLLOWING)
+
+        then:
+        sql.firstRow("SELECT version FROM registry_group WHERE group_id = 'x'").version == version + 1
+    }
+
+    def "the group rows are removed with the last node of the group"() {
+        given:
+        registerNode("x", "http://first")
+
+        when:
+        registry.deleteNode("x", "first")
+
+        then:
+        sql.rows("SELECT * FROM registry_node").isEmpty()
+        sql.rows("SELECT * FROM registry_group").isEmpty()
+    }
+}
@@ -48,6 +48,12 @@ class PostgreSQLNodeRegistryIntegrationSpec extends Specification {
             DriverManager.getConnection(pg.embeddedPostgres.getJdbcUrl("postgres", "postgres"))
         }
 
+        createTables()
+
+        registry = registry(Duration.ofDays(1), Duration.ofDays(2))
+    }
+
+    void createTables() {
         sql.execute("""
             DROP TABLE IF EXISTS registry;
             
@@ -57,8 +63,10 @@ class PostgreSQLNodeRegistryIntegrationSpec extends Specification {
             version integer NOT NULL
             );
         """)
+    }
 
-        registry = new PostgreSQLNodeRegistry(dataSource, cloudURL, Duration.ofDays(1), Duration.ofDays(2))
+    NodeRegistry registry(Duration markOfflineDelta, Duration removeOfflineDelta) {
+        new PostgreSQLNodeRegistry(dataSource, cloudURL, markOfflineDelta, removeOfflineDelta)
     }
 
     def "registry always contains root"() {
@@ -95,7 +103,7 @@ class PostgreSQLNodeRegistryIntegrationSpec extends Specification {
 
     def "registry handles nodes offline and sorts based on status"() {
         given: "a registry with a short offline delta"
-        registry = new PostgreSQLNodeRegistry(dataSource, cloudURL, Duration.ofSeconds(5), Duration.ofSeconds(7))
+        registry = registry(Duration.ofSeconds(5), Duration.ofSeconds(7))
 
         and: "7 nodes"
         long offset = 12345
@@ -177,7 +185,7 @@ class PostgreSQLNodeRegistryIntegrationSpec extends Specification {
 
     def "returns an empty state summary if all nodes are offline"() {
         given: "a registry with a short offline delta"
-        registry = new PostgreSQLNodeRegistry(dataSource, cloudURL, Duration.ofSeconds(1), Duration.ofSeconds(2))
+        registry = registry(Duration.ofSeconds(1), Duration.ofSeconds(2))
 
         and: "3 nodes"
         long offset = 1234
@@ -495,7 +503,7 @@ class PostgreSQLNodeRegistryIntegrationSpec extends Specification {
 
     def "After some time nodes are marked as offline"() {
         given: "registry with small offline mark"
-        registry = new PostgreSQLNodeRegistry(dataSource, cloudURL, Duration.ofMillis(100), Duration.ofMillis(500))
+        registry = registry(Duration.ofMillis(100), Duration.ofMillis(500))
 
         def offset = 100
         def now = ZonedDateTime.now()
@@ -528,6 +536,97 @@ class PostgreSQLNodeRegistryIntegrationSpec extends Specification {
         nodesState.get(0).id == "x|http://second"
     }
 
+    def "summary since no versions returns every group with its version"() {
+        given:
+        registerNode("x", "http://first")
+        registerNode("y", "http://second")
+
+        when:
+        def delta = registry.getSummarySince(0, INITIALISING, [], [:])
+
+        then:
+        delta.root.localUrl == cloudURL
+        delta.followers*.localUrl*.toString() == ["http://first", "http://second"]
+        delta.versions.keySet() == ["x", "y"] as Set
+        delta.removedGroups.isEmpty()
+    }
+
+    def "summary since the last versions is empty when nothing changed"() {
+        given:
+        registerNode("x", "http://first")
+        registerNode("y", "http://second")
+        def versions = registry.getSummarySince(0, INITIALISING, [], [:]).versions
+
+        when:
+        def delta = registry.getSummarySince(0, INITIALISING, [], versions)
+
+        then:
+        delta.followers.isEmpty()
+        delta.versions.isEmpty()
+        delta.removedGroups.isEmpty()
+    }
+
+    def "summary since the last versions only returns the groups that changed"() {
+        given:
+        registerNode("x", "http://first")
+        registerNode("y", "http://second")
+        def versions = registry.getSummarySince(0, INITIALISING, [], [:]).versions
+
+        when:
+        registerNode("y", "http://second", 10)
+        def delta = registry.getSummarySince(0, INITIALISING, [], versions)
+
+        then:
+        delta.followers*.localUrl*.toString() == ["http://second"]
+        delta.followers[0].offset == 10
+        delta.versions.keySet() == ["y"] as Set
+        delta.versions["y"] != versions["y"]
+    }
+
+    def "summary since the last versions reports the groups that were removed"() {
+        given:
+        registerNode("x", "http://first")
+        registerNode("y", "http://second")
+        def versions = registry.getSummarySince(0, INITIALISING, [], [:]).versions
+
+        when:
+        registry.deleteNode("x", "first")
+        def delta = registry.getSummarySince(0, INITIALISING, [], versions)
+
+        then:
+        delta.followers.isEmpty()
+        delta.removedGroups == ["x"]
+    }
+
+    def "summary since the last versions of some groups ignores the other groups"() {
+        given:
+        registerNode("x", "http://first")
+        registerNode("y", "http://second")
+        def versions = registry.getSummarySince(0, INITIALISING, ["x"], [:]).versions
+
+        when:
+        def delta = registry.getSummarySince(0, INITIALISING, ["y"], versions)
+
+        then:
+        versions.keySet() == ["x"] as Set
+        delta.followers*.localUrl*.toString() == ["http://second"]
+        delta.removedGroups.isEmpty()
+    }
+
+    def "summary since the last versions returns the nodes that went offline"() {
+        given:
+        registry = registry(Duration.ofMillis(300), Duration.ofDays(1))
+        registerNode("x", "http://first")
+        def versions = registry.getSummarySince(0, INITIALISING, [], [:]).versions
+
+        when:
+        Thread.sleep(500)
+        def delta = registry.getSummarySince(0, INITIALISING, [], versions)
+
+        then:
+        delta.followers*.status == [OFFLINE]
+    }
+
     @Ignore
     def "the second node in the group with different version to first node should get its own hierarchy"() {
         given: "We have one node registered"
@@ -614,7 +713,7 @@ class PostgreSQLNodeRegistryIntegrationSpec extends Specification {
     @Ignore
     def "registry marks nodes offline and sorts based on status within their hierarchies"() {
         given: "a registry with a short offline delta"
-        registry = new PostgreSQLNodeRegistry(dataSource, cloudURL, Duration.ofSeconds(5), Duration.ofSeconds(10))
+        registry = registry(Duration.ofSeconds(5), Duration.ofSeconds(10))
 
         and: "6 nodes with different versions"
         long offset = 12345
@@ -698,7 +797,7 @@ class PostgreSQLNodeRegistryIntegrationSpec extends Specification {
     
     def "registry marks nodes offline and sorts nodes ignoring version"() {
         given: "a registry with a short offline delta"
-        registry = new PostgreSQLNodeRegistry(dataSource, cloudURL, Duration.ofSeconds(5), Duration.ofSeconds(10))
+        registry = registry(Duration.ofSeconds(5), Duration.ofSeconds(10))
 
         and: "6 nodes with different versions"
         long offset = 12345
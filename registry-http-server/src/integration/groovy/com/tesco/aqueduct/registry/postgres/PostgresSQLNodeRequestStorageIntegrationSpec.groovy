@@ -16,6 +16,7 @@ import spock.lang.Unroll
 import javax.sql.DataSource
 import java.sql.DriverManager
 import java.sql.Timestamp
+import java.time.Duration
 import java.time.LocalDateTime
 import java.time.ZoneOffset
 
@@ -90,6 +91,37 @@ class PostgresSQLNodeRequestStorageIntegrationSpec extends Specification {
         rows.get(0).getProperty("bootstrap_received") == null
     }
 
+    def "all node requests are saved at once, overwriting previous requests"() {
+        given: "a previous request for one of the hosts that was received"
+        nodeRequestStorage.save(new NodeRequest("host-1", new Bootstrap(BootstrapType.PROVIDER, LocalDateTime.now())))
+        nodeRequestStorage.requiresBootstrap("host-1")
+
+        when: "bootstrap is requested for many hosts, one of them twice"
+        LocalDateTime now = LocalDateTime.now()
+        def bootstrap = new Bootstrap(BootstrapType.PIPE_AND_PROVIDER, now)
+        nodeRequestStorage.saveAll(
+            (1..1000).collect { new NodeRequest("host-$it", bootstrap) } + new NodeRequest("host-2", bootstrap)
+        )
+
+        then: "data store contains one pending entry per host"
+        def rows = sql.rows("SELECT * FROM node_requests ORDER BY host_id;")
+        Timestamp timestamp = Timestamp.valueOf(now.atOffset(ZoneOffset.UTC).toLocalDateTime())
+
+        rows.size() == 1000
+        rows*.getProperty("bootstrap_requested").every { it == timestamp }
+        rows*.getProperty("bootstrap_type").every { it == "PIPE_AND_PROVIDER" }
+        rows*.getProperty("bootstrap_received").every { it == null }
+        nodeRequestStorage.requiresBootstrap("host-1") == BootstrapType.PIPE_AND_PROVIDER
+    }
+
+    def "saving no node requests does nothing"() {
+        when:
+        nodeRequestStorage.saveAll([])
+
+        then:
+        sql.rows("SELECT * FROM node_requests;").isEmpty()
+    }
+
     @Unroll
     def "when I read with host-id it should return the BootstrapType #bootstrapType"() {
         given: "data is stored within a postgres node request storage"
@@ -131,4 +163,46 @@ class PostgresSQLNodeRequestStorageIntegrationSpec extends Specification {
         then: "bootstrap is not returned"
         response == BootstrapType.NONE
     }
+
+    def "with pending requests kept in memory, hosts without a request are answered without the database"() {
+        given: "a storage keeping pending requests in memory"
+        def cachingStorage = new PostgreSQLNodeRequestStorage(dataSource, Duration.ofHours(1))
+        cachingStorage.save(new NodeRequest("host-id", new Bootstrap(BootstrapType.PROVIDER, LocalDateTime.now())))
+        cachingStorage.requiresBootstrap("other-host-id")
+
+        when: "hosts without a pending request register"
+        def responses = (1..10).collect { cachingStorage.requiresBootstrap("other-host-id") }
+
+        then: "no connection is used"
+        0 * dataSource.getConnection()
+        responses.every { it == BootstrapType.NONE }
+    }
+
+    def "with pending requests kept in memory, a request saved locally is returned once"() {
+        given: "a storage keeping pending requests in memory"
+        def cachingStorage = new PostgreSQLNodeRequestStorage(dataSource, Duration.ofHours(1))
+        cachingStorage.requiresBootstrap("host-id")
+
+        when: "bootstrap is requested"
+        cachingStorage.saveAll([new NodeRequest("host-id", new Bootstrap(BootstrapType.PROVIDER, LocalDateTime.now()))])
+
+        then: "it is returned on the next read only"
+        cachingStorage.requiresBootstrap("host-id") == BootstrapType.PROVIDER
+        cachingStorage.requiresBootstrap("host-id") == BootstrapType.NONE
+    }
+
+    def "with pending requests kept in memory, a request saved by another instance is returned once they expire"() {
+        given: "a storage keeping pending requests in memory for a short time"
+        def cachingStorage = new PostgreSQLNodeRequestStorage(dataSource, Duration.ofMillis(200))
+        cachingStorage.requiresBootstrap("host-id")
+
+        when: "bootstrap is requested through another instance"
+        nodeRequestStorage.save(new NodeRequest("host-id", new Bootstrap(BootstrapType.PROVIDER, LocalDateTime.now())))
+
+        then: "it is returned once the pending requests are read again"
+        cachingStorage.requiresBootstrap("host-id") == BootstrapType.NONE
+        sleep(300)
+        cachingStorage.requiresBootstrap("host-id") == BootstrapType.PROVIDER
+        cachingStorage.requiresBootstrap("host-id") == BootstrapType.NONE
+    }
 }
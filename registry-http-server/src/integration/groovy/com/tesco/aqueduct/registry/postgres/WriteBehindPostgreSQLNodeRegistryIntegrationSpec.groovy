@@ -0,0 +1,121 @@
+package com.tesco.aqueduct.registry.postgres
+
+import com.tesco.aqueduct.registry.model.NodeRegistry
+
+import javax.sql.DataSource
+import java.sql.SQLException
+import java.time.Duration
+
+import static com.tesco.aqueduct.registry.model.Status.FOLLOWING
+import static com.tesco.aqueduct.registry.model.Status.INITIALISING
+
+class WriteBehindPostgreSQLNodeRegistryIntegrationSpec extends PostgreSQLNodeRegistryIntegrationSpec {
+
+    @Override
+    NodeRegistry registry(Duration markOfflineDelta, Duration removeOfflineDelta) {
+        new WriteBehindPostgreSQLNodeRegistry(dataSource, cloudURL, markOfflineDelta, removeOfflineDelta, Duration.ofHours(1), Duration.ofHours(1))
+    }
+
+    def "registered nodes are written to the registry table on flush"() {
+        given:
+        registerNode("x", "http://first")
+        registerNode("x", "http://second")
+
+        expect:
+        sql.rows("SELECT * FROM registry").isEmpty()
+
+        when:
+        registry.flush()
+
+        then:
+        sql.firstRow("SELECT version FROM registry WHERE group_id = 'x'").version == 0
+        new PostgreSQLNodeRegistry(dataSource, cloudURL, Duration.ofDays(1), Duration.ofDays(2))
+            .getSummary(0, INITIALISING, ["x"]).followers*.localUrl*.toString() == ["http://first", "http://second"]
+    }
+
+    def "a group written by another instance in between is read again and the changes are replayed over it"() {
+        given:
+        def other = registry(Duration.ofDays(1), Duration.ofDays(2))
+        registerNode("x", "http://first")
+        registry.flush()
+        other.refresh()
+
+        and:
+        other.register(createNode("x", new URL("http://second")))
+        other.flush()
+        registerNode("x", "http://third", 0, FOLLOWING)
+
+        when:
+        registry.flush()
+        registry.flush()
+
+        then:
+        sql.firstRow("SELECT version FROM registry WHERE group_id = 'x'").version == 2
+        registry.getSummary(0, INITIALISING, ["x"]).followers*.localUrl*.toString() ==
+            ["http://third", "http://first", "http://second"]
+    }
+
+    def "changes waiting to be written are flushed on close"() {
+        given:
+        registerNode("x", "http://first")
+
+        when:
+        registry.close()
+
+        then:
+        sql.firstRow("SELECT version FROM registry WHERE group_id = 'x'").version == 0
+    }
+
+    def "a registry that cannot load the groups on start up still starts and reads them on refresh"() {
+        given:
+        def other = registry(Duration.ofDays(1), Duration.ofDays(2))
+        other.register(createNode("x", new URL("http://first")))
+        other.flush()
+
+        and:
+        def unavailableOnStartUp = Mock(DataSource)
+        unavailableOnStartUp.getConnection() >> { throw new SQLException("database unavailable") } >> { dataSource.getConnection() }
+
+        when:
+        def restarted = new WriteBehindPostgreSQLNodeRegistry(unavailableOnStartUp, cloudURL, Duration.ofDays(1), Duration.ofDays(2), Duration.ofHours(1), Duration.ofHours(1))
+
+        then:
+        noExceptionThrown()
+        restarted.getSummary(0, INITIALISING, ["x"]).followers.isEmpty()
+
+        when:
+        restarted.refresh()
+
+        then:
+        restarted.getSummary(0, INITIALISING, ["x"]).followers*.localUrl*.toString() == ["http://first"]
+    }
+
+    def "groups changed by other instances are picked up on refresh"() {
+        given:
+        def other = registry(Duration.ofDays(1), Duration.ofDays(2))
+        other.register(createNode("x", new URL("http://first")))
+        other.flush()
+
+        expect:
+        registry.getSummary(0, INITIALISING, ["x"]).followers.isEmpty()
+
+        when:
+        registry.refresh()
+
+        then:
+        registry.getSummary(0, INITIALISING, ["x"]).followers*.localUrl*.toString() == ["http://first"]
+    }
+
+    def "the group row is removed with the last node of the group"() {
+        given:
+        registerNode("x", "http://first")
+        registry.flush()
+
+        when:
+        registry.deleteNode("x", "first")
+        registry.flush()
+
+        then:
+        sql.rows("SELECT * FROM registry").isEmpty()
+    }
+}
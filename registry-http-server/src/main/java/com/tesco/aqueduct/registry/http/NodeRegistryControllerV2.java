@@ -23,7 +23,13 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Measure
 @Controller("/v2/registry")
@@ -31,6 +37,7 @@ public class NodeRegistryControllerV2 {
     private static final String REGISTRY_DELETE = "REGISTRY_DELETE";
     private static final String BOOTSTRAP_NODE = "BOOTSTRAP_NODE";
     private static final String REGISTRY_WRITE = "REGISTRY_WRITE";
+    private static final long BASE_EVICTION_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
 
     private static final RegistryLogger LOG = new RegistryLogger(LoggerFactory.getLogger(NodeRegistryControllerV2.class));
     private final NodeRegistry registry;
@@ -38,6 +45,9 @@ public class NodeRegistryControllerV2 {
     private final Reader pipe;
     private final int compressionThreshold;
     private final GzipCodec gzip;
+    private final long removeNodeOfflineMs;
+    private final Map<String, RegistrationBase> registrationBases = new ConcurrentHashMap<>();
+    private final AtomicLong nextBaseEviction = new AtomicLong();
 
     @Inject
     public NodeRegistryControllerV2(
@@ -45,13 +55,15 @@ public class NodeRegistryControllerV2 {
         final NodeRequestStorage nodeRequestStorage,
         final Reader pipe,
         @Property(name = "compression.threshold-in-bytes") int compressionThreshold,
-        GzipCodec gzip
+        GzipCodec gzip,
+        @Property(name = "registry.remove-offline-after", defaultValue = "1m") Duration removeNodeOfflineDelta
     ) {
         this.registry = registry;
         this.nodeRequestStorage = nodeRequestStorage;
         this.pipe = pipe;
         this.compressionThreshold = compressionThreshold;
         this.gzip = gzip;
+        this.removeNodeOfflineMs = removeNodeOfflineDelta.toMillis();
     }
 
     @Secured(SecurityRule.IS_AUTHENTICATED)
@@ -62,6 +74,19 @@ public class NodeRegistryControllerV2 {
         return compressResponseIfNeeded(stateSummary);
     }
 
+    @Secured(SecurityRule.IS_AUTHENTICATED)
+    @Post("/summary")
+    public HttpResponse<byte[]> getSummarySince(@Body final StateSummaryRequest summaryRequest) {
+        StateSummaryDelta stateSummaryDelta = registry.getSummarySince(
+            pipe.getOffset(OffsetName.GLOBAL_LATEST_OFFSET).getAsLong(),
+            Status.OK,
+            summaryRequest.getGroups(),
+            summaryRequest.getVersions()
+        );
+
+        return compressResponseIfNeeded(stateSummaryDelta);
+    }
+
     @Secured(REGISTRY_WRITE)
     @Post
     public RegistryResponse registerNode(@Body final Node node) throws SQLException, SubGroupIdNotAvailableException {
@@ -77,10 +102,43 @@ public class NodeRegistryControllerV2 {
         return new RegistryResponse(nodeRegistered.getRequestedToFollow(), bootstrapType);
     }
 
+    /**
+     * Full registrations are kept in memory as the base of the changes sent after them, a node whose base this
+     * instance does not know is asked to register fully, once per instance. A base not used for as long as the
+     * registry keeps offline nodes is dropped, as the registry removed its node by then.
+     */
+    @Secured(REGISTRY_WRITE)
+    @Post("/delta")
+    public RegistryDeltaResponse registerNodeDelta(@Body final NodeDelta delta) throws SQLException, SubGroupIdNotAvailableException {
+        final long now = System.currentTimeMillis();
+        evictUnusedBases(now);
+
+        final NodeDelta base = delta.isFull() ? delta : baseOf(delta.getId(), now);
+        if (base == null || !Objects.equals(base.getVersion(), delta.getVersion())) {
+            LOG.info("register node delta", "full registration required");
+            return RegistryDeltaResponse.fullRegistrationRequired();
+        }
+        if (delta.isFull()) {
+            registrationBases.put(delta.getId(), new RegistrationBase(delta, now));
+        }
+
+        final RegistryResponse response = registerNode(delta.applyTo(base));
+        final boolean unchanged = Objects.equals(NodeDelta.versionOf(response.getRequestedToFollow()), delta.getFollowVersion());
+        return new RegistryDeltaResponse(
+            unchanged ? null : response.getRequestedToFollow(),
+            response.getBootstrapType(),
+            unchanged,
+            false
+        );
+    }
+
     @Secured(REGISTRY_DELETE)
     @Delete("/{group}/{host}")
     public HttpResponse deleteNode(final String group, final String host) {
         final boolean deleted = registry.deleteNode(group, host);
+        registrationBases.values().removeIf(base ->
+            Objects.equals(base.delta.getGroup(), group) && Objects.equals(base.delta.getLocalUrl().getHost(), host)
+        );
         if (deleted) {
             return HttpResponse.status(HttpStatus.OK);
         } else {
@@ -88,6 +146,24 @@ public class NodeRegistryControllerV2 {
         }
     }
 
+    private NodeDelta baseOf(final String id, final long now) {
+        final RegistrationBase base = registrationBases.get(id);
+        if (base == null) {
+            return null;
+        }
+        base.lastUsed = now;
+        return base.delta;
+    }
+
+    // one request at a time goes through the bases, at most once per interval
+    private void evictUnusedBases(final long now) {
+        final long next = nextBaseEviction.get();
+        if (now < next || !nextBaseEviction.compareAndSet(next, now + Math.min(BASE_EVICTION_INTERVAL_MS, removeNodeOfflineMs))) {
+            return;
+        }
+        registrationBases.values().removeIf(base -> now - base.lastUsed > removeNodeOfflineMs);
+    }
+
     @Secured(BOOTSTRAP_NODE)
     @Post("/bootstrap")
     public HttpResponse bootstrap(@Body final BootstrapRequest bootstrapRequest) throws SQLException {
@@ -102,7 +178,7 @@ public class NodeRegistryControllerV2 {
         return HttpResponse.<JsonError>status(HttpStatus.UNPROCESSABLE_ENTITY).body(error);
     }
 
-    private HttpResponse<byte[]> compressResponseIfNeeded(StateSummary stateSummary) {
+    private HttpResponse<byte[]> compressResponseIfNeeded(Object stateSummary) {
         byte[] stateSummaryInBytes = JsonHelper.toJsonBytes(stateSummary);
         if (stateSummaryInBytes.length > compressionThreshold) {
             return HttpResponse.ok(gzip.encode(stateSummaryInBytes))
@@ -111,4 +187,14 @@ public class NodeRegistryControllerV2 {
             return HttpResponse.ok(stateSummaryInBytes);
         }
     }
+
+    private static class RegistrationBase {
+        private final NodeDelta delta;
+        private volatile long lastUsed;
+
+        private RegistrationBase(final NodeDelta delta, final long lastUsed) {
+            this.delta = delta;
+            this.lastUsed = lastUsed;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,39 @@
+package com.tesco.aqueduct.registry.postgres;
+
+import com.tesco.aqueduct.registry.model.NodeGroup;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+
+/**
+ * Versions of groups as given to callers of the summary since: the version the registry keeps for the group, followed
+ * by the time its next node is marked offline or removed, since that is done when the group is read and does not
+ * change the version kept.
+ */
+final class GroupVersions {
+
+    private GroupVersions() { }
+
+    static String of(final String storedVersion, final NodeGroup group, final Duration markNodeOfflineDelta, final Duration removeNodeOfflineDelta) {
+        final long nextOfflineChange = group.nextOfflineChange(markNodeOfflineDelta, removeNodeOfflineDelta)
+            .map(time -> time.toInstant().toEpochMilli())
+            .orElse(Long.MAX_VALUE);
+
+        return storedVersion + "@" + nextOfflineChange;
+    }
+
+    static boolean isUnchanged(final String knownVersion, final String storedVersion, final ZonedDateTime now) {
+        if (knownVersion == null) {
+            return false;
+        }
+        final int separator = knownVersion.lastIndexOf('@');
+        if (separator < 0 || !knownVersion.substring(0, separator).equals(storedVersion)) {
+            return false;
+        }
+        try {
+            return now.toInstant().toEpochMilli() < Long.parseLong(knownVersion.substring(separator + 1));
+        } catch (NumberFormatException exception) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package com.tesco.aqueduct.registry.postgres;
+
+import com.tesco.aqueduct.pipe.api.JsonHelper;
+import com.tesco.aqueduct.registry.model.*;
+import com.tesco.aqueduct.registry.utils.RegistryLogger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.net.URL;
+import java.sql.*;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Node registry keeping a row per node and a version row per group, instead of the whole group in one JSON entry.
+ *
+ * A heartbeat that leaves the node in the same place of the hierarchy only updates the node's own row, holding a
+ * shared lock on the group row, so nodes of a group heartbeat in parallel. The hierarchy of a group is recomputed under
+ * an exclusive lock on the group row when a node joins, leaves, changes url, status or sub group, or when a node of the
+ * group may have gone offline since the group was last processed.
+ *
+ * The version of a group given with the summary since is the version of its row with the sum of the heartbeats of its
+ * nodes, each node row counting its own heartbeats, so an unchanged group is told apart without reading its nodes.
+ *
+ * Expects the tables:
+ * registry_group (group_id VARCHAR PRIMARY KEY, version BIGINT NOT NULL, offline_check_after BIGINT NOT NULL)
+ * registry_node (group_id VARCHAR, host VARCHAR, position INTEGER NOT NULL, entry JSON NOT NULL, heartbeats BIGINT NOT NULL DEFAULT 0,
+ *     PRIMARY KEY (group_id, host))
+ */
+public class NormalisedPostgreSQLNodeRegistry implements NodeRegistry {
+    private static final RegistryLogger LOG = new RegistryLogger(LoggerFactory.getLogger(NormalisedPostgreSQLNodeRegistry.class));
+
+    private static final String QUERY_NODE_FOR_HEARTBEAT =
+        "SELECT n.entry, g.offline_check_after " +
+        "FROM registry_group g LEFT JOIN registry_node n ON n.group_id = g.group_id AND n.host = ? " +
+        "WHERE g.group_id = ? " +
+        "FOR SHARE OF g;";
+    private static final String QUERY_UPDATE_NODE =
+        "UPDATE registry_node SET entry = ?::JSON, heartbeats = heartbeats + 1 WHERE group_id = ? AND host = ?;";
+    private static final String QUERY_INSERT_GROUP =
+        "INSERT INTO registry_group (group_id, version, offline_check_after) VALUES (?, 0, 0) ON CONFLICT DO NOTHING;";
+    private static final String QUERY_LOCK_GROUP =
+        "SELECT version FROM registry_group WHERE group_id = ? FOR UPDATE;";
+    private static final String QUERY_UPDATE_GROUP =
+        "UPDATE registry_group SET version = version + 1, offline_check_after = ? WHERE group_id = ?;";
+    private static final String QUERY_DELETE_GROUP =
+        "DELETE FROM registry_group WHERE group_id = ?;";
+    private static final String QUERY_READ_GROUP_NODES =
+        "SELECT entry FROM registry_node WHERE group_id = ? ORDER BY position;";
+    private static final String QUERY_DELETE_GROUP_NODES =
+        "DELETE FROM registry_node WHERE group_id = ?;";
+    private static final String QUERY_INSERT_NODE =
+        "INSERT INTO registry_node (group_id, host, position, entry) VALUES (?, ?, ?, ?::JSON);";
+    private static final String QUERY_READ_ALL_NODES =
+        "SELECT group_id, entry FROM registry_node ORDER BY group_id, position;";
+    private static final String QUERY_READ_NODES_OF_GROUPS =
+        "SELECT group_id, entry FROM registry_node WHERE group_id = ANY (?) ORDER BY group_id, position;";
+    private static final String QUERY_READ_ALL_VERSIONS =
+        "SELECT g.group_id, g.version, COALESCE(SUM(n.heartbeats), 0) AS heartbeats " +
+        "FROM registry_group g LEFT JOIN registry_node n ON n.group_id = g.group_id " +
+        "GROUP BY g.group_id, g.version ORDER BY g.group_id;";
+    private static final String QUERY_READ_VERSIONS_OF_GROUPS =
+        "SELECT g.group_id, g.version, COALESCE(SUM(n.heartbeats), 0) AS heartbeats " +
+        "FROM registry_group g LEFT JOIN registry_node n ON n.group_id = g.group_id " +
+        "WHERE g.group_id = ANY (?) GROUP BY g.group_id, g.version ORDER BY g.group_id;";
+
+    private final URL cloudUrl;
+    private final Duration markNodeOfflineDelta;
+    private final Duration removeNodeOfflineDelta;
+    private final DataSource dataSource;
+    private final Topologies topologies;
+
+    public NormalisedPostgreSQLNodeRegistry(
+        final DataSource dataSource,
+        final URL cloudUrl,
+        final Duration markNodeOfflineDelta,
+        final Duration removeNodeOfflineDelta
+    ) {
+        this(dataSource, cloudUrl, markNodeOfflineDelta, removeNodeOfflineDelta, Topologies.binary());
+    }
+
+    public NormalisedPostgreSQLNodeRegistry(
+        final DataSource dataSource,
+        final URL cloudUrl,
+        final Duration markNodeOfflineDelta,
+        final Duration removeNodeOfflineDelta,
+        final Topologies topologies
+    ) {
+        this.cloudUrl = cloudUrl;
+        this.markNodeOfflineDelta = markNodeOfflineDelta;
+        this.removeNodeOfflineDelta = removeNodeOfflineDelta;
+        this.dataSource = dataSource;
+        this.topologies = topologies;
+
+        //initialise connection pool eagerly
+        try (Connection connection = this.dataSource.getConnection()) {
+            LOG.debug("postgresql storage", "initialised connection pool");
+        } catch (SQLException e) {
+            LOG.error("postgresql storage", "Error initializing connection pool", e);
+        }
+    }
+
+    @Override
+    public Node register(final Node nodeToRegister) {
+        long start = System.currentTimeMillis();
+
+        try (Connection connection = getConnection()) {
+            connection.setAutoCommit(false);
+
+            final Optional<Node> heartbeat = registerHeartbeat(connection, nodeToRegister);
+            if (heartbeat.isPresent()) {
+                connection.commit();
+                LOG.info("heartbeat", Long.toString(System.currentTimeMillis() - start));
+                return heartbeat.get();
+            }
+            // a shared lock on the group row cannot be upgraded without risking a deadlock with another upgrade
+            connection.rollback();
+
+            final NodeGroup group = readGroupForUpdate(connection, nodeToRegister.getGroup(), true);
+            group.setTopology(topologies.forGroup(nodeToRegister.getGroup()));
+            final Node node = group.upsert(nodeToRegister, cloudUrl);
+            group.processNodes(ZonedDateTime.now().minus(markNodeOfflineDelta), ZonedDateTime.now().minus(removeNodeOfflineDelta), cloudUrl);
+            persist(connection, nodeToRegister.getGroup(), group);
+
+            connection.commit();
+            LOG.info("register", Long.toString(System.currentTimeMillis() - start));
+            return node;
+        } catch (SQLException | IOException exception) {
+            LOG.error("Postgresql node registry", "register node", exception);
+            throw new RuntimeException(exception);
+        }
+    }
+
+    private Optional<Node> registerHeartbeat(final Connection connection, final Node nodeToRegister) throws SQLException, IOException {
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_NODE_FOR_HEARTBEAT)) {
+            statement.setString(1, nodeToRegister.getHost());
+            statement.setString(2, nodeToRegister.getGroup());
+
+            try (ResultSet rs = statement.executeQuery()) {
+                if (!rs.next() || rs.getString("entry") == null
+                    || rs.getLong("offline_check_after") <= System.currentTimeMillis()) {
+                    return Optional.empty();
+                }
+
+                final Node storedNode = readNode(rs.getString("entry"));
+                if (!isInSamePlaceOfHierarchy(storedNode, nodeToRegister)) {
+                    return Optional.empty();
+                }
+
+                final Node node = nodeToRegister.buildWith(storedNode.getRequestedToFollow());
+                updateNode(connection, node);
+                return Optional.of(node);
+            }
+        }
+    }
+
+    private boolean isInSamePlaceOfHierarchy(final Node storedNode, final Node nodeToRegister) {
+        return storedNode.getStatus() == nodeToRegister.getStatus()
+            && storedNode.getLocalUrl().toString().equals(nodeToRegister.getLocalUrl().toString())
+            && !storedNode.isSubGroupIdDifferent(nodeToRegister);
+    }
+
+    private void updateNode(final Connection connection, final Node node) throws SQLException, IOException {
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_UPDATE_NODE)) {
+            statement.setString(1, JsonHelper.toJson(node));
+            statement.setString(2, node.getGroup());
+            statement.setString(3, node.getHost());
+            statement.executeUpdate();
+        }
+    }
+
+    private NodeGroup readGroupForUpdate(final Connection connection, final String groupId, final boolean createIfAbsent)
+        throws SQLException, IOException {
+        if (createIfAbsent) {
+            try (PreparedStatement statement = connection.prepareStatement(QUERY_INSERT_GROUP)) {
+                statement.setString(1, groupId);
+                statement.executeUpdate();
+            }
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_LOCK_GROUP)) {
+            statement.setString(1, groupId);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (!rs.next()) {
+                    return new NodeGroup();
+                }
+            }
+        }
+
+        final List<Node> nodes = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_READ_GROUP_NODES)) {
+            statement.setString(1, groupId);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    nodes.add(readNode(rs.getString("entry")));
+                }
+            }
+        }
+        return new NodeGroup(nodes);
+    }
+
+    private void persist(final Connection connection, final String groupId, final NodeGroup group) throws SQLException, IOException {
+        long start = System.currentTimeMillis();
+
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_DELETE_GROUP_NODES)) {
+            statement.setString(1, groupId);
+            statement.executeUpdate();
+        }
+
+        if (group.isEmpty()) {
+            try (PreparedStatement statement = connection.prepareStatement(QUERY_DELETE_GROUP)) {
+                statement.setString(1, groupId);
+                statement.executeUpdate();
+            }
+            return;
+        }
+
+        final List<Node> nodes = group.getNodes();
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_INSERT_NODE)) {
+            for (int position = 0; position < nodes.size(); position++) {
+                statement.setString(1, groupId);
+                statement.setString(2, nodes.get(position).getHost());
+                statement.setInt(3, position);
+                statement.setString(4, JsonHelper.toJson(nodes.get(position)));
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_UPDATE_GROUP)) {
+            statement.setLong(1, offlineCheckAfter(nodes));
+            statement.setString(2, groupId);
+            statement.executeUpdate();
+        }
+
+        LOG.info("persist group:time", Long.toString(System.currentTimeMillis() - start));
+    }
+
+    // the earliest time a node of the group may need to be marked offline or removed, heartbeats only move it later
+    private long offlineCheckAfter(final List<Node> nodes) {
+        return nodes.stream()
+            .mapToLong(node -> node.getLastSeen()
+                .plus(node.isOffline() ? removeNodeOfflineDelta : markNodeOfflineDelta)
+                .toInstant()
+                .toEpochMilli())
+            .min()
+            .orElse(0);
+    }
+
+    @Override
+    public StateSummary getSummary(final long offset, final Status status, final List<String> groupIds) {
+        final Collection<NodeGroup> groups = readNodeGroups(groupIds);
+
+        final ZonedDateTime markTillOfflineThreshold = ZonedDateTime.now().minus(markNodeOfflineDelta);
+        final ZonedDateTime removeTillOfflineThreshold = ZonedDateTime.now().minus(removeNodeOfflineDelta);
+        groups.forEach(group -> group.handleOfflineNodes(markTillOfflineThreshold, removeTillOfflineThreshold));
+
+        final List<Node> followers = groups.stream()
+            .flatMap(nodeGroup -> nodeGroup.getNodes().stream())
+            .collect(Collectors.toList());
+
+        return new StateSummary(getCloudNode(offset, status), followers);
+    }
+
+    /**
+     * Only the versions are read for groups that did not change since, the nodes of the other groups are read with
+     * them, on the same connection.
+     */
+    @Override
+    public StateSummaryDelta getSummarySince(final long offset, final Status status, final List<String> groupIds, final Map<String, String> knownVersions) {
+        final ZonedDateTime now = ZonedDateTime.now();
+        final Map<String, String> storedVersions;
+        final Map<String, List<Node>> nodesByGroup;
+
+        try (Connection connection = getConnection()) {
+            storedVersions = readVersions(connection, groupIds);
+
+            final List<String> changedGroupIds = storedVersions.entrySet().stream()
+                .filter(stored -> !GroupVersions.isUnchanged(knownVersions.get(stored.getKey()), stored.getValue(), now))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+
+            nodesByGroup = changedGroupIds.isEmpty()
+                ? Collections.emptyMap()
+                : readNodes(connection, changedGroupIds);
+        } catch (SQLException | IOException exception) {
+            LOG.error("Postgresql node registry", "get summary since", exception);
+            throw new RuntimeException(exception);
+        }
+
+        final List<Node> followers = new ArrayList<>();
+        final Map<String, String> versions = new LinkedHashMap<>();
+        nodesByGroup.forEach((groupId, nodes) -> {
+            final NodeGroup group = new NodeGroup(nodes);
+            group.handleOfflineNodes(now.minus(markNodeOfflineDelta), now.minus(removeNodeOfflineDelta));
+            followers.addAll(group.getNodes());
+            versions.put(groupId, GroupVersions.of(storedVersions.get(groupId), group, markNodeOfflineDelta, removeNodeOfflineDelta));
+        });
+
+        final List<String> removedGroups = knownVersions.keySet().stream()
+            .filter(groupId -> !storedVersions.containsKey(groupId))
+            .filter(groupId -> groupIds == null || groupIds.isEmpty() || groupIds.contains(groupId))
+            .collect(Collectors.toList());
+
+        return new StateSummaryDelta(getCloudNode(offset, status), followers, versions, removedGroups);
+    }
+
+    private Map<String, String> readVersions(final Connection connection, final List<String> groupIds) throws SQLException {
+        final boolean allGroups = groupIds == null || groupIds.isEmpty();
+        final Map<String, String> versions = new LinkedHashMap<>();
+
+        try (PreparedStatement statement = connection.prepareStatement(allGroups ? QUERY_READ_ALL_VERSIONS : QUERY_READ_VERSIONS_OF_GROUPS)) {
+            if (!allGroups) {
+                statement.setArray(1, connection.createArrayOf("VARCHAR", groupIds.toArray()));
+            }
+
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    versions.put(rs.getString("group_id"), rs.getLong("version") + "." + rs.getLong("heartbeats"));
+                }
+            }
+        }
+        return versions;
+    }
+
+    @Override
+    public Set<String> getNodeHostsForGroups(final List<String> groupIds) {
+        return readNodeGroups(groupIds).stream()
+            .flatMap(nodeGroup -> nodeGroup.getNodes().stream())
+            .map(node -> node.getPipe().get("host"))
+            .collect(LinkedHashSet::new, HashSet::add, (s1, s2) -> {});
+    }
+
+    // groups in the order they were asked for, or ordered by id when all are read
+    private Collection<NodeGroup> readNodeGroups(final List<String> groupIds) {
+        final boolean allGroups = groupIds == null || groupIds.isEmpty();
+        final Map<String, List<Node>> nodesByGroup;
+
+        try (Connection connection = getConnection()) {
+            nodesByGroup = readNodes(connection, groupIds);
+        } catch (SQLException | IOException exception) {
+            LOG.error("Postgresql node registry", "get summary", exception);
+            throw new RuntimeException(exception);
+        }
+
+        if (allGroups) {
+            return nodesByGroup.values().stream().map(NodeGroup::new).collect(Collectors.toList());
+        }
+        return groupIds.stream()
+            .distinct()
+            .map(groupId -> new NodeGroup(nodesByGroup.getOrDefault(groupId, new ArrayList<>())))
+            .collect(Collectors.toList());
+    }
+
+    private Map<String, List<Node>> readNodes(final Connection connection, final List<String> groupIds) throws SQLException, IOException {
+        final boolean allGroups = groupIds == null || groupIds.isEmpty();
+        final Map<String, List<Node>> nodesByGroup = new LinkedHashMap<>();
+
+        try (PreparedStatement statement = connection.prepareStatement(allGroups ? QUERY_READ_ALL_NODES : QUERY_READ_NODES_OF_GROUPS)) {
+            if (!allGroups) {
+                statement.setArray(1, connection.createArrayOf("VARCHAR", groupIds.toArray()));
+            }
+
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    nodesByGroup.computeIfAbsent(rs.getString("group_id"), groupId -> new ArrayList<>())
+                        .add(readNode(rs.getString("entry")));
+                }
+            }
+        }
+        return nodesByGroup;
+    }
+
+    private Node getCloudNode(final long offset, final Status status) {
+        return Node.builder()
+            .localUrl(cloudUrl)
+            .offset(offset)
+            .status(status)
+            .following(Collections.emptyList())
+            .lastSeen(ZonedDateTime.now())
+            .build();
+    }
+
+    @Override
+    public boolean deleteNode(final String groupId, final String host) {
+        try (Connection connection = getConnection()) {
+            connection.setAutoCommit(false);
+            final NodeGroup group = readGroupForUpdate(connection, groupId, false);
+
+            final boolean foundNode = group.removeByHost(host);
+            if (foundNode) {
+                group.setTopology(topologies.forGroup(groupId));
+                group.updateGetFollowing(cloudUrl);
+                persist(connection, groupId, group);
+            }
+            connection.commit();
+            return foundNode;
+        } catch (SQLException | IOException exception) {
+            LOG.error("Postgresql node registry", "deleteNode", exception);
+            throw new RuntimeException(exception);
+        }
+    }
+
+    private static Node readNode(final String entry) throws IOException {
+        return JsonHelper.MAPPER.readValue(entry, Node.class);
+    }
+
+    private Connection getConnection() throws SQLException {
+        long start = System.currentTimeMillis();
+        try {
+            return dataSource.getConnection();
+        } finally {
+            long end = System.currentTimeMillis();
+            LOG.info("getConnection:time", Long.toString(end - start));
+        }
+    }
+}
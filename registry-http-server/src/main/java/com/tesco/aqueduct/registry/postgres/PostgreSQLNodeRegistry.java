@@ -23,6 +23,8 @@ public class PostgreSQLNodeRegistry implements NodeRegistry {
     private final Duration removeNodeOfflineDelta;
     private final DataSource dataSource;
     private final PostgresNodeGroupStorage nodeGroupStorage;
+    private final PostgresNodeHeartbeatStorage heartbeatStorage;
+    private final Topologies topologies;
 
     public PostgreSQLNodeRegistry(
         final DataSource dataSource,
@@ -30,7 +32,40 @@ public class PostgreSQLNodeRegistry implements NodeRegistry {
         final Duration markNodeOfflineDelta,
         final Duration removeNodeOfflineDelta
     ) {
-        this(dataSource, cloudUrl, markNodeOfflineDelta, removeNodeOfflineDelta, new PostgresNodeGroupStorage());
+        this(dataSource, cloudUrl, markNodeOfflineDelta, removeNodeOfflineDelta, false);
+    }
+
+    /**
+     * @param heartbeatFastPath registrations that do not change the place of a node in its group are kept in the
+     *                          registry_heartbeat table instead of rewriting the group
+     */
+    public PostgreSQLNodeRegistry(
+        final DataSource dataSource,
+        final URL cloudUrl,
+        final Duration markNodeOfflineDelta,
+        final Duration removeNodeOfflineDelta,
+        final boolean heartbeatFastPath
+    ) {
+        this(dataSource, cloudUrl, markNodeOfflineDelta, removeNodeOfflineDelta, heartbeatFastPath, Topologies.binary());
+    }
+
+    public PostgreSQLNodeRegistry(
+        final DataSource dataSource,
+        final URL cloudUrl,
+        final Duration markNodeOfflineDelta,
+        final Duration removeNodeOfflineDelta,
+        final boolean heartbeatFastPath,
+        final Topologies topologies
+    ) {
+        this(
+            dataSource,
+            cloudUrl,
+            markNodeOfflineDelta,
+            removeNodeOfflineDelta,
+            new PostgresNodeGroupStorage(),
+            heartbeatFastPath ? new PostgresNodeHeartbeatStorage() : null,
+            topologies
+        );
     }
 
     PostgreSQLNodeRegistry(
@@ -39,12 +74,26 @@ public class PostgreSQLNodeRegistry implements NodeRegistry {
         final Duration markNodeOfflineDelta,
         final Duration removeNodeOfflineDelta,
         PostgresNodeGroupStorage nodeGroupStorage
+    ) {
+        this(dataSource, cloudUrl, markNodeOfflineDelta, removeNodeOfflineDelta, nodeGroupStorage, null, Topologies.binary());
+    }
+
+    PostgreSQLNodeRegistry(
+        final DataSource dataSource,
+        final URL cloudUrl,
+        final Duration markNodeOfflineDelta,
+        final Duration removeNodeOfflineDelta,
+        PostgresNodeGroupStorage nodeGroupStorage,
+        PostgresNodeHeartbeatStorage heartbeatStorage,
+        Topologies topologies
     ) {
         this.cloudUrl = cloudUrl;
         this.markNodeOfflineDelta = markNodeOfflineDelta;
         this.removeNodeOfflineDelta = removeNodeOfflineDelta;
         this.dataSource = dataSource;
         this.nodeGroupStorage = nodeGroupStorage;
+        this.heartbeatStorage = heartbeatStorage;
+        this.topologies = topologies;
 
         //initialise connection pool eagerly
         try (Connection connection = this.dataSource.getConnection()) {
@@ -62,9 +111,23 @@ public class PostgreSQLNodeRegistry implements NodeRegistry {
             LOG.info("get connection", Long.toString(System.currentTimeMillis() - start));
             connection.setAutoCommit(false);
 
+            if (heartbeatStorage != null) {
+                final Optional<Node> heartbeat = registerHeartbeat(connection, nodeToRegister);
+                if (heartbeat.isPresent()) {
+                    connection.commit();
+                    LOG.info("heartbeat", Long.toString(System.currentTimeMillis() - start));
+                    return heartbeat.get();
+                }
+            }
+
             final PostgresNodeGroup group = nodeGroupStorage.getNodeGroup(connection, nodeToRegister.getGroup());
             LOG.info("get node group", Long.toString(System.currentTimeMillis() - start));
 
+            if (heartbeatStorage != null) {
+                heartbeatStorage.applyTo(connection, Collections.singletonList(group));
+            }
+
+            group.setTopology(topologies.forGroup(nodeToRegister.getGroup()));
             Node node = group.upsert(nodeToRegister, cloudUrl);
             LOG.info("upsert", Long.toString(System.currentTimeMillis() - start));
 
@@ -72,6 +135,9 @@ public class PostgreSQLNodeRegistry implements NodeRegistry {
             LOG.info("process node", Long.toString(System.currentTimeMillis() - start));
 
             group.persist(connection);
+            if (heartbeatStorage != null) {
+                heartbeatStorage.deleteRemovedNodes(connection, group);
+            }
             LOG.info("persist group", Long.toString(System.currentTimeMillis() - start));
 
             connection.commit();
@@ -84,6 +150,32 @@ public class PostgreSQLNodeRegistry implements NodeRegistry {
         }
     }
 
+    /**
+     * A node registering with the same url, status and sub group while no node of its group is due to be marked
+     * offline or removed leaves the group as it is, so only what the node reported is recorded. The group is read
+     * without a lock, a change to it racing the heartbeat is picked up on the next registration of the node.
+     */
+    private Optional<Node> registerHeartbeat(final Connection connection, final Node nodeToRegister) throws SQLException, IOException {
+        final PostgresNodeGroup group = nodeGroupStorage.readNodeGroup(connection, nodeToRegister.getGroup());
+        final Optional<Node> existingNode = group.getByHost(nodeToRegister.getHost());
+
+        if (!existingNode.isPresent()
+            || !isHeartbeat(existingNode.get(), nodeToRegister)
+            || group.hasNodesNotSeenSince(ZonedDateTime.now().minus(markNodeOfflineDelta), ZonedDateTime.now().minus(removeNodeOfflineDelta))) {
+            return Optional.empty();
+        }
+
+        final Node node = nodeToRegister.buildWith(existingNode.get().getRequestedToFollow());
+        heartbeatStorage.save(connection, node);
+        return Optional.of(node);
+    }
+
+    private boolean isHeartbeat(final Node existingNode, final Node nodeToRegister) {
+        return existingNode.getStatus() == nodeToRegister.getStatus()
+            && Objects.equals(existingNode.getSubGroupId(), nodeToRegister.getSubGroupId())
+            && Objects.equals(existingNode.getLocalUrl().toString(), nodeToRegister.getLocalUrl().toString());
+    }
+
     private Connection getConnection() throws SQLException {
         long start = System.currentTimeMillis();
         try {
@@ -108,6 +200,57 @@ public class PostgreSQLNodeRegistry implements NodeRegistry {
         return new StateSummary(getCloudNode(offset, status), followers);
     }
 
+    /**
+     * The version of a group is the version of its row, with the sum of its heartbeats when they are kept apart, and
+     * the time its next node goes offline. Only the versions are read for groups that did not change since, so
+     * polling an unchanged registry does not read any group.
+     */
+    @Override
+    public StateSummaryDelta getSummarySince(final long offset, final Status status, final List<String> groupIds, final Map<String, String> knownVersions) {
+        final ZonedDateTime now = ZonedDateTime.now();
+        final Map<String, String> storedVersions = new LinkedHashMap<>();
+        final List<PostgresNodeGroup> groups;
+
+        try (Connection connection = getConnection()) {
+            nodeGroupStorage.readVersions(connection, groupIds)
+                .forEach((groupId, version) -> storedVersions.put(groupId, Integer.toString(version)));
+            if (heartbeatStorage != null) {
+                heartbeatStorage.readVersions(connection, storedVersions.keySet())
+                    .forEach((groupId, version) -> storedVersions.computeIfPresent(groupId, (id, stored) -> stored + "." + version));
+            }
+
+            final List<String> changedGroupIds = storedVersions.entrySet().stream()
+                .filter(stored -> !GroupVersions.isUnchanged(knownVersions.get(stored.getKey()), stored.getValue(), now))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+
+            groups = changedGroupIds.isEmpty()
+                ? Collections.emptyList()
+                : nodeGroupStorage.readNodeGroups(connection, changedGroupIds);
+            if (heartbeatStorage != null) {
+                heartbeatStorage.applyTo(connection, groups);
+            }
+        } catch (SQLException | IOException exception) {
+            LOG.error("Postgresql node registry", "get summary since", exception);
+            throw new RuntimeException(exception);
+        }
+
+        final List<Node> followers = new ArrayList<>();
+        final Map<String, String> versions = new LinkedHashMap<>();
+        for (final PostgresNodeGroup group : groups) {
+            group.handleOfflineNodes(now.minus(markNodeOfflineDelta), now.minus(removeNodeOfflineDelta));
+            followers.addAll(group.getNodes());
+            versions.put(group.getGroupId(), GroupVersions.of(storedVersions.get(group.getGroupId()), group, markNodeOfflineDelta, removeNodeOfflineDelta));
+        }
+
+        final List<String> removedGroups = knownVersions.keySet().stream()
+            .filter(groupId -> !storedVersions.containsKey(groupId))
+            .filter(groupId -> groupIds == null || groupIds.isEmpty() || groupIds.contains(groupId))
+            .collect(Collectors.toList());
+
+        return new StateSummaryDelta(getCloudNode(offset, status), followers, versions, removedGroups);
+    }
+
     @Override
     public Set<String> getNodeHostsForGroups(List<String> groupIds) {
         return getPostgresNodeGroups(groupIds).stream()
@@ -120,6 +263,9 @@ public class PostgreSQLNodeRegistry implements NodeRegistry {
         List<PostgresNodeGroup> groups;
         try (Connection connection = getConnection()) {
             groups = nodeGroupStorage.readNodeGroups(connection, groupIds);
+            if (heartbeatStorage != null) {
+                heartbeatStorage.applyTo(connection, groups);
+            }
         } catch (SQLException | IOException exception) {
             LOG.error("Postgresql node registry", "get summary", exception);
             throw new RuntimeException(exception);
@@ -142,6 +288,9 @@ public class PostgreSQLNodeRegistry implements NodeRegistry {
         try (Connection connection = getConnection()) {
             connection.setAutoCommit(false);
             final PostgresNodeGroup nodeGroup = nodeGroupStorage.getNodeGroup(connection, groupId);
+            if (heartbeatStorage != null) {
+                heartbeatStorage.applyTo(connection, Collections.singletonList(nodeGroup));
+            }
 
             if(nodeGroup.isEmpty()) {
                 return false;
@@ -160,9 +309,13 @@ public class PostgreSQLNodeRegistry implements NodeRegistry {
             if (group.isEmpty()) {
                 group.delete(connection);
             } else {
+                group.setTopology(topologies.forGroup(group.getGroupId()));
                 group.updateGetFollowing(cloudUrl);
                 group.persist(connection);
             }
+            if (heartbeatStorage != null) {
+                heartbeatStorage.deleteRemovedNodes(connection, group);
+            }
             connection.commit();
             return true;
         }
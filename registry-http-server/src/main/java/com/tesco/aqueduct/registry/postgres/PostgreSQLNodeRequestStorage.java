@@ -8,12 +8,21 @@ import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
 import java.sql.*;
+import java.time.Duration;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class PostgreSQLNodeRequestStorage implements NodeRequestStorage {
 
     private final DataSource dataSource;
+    private final Duration pendingRequestsTtl;
+    private volatile Set<String> pendingHostIds;
+    private volatile long pendingHostIdsLoadedAt;
     private static final RegistryLogger LOG = new RegistryLogger(LoggerFactory.getLogger(PostgreSQLNodeRequestStorage.class));
     private static final String QUERY_INSERT_OR_UPDATE_NODE_REQUEST =
         "INSERT INTO node_requests (host_id, bootstrap_requested, bootstrap_type)" +
@@ -27,23 +36,46 @@ public class PostgreSQLNodeRequestStorage implements NodeRequestStorage {
             "bootstrap_requested = EXCLUDED.bootstrap_requested, " +
             "bootstrap_type = EXCLUDED.bootstrap_type, " +
             "bootstrap_received = null;";
+    private static final String QUERY_INSERT_OR_UPDATE_NODE_REQUESTS =
+        "INSERT INTO node_requests (host_id, bootstrap_requested, bootstrap_type) " +
+            "SELECT * FROM UNNEST(?::VARCHAR[], ?::TIMESTAMP[], ?::VARCHAR[]) " +
+        "ON CONFLICT (host_id) DO UPDATE SET " +
+            "host_id = EXCLUDED.host_id, " +
+            "bootstrap_requested = EXCLUDED.bootstrap_requested, " +
+            "bootstrap_type = EXCLUDED.bootstrap_type, " +
+            "bootstrap_received = null;";
     private static final String QUERY_READ_NODE_REQUEST =
         "SELECT bootstrap_type " +
         "FROM node_requests " +
         "WHERE host_id = ? AND bootstrap_received IS null;";
+    private static final String QUERY_READ_PENDING_HOST_IDS =
+        "SELECT host_id " +
+        "FROM node_requests " +
+        "WHERE bootstrap_received IS null;";
     private static final String QUERY_UPDATE_NODE_REQUEST_RECEIVED =
         "UPDATE node_requests " +
         "SET bootstrap_received = ? " +
         "WHERE host_id = ?;";
 
     public PostgreSQLNodeRequestStorage(final DataSource dataSource) {
+        this(dataSource, Duration.ZERO);
+    }
+
+    /**
+     * @param pendingRequestsTtl how long the hosts with a pending request are kept in memory before being read again,
+     *                           hosts not amongst them do not require a bootstrap without reading the database. A
+     *                           request saved by another instance is seen at most this late. Zero reads every time.
+     */
+    public PostgreSQLNodeRequestStorage(final DataSource dataSource, final Duration pendingRequestsTtl) {
         this.dataSource = dataSource;
+        this.pendingRequestsTtl = pendingRequestsTtl;
     }
 
     @Override
     public void save(NodeRequest nodeRequest) throws SQLException {
          try (Connection connection = getConnection()) {
              insertOrUpdate(connection, nodeRequest);
+             addPendingHostId(nodeRequest.getHostId());
          } catch (SQLException exception) {
              LOG.error("save", "insert a node request", exception);
              throw exception;
@@ -51,19 +83,91 @@ public class PostgreSQLNodeRequestStorage implements NodeRequestStorage {
     }
 
     @Override
-    public BootstrapType requiresBootstrap(String hostId) throws SQLException {
+    public void saveAll(List<NodeRequest> nodeRequests) throws SQLException {
+        if (nodeRequests.isEmpty()) {
+            return;
+        }
+
         try (Connection connection = getConnection()) {
-            BootstrapType bootstrapType = readBootstrapType(hostId, connection);
-            if (bootstrapType != BootstrapType.NONE) {
-                updateReceivedBootstrap(connection, hostId);
+            insertOrUpdateAll(connection, nodeRequests);
+            nodeRequests.forEach(nodeRequest -> addPendingHostId(nodeRequest.getHostId()));
+        } catch (SQLException exception) {
+            LOG.error("saveAll", "insert node requests", exception);
+            throw exception;
+        }
+    }
+
+    @Override
+    public BootstrapType requiresBootstrap(String hostId) throws SQLException {
+        try {
+            if (isPendingRequestsCacheEnabled() && !getPendingHostIds().contains(hostId)) {
+                return BootstrapType.NONE;
+            }
+
+            try (Connection connection = getConnection()) {
+                BootstrapType bootstrapType = readBootstrapType(hostId, connection);
+                if (bootstrapType != BootstrapType.NONE) {
+                    updateReceivedBootstrap(connection, hostId);
+                }
+                removePendingHostId(hostId);
+                return bootstrapType;
             }
-            return bootstrapType;
         } catch (SQLException exception) {
             LOG.error("read", "read a node request", exception);
             throw exception;
         }
     }
 
+    private boolean isPendingRequestsCacheEnabled() {
+        return !pendingRequestsTtl.isZero();
+    }
+
+    private Set<String> getPendingHostIds() throws SQLException {
+        if (pendingHostIds == null || isPendingHostIdsExpired()) {
+            synchronized (this) {
+                if (pendingHostIds == null || isPendingHostIdsExpired()) {
+                    pendingHostIds = readPendingHostIds();
+                    pendingHostIdsLoadedAt = System.currentTimeMillis();
+                }
+            }
+        }
+        return pendingHostIds;
+    }
+
+    private boolean isPendingHostIdsExpired() {
+        return System.currentTimeMillis() - pendingHostIdsLoadedAt >= pendingRequestsTtl.toMillis();
+    }
+
+    private Set<String> readPendingHostIds() throws SQLException {
+        long start = System.currentTimeMillis();
+        final Set<String> hostIds = ConcurrentHashMap.newKeySet();
+        try (Connection connection = getConnection();
+             PreparedStatement statement = connection.prepareStatement(QUERY_READ_PENDING_HOST_IDS);
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                hostIds.add(rs.getString("host_id"));
+            }
+            return hostIds;
+        } finally {
+            long end = System.currentTimeMillis();
+            LOG.info("readPending:time", Long.toString(end - start));
+        }
+    }
+
+    private void addPendingHostId(String hostId) {
+        final Set<String> hostIds = pendingHostIds;
+        if (hostIds != null) {
+            hostIds.add(hostId);
+        }
+    }
+
+    private void removePendingHostId(String hostId) {
+        final Set<String> hostIds = pendingHostIds;
+        if (hostIds != null) {
+            hostIds.remove(hostId);
+        }
+    }
+
     private BootstrapType readBootstrapType(String hostId, Connection connection) throws SQLException {
         long start = System.currentTimeMillis();
         try (PreparedStatement statement = connection.prepareStatement(QUERY_READ_NODE_REQUEST)) {
@@ -123,4 +227,35 @@ public class PostgreSQLNodeRequestStorage implements NodeRequestStorage {
             LOG.info("insert:time", Long.toString(end - start));
         }
     }
+
+    // a row can only be upserted once per statement, so the last request for a host wins
+    private void insertOrUpdateAll(
+        final Connection connection,
+        final List<NodeRequest> nodeRequests
+    ) throws SQLException {
+        long start = System.currentTimeMillis();
+        final Map<String, NodeRequest> requestsByHost = new LinkedHashMap<>();
+        nodeRequests.forEach(nodeRequest -> requestsByHost.put(nodeRequest.getHostId(), nodeRequest));
+
+        final String[] hostIds = new String[requestsByHost.size()];
+        final Timestamp[] timestamps = new Timestamp[requestsByHost.size()];
+        final String[] types = new String[requestsByHost.size()];
+        int i = 0;
+        for (final NodeRequest nodeRequest : requestsByHost.values()) {
+            hostIds[i] = nodeRequest.getHostId();
+            timestamps[i] = Timestamp.valueOf(nodeRequest.getBootstrap().getRequestedDate().atOffset(ZoneOffset.UTC).toLocalDateTime());
+            types[i] = nodeRequest.getBootstrap().getType().toString();
+            i++;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_INSERT_OR_UPDATE_NODE_REQUESTS)) {
+            statement.setArray(1, connection.createArrayOf("VARCHAR", hostIds));
+            statement.setArray(2, connection.createArrayOf("TIMESTAMP", timestamps));
+            statement.setArray(3, connection.createArrayOf("VARCHAR", types));
+            statement.execute();
+        } finally {
+            long end = System.currentTimeMillis();
+            LOG.info("insertAll:time", Long.toString(end - start));
+        }
+    }
 }
@@ -68,6 +68,10 @@ public class PostgresNodeGroup extends NodeGroup {
         this.version = version;
     }
 
+    public String getGroupId() {
+        return groupId;
+    }
+
     public void persist(final Connection connection) throws IOException, SQLException {
         if (version == UNPERSISTED_GROUP_VERSION) {
             insert(connection);
@@ -6,12 +6,16 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class PostgresNodeGroupStorage {
     private static final String QUERY_GET_GROUP_BY_ID_FOR_UPDATE = "SELECT group_id, entry, version FROM registry where group_id = ? FOR UPDATE;";
     private static final String QUERY_READ_GROUP_BY_ID = "SELECT group_id, entry, version FROM registry where group_id = ?;";
     private static final String QUERY_READ_ALL_GROUPS = "SELECT group_id, entry, version FROM registry ORDER BY group_id";
+    private static final String QUERY_READ_VERSIONS_OF_GROUPS = "SELECT group_id, version FROM registry WHERE group_id = ANY(?) ORDER BY group_id;";
+    private static final String QUERY_READ_VERSIONS_OF_ALL_GROUPS = "SELECT group_id, version FROM registry ORDER BY group_id;";
 
     PostgresNodeGroupStorage() { }
 
@@ -67,4 +71,24 @@ public class PostgresNodeGroupStorage {
         }
         return groups;
     }
+
+    Map<String, Integer> readVersions(final Connection connection, final List<String> groupIds) throws SQLException {
+        final boolean allGroups = groupIds == null || groupIds.isEmpty();
+
+        try (PreparedStatement statement = connection.prepareStatement(
+            allGroups ? QUERY_READ_VERSIONS_OF_ALL_GROUPS : QUERY_READ_VERSIONS_OF_GROUPS
+        )) {
+            if (!allGroups) {
+                statement.setArray(1, connection.createArrayOf("VARCHAR", groupIds.toArray(new String[0])));
+            }
+
+            final Map<String, Integer> versions = new LinkedHashMap<>();
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    versions.put(rs.getString("group_id"), rs.getInt("version"));
+                }
+            }
+            return versions;
+        }
+    }
 }
@@ -0,0 +1,95 @@
+package com.tesco.aqueduct.registry.postgres;
+
+import com.tesco.aqueduct.pipe.api.JsonHelper;
+import com.tesco.aqueduct.registry.model.Node;
+
+import java.io.IOException;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the latest registration of nodes whose place in their group did not change, one row per node, so that a
+ * heartbeat does not rewrite the whole group. Rows are applied over the groups when they are read, see
+ * {@link com.tesco.aqueduct.registry.model.NodeGroup#applyHeartbeat(Node)}. Each row counts its own updates, their
+ * sum tells whether the heartbeats of a group changed since it was last read.
+ */
+public class PostgresNodeHeartbeatStorage {
+    private static final String QUERY_UPSERT_HEARTBEAT =
+        "INSERT INTO registry_heartbeat (group_id, host, entry) VALUES (?, ?, ?::JSON) " +
+        "ON CONFLICT (group_id, host) DO UPDATE SET entry = EXCLUDED.entry, version = registry_heartbeat.version + 1;";
+    private static final String QUERY_READ_HEARTBEATS_OF_GROUPS = "SELECT group_id, entry FROM registry_heartbeat WHERE group_id = ANY(?);";
+    private static final String QUERY_READ_VERSIONS_OF_GROUPS =
+        "SELECT group_id, SUM(version) AS version FROM registry_heartbeat WHERE group_id = ANY(?) GROUP BY group_id;";
+    private static final String QUERY_DELETE_HEARTBEATS_OF_REMOVED_NODES =
+        "DELETE FROM registry_heartbeat WHERE group_id = ? AND NOT (host = ANY(?));";
+
+    PostgresNodeHeartbeatStorage() { }
+
+    void save(final Connection connection, final Node node) throws SQLException, IOException {
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_UPSERT_HEARTBEAT)) {
+            statement.setString(1, node.getGroup());
+            statement.setString(2, node.getHost());
+            statement.setString(3, JsonHelper.toJson(node));
+            statement.executeUpdate();
+        }
+    }
+
+    void applyTo(final Connection connection, final List<PostgresNodeGroup> groups) throws SQLException, IOException {
+        if (groups.isEmpty()) {
+            return;
+        }
+
+        final Map<String, PostgresNodeGroup> groupsById = groups.stream()
+            .collect(Collectors.toMap(PostgresNodeGroup::getGroupId, Function.identity(), (first, second) -> first));
+
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_READ_HEARTBEATS_OF_GROUPS)) {
+            statement.setArray(1, connection.createArrayOf("VARCHAR", groupsById.keySet().toArray(new String[0])));
+
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    groupsById.get(rs.getString("group_id"))
+                        .applyHeartbeat(JsonHelper.MAPPER.readValue(rs.getString("entry"), Node.class));
+                }
+            }
+        }
+    }
+
+    Map<String, Long> readVersions(final Connection connection, final Collection<String> groupIds) throws SQLException {
+        final Map<String, Long> versions = new HashMap<>();
+        if (groupIds.isEmpty()) {
+            return versions;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_READ_VERSIONS_OF_GROUPS)) {
+            statement.setArray(1, connection.createArrayOf("VARCHAR", groupIds.toArray(new String[0])));
+
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    versions.put(rs.getString("group_id"), rs.getLong("version"));
+                }
+            }
+        }
+        return versions;
+    }
+
+    void deleteRemovedNodes(final Connection connection, final PostgresNodeGroup group) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_DELETE_HEARTBEATS_OF_REMOVED_NODES)) {
+            final Array hosts = connection.createArrayOf(
+                "VARCHAR",
+                group.getNodes().stream().map(Node::getHost).toArray(String[]::new)
+            );
+            statement.setString(1, group.getGroupId());
+            statement.setArray(2, hosts);
+            statement.executeUpdate();
+        }
+    }
+}
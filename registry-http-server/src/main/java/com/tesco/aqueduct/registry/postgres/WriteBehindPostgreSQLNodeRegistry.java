@@ -0,0 +1,542 @@
+package com.tesco.aqueduct.registry.postgres;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.tesco.aqueduct.pipe.api.JsonHelper;
+import com.tesco.aqueduct.registry.model.*;
+import com.tesco.aqueduct.registry.utils.RegistryLogger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps every group in memory so that registrations and summaries do not wait for Postgres. Groups are guarded by
+ * striped locks on their id and changed groups are written to the registry table in batches, in the background.
+ *
+ * Other instances sharing the table are coordinated through the group version: a write based on an outdated version
+ * is rejected, the group is then read again and the registrations and deletions made since the last write are
+ * replayed over it. Groups changed by other instances are read again periodically.
+ *
+ * Groups that cannot be loaded on start up are read by the first refresh instead. Changes waiting to be written are
+ * flushed on {@link #close()}.
+ *
+ * The version of a group given with the summary since is its version in memory: the version of its row with the
+ * number of changes made to it since it was loaded, as the row version only moves once the changes are written.
+ */
+public class WriteBehindPostgreSQLNodeRegistry implements NodeRegistry {
+    private static final RegistryLogger LOG = new RegistryLogger(LoggerFactory.getLogger(WriteBehindPostgreSQLNodeRegistry.class));
+
+    private static final int LOCK_STRIPES = 64;
+    private static final int NOT_STORED = -1;
+
+    private static final String QUERY_READ_ALL_GROUPS = "SELECT group_id, entry, version FROM registry;";
+    private static final String QUERY_READ_GROUPS = "SELECT group_id, entry, version FROM registry WHERE group_id = ANY(?);";
+    private static final String QUERY_READ_VERSIONS = "SELECT group_id, version FROM registry;";
+    private static final String QUERY_INSERT_GROUP =
+        "INSERT INTO registry (group_id, entry, version) VALUES (?, ?::JSON, 0) ON CONFLICT DO NOTHING;";
+    private static final String QUERY_UPDATE_GROUP =
+        "UPDATE registry SET entry = ?::JSON, version = version + 1 WHERE group_id = ? AND version = ?;";
+    private static final String QUERY_DELETE_GROUP = "DELETE FROM registry WHERE group_id = ? AND version = ?;";
+
+    private final URL cloudUrl;
+    private final Duration markNodeOfflineDelta;
+    private final Duration removeNodeOfflineDelta;
+    private final DataSource dataSource;
+    private final Topologies topologies;
+    private final Map<String, GroupState> groups = new ConcurrentHashMap<>();
+    private final Set<String> changedGroups = ConcurrentHashMap.newKeySet();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final ScheduledExecutorService executor;
+
+    public WriteBehindPostgreSQLNodeRegistry(
+        final DataSource dataSource,
+        final URL cloudUrl,
+        final Duration markNodeOfflineDelta,
+        final Duration removeNodeOfflineDelta,
+        final Duration flushInterval,
+        final Duration refreshInterval
+    ) {
+        this(dataSource, cloudUrl, markNodeOfflineDelta, removeNodeOfflineDelta, flushInterval, refreshInterval, Topologies.binary());
+    }
+
+    public WriteBehindPostgreSQLNodeRegistry(
+        final DataSource dataSource,
+        final URL cloudUrl,
+        final Duration markNodeOfflineDelta,
+        final Duration removeNodeOfflineDelta,
+        final Duration flushInterval,
+        final Duration refreshInterval,
+        final Topologies topologies
+    ) {
+        this.cloudUrl = cloudUrl;
+        this.markNodeOfflineDelta = markNodeOfflineDelta;
+        this.removeNodeOfflineDelta = removeNodeOfflineDelta;
+        this.dataSource = dataSource;
+        this.topologies = topologies;
+        Arrays.setAll(locks, i -> new Object());
+
+        try (Connection connection = dataSource.getConnection()) {
+            readGroups(connection, QUERY_READ_ALL_GROUPS, null)
+                .forEach((groupId, state) -> groups.put(groupId, state));
+            LOG.info("write behind registry", "loaded " + groups.size() + " groups");
+        } catch (SQLException | IOException exception) {
+            LOG.error("write behind registry", "load groups", exception);
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "registry-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::flush, flushInterval.toMillis(), flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(this::refresh, refreshInterval.toMillis(), refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Node register(final Node nodeToRegister) {
+        final String groupId = nodeToRegister.getGroup();
+
+        synchronized (lockFor(groupId)) {
+            final GroupState state = groups.computeIfAbsent(groupId, id -> new GroupState(new NodeGroup(), NOT_STORED));
+
+            state.group.setTopology(topologies.forGroup(groupId));
+            final Node node = state.group.upsert(nodeToRegister, cloudUrl);
+            state.group.processNodes(ZonedDateTime.now().minus(markNodeOfflineDelta), ZonedDateTime.now().minus(removeNodeOfflineDelta), cloudUrl);
+
+            state.recordChange(nodeToRegister.getHost(), nodeToRegister);
+            changedGroups.add(groupId);
+            return node;
+        }
+    }
+
+    @Override
+    public StateSummary getSummary(final long offset, final Status status, final List<String> groupIds) {
+        final ZonedDateTime markTillOfflineThreshold = ZonedDateTime.now().minus(markNodeOfflineDelta);
+        final ZonedDateTime removeTillOfflineThreshold = ZonedDateTime.now().minus(removeNodeOfflineDelta);
+
+        final List<Node> followers = new ArrayList<>();
+        for (final NodeGroup group : copyGroups(groupIds)) {
+            group.handleOfflineNodes(markTillOfflineThreshold, removeTillOfflineThreshold);
+            followers.addAll(group.getNodes());
+        }
+
+        return new StateSummary(getCloudNode(offset, status), followers);
+    }
+
+    @Override
+    public Set<String> getNodeHostsForGroups(final List<String> groupIds) {
+        return copyGroups(groupIds).stream()
+            .flatMap(group -> group.getNodes().stream())
+            .map(node -> node.getPipe().get("host"))
+            .collect(LinkedHashSet::new, HashSet::add, (s1, s2) -> {});
+    }
+
+    /**
+     * Groups are only copied when their version changed since the one known by the caller.
+     */
+    @Override
+    public StateSummaryDelta getSummarySince(final long offset, final Status status, final List<String> groupIds, final Map<String, String> knownVersions) {
+        final ZonedDateTime now = ZonedDateTime.now();
+        final List<Node> followers = new ArrayList<>();
+        final Map<String, String> versions = new LinkedHashMap<>();
+        final Set<String> currentGroupIds = new HashSet<>();
+
+        for (final String groupId : groupIdsOrAll(groupIds)) {
+            final String version;
+            final NodeGroup group;
+
+            synchronized (lockFor(groupId)) {
+                // a group whose last node was deleted is removed, even before the deletion is written
+                final GroupState state = groups.get(groupId);
+                if (state == null || state.group.isEmpty()) {
+                    continue;
+                }
+                currentGroupIds.add(groupId);
+
+                version = state.version + "." + state.revision;
+                if (GroupVersions.isUnchanged(knownVersions.get(groupId), version, now)) {
+                    continue;
+                }
+                group = new NodeGroup(state.group.getNodes());
+            }
+
+            group.handleOfflineNodes(now.minus(markNodeOfflineDelta), now.minus(removeNodeOfflineDelta));
+            followers.addAll(group.getNodes());
+            versions.put(groupId, GroupVersions.of(version, group, markNodeOfflineDelta, removeNodeOfflineDelta));
+        }
+
+        final List<String> removedGroups = knownVersions.keySet().stream()
+            .filter(groupId -> !currentGroupIds.contains(groupId))
+            .filter(groupId -> groupIds == null || groupIds.isEmpty() || groupIds.contains(groupId))
+            .collect(Collectors.toList());
+
+        return new StateSummaryDelta(getCloudNode(offset, status), followers, versions, removedGroups);
+    }
+
+    private List<String> groupIdsOrAll(final List<String> groupIds) {
+        return groupIds == null || groupIds.isEmpty()
+            ? groups.keySet().stream().sorted().collect(Collectors.toList())
+            : groupIds;
+    }
+
+    private List<NodeGroup> copyGroups(final List<String> groupIds) {
+        final List<String> ids = groupIdsOrAll(groupIds);
+
+        final List<NodeGroup> copies = new ArrayList<>(ids.size());
+        for (final String groupId : ids) {
+            synchronized (lockFor(groupId)) {
+                final GroupState state = groups.get(groupId);
+                if (state != null) {
+                    copies.add(new NodeGroup(state.group.getNodes()));
+                }
+            }
+        }
+        return copies;
+    }
+
+    private Node getCloudNode(final long offset, final Status status) {
+        return Node.builder()
+            .localUrl(cloudUrl)
+            .offset(offset)
+            .status(status)
+            .following(Collections.emptyList())
+            .lastSeen(ZonedDateTime.now())
+            .build();
+    }
+
+    @Override
+    public boolean deleteNode(final String groupId, final String host) {
+        synchronized (lockFor(groupId)) {
+            final GroupState state = groups.get(groupId);
+
+            if (state == null || !state.group.removeByHost(host)) {
+                return false;
+            }
+
+            state.group.setTopology(topologies.forGroup(groupId));
+            state.group.updateGetFollowing(cloudUrl);
+            state.recordChange(host, null);
+            changedGroups.add(groupId);
+            return true;
+        }
+    }
+
+    /**
+     * Writes the groups changed since the previous flush in one transaction.
+     */
+    synchronized void flush() {
+        final List<Write> writes = takeChanges();
+        if (writes.isEmpty()) {
+            return;
+        }
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                final boolean[] written = write(connection, writes);
+                connection.commit();
+                completeWrites(connection, writes, written);
+            } catch (SQLException | IOException exception) {
+                connection.rollback();
+                throw exception;
+            }
+        } catch (SQLException | IOException | RuntimeException exception) {
+            LOG.error("write behind registry", "flush " + writes.size() + " groups", exception);
+            writes.forEach(this::restoreChanges);
+        }
+    }
+
+    private List<Write> takeChanges() {
+        final List<Write> writes = new ArrayList<>();
+
+        for (final String groupId : new ArrayList<>(changedGroups)) {
+            changedGroups.remove(groupId);
+
+            synchronized (lockFor(groupId)) {
+                final GroupState state = groups.get(groupId);
+                if (state != null) {
+                    writes.add(new Write(groupId, state, state.group.getNodes(), state.version, state.takeChanges()));
+                }
+            }
+        }
+        return writes;
+    }
+
+    private boolean[] write(final Connection connection, final List<Write> writes) throws SQLException, IOException {
+        final boolean[] written = new boolean[writes.size()];
+
+        try (PreparedStatement insert = connection.prepareStatement(QUERY_INSERT_GROUP);
+             PreparedStatement update = connection.prepareStatement(QUERY_UPDATE_GROUP);
+             PreparedStatement delete = connection.prepareStatement(QUERY_DELETE_GROUP)) {
+
+            final List<Integer> inserts = new ArrayList<>();
+            final List<Integer> updates = new ArrayList<>();
+            final List<Integer> deletes = new ArrayList<>();
+
+            for (int i = 0; i < writes.size(); i++) {
+                final Write write = writes.get(i);
+
+                if (write.nodes.isEmpty() && write.version == NOT_STORED) {
+                    written[i] = true;
+                } else if (write.nodes.isEmpty()) {
+                    delete.setString(1, write.groupId);
+                    delete.setInt(2, write.version);
+                    delete.addBatch();
+                    deletes.add(i);
+                } else if (write.version == NOT_STORED) {
+                    insert.setString(1, write.groupId);
+                    insert.setString(2, JsonHelper.toJson(write.nodes));
+                    insert.addBatch();
+                    inserts.add(i);
+                } else {
+                    update.setString(1, JsonHelper.toJson(write.nodes));
+                    update.setString(2, write.groupId);
+                    update.setInt(3, write.version);
+                    update.addBatch();
+                    updates.add(i);
+                }
+            }
+
+            markWritten(written, inserts, inserts.isEmpty() ? new int[0] : insert.executeBatch());
+            markWritten(written, updates, updates.isEmpty() ? new int[0] : update.executeBatch());
+            markWritten(written, deletes, deletes.isEmpty() ? new int[0] : delete.executeBatch());
+        }
+        return written;
+    }
+
+    private void markWritten(final boolean[] written, final List<Integer> indexes, final int[] updateCounts) {
+        for (int i = 0; i < updateCounts.length; i++) {
+            written[indexes.get(i)] = updateCounts[i] > 0;
+        }
+    }
+
+    // a write rejected because of the version means another instance changed the group in between
+    private void completeWrites(final Connection connection, final List<Write> writes, final boolean[] written) throws SQLException, IOException {
+        final List<Write> rejected = new ArrayList<>();
+
+        for (int i = 0; i < writes.size(); i++) {
+            final Write write = writes.get(i);
+
+            if (!written[i]) {
+                rejected.add(write);
+                continue;
+            }
+
+            synchronized (lockFor(write.groupId)) {
+                if (groups.get(write.groupId) != write.state) {
+                    continue;
+                }
+                if (write.nodes.isEmpty()) {
+                    write.state.version = NOT_STORED;
+                    if (write.state.group.isEmpty() && !write.state.hasChanges()) {
+                        groups.remove(write.groupId);
+                    }
+                } else {
+                    write.state.version = write.version == NOT_STORED ? 0 : write.version + 1;
+                }
+            }
+        }
+
+        if (!rejected.isEmpty()) {
+            LOG.info("write behind registry", rejected.size() + " groups changed by another instance");
+            replay(readGroups(connection, QUERY_READ_GROUPS, idsOf(rejected)), rejected);
+        }
+    }
+
+    private void replay(final Map<String, GroupState> storedGroups, final List<Write> rejected) {
+        final ZonedDateTime markTillOfflineThreshold = ZonedDateTime.now().minus(markNodeOfflineDelta);
+        final ZonedDateTime removeTillOfflineThreshold = ZonedDateTime.now().minus(removeNodeOfflineDelta);
+
+        for (final Write write : rejected) {
+            synchronized (lockFor(write.groupId)) {
+                final GroupState stored = storedGroups.getOrDefault(write.groupId, new GroupState(new NodeGroup(), NOT_STORED));
+                final GroupState current = groups.get(write.groupId);
+
+                stored.changes.putAll(write.changes);
+                if (current != null) {
+                    current.changes.forEach(stored::recordChange);
+                }
+
+                stored.group.setTopology(topologies.forGroup(write.groupId));
+                stored.changes.forEach((host, node) -> {
+                    if (node == null) {
+                        stored.group.removeByHost(host);
+                    } else {
+                        stored.group.upsert(node, cloudUrl);
+                    }
+                });
+                stored.group.processNodes(markTillOfflineThreshold, removeTillOfflineThreshold, cloudUrl);
+
+                groups.put(write.groupId, stored);
+                changedGroups.add(write.groupId);
+            }
+        }
+    }
+
+    private void restoreChanges(final Write write) {
+        synchronized (lockFor(write.groupId)) {
+            final GroupState state = groups.get(write.groupId);
+            if (state != null) {
+                final Map<String, Node> laterChanges = state.takeChanges();
+                state.changes.putAll(write.changes);
+                laterChanges.forEach(state::recordChange);
+                changedGroups.add(write.groupId);
+            }
+        }
+    }
+
+    /**
+     * Stops the background flushes and refreshes, then writes the changes still waiting.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOG.error("write behind registry", "close", "background flush or refresh still running");
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Reads again the groups changed or removed by other instances, unless they have changes waiting to be written.
+     */
+    synchronized void refresh() {
+        try (Connection connection = dataSource.getConnection()) {
+            final Map<String, Integer> storedVersions = readVersions(connection);
+
+            final List<String> outdated = storedVersions.entrySet().stream()
+                .filter(entry -> {
+                    final GroupState state = groups.get(entry.getKey());
+                    return state == null || state.version < entry.getValue();
+                })
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+
+            final Map<String, GroupState> storedGroups = outdated.isEmpty()
+                ? Collections.emptyMap()
+                : readGroups(connection, QUERY_READ_GROUPS, outdated);
+
+            storedGroups.forEach((groupId, stored) -> {
+                synchronized (lockFor(groupId)) {
+                    final GroupState state = groups.get(groupId);
+                    if (state == null || (!state.hasChanges() && state.version < stored.version)) {
+                        groups.put(groupId, stored);
+                    }
+                }
+            });
+
+            for (final String groupId : new ArrayList<>(groups.keySet())) {
+                if (!storedVersions.containsKey(groupId)) {
+                    synchronized (lockFor(groupId)) {
+                        final GroupState state = groups.get(groupId);
+                        if (state != null && state.version != NOT_STORED && !state.hasChanges()) {
+                            groups.remove(groupId);
+                        }
+                    }
+                }
+            }
+        } catch (SQLException | IOException | RuntimeException exception) {
+            LOG.error("write behind registry", "refresh groups", exception);
+        }
+    }
+
+    private Map<String, Integer> readVersions(final Connection connection) throws SQLException {
+        final Map<String, Integer> versions = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(QUERY_READ_VERSIONS);
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                versions.put(rs.getString("group_id"), rs.getInt("version"));
+            }
+        }
+        return versions;
+    }
+
+    private Map<String, GroupState> readGroups(final Connection connection, final String query, final List<String> groupIds) throws SQLException, IOException {
+        final JavaType type = JsonHelper.MAPPER.getTypeFactory().constructCollectionType(List.class, Node.class);
+        final Map<String, GroupState> storedGroups = new HashMap<>();
+
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            if (groupIds != null) {
+                statement.setArray(1, connection.createArrayOf("VARCHAR", groupIds.toArray(new String[0])));
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    final List<Node> nodes = JsonHelper.MAPPER.readValue(rs.getString("entry"), type);
+                    storedGroups.put(rs.getString("group_id"), new GroupState(new NodeGroup(nodes), rs.getInt("version")));
+                }
+            }
+        }
+        return storedGroups;
+    }
+
+    private static List<String> idsOf(final List<Write> writes) {
+        return writes.stream().map(write -> write.groupId).collect(Collectors.toList());
+    }
+
+    private Object lockFor(final String groupId) {
+        return locks[(groupId.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+    }
+
+    private static class GroupState {
+        private final NodeGroup group;
+        private int version;
+        // changes made in memory since the group was loaded, so versions differ before the changes are written
+        private long revision;
+        // registrations and deletions, by host, not yet written; a deletion has no node
+        private Map<String, Node> changes = new LinkedHashMap<>();
+
+        private GroupState(final NodeGroup group, final int version) {
+            this.group = group;
+            this.version = version;
+        }
+
+        private void recordChange(final String host, final Node node) {
+            revision++;
+            changes.remove(host);
+            changes.put(host, node);
+        }
+
+        private boolean hasChanges() {
+            return !changes.isEmpty();
+        }
+
+        private Map<String, Node> takeChanges() {
+            final Map<String, Node> taken = changes;
+            changes = new LinkedHashMap<>();
+            return taken;
+        }
+    }
+
+    private static class Write {
+        private final String groupId;
+        private final GroupState state;
+        private final List<Node> nodes;
+        private final int version;
+        private final Map<String, Node> changes;
+
+        private Write(final String groupId, final GroupState state, final List<Node> nodes, final int version, final Map<String, Node> changes) {
+            this.groupId = groupId;
+            this.state = state;
+            this.nodes = nodes;
+            this.version = version;
+            this.changes = changes;
+        }
+    }
+}